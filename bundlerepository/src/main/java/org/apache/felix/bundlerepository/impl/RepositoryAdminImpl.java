@@ -18,6 +18,7 @@
  */
 package org.apache.felix.bundlerepository.impl;
 
+import java.io.File;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.security.AccessController;
@@ -52,12 +53,14 @@ public class RepositoryAdminImpl implements RepositoryAdmin
     private final LocalRepositoryImpl m_local;
     private final DataModelHelper m_helper = new DataModelHelperImpl();
     private Map m_repoMap = new LinkedHashMap();
+    private RepositoryCache m_cache;
     private boolean m_initialized = false;
 
     // Reusable comparator for sorting resources by name.
     private Comparator m_nameComparator = new ResourceComparator();
 
     public static final String REPOSITORY_URL_PROP = "obr.repository.url";
+    public static final String REPOSITORY_CACHE_PROP = "obr.repository.cache";
     public static final String EXTERN_REPOSITORY_TAG = "extern-repositories";
 
     public RepositoryAdminImpl(BundleContext context, Logger logger)
@@ -111,7 +114,7 @@ public class RepositoryAdminImpl implements RepositoryAdmin
             {
                 public Object run() throws Exception
                 {
-                    return m_helper.repository(url);
+                    return (m_cache != null) ? m_cache.repository(url) : m_helper.repository(url);
                 }
             });
             m_repoMap.put(url.toExternalForm(), repository);
@@ -264,6 +267,16 @@ public class RepositoryAdminImpl implements RepositoryAdmin
         }
         m_initialized = true;
 
+        // Keep parsed repositories in the bundle's data area if enabled.
+        if ("true".equalsIgnoreCase(m_context.getProperty(REPOSITORY_CACHE_PROP)))
+        {
+            File dir = m_context.getDataFile("repositories");
+            if (dir != null)
+            {
+                m_cache = new RepositoryCache(dir, m_helper, m_logger);
+            }
+        }
+
         // First check the repository URL config property.
         String urlStr = m_context.getProperty(REPOSITORY_URL_PROP);
         if (urlStr != null)
@@ -0,0 +1,693 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.bundlerepository.impl;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.felix.bundlerepository.Capability;
+import org.apache.felix.bundlerepository.DataModelHelper;
+import org.apache.felix.bundlerepository.Property;
+import org.apache.felix.bundlerepository.Requirement;
+import org.apache.felix.bundlerepository.Resource;
+import org.apache.felix.utils.log.Logger;
+import org.apache.felix.utils.version.VersionTable;
+import org.osgi.framework.Version;
+
+/**
+ * Keeps parsed repositories in a binary form on disk, so that a repository
+ * whose index did not change since it was last read does not need to be
+ * downloaded and parsed again. A cached repository is valid as long as the
+ * ETag, or if there is none, the last modification time of its URL stays
+ * the same; URLs providing neither are not cached. The resources of a
+ * cached repository are only read, from a memory mapped cache file, when
+ * they are first asked for.
+ */
+class RepositoryCache
+{
+    private static final int MAGIC = 0x4f425243; // "OBRC"
+    private static final int FORMAT = 1;
+
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte VERSION = 2;
+    private static final byte LONG = 3;
+    private static final byte DOUBLE = 4;
+    private static final byte INTEGER = 5;
+    private static final byte BOOLEAN = 6;
+    private static final byte LIST = 7;
+    private static final byte SET = 8;
+
+    private static final byte PROPERTY = 1;
+    private static final byte ADAPTED_PROPERTY = 2;
+
+    private static final byte EXTEND = 1;
+    private static final byte MULTIPLE = 2;
+    private static final byte OPTIONAL = 4;
+
+    private final File m_dir;
+    private final DataModelHelper m_helper;
+    private final Logger m_logger;
+
+    RepositoryCache(File dir, DataModelHelper helper, Logger logger)
+    {
+        m_dir = dir;
+        m_helper = helper;
+        m_logger = logger;
+    }
+
+    /**
+     * Returns the repository at the given URL, from the cache if it is
+     * still valid, or else parsed from the URL, in which case the cache
+     * is updated.
+     */
+    RepositoryImpl repository(URL url) throws Exception
+    {
+        String key = getValidationKey(url);
+        if (key == null)
+        {
+            return (RepositoryImpl) m_helper.repository(url);
+        }
+
+        File file = getFile(url);
+        if (file.isFile())
+        {
+            try
+            {
+                RepositoryImpl repository = readHeader(file, url, key);
+                if (repository != null)
+                {
+                    return repository;
+                }
+            }
+            catch (IOException ex)
+            {
+                discard(file, ex);
+            }
+            catch (RuntimeException ex)
+            {
+                // A truncated or corrupt file fails with buffer underflow,
+                // index out of bounds and similar exceptions.
+                discard(file, ex);
+            }
+        }
+
+        RepositoryImpl repository = (RepositoryImpl) m_helper.repository(url);
+        try
+        {
+            write(file, url, key, repository);
+        }
+        catch (IOException ex)
+        {
+            m_logger.log(Logger.LOG_WARNING, "Unable to cache repository " + url, ex);
+        }
+        return repository;
+    }
+
+    /**
+     * Returns the ETag or last modification time of the given URL, or
+     * <tt>null</tt> if it provides neither.
+     */
+    private static String getValidationKey(URL url) throws IOException
+    {
+        if ("file".equals(url.getProtocol()))
+        {
+            File file;
+            try
+            {
+                file = new File(url.toURI());
+            }
+            catch (URISyntaxException ex)
+            {
+                return null;
+            }
+            catch (IllegalArgumentException ex)
+            {
+                // Not a plain file URL, e.g., one with an authority.
+                return null;
+            }
+            return file.isFile() ? ("modified:" + file.lastModified() + ":" + file.length()) : null;
+        }
+
+        URLConnection conn = url.openConnection();
+        FileUtil.setProxyAuth(conn);
+        if (conn instanceof HttpURLConnection)
+        {
+            ((HttpURLConnection) conn).setRequestMethod("HEAD");
+        }
+        try
+        {
+            conn.connect();
+            String etag = conn.getHeaderField("ETag");
+            if (etag != null)
+            {
+                return "etag:" + etag;
+            }
+            long modified = conn.getLastModified();
+            return (modified != 0) ? ("modified:" + modified) : null;
+        }
+        finally
+        {
+            if (conn instanceof HttpURLConnection)
+            {
+                ((HttpURLConnection) conn).disconnect();
+            }
+            else
+            {
+                try
+                {
+                    conn.getInputStream().close();
+                }
+                catch (IOException ex)
+                {
+                    // Not much we can do.
+                }
+            }
+        }
+    }
+
+    private void discard(File file, Exception ex)
+    {
+        m_logger.log(Logger.LOG_DEBUG, "Discarding unreadable repository cache " + file, ex);
+        file.delete();
+    }
+
+    private File getFile(URL url)
+    {
+        String name = url.toExternalForm();
+        return new File(m_dir, Integer.toHexString(name.hashCode()) + "-" + name.length() + ".cache");
+    }
+
+    private RepositoryImpl readHeader(File file, URL url, String key) throws IOException
+    {
+        Reader reader = new Reader(map(file));
+        if (!url.toExternalForm().equals(reader.readString()) || !key.equals(reader.readString()))
+        {
+            return null;
+        }
+        RepositoryImpl repository = new CachedRepositoryImpl(file, url);
+        repository.setURI(reader.readString());
+        repository.setName(reader.readString());
+        repository.setLastModified(reader.readLong());
+        for (int i = reader.readInt(); i > 0; i--)
+        {
+            Referral referral = new Referral();
+            referral.setUrl(reader.readString());
+            referral.setDepth(Integer.toString(reader.readInt()));
+            try
+            {
+                repository.addReferral(referral);
+            }
+            catch (Exception ex)
+            {
+                throw (IOException) new IOException(ex.getMessage()).initCause(ex);
+            }
+        }
+        return repository;
+    }
+
+    private static ByteBuffer map(File file) throws IOException
+    {
+        FileInputStream fis = new FileInputStream(file);
+        try
+        {
+            FileChannel channel = fis.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < 8 || buffer.getInt() != MAGIC || buffer.getInt() != FORMAT)
+            {
+                throw new IOException("Not a repository cache file");
+            }
+            return buffer;
+        }
+        finally
+        {
+            // The mapping stays valid after the channel is closed.
+            fis.close();
+        }
+    }
+
+    private void write(File file, URL url, String key, RepositoryImpl repository) throws IOException
+    {
+        m_dir.mkdirs();
+        File tmp = new File(m_dir, file.getName() + ".tmp");
+        Writer writer = new Writer(new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(tmp))));
+        try
+        {
+            writer.out.writeInt(MAGIC);
+            writer.out.writeInt(FORMAT);
+            writer.writeString(url.toExternalForm());
+            writer.writeString(key);
+            writer.writeString(repository.getURI());
+            writer.writeString(repository.getName());
+            writer.out.writeLong(repository.getLastModified());
+            Referral[] referrals = repository.getReferrals();
+            writer.out.writeInt((referrals != null) ? referrals.length : 0);
+            for (int i = 0; (referrals != null) && (i < referrals.length); i++)
+            {
+                writer.writeString(referrals[i].getUrl());
+                writer.out.writeInt(referrals[i].getDepth());
+            }
+            Resource[] resources = repository.getResources();
+            writer.out.writeInt(resources.length);
+            for (int i = 0; i < resources.length; i++)
+            {
+                writeResource(writer, resources[i]);
+            }
+            writer.out.close();
+            writer = null;
+            if (!tmp.renameTo(file))
+            {
+                file.delete();
+                if (!tmp.renameTo(file))
+                {
+                    throw new IOException("Unable to rename " + tmp + " to " + file);
+                }
+            }
+        }
+        finally
+        {
+            if (writer != null)
+            {
+                writer.out.close();
+            }
+            tmp.delete();
+        }
+    }
+
+    private static void writeResource(Writer writer, Resource resource) throws IOException
+    {
+        if (!(resource instanceof ResourceImpl) || (resource.getClass() != ResourceImpl.class))
+        {
+            throw new IOException("Cannot cache resource " + resource);
+        }
+        Map props = resource.getProperties();
+        writer.out.writeInt(props.size());
+        for (Iterator it = props.entrySet().iterator(); it.hasNext(); )
+        {
+            Map.Entry entry = (Map.Entry) it.next();
+            writer.writeString((String) entry.getKey());
+            writer.writeValue(entry.getValue());
+        }
+
+        Capability[] caps = resource.getCapabilities();
+        writer.out.writeInt(caps.length);
+        for (int i = 0; i < caps.length; i++)
+        {
+            if (caps[i].getClass() != CapabilityImpl.class)
+            {
+                throw new IOException("Cannot cache capability " + caps[i]);
+            }
+            writer.writeString(caps[i].getName());
+            Property[] capProps = caps[i].getProperties();
+            writer.out.writeInt(capProps.length);
+            for (int j = 0; j < capProps.length; j++)
+            {
+                if (capProps[j] instanceof PropertyImpl)
+                {
+                    writer.out.writeByte(PROPERTY);
+                    writer.writeString(capProps[j].getName());
+                    writer.writeString(capProps[j].getType());
+                    writer.writeString(capProps[j].getValue());
+                }
+                else if (capProps[j] instanceof FelixPropertyAdapter)
+                {
+                    writer.out.writeByte(ADAPTED_PROPERTY);
+                    writer.writeString(capProps[j].getName());
+                    writer.writeValue(capProps[j].getConvertedValue());
+                }
+                else
+                {
+                    throw new IOException("Cannot cache property " + capProps[j]);
+                }
+            }
+            writer.writeStringMap(caps[i].getDirectives());
+        }
+
+        Requirement[] reqs = resource.getRequirements();
+        writer.out.writeInt(reqs.length);
+        for (int i = 0; i < reqs.length; i++)
+        {
+            if (reqs[i].getClass() != RequirementImpl.class)
+            {
+                throw new IOException("Cannot cache requirement " + reqs[i]);
+            }
+            writer.writeString(reqs[i].getName());
+            writer.writeString(reqs[i].getFilter());
+            writer.out.writeByte((reqs[i].isExtend() ? EXTEND : 0)
+                | (reqs[i].isMultiple() ? MULTIPLE : 0)
+                | (reqs[i].isOptional() ? OPTIONAL : 0));
+            writer.writeString(reqs[i].getComment());
+            Map<String, Object> attrs = reqs[i].getAttributes();
+            writer.out.writeInt(attrs.size());
+            for (Iterator<Map.Entry<String, Object>> it = attrs.entrySet().iterator(); it.hasNext(); )
+            {
+                Map.Entry<String, Object> entry = it.next();
+                writer.writeString(entry.getKey());
+                writer.writeValue(entry.getValue());
+            }
+            writer.writeStringMap(reqs[i].getDirectives());
+        }
+    }
+
+    private static ResourceImpl readResource(Reader reader) throws IOException
+    {
+        ResourceImpl resource = new ResourceImpl();
+        for (int i = reader.readInt(); i > 0; i--)
+        {
+            resource.putConverted(reader.readString(), reader.readValue());
+        }
+
+        for (int i = reader.readInt(); i > 0; i--)
+        {
+            CapabilityImpl cap = new CapabilityImpl(reader.readString());
+            for (int j = reader.readInt(); j > 0; j--)
+            {
+                byte kind = reader.buffer.get();
+                if (kind == PROPERTY)
+                {
+                    cap.addProperty(reader.readString(), reader.readString(), reader.readString());
+                }
+                else
+                {
+                    cap.addProperty(new FelixPropertyAdapter(reader.readString(), reader.readValue()));
+                }
+            }
+            for (int j = reader.readInt(); j > 0; j--)
+            {
+                cap.addDirective(reader.readString(), reader.readString());
+            }
+            resource.addCapability(cap);
+        }
+
+        for (int i = reader.readInt(); i > 0; i--)
+        {
+            RequirementImpl req = new RequirementImpl(reader.readString());
+            req.setFilter(reader.readString());
+            byte flags = reader.buffer.get();
+            req.setExtend((flags & EXTEND) != 0);
+            req.setMultiple((flags & MULTIPLE) != 0);
+            req.setOptional((flags & OPTIONAL) != 0);
+            req.addText(reader.readString());
+            int size = reader.readInt();
+            if (size > 0)
+            {
+                Map<String, Object> attrs = new HashMap<String, Object>();
+                for (int j = size; j > 0; j--)
+                {
+                    attrs.put(reader.readString(), reader.readValue());
+                }
+                req.setAttributes(attrs);
+            }
+            size = reader.readInt();
+            if (size > 0)
+            {
+                Map<String, String> dirs = new HashMap<String, String>();
+                for (int j = size; j > 0; j--)
+                {
+                    dirs.put(reader.readString(), reader.readString());
+                }
+                req.setDirectives(dirs);
+            }
+            resource.addRequire(req);
+        }
+        return resource;
+    }
+
+    /**
+     * A repository read from the cache, which reads its resources when
+     * they are first asked for.
+     */
+    private class CachedRepositoryImpl extends RepositoryImpl
+    {
+        private final File m_file;
+        private final URL m_url;
+        private boolean m_loaded = false;
+
+        CachedRepositoryImpl(File file, URL url)
+        {
+            m_file = file;
+            m_url = url;
+        }
+
+        public synchronized Resource[] getResources()
+        {
+            if (!m_loaded)
+            {
+                m_loaded = true;
+                Resource[] resources;
+                try
+                {
+                    resources = readResources();
+                }
+                catch (Exception ex)
+                {
+                    m_logger.log(Logger.LOG_WARNING,
+                        "Unable to read cached repository " + m_url + ", reading it again.", ex);
+                    // Don't read the same broken file on the next start.
+                    m_file.delete();
+                    try
+                    {
+                        resources = m_helper.repository(m_url).getResources();
+                    }
+                    catch (Exception ex2)
+                    {
+                        m_logger.log(Logger.LOG_ERROR, "Unable to read repository " + m_url, ex2);
+                        resources = new Resource[0];
+                    }
+                }
+                for (int i = 0; i < resources.length; i++)
+                {
+                    addResource(resources[i]);
+                }
+            }
+            return super.getResources();
+        }
+
+        private Resource[] readResources() throws IOException
+        {
+            Reader reader = new Reader(map(m_file));
+            // Skip the header, which was read when the repository was added.
+            reader.readString();
+            reader.readString();
+            reader.readString();
+            reader.readString();
+            reader.readLong();
+            for (int i = reader.readInt(); i > 0; i--)
+            {
+                reader.readString();
+                reader.readInt();
+            }
+            Resource[] resources = new Resource[reader.readInt()];
+            for (int i = 0; i < resources.length; i++)
+            {
+                resources[i] = readResource(reader);
+            }
+            return resources;
+        }
+    }
+
+    /**
+     * Writes strings through a table, so repeated strings, such as
+     * attribute names, namespaces and package names, are only written once.
+     */
+    private static class Writer
+    {
+        final DataOutputStream out;
+        private final Map<String, Integer> m_strings = new HashMap<String, Integer>();
+
+        Writer(DataOutputStream out)
+        {
+            this.out = out;
+        }
+
+        void writeString(String s) throws IOException
+        {
+            if (s == null)
+            {
+                out.writeInt(-1);
+                return;
+            }
+            Integer index = m_strings.get(s);
+            if (index != null)
+            {
+                out.writeInt(index.intValue());
+                return;
+            }
+            m_strings.put(s, Integer.valueOf(m_strings.size()));
+            byte[] bytes = s.getBytes("UTF-8");
+            out.writeInt(-2 - bytes.length);
+            out.write(bytes);
+        }
+
+        void writeStringMap(Map<String, String> map) throws IOException
+        {
+            out.writeInt(map.size());
+            for (Iterator<Map.Entry<String, String>> it = map.entrySet().iterator(); it.hasNext(); )
+            {
+                Map.Entry<String, String> entry = it.next();
+                writeString(entry.getKey());
+                writeString(entry.getValue());
+            }
+        }
+
+        void writeValue(Object value) throws IOException
+        {
+            if (value == null)
+            {
+                out.writeByte(NULL);
+            }
+            else if (value instanceof String)
+            {
+                out.writeByte(STRING);
+                writeString((String) value);
+            }
+            else if (value instanceof Version)
+            {
+                out.writeByte(VERSION);
+                writeString(value.toString());
+            }
+            else if (value instanceof Long)
+            {
+                out.writeByte(LONG);
+                out.writeLong(((Long) value).longValue());
+            }
+            else if (value instanceof Double)
+            {
+                out.writeByte(DOUBLE);
+                out.writeDouble(((Double) value).doubleValue());
+            }
+            else if (value instanceof Integer)
+            {
+                out.writeByte(INTEGER);
+                out.writeInt(((Integer) value).intValue());
+            }
+            else if (value instanceof Boolean)
+            {
+                out.writeByte(BOOLEAN);
+                out.writeBoolean(((Boolean) value).booleanValue());
+            }
+            else if ((value instanceof List) || (value instanceof Set))
+            {
+                out.writeByte((value instanceof List) ? LIST : SET);
+                Collection col = (Collection) value;
+                out.writeInt(col.size());
+                for (Iterator it = col.iterator(); it.hasNext(); )
+                {
+                    writeValue(it.next());
+                }
+            }
+            else
+            {
+                throw new IOException("Cannot cache value of type " + value.getClass().getName());
+            }
+        }
+    }
+
+    private static class Reader
+    {
+        final ByteBuffer buffer;
+        private final List<String> m_strings = new ArrayList<String>();
+
+        Reader(ByteBuffer buffer)
+        {
+            this.buffer = buffer;
+        }
+
+        int readInt()
+        {
+            return buffer.getInt();
+        }
+
+        long readLong()
+        {
+            return buffer.getLong();
+        }
+
+        String readString() throws IOException
+        {
+            int index = buffer.getInt();
+            if (index == -1)
+            {
+                return null;
+            }
+            if (index >= 0)
+            {
+                return m_strings.get(index);
+            }
+            byte[] bytes = new byte[-2 - index];
+            buffer.get(bytes);
+            String s = new String(bytes, "UTF-8");
+            m_strings.add(s);
+            return s;
+        }
+
+        Object readValue() throws IOException
+        {
+            byte type = buffer.get();
+            switch (type)
+            {
+                case NULL:
+                    return null;
+                case STRING:
+                    return readString();
+                case VERSION:
+                    return VersionTable.getVersion(readString());
+                case LONG:
+                    return Long.valueOf(buffer.getLong());
+                case DOUBLE:
+                    return Double.valueOf(buffer.getDouble());
+                case INTEGER:
+                    return Integer.valueOf(buffer.getInt());
+                case BOOLEAN:
+                    return Boolean.valueOf(buffer.get() != 0);
+                case LIST:
+                case SET:
+                    int size = buffer.getInt();
+                    Collection col = (type == LIST) ? (Collection) new ArrayList(size) : new HashSet();
+                    for (int i = 0; i < size; i++)
+                    {
+                        col.add(readValue());
+                    }
+                    return col;
+                default:
+                    throw new IOException("Unknown value type " + type);
+            }
+        }
+    }
+}
@@ -280,6 +280,16 @@ public class ResourceImpl implements Resource
         }
     }
 
+    /**
+     * Sets a property whose value has already been converted and whose
+     * URIs have already been resolved, as read from a repository cache.
+     **/
+    void putConverted(String key, Object value)
+    {
+        m_hash = 0;
+        m_map.put(key, value);
+    }
+
     private void convertURIs()
     {
         if (m_uris != null)
@@ -0,0 +1,267 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.bundlerepository.impl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.bundlerepository.Capability;
+import org.apache.felix.bundlerepository.Property;
+import org.apache.felix.bundlerepository.Requirement;
+import org.apache.felix.bundlerepository.Resource;
+import org.apache.felix.utils.log.Logger;
+import org.easymock.EasyMock;
+import org.osgi.framework.BundleContext;
+
+public class RepositoryCacheTest extends TestCase
+{
+    private File m_dir;
+
+    protected void setUp() throws Exception
+    {
+        m_dir = File.createTempFile("obr-cache", ".dir");
+        m_dir.delete();
+        m_dir.mkdirs();
+    }
+
+    protected void tearDown() throws Exception
+    {
+        deleteDir(m_dir);
+    }
+
+    public void testCachedRepositoryIsEqual() throws Exception
+    {
+        URL url = copy("/repo_for_resolvertest.xml");
+        RepositoryCache cache = createCache();
+
+        RepositoryImpl parsed = cache.repository(url);
+        assertSame(RepositoryImpl.class, parsed.getClass());
+
+        RepositoryImpl cached = cache.repository(url);
+        assertNotSame(RepositoryImpl.class, cached.getClass());
+        assertEquals(parsed.getName(), cached.getName());
+        assertEquals(parsed.getURI(), cached.getURI());
+        assertEquals(parsed.getLastModified(), cached.getLastModified());
+
+        Map<String, Resource> expected = byId(parsed.getResources());
+        Map<String, Resource> actual = byId(cached.getResources());
+        assertEquals(expected.keySet(), actual.keySet());
+        for (String id : expected.keySet())
+        {
+            assertResourceEquals(expected.get(id), actual.get(id));
+            assertSame(cached, ((ResourceImpl) actual.get(id)).getRepository());
+        }
+    }
+
+    public void testModifiedRepositoryIsParsedAgain() throws Exception
+    {
+        URL url = copy("/repo_for_resolvertest.xml");
+        RepositoryCache cache = createCache();
+
+        cache.repository(url);
+        assertNotSame(RepositoryImpl.class, cache.repository(url).getClass());
+
+        File file = new File(url.getPath());
+        file.setLastModified(file.lastModified() - 10000);
+        assertSame(RepositoryImpl.class, cache.repository(url).getClass());
+        assertNotSame(RepositoryImpl.class, cache.repository(url).getClass());
+    }
+
+    public void testReferralsAreCached() throws Exception
+    {
+        URL url = copy("/referral1_repository.xml");
+        RepositoryCache cache = createCache();
+
+        cache.repository(url);
+        Referral[] refs = cache.repository(url).getReferrals();
+        assertNotNull(refs);
+        assertEquals(1, refs.length);
+        assertEquals(1, refs[0].getDepth());
+        assertEquals("referred.xml", refs[0].getUrl());
+    }
+
+    public void testTruncatedCacheIsParsedAgain() throws Exception
+    {
+        URL url = copy("/repo_for_resolvertest.xml");
+        RepositoryCache cache = createCache();
+        Map<String, Resource> expected = byId(cache.repository(url).getResources());
+        File file = getCacheFile();
+        byte[] bytes = readFile(file);
+
+        // Cut the file in the header, where the repository is read from
+        // the cache, and in the resources, which are read lazily.
+        int[] lengths = { 10, 60, bytes.length / 2, bytes.length - 1 };
+        for (int i = 0; i < lengths.length; i++)
+        {
+            OutputStream out = new FileOutputStream(file);
+            out.write(bytes, 0, lengths[i]);
+            out.close();
+
+            RepositoryImpl repository = cache.repository(url);
+            assertEquals(expected.keySet(), byId(repository.getResources()).keySet());
+            if (repository.getClass() != RepositoryImpl.class)
+            {
+                // The resources failed to load, so the file is discarded.
+                assertFalse(file.exists());
+                assertSame(RepositoryImpl.class, cache.repository(url).getClass());
+            }
+
+            // The cache was written again and can be read.
+            RepositoryImpl cached = cache.repository(url);
+            assertNotSame(RepositoryImpl.class, cached.getClass());
+            assertEquals(expected.keySet(), byId(cached.getResources()).keySet());
+            assertTrue(file.isFile());
+        }
+    }
+
+    public void testFileUrlWithEscapedCharacters() throws Exception
+    {
+        File dir = new File(m_dir, "with space");
+        dir.mkdirs();
+        URL url = copy("/repo_for_resolvertest.xml", dir);
+        RepositoryCache cache = createCache();
+
+        assertSame(RepositoryImpl.class, cache.repository(url).getClass());
+        assertNotSame(RepositoryImpl.class, cache.repository(url).getClass());
+    }
+
+    private void assertResourceEquals(Resource expected, Resource actual)
+    {
+        assertEquals(expected.getProperties(), actual.getProperties());
+        assertEquals(expected.getURI(), actual.getURI());
+        assertEquals(Arrays.asList(expected.getCategories()), Arrays.asList(actual.getCategories()));
+
+        Capability[] expectedCaps = expected.getCapabilities();
+        Capability[] actualCaps = actual.getCapabilities();
+        assertEquals(expectedCaps.length, actualCaps.length);
+        for (int i = 0; i < expectedCaps.length; i++)
+        {
+            assertEquals(expectedCaps[i].getName(), actualCaps[i].getName());
+            assertEquals(expectedCaps[i].getPropertiesAsMap(), actualCaps[i].getPropertiesAsMap());
+            assertEquals(expectedCaps[i].getDirectives(), actualCaps[i].getDirectives());
+            Property[] expectedProps = expectedCaps[i].getProperties();
+            Property[] actualProps = actualCaps[i].getProperties();
+            for (int j = 0; j < expectedProps.length; j++)
+            {
+                assertEquals(expectedProps[j].getType(), actualProps[j].getType());
+            }
+        }
+
+        Requirement[] expectedReqs = expected.getRequirements();
+        Requirement[] actualReqs = actual.getRequirements();
+        assertEquals(expectedReqs.length, actualReqs.length);
+        for (int i = 0; i < expectedReqs.length; i++)
+        {
+            assertEquals(expectedReqs[i], actualReqs[i]);
+            assertEquals(expectedReqs[i].getComment(), actualReqs[i].getComment());
+            assertEquals(expectedReqs[i].isExtend(), actualReqs[i].isExtend());
+            assertEquals(expectedReqs[i].isMultiple(), actualReqs[i].isMultiple());
+            assertEquals(expectedReqs[i].isOptional(), actualReqs[i].isOptional());
+            assertEquals(expectedReqs[i].getAttributes(), actualReqs[i].getAttributes());
+            assertEquals(expectedReqs[i].getDirectives(), actualReqs[i].getDirectives());
+        }
+    }
+
+    private RepositoryCache createCache()
+    {
+        BundleContext bundleContext = EasyMock.createNiceMock(BundleContext.class);
+        EasyMock.replay(new Object[] { bundleContext });
+        return new RepositoryCache(new File(m_dir, "cache"), new DataModelHelperImpl(), new Logger(bundleContext));
+    }
+
+    private File getCacheFile()
+    {
+        File[] files = new File(m_dir, "cache").listFiles();
+        assertEquals(1, files.length);
+        return files[0];
+    }
+
+    private static byte[] readFile(File file) throws Exception
+    {
+        byte[] bytes = new byte[(int) file.length()];
+        InputStream in = new FileInputStream(file);
+        try
+        {
+            for (int n = 0; n < bytes.length; )
+            {
+                n += in.read(bytes, n, bytes.length - n);
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+        return bytes;
+    }
+
+    private URL copy(String name) throws Exception
+    {
+        return copy(name, m_dir);
+    }
+
+    private URL copy(String name, File dir) throws Exception
+    {
+        File file = new File(dir, name.substring(1));
+        InputStream in = getClass().getResourceAsStream(name);
+        OutputStream out = new FileOutputStream(file);
+        try
+        {
+            byte[] buf = new byte[4096];
+            for (int n = in.read(buf); n >= 0; n = in.read(buf))
+            {
+                out.write(buf, 0, n);
+            }
+        }
+        finally
+        {
+            in.close();
+            out.close();
+        }
+        return file.toURI().toURL();
+    }
+
+    private static Map<String, Resource> byId(Resource[] resources)
+    {
+        Map<String, Resource> map = new HashMap<String, Resource>();
+        for (int i = 0; i < resources.length; i++)
+        {
+            map.put(resources[i].getId(), resources[i]);
+        }
+        return map;
+    }
+
+    private static void deleteDir(File root)
+    {
+        File[] files = root.listFiles();
+        for (int i = 0; (files != null) && (i < files.length); i++)
+        {
+            deleteDir(files[i]);
+        }
+        root.delete();
+    }
+}
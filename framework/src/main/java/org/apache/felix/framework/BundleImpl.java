@@ -19,6 +19,8 @@
 package org.apache.felix.framework;
 
 import org.apache.felix.framework.cache.BundleArchive;
+import org.apache.felix.framework.cache.BundleCache;
+import org.apache.felix.framework.cache.ManifestCache;
 import org.apache.felix.framework.util.SecurityManagerEx;
 import org.apache.felix.framework.util.ShrinkableCollection;
 import org.apache.felix.framework.util.StringMap;
@@ -1261,10 +1263,29 @@ class BundleImpl implements Bundle, BundleRevisions
 
     private BundleRevisionImpl createRevision(boolean isUpdate) throws Exception
     {
+        // Use the manifest cached in the revision directory, if enabled
+        // and the revision's JAR file is unchanged.
+        String javaVersion = getFramework()._getProperty("java.specification.version");
+        ManifestCache manifestCache = null;
+        if ("true".equalsIgnoreCase(
+            getFramework()._getProperty(BundleCache.CACHE_MANIFESTCACHE_PROP))
+            && (m_archive.getCurrentRevision().getRevisionRootDir() != null)
+            && (m_archive.getCurrentRevision().getBundleFile() != null))
+        {
+            manifestCache = new ManifestCache(
+                new File(m_archive.getCurrentRevision().getRevisionRootDir(), "manifest.cache"),
+                m_archive.getCurrentRevision().getBundleFile(),
+                javaVersion);
+        }
+
         // Get and parse the manifest from the most recent revision and
         // create an associated revision object for it.
-        Map headerMap = Util.getMultiReleaseAwareManifestHeaders(
-            getFramework()._getProperty("java.specification.version"), m_archive.getCurrentRevision());
+        Map headerMap = (manifestCache != null) ? manifestCache.getHeaders() : null;
+        if (headerMap == null)
+        {
+            headerMap = Util.getMultiReleaseAwareManifestHeaders(
+                javaVersion, m_archive.getCurrentRevision());
+        }
 
         // Create the bundle revision instance.
         BundleRevisionImpl revision = new BundleRevisionImpl(
@@ -1272,7 +1293,17 @@ class BundleImpl implements Bundle, BundleRevisions
             Long.toString(getBundleId())
                 + "." + m_archive.getCurrentRevisionNumber().toString(),
             headerMap,
-            m_archive.getCurrentRevision().getContent());
+            m_archive.getCurrentRevision().getContent(),
+            manifestCache);
+
+        // Index the revision's class path in its revision directory, if enabled.
+        if ("true".equalsIgnoreCase(
+            getFramework()._getProperty(BundleCache.CACHE_CONTENTINDEX_PROP))
+            && (m_archive.getCurrentRevision().getRevisionRootDir() != null))
+        {
+            revision.setContentIndexFile(new File(
+                m_archive.getCurrentRevision().getRevisionRootDir(), "content.index"));
+        }
 
         // For R4 bundles, verify that the bundle symbolic name + version
         // is unique unless this check has been disabled.
@@ -19,6 +19,8 @@
 package org.apache.felix.framework;
 
 import org.apache.felix.framework.cache.Content;
+import org.apache.felix.framework.cache.ContentIndex;
+import org.apache.felix.framework.cache.ManifestCache;
 import org.apache.felix.framework.util.FelixConstants;
 import org.apache.felix.framework.util.MultiReleaseContent;
 import org.apache.felix.framework.util.SecureAction;
@@ -36,6 +38,7 @@ import org.osgi.resource.Capability;
 import org.osgi.resource.Requirement;
 import org.osgi.resource.Resource;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
@@ -72,6 +75,8 @@ public class BundleRevisionImpl implements BundleRevision, Resource
 
     private volatile Content m_content;
     private volatile List<Content> m_contentPath;
+    private volatile ContentIndex m_contentIndex;
+    private volatile File m_contentIndexFile;
     private volatile ProtectionDomain m_protectionDomain = null;
     private final static SecureAction m_secureAction = new SecureAction();
 
@@ -107,17 +112,50 @@ public class BundleRevisionImpl implements BundleRevision, Resource
     BundleRevisionImpl(
         BundleImpl bundle, String id, Map<String, Object> headerMap, Content content)
         throws BundleException
+    {
+        this(bundle, id, headerMap, content, null);
+    }
+
+    BundleRevisionImpl(
+        BundleImpl bundle, String id, Map<String, Object> headerMap, Content content,
+        ManifestCache manifestCache)
+        throws BundleException
     {
         m_bundle = bundle;
         m_id = id;
         m_headerMap = headerMap;
         m_content = content;
 
-        ManifestParser mp = new ManifestParser(
-            bundle.getFramework().getLogger(),
-            bundle.getFramework().getConfig(),
-            this,
-            m_headerMap);
+        // Use the cached capabilities and requirements if the headers are
+        // the cached ones, otherwise parse and cache them.
+        ManifestParser mp = null;
+        if ((manifestCache != null) && (manifestCache.getHeaders() == headerMap))
+        {
+            mp = manifestCache.createParser(
+                bundle.getFramework().getLogger(),
+                bundle.getFramework().getConfig(),
+                this);
+        }
+        if (mp == null)
+        {
+            mp = new ManifestParser(
+                bundle.getFramework().getLogger(),
+                bundle.getFramework().getConfig(),
+                this,
+                m_headerMap);
+            if (manifestCache != null)
+            {
+                try
+                {
+                    manifestCache.save(m_headerMap, mp);
+                }
+                catch (Exception ex)
+                {
+                    bundle.getFramework().getLogger().log(bundle, Logger.LOG_WARNING,
+                        "Unable to cache manifest of " + id, ex);
+                }
+            }
+        }
 
         // Record some of the parsed metadata. Note, if this is an extension
         // bundle it's exports are removed, since they will be added to the
@@ -314,6 +352,7 @@ public class BundleRevisionImpl implements BundleRevision, Resource
                     }
                 }
                 m_contentPath = null;
+                m_contentIndex = null;
             }
 
             m_wiring = wiring;
@@ -344,6 +383,29 @@ public class BundleRevisionImpl implements BundleRevision, Resource
         m_content = content;
     }
 
+    /**
+     * Enables indexing of the entries of the content path. The index is
+     * stored in the specified file and reused as long as the indexed
+     * contents do not change.
+     * @param indexFile the file in which to store the index.
+    **/
+    void setContentIndexFile(File indexFile)
+    {
+        m_contentIndexFile = indexFile;
+    }
+
+    /**
+     * Determines whether the content at the specified position of the given
+     * content path might contain the named entry. If this method returns
+     * <tt>false</tt> the content definitely does not contain the entry.
+    **/
+    boolean mightHaveEntry(List<Content> contentPath, int idx, String name)
+    {
+        ContentIndex index = m_contentIndex;
+        return (index == null) || !index.isFor(contentPath)
+            || index.mightContain(idx, name);
+    }
+
     List<Content> getContentPath()
     {
         if (m_contentPath == null)
@@ -389,9 +451,32 @@ public class BundleRevisionImpl implements BundleRevision, Resource
                     fragments.get(i), fragmentContents.get(i), contentList, false);
             }
         }
+        if (m_contentIndexFile != null)
+        {
+            m_contentIndex = initializeContentIndex(contentList);
+        }
         return contentList;
     }
 
+    private ContentIndex initializeContentIndex(List<Content> contentList)
+    {
+        ContentIndex index = ContentIndex.load(m_contentIndexFile, contentList);
+        if (index == null)
+        {
+            index = ContentIndex.create(contentList);
+            try
+            {
+                index.save(m_contentIndexFile);
+            }
+            catch (Exception ex)
+            {
+                m_bundle.getFramework().getLogger().log(
+                    m_bundle, Logger.LOG_WARNING, "Unable to save content index.", ex);
+            }
+        }
+        return index;
+    }
+
     private List calculateContentPath(
         BundleRevision revision, Content content, List<Content> contentList,
         boolean searchFragments)
@@ -504,7 +589,8 @@ public class BundleRevisionImpl implements BundleRevision, Resource
             (url == null) &&
             (i < contentPath.size()); i++)
         {
-            if (contentPath.get(i).hasEntry(name))
+            if (mightHaveEntry(contentPath, i, name)
+                && contentPath.get(i).hasEntry(name))
             {
                 url = createURL(i + 1, name);
             }
@@ -542,7 +628,8 @@ public class BundleRevisionImpl implements BundleRevision, Resource
             // Check the module class path.
             for (int i = 0; i < contentPath.size(); i++)
             {
-                if (contentPath.get(i).hasEntry(name))
+                if (mightHaveEntry(contentPath, i, name)
+                    && contentPath.get(i).hasEntry(name))
                 {
                     // Use the class path index + 1 for creating the path so
                     // that we can differentiate between module content URLs
@@ -676,6 +763,7 @@ public class BundleRevisionImpl implements BundleRevision, Resource
             m_contentPath.get(i).close();
         }
         m_contentPath = null;
+        m_contentIndex = null;
     }
 
     @Override
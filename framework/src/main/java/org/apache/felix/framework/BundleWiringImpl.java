@@ -113,6 +113,12 @@ public class BundleWiringImpl implements BundleWiring
 
     private volatile List<BundleRequirement> m_wovenReqs = null;
 
+    // Packages which failed to be dynamically imported and the index
+    // generation of the resolver at the time; they are not retried until
+    // the resolver's capabilities change.
+    private final Set<String> m_dynamicImportMisses = new HashSet<String>();
+    private long m_dynamicImportMissGeneration;
+
     private volatile BundleClassLoader m_classLoader;
 
     // Bundle-specific class loader for boot delegation.
@@ -518,6 +524,33 @@ public class BundleWiringImpl implements BundleWiring
         return m_importedPkgs.get(pkgName);
     }
 
+    boolean isDynamicImportMiss(String pkgName, long generation)
+    {
+        synchronized (m_dynamicImportMisses)
+        {
+            return (generation == m_dynamicImportMissGeneration)
+                && m_dynamicImportMisses.contains(pkgName);
+        }
+    }
+
+    void addDynamicImportMiss(String pkgName, long generation)
+    {
+        synchronized (m_dynamicImportMisses)
+        {
+            if (generation > m_dynamicImportMissGeneration)
+            {
+                // Misses recorded before the capabilities changed
+                // are no longer valid.
+                m_dynamicImportMisses.clear();
+                m_dynamicImportMissGeneration = generation;
+            }
+            if (generation == m_dynamicImportMissGeneration)
+            {
+                m_dynamicImportMisses.add(pkgName);
+            }
+        }
+    }
+
     List<BundleRevision> getFragments()
     {
         return m_fragments;
@@ -2047,8 +2080,11 @@ public class BundleWiringImpl implements BundleWiring
                         (bytes == null) &&
                         (i < contentPath.size()); i++)
                 {
-                    bytes = contentPath.get(i).getEntryAsBytes(actual);
-                    content = contentPath.get(i);
+                    if (m_wiring.m_revision.mightHaveEntry(contentPath, i, actual))
+                    {
+                        bytes = contentPath.get(i).getEntryAsBytes(actual);
+                        content = contentPath.get(i);
+                    }
                 }
 
                 if (bytes != null)
@@ -28,10 +28,20 @@ import java.util.EventListener;
 import java.util.EventObject;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.felix.framework.util.*;
 import org.osgi.framework.AllServiceListener;
@@ -39,6 +49,7 @@ import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.BundleEvent;
 import org.osgi.framework.BundleListener;
+import org.osgi.framework.Constants;
 import org.osgi.framework.Filter;
 import org.osgi.framework.FrameworkEvent;
 import org.osgi.framework.FrameworkListener;
@@ -64,6 +75,9 @@ public class EventDispatcher
         m_syncBndlListeners = Collections.EMPTY_MAP;
     private Map<BundleContext, List<ListenerInfo>>
         m_svcListeners = Collections.EMPTY_MAP;
+    // Service listeners routed by object class, lazily rebuilt from
+    // m_svcListeners whenever that has changed.
+    private ServiceListenerRoutes m_svcRoutes = null;
 
     // A single thread is used to deliver events for all dispatchers.
     private static Thread m_thread = null;
@@ -78,14 +92,75 @@ public class EventDispatcher
 
     private static final SecureAction m_secureAction = new SecureAction();
 
+    // Optionally, asynchronous events of this dispatcher are delivered by
+    // its own thread pool instead of the shared dispatch thread, either
+    // through one queue or through one queue per listener bundle context.
+    private final int m_asyncThreads;
+    private final boolean m_asyncPerBundle;
+    private ThreadPoolExecutor m_asyncExecutor = null;
+    private final ConcurrentMap<Object, SerialQueue> m_asyncQueues =
+        new ConcurrentHashMap<Object, SerialQueue>();
+    private final AtomicInteger m_asyncQueueDepth = new AtomicInteger();
+    // Statistics by bundle context and listener, like the listener tables.
+    private final ConcurrentMap<BundleContext, ConcurrentMap<EventListener, ListenerStatistics>> m_listenerStats =
+        new ConcurrentHashMap<BundleContext, ConcurrentMap<EventListener, ListenerStatistics>>();
+
     public EventDispatcher(Logger logger, ServiceRegistry registry)
+    {
+        this(logger, registry, 0, false);
+    }
+
+    /**
+     * Creates an event dispatcher.
+     * @param logger the logger.
+     * @param registry the service registry.
+     * @param asyncThreads the number of threads of this dispatcher for the
+     *        delivery of asynchronous events, or zero to use the dispatch
+     *        thread shared by all dispatchers.
+     * @param asyncPerBundle whether asynchronous events are queued per
+     *        listener bundle context, so that slow listeners only delay the
+     *        listeners of their own bundle; only used if {@code asyncThreads}
+     *        is positive.
+    **/
+    public EventDispatcher(
+        Logger logger, ServiceRegistry registry, int asyncThreads, boolean asyncPerBundle)
     {
         m_logger = logger;
         m_registry = registry;
+        m_asyncThreads = Math.max(0, asyncThreads);
+        m_asyncPerBundle = asyncPerBundle;
     }
 
     public void startDispatching()
     {
+        if (m_asyncThreads > 0)
+        {
+            synchronized (m_asyncQueues)
+            {
+                if (m_asyncExecutor == null)
+                {
+                    m_asyncExecutor = new ThreadPoolExecutor(
+                        m_asyncThreads, m_asyncThreads,
+                        60, TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<Runnable>(),
+                        new ThreadFactory()
+                        {
+                            final AtomicInteger counter = new AtomicInteger();
+                            @Override
+                            public Thread newThread(Runnable r)
+                            {
+                                Thread thread = new Thread(
+                                    r, "FelixDispatchQueue-" + counter.incrementAndGet());
+                                thread.setDaemon(true);
+                                return thread;
+                            }
+                        });
+                    m_asyncExecutor.allowCoreThreadTimeOut(true);
+                }
+            }
+            return;
+        }
+
         synchronized (m_threadLock)
         {
             // Start event dispatching thread if necessary.
@@ -125,6 +200,40 @@ public class EventDispatcher
 
     public void stopDispatching()
     {
+        if (m_asyncThreads > 0)
+        {
+            ThreadPoolExecutor executor;
+            synchronized (m_asyncQueues)
+            {
+                executor = m_asyncExecutor;
+                m_asyncExecutor = null;
+            }
+            if (executor != null)
+            {
+                // Deliver the events queued so far, like the shared dispatch
+                // thread does before it stops.
+                executor.shutdown();
+                boolean interrupted = false;
+                while (!executor.isTerminated())
+                {
+                    try
+                    {
+                        executor.awaitTermination(1, TimeUnit.SECONDS);
+                    }
+                    catch (InterruptedException ex)
+                    {
+                        interrupted = true;
+                    }
+                }
+                if (interrupted)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                m_asyncQueues.clear();
+            }
+            return;
+        }
+
         synchronized (m_threadLock)
         {
             // Return if already dead or stopping.
@@ -338,6 +447,11 @@ public class EventDispatcher
             if (idx >= 0)
             {
                 listeners = removeListenerInfo(listeners, bc, idx);
+                Map<EventListener, ListenerStatistics> stats = m_listenerStats.get(bc);
+                if (stats != null)
+                {
+                    stats.remove(l);
+                }
             }
 
             if (clazz == FrameworkListener.class)
@@ -388,6 +502,11 @@ public class EventDispatcher
             // Remove all service listeners associated with the specified bundle.
             m_svcListeners = removeListenerInfos(m_svcListeners, bc);
         }
+
+        // Drop the delivery queue and statistics of the bundle context; a
+        // queue that is still draining keeps delivering its pending events.
+        m_asyncQueues.remove(bc);
+        m_listenerStats.remove(bc);
     }
 
     public Filter updateListener(BundleContext bc, Class clazz, EventListener l, Filter filter)
@@ -533,9 +652,26 @@ public class EventDispatcher
     {
         // Take a snapshot of the listener array.
         Map<BundleContext, List<ListenerInfo>> listeners = null;
+        ServiceListenerRoutes routes = null;
         synchronized (this)
         {
             listeners = m_svcListeners;
+            if ((m_svcRoutes == null) || (m_svcRoutes.m_source != listeners))
+            {
+                m_svcRoutes = new ServiceListenerRoutes(listeners);
+            }
+            routes = m_svcRoutes;
+        }
+
+        // Without hooks that need to see all listeners, only deliver the event
+        // to the listeners that can possibly match its object class.
+        if (m_registry.getHookRegistry().getHooks(
+                org.osgi.framework.hooks.service.EventHook.class).isEmpty()
+            && m_registry.getHookRegistry().getHooks(
+                org.osgi.framework.hooks.service.EventListenerHook.class).isEmpty())
+        {
+            fireServiceEventRouted(this, routes, event, oldProps);
+            return;
         }
 
         // Use service registry hooks to filter target listeners.
@@ -764,11 +900,138 @@ public class EventDispatcher
         return whitelist;
     }
 
+    /**
+     * Returns the number of asynchronous event deliveries that are queued
+     * but not yet started. Always zero if this dispatcher uses the shared
+     * dispatch thread.
+    **/
+    public int getAsyncQueueDepth()
+    {
+        return m_asyncQueueDepth.get();
+    }
+
+    /**
+     * Returns delivery statistics of asynchronous events per listener of
+     * each bundle context. Only available if this dispatcher uses its own
+     * threads.
+    **/
+    public Map<BundleContext, Map<EventListener, ListenerStatistics>> getListenerStatistics()
+    {
+        Map<BundleContext, Map<EventListener, ListenerStatistics>> result =
+            new HashMap<BundleContext, Map<EventListener, ListenerStatistics>>();
+        for (Entry<BundleContext, ConcurrentMap<EventListener, ListenerStatistics>> entry
+            : m_listenerStats.entrySet())
+        {
+            result.put(entry.getKey(), Collections.unmodifiableMap(
+                new HashMap<EventListener, ListenerStatistics>(entry.getValue())));
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    private void fireEventOnExecutor(
+        final int type, Map<BundleContext, List<ListenerInfo>> listeners,
+        final EventObject event)
+    {
+        if (listeners.isEmpty())
+        {
+            return;
+        }
+
+        final long queued = System.nanoTime();
+        if (m_asyncPerBundle)
+        {
+            // One queue per listener bundle context preserves the order of
+            // events for each listener.
+            for (final Entry<BundleContext, List<ListenerInfo>> entry : listeners.entrySet())
+            {
+                enqueue(entry.getKey(), new Runnable()
+                {
+                    public void run()
+                    {
+                        for (ListenerInfo info : entry.getValue())
+                        {
+                            deliverMeasured(type, info, event, queued);
+                        }
+                    }
+                });
+            }
+        }
+        else
+        {
+            final Map<BundleContext, List<ListenerInfo>> snapshot = listeners;
+            enqueue(this, new Runnable()
+            {
+                public void run()
+                {
+                    for (List<ListenerInfo> infos : snapshot.values())
+                    {
+                        for (ListenerInfo info : infos)
+                        {
+                            deliverMeasured(type, info, event, queued);
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    private void enqueue(Object key, Runnable task)
+    {
+        SerialQueue queue = m_asyncQueues.get(key);
+        if (queue == null)
+        {
+            SerialQueue newQueue = new SerialQueue();
+            queue = m_asyncQueues.putIfAbsent(key, newQueue);
+            if (queue == null)
+            {
+                queue = newQueue;
+            }
+        }
+        queue.enqueue(task);
+    }
+
+    private void deliverMeasured(int type, ListenerInfo info, EventObject event, long queued)
+    {
+        long start = System.nanoTime();
+        fireEventImmediately(this, type, info, event, null);
+        long end = System.nanoTime();
+
+        ConcurrentMap<EventListener, ListenerStatistics> contextStats =
+            m_listenerStats.get(info.getBundleContext());
+        if (contextStats == null)
+        {
+            ConcurrentMap<EventListener, ListenerStatistics> newContextStats =
+                new ConcurrentHashMap<EventListener, ListenerStatistics>();
+            contextStats = m_listenerStats.putIfAbsent(info.getBundleContext(), newContextStats);
+            if (contextStats == null)
+            {
+                contextStats = newContextStats;
+            }
+        }
+        ListenerStatistics stats = contextStats.get(info.getListener());
+        if (stats == null)
+        {
+            ListenerStatistics newStats = new ListenerStatistics();
+            stats = contextStats.putIfAbsent(info.getListener(), newStats);
+            if (stats == null)
+            {
+                stats = newStats;
+            }
+        }
+        stats.record(start - queued, end - start);
+    }
+
     private static void fireEventAsynchronously(
         EventDispatcher dispatcher, int type,
         Map<BundleContext, List<ListenerInfo>> listeners,
         EventObject event)
     {
+        if (dispatcher.m_asyncThreads > 0)
+        {
+            dispatcher.fireEventOnExecutor(type, listeners, event);
+            return;
+        }
+
         //TODO: should possibly check this within thread lock, seems to be ok though without
         // If dispatch thread is stopped, then ignore dispatch request.
         if (m_stopping || m_thread == null)
@@ -818,38 +1081,94 @@ public class EventDispatcher
             {
                 for (ListenerInfo info : entry.getValue())
                 {
-                    Bundle bundle = info.getBundle();
-                    EventListener l = info.getListener();
-                    Filter filter = info.getParsedFilter();
-                    Object acc = info.getSecurityContext();
+                    fireEventImmediately(dispatcher, type, info, event, oldProps);
+                }
+            }
+        }
+    }
 
-                    try
-                    {
-                        if (type == Request.FRAMEWORK_EVENT)
-                        {
-                            invokeFrameworkListenerCallback(bundle, l, event);
-                        }
-                        else if (type == Request.BUNDLE_EVENT)
-                        {
-                            invokeBundleListenerCallback(bundle, l, event);
-                        }
-                        else if (type == Request.SERVICE_EVENT)
-                        {
-                            invokeServiceListenerCallback(
-                                bundle, l, filter, acc, event, oldProps);
-                        }
-                    }
-                    catch (Throwable th)
+    private static void fireEventImmediately(
+        EventDispatcher dispatcher, int type, ListenerInfo info,
+        EventObject event, Dictionary<?, ?> oldProps)
+    {
+        Bundle bundle = info.getBundle();
+        EventListener l = info.getListener();
+        Filter filter = info.getParsedFilter();
+        Object acc = info.getSecurityContext();
+
+        try
+        {
+            if (type == Request.FRAMEWORK_EVENT)
+            {
+                invokeFrameworkListenerCallback(bundle, l, event);
+            }
+            else if (type == Request.BUNDLE_EVENT)
+            {
+                invokeBundleListenerCallback(bundle, l, event);
+            }
+            else if (type == Request.SERVICE_EVENT)
+            {
+                invokeServiceListenerCallback(
+                    bundle, l, filter, acc, event, oldProps);
+            }
+        }
+        catch (Throwable th)
+        {
+            if ((type != Request.FRAMEWORK_EVENT)
+                || (((FrameworkEvent) event).getType() != FrameworkEvent.ERROR))
+            {
+                dispatcher.m_logger.log(bundle,
+                    Logger.LOG_ERROR,
+                    "EventDispatcher: Error during dispatch.", th);
+                dispatcher.fireFrameworkEvent(
+                    new FrameworkEvent(FrameworkEvent.ERROR, bundle, th));
+            }
+        }
+    }
+
+    private static void fireServiceEventRouted(
+        EventDispatcher dispatcher, ServiceListenerRoutes routes,
+        ServiceEvent event, Dictionary<?, ?> oldProps)
+    {
+        // Listeners that cannot be routed see every event.
+        for (ListenerInfo info : routes.m_unrouted)
+        {
+            fireEventImmediately(dispatcher, Request.SERVICE_EVENT, info, event, oldProps);
+        }
+
+        if (routes.m_routed.isEmpty())
+        {
+            return;
+        }
+
+        Object value = event.getServiceReference().getProperty(Constants.OBJECTCLASS);
+        String[] classes = (value instanceof String[]) ? (String[]) value : null;
+        if ((classes == null) || (classes.length == 0))
+        {
+            return;
+        }
+        else if (classes.length == 1)
+        {
+            List<ListenerInfo> infos = routes.m_routed.get(classes[0]);
+            for (int i = 0; (infos != null) && (i < infos.size()); i++)
+            {
+                fireEventImmediately(dispatcher, Request.SERVICE_EVENT, infos.get(i), event, oldProps);
+            }
+        }
+        else
+        {
+            // A listener routed by several of the object classes of the
+            // service must only receive the event once.
+            Set<ListenerInfo> delivered = Collections.newSetFromMap(
+                new IdentityHashMap<ListenerInfo, Boolean>());
+            for (String clazz : classes)
+            {
+                List<ListenerInfo> infos = routes.m_routed.get(clazz);
+                for (int i = 0; (infos != null) && (i < infos.size()); i++)
+                {
+                    if (delivered.add(infos.get(i)))
                     {
-                        if ((type != Request.FRAMEWORK_EVENT)
-                            || (((FrameworkEvent) event).getType() != FrameworkEvent.ERROR))
-                        {
-                            dispatcher.m_logger.log(bundle,
-                                Logger.LOG_ERROR,
-                                "EventDispatcher: Error during dispatch.", th);
-                            dispatcher.fireFrameworkEvent(
-                                new FrameworkEvent(FrameworkEvent.ERROR, bundle, th));
-                        }
+                        fireEventImmediately(dispatcher, Request.SERVICE_EVENT, infos.get(i), event, oldProps);
                     }
                 }
             }
@@ -1160,6 +1479,163 @@ public class EventDispatcher
         }
     }
 
+    /**
+     * Immutable routing table of service listeners. Listeners whose filter
+     * requires specific object classes are only looked up for events of
+     * services with one of these object classes, all other listeners are
+     * kept on a list that sees every event.
+    **/
+    private static class ServiceListenerRoutes
+    {
+        final Map<BundleContext, List<ListenerInfo>> m_source;
+        final List<ListenerInfo> m_unrouted = new ArrayList<ListenerInfo>();
+        final Map<String, List<ListenerInfo>> m_routed = new HashMap<String, List<ListenerInfo>>();
+
+        ServiceListenerRoutes(Map<BundleContext, List<ListenerInfo>> source)
+        {
+            m_source = source;
+            for (List<ListenerInfo> infos : source.values())
+            {
+                for (ListenerInfo info : infos)
+                {
+                    Set<String> classes = info.getObjectClasses();
+                    if (classes == null)
+                    {
+                        m_unrouted.add(info);
+                    }
+                    else
+                    {
+                        for (String clazz : classes)
+                        {
+                            List<ListenerInfo> routed = m_routed.get(clazz);
+                            if (routed == null)
+                            {
+                                routed = new ArrayList<ListenerInfo>();
+                                m_routed.put(clazz, routed);
+                            }
+                            routed.add(info);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Serially executes its tasks on the executor of the dispatcher, using
+     * at most one thread at a time.
+    **/
+    private class SerialQueue implements Runnable
+    {
+        private final List<Runnable> m_tasks = new LinkedList<Runnable>();
+        private boolean m_scheduled = false;
+
+        void enqueue(Runnable task)
+        {
+            ThreadPoolExecutor executor;
+            synchronized (m_asyncQueues)
+            {
+                executor = m_asyncExecutor;
+            }
+            // If dispatching is stopped, then ignore the request.
+            if (executor == null)
+            {
+                return;
+            }
+
+            boolean schedule;
+            synchronized (this)
+            {
+                m_tasks.add(task);
+                schedule = !m_scheduled;
+                m_scheduled = true;
+            }
+            m_asyncQueueDepth.incrementAndGet();
+
+            if (schedule)
+            {
+                try
+                {
+                    executor.execute(this);
+                }
+                catch (RejectedExecutionException ex)
+                {
+                    // Dispatching was stopped concurrently, drop the tasks.
+                    synchronized (this)
+                    {
+                        m_asyncQueueDepth.addAndGet(-m_tasks.size());
+                        m_tasks.clear();
+                        m_scheduled = false;
+                    }
+                }
+            }
+        }
+
+        public void run()
+        {
+            while (true)
+            {
+                Runnable task;
+                synchronized (this)
+                {
+                    if (m_tasks.isEmpty())
+                    {
+                        m_scheduled = false;
+                        return;
+                    }
+                    task = m_tasks.remove(0);
+                }
+                m_asyncQueueDepth.decrementAndGet();
+                // NOTE: The task shields us from exceptions since the
+                // invoked method catches Throwables of the callbacks.
+                task.run();
+            }
+        }
+    }
+
+    /**
+     * Delivery statistics of asynchronous events for a listener.
+    **/
+    public static class ListenerStatistics
+    {
+        private long m_count;
+        private long m_totalDelay;
+        private long m_totalTime;
+        private long m_maxTime;
+
+        synchronized void record(long delay, long time)
+        {
+            m_count++;
+            m_totalDelay += delay;
+            m_totalTime += time;
+            m_maxTime = Math.max(m_maxTime, time);
+        }
+
+        /** Returns the number of delivered events. */
+        public synchronized long getCount()
+        {
+            return m_count;
+        }
+
+        /** Returns the total time events were queued, in nanoseconds. */
+        public synchronized long getTotalDelay()
+        {
+            return m_totalDelay;
+        }
+
+        /** Returns the total time spent in the listener, in nanoseconds. */
+        public synchronized long getTotalTime()
+        {
+            return m_totalTime;
+        }
+
+        /** Returns the longest time spent in the listener, in nanoseconds. */
+        public synchronized long getMaxTime()
+        {
+            return m_maxTime;
+        }
+    }
+
     private static class Request
     {
         public static final int FRAMEWORK_EVENT = 0;
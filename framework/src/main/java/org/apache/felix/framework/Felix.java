@@ -91,8 +91,10 @@ import java.security.Permission;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Dictionary;
 import java.util.Enumeration;
+import java.util.EventListener;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -106,6 +108,14 @@ import java.util.StringTokenizer;
 import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -160,6 +170,10 @@ public class Felix extends BundleImpl implements Framework
     private volatile Map[] m_installedBundles;
     private static final int LOCATION_MAP_IDX = 0;
     private static final int IDENTIFIER_MAP_IDX = 1;
+
+    // File in the system bundle data area holding the wiring snapshot.
+    private static final String WIRING_SNAPSHOT_FILE = "wiring.snapshot";
+
     // An array of uninstalled bundles before a refresh occurs.
     // CONCURRENCY: Access guarded by the global lock for writes,
     // but no lock for reads since it is copy on write.
@@ -180,6 +194,9 @@ public class Felix extends BundleImpl implements Framework
     // Keep track of bundles currently being processed by start level thread.
     private final SortedSet<StartLevelTuple> m_startLevelBundles =
         new TreeSet<StartLevelTuple>();
+    // Activation times in nanoseconds of the bundles started concurrently
+    // by the last raise of the start level, by bundle identifier.
+    private volatile Map<Long, Long> m_activationTimes = Collections.emptyMap();
 
     // Local bundle cache.
     private BundleCache m_cache = null;
@@ -426,6 +443,21 @@ public class Felix extends BundleImpl implements Framework
         // Create default bundle stream handler.
         m_bundleStreamHandler = new URLHandlersBundleStreamHandler(this, m_secureAction);
 
+        // Read the additional service properties to index, if any.
+        List<String> indexProps = null;
+        s = (m_configMap == null)
+            ? null
+            : (String) m_configMap.get(FelixConstants.SERVICE_INDEX_PROPS);
+        if (s != null)
+        {
+            indexProps = new ArrayList<String>();
+            st = new StringTokenizer(s, " ,");
+            while (st.hasMoreTokens())
+            {
+                indexProps.add(st.nextToken());
+            }
+        }
+
         // Create service registry.
         m_registry = new ServiceRegistry(m_logger, new ServiceRegistryCallbacks() {
             @Override
@@ -433,7 +465,7 @@ public class Felix extends BundleImpl implements Framework
             {
                 fireServiceEvent(event, oldProps);
             }
-        });
+        }, indexProps, "true".equalsIgnoreCase(getProperty(FelixConstants.SERVICE_USAGE_STRIPED)));
 
         // Create a resolver and its state.
         m_resolver = new StatefulResolver(this, m_registry);
@@ -453,8 +485,23 @@ public class Felix extends BundleImpl implements Framework
             throw new RuntimeException("Exception creating system bundle revision", ex);
         }
 
-        // Create event dispatcher.
-        m_dispatcher = new EventDispatcher(m_logger, m_registry);
+        // Create event dispatcher; by default asynchronous events are
+        // delivered by a dispatch thread shared by all frameworks.
+        int dispatcherThreads = 0;
+        s = getProperty(FelixConstants.EVENT_DISPATCHER_THREADS);
+        if (s != null)
+        {
+            try
+            {
+                dispatcherThreads = Integer.parseInt(s.trim());
+            }
+            catch (NumberFormatException ex)
+            {
+                // Ignore and use the shared dispatch thread.
+            }
+        }
+        m_dispatcher = new EventDispatcher(m_logger, m_registry, dispatcherThreads,
+            "true".equalsIgnoreCase(getProperty(FelixConstants.EVENT_DISPATCHER_PERBUNDLE)));
 
         // Create framework wiring object.
         m_fwkWiring = new FrameworkWiringImpl(this, m_registry);
@@ -850,6 +897,15 @@ public class Felix extends BundleImpl implements Framework
                     m_extensionManager.startExtensionBundle(this, (BundleImpl) extension);
                 }
 
+                // Now that the system bundle capabilities are complete, load
+                // the wiring of the previous session if it should be reused.
+                if (isWiringSnapshotEnabled())
+                {
+                    m_resolver.setWiringSnapshot(WiringSnapshot.load(
+                        m_logger, getDataFile(this, WIRING_SNAPSHOT_FILE),
+                        adapt(BundleRevision.class)));
+                }
+
                 // Now that we have loaded all cached bundles and have determined the
                 // max bundle ID of cached bundles, we need to try to load the next
                 // bundle ID from persistent storage. In case of failure, we should
@@ -962,6 +1018,11 @@ public class Felix extends BundleImpl implements Framework
         }
     }
 
+    private boolean isWiringSnapshotEnabled()
+    {
+        return Boolean.parseBoolean(getProperty(FelixConstants.RESOLVER_SNAPSHOT));
+    }
+
     private boolean handleJavaVersionChange()
     {
         File dataFile = getDataFile(this, "last.java.version");
@@ -1103,6 +1164,10 @@ public class Felix extends BundleImpl implements Framework
 
                 m_fwkStartLevel.setStartLevelAndWait(startLevel);
 
+                // The wiring of the previous session is only reused for the
+                // bundles resolved while starting the framework.
+                m_resolver.setWiringSnapshot(null);
+
                 // The framework is now running.
                 setBundleStateAndNotify(this, Bundle.ACTIVE);
             }
@@ -1456,6 +1521,11 @@ public class Felix extends BundleImpl implements Framework
             int high = (isLowering) ? m_activeStartLevel : m_targetStartLevel;
             m_activeStartLevel = (isLowering) ? high : low;
 
+            // Bundles of the same start level may be started concurrently.
+            ThreadPoolExecutor executor = (!isLowering) ? createStartLevelExecutor() : null;
+            Map<Long, Long> activationTimes = (executor != null)
+                ? new ConcurrentHashMap<Long, Long>() : null;
+
             // Process bundles and stop or start them accordingly.
             while (bundlesRemaining)
             {
@@ -1483,6 +1553,13 @@ public class Felix extends BundleImpl implements Framework
                     }
                 }
 
+                if ((executor != null) && (tuple.m_level >= low) && (tuple.m_level <= high))
+                {
+                    bundlesRemaining = startBundlesConcurrently(
+                        executor, tuple.m_level, activationTimes);
+                    continue;
+                }
+
                 // Ignore the system bundle, since its start() and
                 // stop() methods get called explicitly in Felix.start()
                 // and Felix.stop(), respectively.
@@ -1579,6 +1656,13 @@ public class Felix extends BundleImpl implements Framework
                 }
             }
 
+            if (executor != null)
+            {
+                executor.shutdown();
+                m_activationTimes = Collections.unmodifiableMap(activationTimes);
+                logActivationTimes(activationTimes);
+            }
+
             m_activeStartLevel = m_targetStartLevel;
         }
 
@@ -1606,6 +1690,268 @@ public class Felix extends BundleImpl implements Framework
         }
     }
 
+    /**
+     * Returns the activation times of the bundles that were started
+     * concurrently by the last raise of the framework start level. This is
+     * only available if {@link FelixConstants#STARTLEVEL_PARALLEL_THREADS}
+     * is set.
+     * @return the activation times in nanoseconds by bundle identifier.
+    **/
+    public Map<Long, Long> getStartLevelActivationTimes()
+    {
+        return m_activationTimes;
+    }
+
+    /**
+     * Returns the number of asynchronous bundle and framework event
+     * deliveries that are queued but not yet started. This is only
+     * available if {@link FelixConstants#EVENT_DISPATCHER_THREADS} is set.
+     * @return the number of queued deliveries.
+    **/
+    public int getEventQueueDepth()
+    {
+        return m_dispatcher.getAsyncQueueDepth();
+    }
+
+    /**
+     * Returns the delivery statistics of asynchronous bundle and framework
+     * events. This is only available if
+     * {@link FelixConstants#EVENT_DISPATCHER_THREADS} is set.
+     * @return the statistics by listener of each bundle context that added
+     *         listeners.
+    **/
+    public Map<BundleContext, Map<EventListener, EventDispatcher.ListenerStatistics>> getEventListenerStatistics()
+    {
+        return m_dispatcher.getListenerStatistics();
+    }
+
+    private ThreadPoolExecutor createStartLevelExecutor()
+    {
+        int threads = 0;
+        String s = getProperty(FelixConstants.STARTLEVEL_PARALLEL_THREADS);
+        if (s != null)
+        {
+            try
+            {
+                threads = Integer.parseInt(s.trim());
+            }
+            catch (NumberFormatException ex)
+            {
+                // Ignore and start bundles sequentially.
+            }
+        }
+        if (threads <= 0)
+        {
+            return null;
+        }
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            threads, threads, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactory()
+            {
+                final AtomicInteger counter = new AtomicInteger();
+                @Override
+                public Thread newThread(Runnable r)
+                {
+                    // The name marks the thread as a start level thread, so
+                    // startBundle() does not queue the bundle again.
+                    Thread thread = new Thread(r,
+                        FrameworkStartLevelImpl.THREAD_NAME + "-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Starts all queued bundles of the specified start level concurrently
+     * and removes them from the start level queue. Errors are reported
+     * after all bundles of the level were processed, in the order in which
+     * they would have been started sequentially.
+     * @return whether there are remaining bundles in the queue.
+    **/
+    private boolean startBundlesConcurrently(
+        ThreadPoolExecutor executor, int level, final Map<Long, Long> activationTimes)
+    {
+        List<StartLevelTuple> batch = new ArrayList<StartLevelTuple>();
+        synchronized (m_startLevelBundles)
+        {
+            for (StartLevelTuple tuple : m_startLevelBundles)
+            {
+                if (tuple.m_level != level)
+                {
+                    break;
+                }
+                batch.add(tuple);
+            }
+        }
+
+        // Resolve all bundles of the level at once, rather than having the
+        // concurrent starts contend for the global lock to resolve them.
+        List<Bundle> unresolved = new ArrayList<Bundle>();
+        for (StartLevelTuple tuple : batch)
+        {
+            if ((tuple.m_bundle.getBundleId() != 0)
+                && (tuple.m_bundle.getState() == Bundle.INSTALLED)
+                && isPersistentlyStarted(tuple.m_bundle))
+            {
+                unresolved.add(tuple.m_bundle);
+            }
+        }
+        if (!unresolved.isEmpty())
+        {
+            resolveBundles(unresolved);
+        }
+
+        final String[] messages = new String[batch.size()];
+        final Throwable[] errors = new Throwable[batch.size()];
+        List<Future<?>> futures = new ArrayList<Future<?>>(batch.size());
+        for (int i = 0; i < batch.size(); i++)
+        {
+            final int idx = i;
+            final StartLevelTuple tuple = batch.get(i);
+            // Ignore the system bundle, since its start() method gets
+            // called explicitly in Felix.start().
+            if (tuple.m_bundle.getBundleId() == 0)
+            {
+                continue;
+            }
+            futures.add(executor.submit(new Runnable()
+            {
+                public void run()
+                {
+                    startLevelBundle(tuple, activationTimes, messages, errors, idx);
+                }
+            }));
+        }
+
+        boolean interrupted = false;
+        for (Future<?> future : futures)
+        {
+            while (true)
+            {
+                try
+                {
+                    future.get();
+                    break;
+                }
+                catch (InterruptedException ex)
+                {
+                    interrupted = true;
+                }
+                catch (ExecutionException ex)
+                {
+                    // Cannot happen since startLevelBundle() catches all errors.
+                    break;
+                }
+            }
+        }
+        if (interrupted)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        for (int i = 0; i < errors.length; i++)
+        {
+            if (errors[i] != null)
+            {
+                BundleImpl bundle = batch.get(i).m_bundle;
+                fireFrameworkEvent(FrameworkEvent.ERROR, bundle, errors[i]);
+                m_logger.log(bundle, Logger.LOG_ERROR,
+                    messages[i] + " " + bundle._getLocation(), errors[i]);
+            }
+        }
+
+        synchronized (m_startLevelBundles)
+        {
+            m_startLevelBundles.removeAll(batch);
+            return !m_startLevelBundles.isEmpty();
+        }
+    }
+
+    /**
+     * Starts a bundle on behalf of a start level change, if it is still
+     * persistently started. Any error is recorded at the specified index
+     * of the message and error arrays.
+    **/
+    private void startLevelBundle(StartLevelTuple tuple, Map<Long, Long> activationTimes,
+        String[] messages, Throwable[] errors, int idx)
+    {
+        try
+        {
+            acquireBundleLock(tuple.m_bundle,
+                Bundle.INSTALLED | Bundle.RESOLVED | Bundle.ACTIVE
+                | Bundle.STARTING | Bundle.STOPPING);
+        }
+        catch (IllegalStateException ex)
+        {
+            // Ignore if the bundle has been uninstalled.
+            if (tuple.m_bundle.getState() != Bundle.UNINSTALLED)
+            {
+                messages[idx] = "Error locking";
+                errors[idx] = ex;
+            }
+            return;
+        }
+
+        try
+        {
+            if (isPersistentlyStarted(tuple.m_bundle))
+            {
+                int options = Bundle.START_TRANSIENT;
+                options = (tuple.m_bundle.getPersistentState() == Bundle.STARTING)
+                    ? options | Bundle.START_ACTIVATION_POLICY
+                    : options;
+                long start = System.nanoTime();
+                startBundle(tuple.m_bundle, options);
+                activationTimes.put(tuple.m_bundle.getBundleId(), System.nanoTime() - start);
+            }
+        }
+        catch (Throwable th)
+        {
+            messages[idx] = "Error starting";
+            errors[idx] = th;
+        }
+        finally
+        {
+            // Always release bundle lock.
+            releaseBundleLock(tuple.m_bundle);
+        }
+    }
+
+    private static boolean isPersistentlyStarted(BundleImpl bundle)
+    {
+        return (bundle.getPersistentState() == Bundle.ACTIVE)
+            || (bundle.getPersistentState() == Bundle.STARTING);
+    }
+
+    private void logActivationTimes(Map<Long, Long> activationTimes)
+    {
+        if (m_logger.getLogLevel() < Logger.LOG_DEBUG)
+        {
+            return;
+        }
+        List<Map.Entry<Long, Long>> entries =
+            new ArrayList<Map.Entry<Long, Long>>(activationTimes.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<Long, Long>>()
+        {
+            public int compare(Map.Entry<Long, Long> e1, Map.Entry<Long, Long> e2)
+            {
+                return e2.getValue().compareTo(e1.getValue());
+            }
+        });
+        StringBuilder sb = new StringBuilder("Bundle activation times:");
+        for (Map.Entry<Long, Long> entry : entries)
+        {
+            sb.append("\n  ").append(entry.getKey()).append(": ")
+                .append(entry.getValue() / 1000000).append(" ms");
+        }
+        m_logger.log(Logger.LOG_DEBUG, sb.toString());
+    }
+
     /**
      * Returns the start level into which newly installed bundles will
      * be placed by default; this method implements functionality for
@@ -2190,7 +2536,7 @@ public class Felix extends BundleImpl implements Framework
             // queued but processed synchronously.
             // Note: Don't queue starts from the start level thread, otherwise
             // we'd never get anything started.
-            if (!Thread.currentThread().getName().equals(FrameworkStartLevelImpl.THREAD_NAME))
+            if (!Thread.currentThread().getName().startsWith(FrameworkStartLevelImpl.THREAD_NAME))
             {
                 synchronized (m_startLevelBundles)
                 {
@@ -2514,6 +2860,10 @@ public class Felix extends BundleImpl implements Framework
 
             final int oldState = bundle.getState();
 
+            // The updated bundle may be wired differently than in the
+            // previous session.
+            m_resolver.setWiringSnapshot(null);
+
             // First get the update-URL from our header.
             String updateLocation = (String)
                 ((BundleRevisionImpl) bundle.adapt(BundleRevision.class))
@@ -3218,6 +3568,10 @@ public class Felix extends BundleImpl implements Framework
             existing = (BundleImpl) getBundle(location);
             if (existing == null)
             {
+                // New bundles may provide better matches than the wiring
+                // of the previous session.
+                m_resolver.setWiringSnapshot(null);
+
                 // First generate an identifier for it.
                 long id = getNextId();
 
@@ -4438,6 +4792,13 @@ public class Felix extends BundleImpl implements Framework
                     populateDependentGraph((BundleImpl) target, bundles);
                 }
             }
+
+            // Refreshed bundles must be resolved against the current bundles
+            // rather than restored from the wiring of the previous session.
+            if (!bundles.isEmpty())
+            {
+                m_resolver.setWiringSnapshot(null);
+            }
         }
 
         // Now refresh each bundle.
@@ -5190,6 +5551,13 @@ public class Felix extends BundleImpl implements Framework
                 }
             }
 
+            // Store the final wiring for the next framework session.
+            if (isWiringSnapshotEnabled())
+            {
+                WiringSnapshot.save(m_logger, getDataFile(Felix.this, WIRING_SNAPSHOT_FILE),
+                    adapt(BundleRevision.class), getBundles());
+            }
+
             // Delete uninstalled bundles.
             for (int i = 0;
                 (m_uninstalledBundles != null) && (i < m_uninstalledBundles.size());
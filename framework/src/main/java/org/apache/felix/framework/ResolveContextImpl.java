@@ -21,6 +21,7 @@ package org.apache.felix.framework;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -53,6 +54,9 @@ public class ResolveContextImpl extends ResolveContext
     private final Collection<BundleRevision> m_mandatory;
     private final Collection<BundleRevision> m_optional;
     private final Collection<BundleRevision> m_ondemand;
+    // Sorted providers of the requirements asked for during this resolve.
+    private final Map<Requirement, List<Capability>> m_providers =
+        new HashMap<Requirement, List<Capability>>();
 
     ResolveContextImpl(
         StatefulResolver state, Map<Resource, Wiring> wirings,
@@ -111,15 +115,27 @@ public class ResolveContextImpl extends ResolveContext
         if (!(br instanceof BundleRequirement))
             throw new IllegalStateException("Expected a BundleRequirement");
 
-        List<BundleCapability> result = m_state.findProvidersInternal(
-            m_resolverHookrecord, br, true, true);
-
-        // Casting the result to a List of Capability.
-        // TODO Can we do this without the strange double-cast?
-        @SuppressWarnings("unchecked")
-        List<Capability> caps =
-            (List<Capability>) (List<? extends Capability>) result;
-        return caps;
+        // Each requirement is only looked up once per resolve, which also
+        // keeps its providers consistent for the duration of the resolve.
+        // The resolver owns the returned list and may modify it.
+        synchronized (m_providers)
+        {
+            List<Capability> caps = m_providers.get(br);
+            if (caps == null)
+            {
+                List<BundleCapability> result = m_state.findProvidersInternal(
+                    m_resolverHookrecord, br, true, true);
+
+                // Casting the result to a List of Capability.
+                // TODO Can we do this without the strange double-cast?
+                @SuppressWarnings("unchecked")
+                List<Capability> found =
+                    (List<Capability>) (List<? extends Capability>) result;
+                caps = found;
+                m_providers.put(br, caps);
+            }
+            return new ArrayList<Capability>(caps);
+        }
     }
 
     @Override
@@ -20,8 +20,8 @@ package org.apache.felix.framework;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.Dictionary;
+import java.util.Enumeration;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -33,6 +33,7 @@ import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.felix.framework.capabilityset.CapabilitySet;
 import org.apache.felix.framework.capabilityset.SimpleFilter;
+import org.apache.felix.framework.util.StringMap;
 import org.apache.felix.framework.wiring.BundleCapabilityImpl;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.Constants;
@@ -53,19 +54,68 @@ public class ServiceRegistry
     private final ConcurrentMap<Bundle, List<ServiceRegistration<?>>> m_regsMap = new ConcurrentHashMap<Bundle, List<ServiceRegistration<?>>>();
 
     // Capability set for all service registrations.
-    private final CapabilitySet m_regCapSet = new CapabilitySet(Collections.singletonList(Constants.OBJECTCLASS), false);
+    private final CapabilitySet m_regCapSet;
 
     // Maps bundle to an array of usage counts.
     private final ConcurrentMap<Bundle, UsageCount[]> m_inUseMap = new ConcurrentHashMap<Bundle, UsageCount[]>();
 
+    // Maps bundle to its usage counts striped by service reference; used
+    // instead of m_inUseMap if striped usage tracking is enabled.
+    private final ConcurrentMap<Bundle, ConcurrentMap<ServiceReference<?>, UsageCount[]>> m_inUseTable;
+
     private final ServiceRegistryCallbacks m_callbacks;
 
     private final HookRegistry hookRegistry = new HookRegistry();
 
     public ServiceRegistry(final Logger logger, final ServiceRegistryCallbacks callbacks)
+    {
+        this(logger, callbacks, null);
+    }
+
+    /**
+     * Create a new service registry.
+     * @param logger The logger
+     * @param callbacks The callbacks to notify about service changes
+     * @param indexProps Additional service properties to index besides
+     *        {@code objectClass}, or {@code null}.
+     */
+    public ServiceRegistry(final Logger logger, final ServiceRegistryCallbacks callbacks,
+        final List<String> indexProps)
+    {
+        this(logger, callbacks, indexProps, false);
+    }
+
+    /**
+     * Create a new service registry.
+     * @param logger The logger
+     * @param callbacks The callbacks to notify about service changes
+     * @param indexProps Additional service properties to index besides
+     *        {@code objectClass}, or {@code null}.
+     * @param stripedUsage Whether to keep the usage counts of a bundle
+     *        striped by service reference rather than in a single array.
+     */
+    public ServiceRegistry(final Logger logger, final ServiceRegistryCallbacks callbacks,
+        final List<String> indexProps, final boolean stripedUsage)
     {
         m_logger = logger;
         m_callbacks = callbacks;
+        m_inUseTable = stripedUsage
+            ? new ConcurrentHashMap<Bundle, ConcurrentMap<ServiceReference<?>, UsageCount[]>>()
+            : null;
+
+        final List<String> props = new ArrayList<String>();
+        props.add(Constants.OBJECTCLASS);
+        if (indexProps != null)
+        {
+            for (final String prop : indexProps)
+            {
+                if (!props.contains(prop))
+                {
+                    props.add(prop);
+                }
+            }
+        }
+        m_regCapSet = new CapabilitySet(props, false);
     }
 
     /**
@@ -183,7 +233,7 @@ public class ServiceRegistry
         ungetServices(ref);
 
         // Now flush all usage counts as the registration is invalid
-        for (Bundle usingBundle : m_inUseMap.keySet())
+        for (Bundle usingBundle : (m_inUseTable != null) ? m_inUseTable.keySet() : m_inUseMap.keySet())
         {
             flushUsageCount(usingBundle, ref, null);
         }
@@ -194,7 +244,7 @@ public class ServiceRegistry
         final Bundle[] clients = getUsingBundles(ref);
         for (int i = 0; (clients != null) && (i < clients.length); i++)
         {
-            final UsageCount[] usages = m_inUseMap.get(clients[i]);
+            final UsageCount[] usages = getUsageCounts(clients[i]);
             for (int x = 0; (usages != null) && (x < usages.length); x++)
             {
                 if (usages[x].m_ref.equals(ref))
@@ -276,7 +326,7 @@ public class ServiceRegistry
 
     public ServiceReference<?>[] getServicesInUse(final Bundle bundle)
     {
-        final UsageCount[] usages = m_inUseMap.get(bundle);
+        final UsageCount[] usages = getUsageCounts(bundle);
         if (usages != null)
         {
             final ServiceReference<?>[] refs = new ServiceReference[usages.length];
@@ -560,7 +610,7 @@ public class ServiceRegistry
     **/
     public void ungetServices(final Bundle bundle)
     {
-        UsageCount[] usages = m_inUseMap.get(bundle);
+        UsageCount[] usages = getUsageCounts(bundle);
         if (usages == null)
         {
             return;
@@ -584,10 +634,32 @@ public class ServiceRegistry
                 // Empty loop body.
             }
         }
+
+        if (m_inUseTable != null)
+        {
+            // The bundle can no longer obtain services, so drop its
+            // stripes if they are all gone.
+            final ConcurrentMap<ServiceReference<?>, UsageCount[]> refUsages = m_inUseTable.get(bundle);
+            if (refUsages != null)
+            {
+                synchronized (refUsages)
+                {
+                    if (refUsages.isEmpty())
+                    {
+                        m_inUseTable.remove(bundle, refUsages);
+                    }
+                }
+            }
+        }
     }
 
     public Bundle[] getUsingBundles(ServiceReference<?> ref)
     {
+        if (m_inUseTable != null)
+        {
+            return getStripedUsingBundles(ref);
+        }
+
         Bundle[] bundles = null;
         for (Iterator<Map.Entry<Bundle, UsageCount[]>> iter = m_inUseMap.entrySet().iterator(); iter.hasNext(); )
         {
@@ -616,8 +688,66 @@ public class ServiceRegistry
         return bundles;
     }
 
+    private Bundle[] getStripedUsingBundles(ServiceReference<?> ref)
+    {
+        List<Bundle> bundles = null;
+        for (Map.Entry<Bundle, ConcurrentMap<ServiceReference<?>, UsageCount[]>> entry : m_inUseTable.entrySet())
+        {
+            final UsageCount[] usages = entry.getValue().get(ref);
+            for (int useIdx = 0; (usages != null) && (useIdx < usages.length); useIdx++)
+            {
+                if (usages[useIdx].m_count.get() > 0)
+                {
+                    if (bundles == null)
+                    {
+                        bundles = new ArrayList<Bundle>();
+                    }
+                    bundles.add(entry.getKey());
+                }
+            }
+        }
+        return (bundles == null) ? null : bundles.toArray(new Bundle[bundles.size()]);
+    }
+
+    /**
+     * Returns a snapshot of all usage counts of the specified bundle.
+     * @param bundle The bundle using services.
+     * @return The usage counts or {@code null} if there are none.
+     */
+    private UsageCount[] getUsageCounts(final Bundle bundle)
+    {
+        if (m_inUseTable == null)
+        {
+            return m_inUseMap.get(bundle);
+        }
+
+        final ConcurrentMap<ServiceReference<?>, UsageCount[]> refUsages = m_inUseTable.get(bundle);
+        if (refUsages == null)
+        {
+            return null;
+        }
+        final List<UsageCount> result = new ArrayList<UsageCount>();
+        for (final UsageCount[] usages : refUsages.values())
+        {
+            for (final UsageCount usage : usages)
+            {
+                result.add(usage);
+            }
+        }
+        return result.isEmpty() ? null : result.toArray(new UsageCount[result.size()]);
+    }
+
     void servicePropertiesModified(ServiceRegistration<?> reg, Dictionary<?,?> oldProps)
     {
+        // Secondary indices may refer to mutable properties, so they have
+        // to follow the modification. Synchronize on the registration like
+        // ServiceRegistrationImpl.setProperties() does, so that concurrent
+        // modifications are reindexed against the latest properties.
+        synchronized (reg)
+        {
+            m_regCapSet.updateCapability(
+                (BundleCapabilityImpl) reg.getReference(), toMap(oldProps));
+        }
         this.hookRegistry.updateHooks(reg.getReference());
         if (m_callbacks != null)
         {
@@ -626,6 +756,21 @@ public class ServiceRegistry
         }
     }
 
+    private static Map<String, Object> toMap(final Dictionary<?,?> dict)
+    {
+        if (dict == null)
+        {
+            return null;
+        }
+        final Map<String, Object> map = new StringMap();
+        for (final Enumeration<?> keys = dict.keys(); keys.hasMoreElements();)
+        {
+            final Object key = keys.nextElement();
+            map.put(key.toString(), dict.get(key));
+        }
+        return map;
+    }
+
     public Logger getLogger()
     {
         return m_logger;
@@ -646,6 +791,11 @@ public class ServiceRegistry
      */
     UsageCount obtainUsageCount(Bundle bundle, ServiceReference<?> ref, Object svcObj, Boolean isPrototype)
     {
+        if (m_inUseTable != null)
+        {
+            return obtainStripedUsageCount(bundle, ref, svcObj, isPrototype);
+        }
+
         UsageCount usage = null;
 
         // This method uses an optimistic concurrency mechanism with a conditional put/replace
@@ -695,6 +845,84 @@ public class ServiceRegistry
         return usage;
     }
 
+    /**
+     * Striped variant of {@link #obtainUsageCount(Bundle, ServiceReference, Object, Boolean)}.
+     * Only the usage counts of the bundle for the same service reference are
+     * copied when adding a new usage count, and finding an existing one is a
+     * hash lookup rather than a scan over all usage counts of the bundle.
+     */
+    private UsageCount obtainStripedUsageCount(Bundle bundle, ServiceReference<?> ref, Object svcObj, Boolean isPrototype)
+    {
+        // Same optimistic concurrency mechanism as for the unstriped case,
+        // but confined to the stripe of the service reference.
+        while (true)
+        {
+            ConcurrentMap<ServiceReference<?>, UsageCount[]> refUsages = m_inUseTable.get(bundle);
+            if (refUsages == null)
+            {
+                if (isPrototype == null)
+                {
+                    return null;
+                }
+                final ConcurrentMap<ServiceReference<?>, UsageCount[]> newRefUsages =
+                    new ConcurrentHashMap<ServiceReference<?>, UsageCount[]>();
+                refUsages = m_inUseTable.putIfAbsent(bundle, newRefUsages);
+                if (refUsages == null)
+                {
+                    refUsages = newRefUsages;
+                }
+            }
+
+            final UsageCount[] usages = refUsages.get(ref);
+
+            // If we know it's a prototype, then we always need to create a new usage count
+            if (!Boolean.TRUE.equals(isPrototype))
+            {
+                for (int i = 0; (usages != null) && (i < usages.length); i++)
+                {
+                    if ((svcObj == null && !usages[i].m_prototype) || usages[i].getService() == svcObj)
+                    {
+                        return usages[i];
+                    }
+                }
+            }
+
+            if (isPrototype == null)
+            {
+                return null;
+            }
+
+            final UsageCount usage = new UsageCount(ref, isPrototype);
+            // Add under the lock of the stripes of the bundle, which
+            // ungetServices() holds to drop them, so that the usage count
+            // cannot be added to stripes that are no longer in the table.
+            synchronized (refUsages)
+            {
+                if (m_inUseTable.get(bundle) != refUsages)
+                {
+                    continue;
+                }
+                if (usages == null)
+                {
+                    if (refUsages.putIfAbsent(ref, new UsageCount[] { usage }) == null)
+                    {
+                        return usage;
+                    }
+                }
+                else
+                {
+                    final UsageCount[] newUsages = new UsageCount[usages.length + 1];
+                    System.arraycopy(usages, 0, newUsages, 0, usages.length);
+                    newUsages[usages.length] = usage;
+                    if (refUsages.replace(ref, usages, newUsages))
+                    {
+                        return usage;
+                    }
+                }
+            }
+        }
+    }
+
     /**
      * Utility method to flush the specified bundle's usage count for the
      * specified service reference. This should be called to completely
@@ -709,6 +937,12 @@ public class ServiceRegistry
     **/
     void flushUsageCount(Bundle bundle, ServiceReference<?> ref, UsageCount uc)
     {
+        if (m_inUseTable != null)
+        {
+            flushStripedUsageCount(bundle, ref, uc);
+            return;
+        }
+
         // This method uses an optimistic concurrency mechanism with conditional modifications
         // on the m_inUseMap. If this fails (because another thread made changes) this thread
         // retries the operation. This is the purpose of the while loop.
@@ -755,6 +989,52 @@ public class ServiceRegistry
         }
     }
 
+    private void flushStripedUsageCount(Bundle bundle, ServiceReference<?> ref, UsageCount uc)
+    {
+        final ConcurrentMap<ServiceReference<?>, UsageCount[]> refUsages = m_inUseTable.get(bundle);
+        if (refUsages == null)
+        {
+            return;
+        }
+        // A specific usage count lives in the stripe of its own reference.
+        if (uc != null)
+        {
+            ref = uc.m_ref;
+        }
+        if (ref == null)
+        {
+            return;
+        }
+
+        boolean success = false;
+        while (!success)
+        {
+            final UsageCount[] orgUsages = refUsages.get(ref);
+            if (orgUsages == null)
+            {
+                return;
+            }
+
+            final List<UsageCount> usages = new ArrayList<UsageCount>(orgUsages.length);
+            for (final UsageCount usage : orgUsages)
+            {
+                if ((uc != null) && (uc != usage))
+                {
+                    usages.add(usage);
+                }
+            }
+
+            if (usages.size() == orgUsages.length)
+            {
+                return; // no change in map
+            }
+
+            success = usages.isEmpty()
+                ? refUsages.remove(ref, orgUsages)
+                : refUsages.replace(ref, orgUsages, usages.toArray(new UsageCount[usages.size()]));
+        }
+    }
+
     public HookRegistry getHookRegistry()
     {
         return this.hookRegistry;
@@ -87,22 +87,39 @@ class StatefulResolver
     private final Set<BundleRevision> m_fragments;
     // Capability sets.
     private final Map<String, CapabilitySet> m_capSets;
+    // Cached capability set matches of requirement filters, by namespace,
+    // by the namespace attribute value required by the filter, if any, and
+    // by filter.
+    private final Map<String, Map<Object, Map<String, Set<Capability>>>> m_matches;
     // Maps singleton symbolic names to list of bundle revisions sorted by version.
     private final Map<String, List<BundleRevision>> m_singletons;
     // Selected singleton bundle revisions.
     private final Set<BundleRevision> m_selectedSingletons;
+    // Wiring of the previous framework session, if any.
+    private volatile WiringSnapshot m_snapshot;
+    // Incremented whenever capabilities are indexed or deindexed, i.e., when
+    // revisions are added, removed, resolved or refreshed, which may allow
+    // previously failed dynamic imports to succeed.
+    private volatile long m_indexGeneration;
 
     StatefulResolver(Felix felix, ServiceRegistry registry)
     {
         m_felix = felix;
         m_registry = registry;
         m_logger = m_felix.getLogger();
-        m_executor = getExecutor();
-        m_resolver = new ResolverImpl(m_logger, m_executor);
+        int parallelism = getParallelism();
+        m_executor = getExecutor(parallelism);
+        // Preparing permutations ahead of time only pays off with threads
+        // to spare.
+        m_resolver = new ResolverImpl(m_logger, m_executor,
+            "true".equalsIgnoreCase(m_felix.getProperty(FelixConstants.RESOLVER_BACKJUMPING)),
+            getCountProperty(FelixConstants.RESOLVER_MAX_PERMUTATIONS),
+            (parallelism > 1) ? getCountProperty(FelixConstants.RESOLVER_SPECULATION) : 0);
 
         m_revisions = new HashSet<BundleRevision>();
         m_fragments = new HashSet<BundleRevision>();
         m_capSets = new HashMap<String, CapabilitySet>();
+        m_matches = new HashMap<String, Map<Object, Map<String, Set<Capability>>>>();
         m_singletons = new HashMap<String, List<BundleRevision>>();
         m_selectedSingletons = new HashSet<BundleRevision>();
 
@@ -119,7 +136,24 @@ class StatefulResolver
         m_capSets.put(BundleRevision.HOST_NAMESPACE,  new CapabilitySet(indices, true));
     }
 
-    private Executor getExecutor()
+    private int getCountProperty(String name)
+    {
+        String str = m_felix.getProperty(name);
+        if (str != null)
+        {
+            try
+            {
+                return Math.max(0, Integer.parseInt(str));
+            }
+            catch (NumberFormatException e)
+            {
+                // Ignore
+            }
+        }
+        return 0;
+    }
+
+    private int getParallelism()
     {
         String str = m_felix.getProperty(FelixConstants.RESOLVER_PARALLELISM);
         int parallelism = Runtime.getRuntime().availableProcessors();
@@ -134,6 +168,11 @@ class StatefulResolver
                 // Ignore
             }
         }
+        return parallelism;
+    }
+
+    private Executor getExecutor(int parallelism)
+    {
         if (parallelism <= 1)
         {
             return new Executor()
@@ -174,6 +213,16 @@ class StatefulResolver
                 null);
     }
 
+    void setWiringSnapshot(WiringSnapshot snapshot)
+    {
+        m_snapshot = snapshot;
+    }
+
+    WiringSnapshot getWiringSnapshot()
+    {
+        return m_snapshot;
+    }
+
     synchronized void addRevision(BundleRevision br)
     {
         // Always attempt to remove the revision, since
@@ -273,7 +322,9 @@ class StatefulResolver
             }
 
             // Find the matching candidates.
-            Set<Capability> matches = capSet.match(sf, obeyMandatory);
+            Set<Capability> matches = (obeyMandatory)
+                ? matchCached(capSet, req.getNamespace(), sf)
+                : capSet.match(sf, false);
             // Filter matching candidates.
             for (Capability cap : matches)
             {
@@ -341,6 +392,87 @@ class StatefulResolver
         return result;
     }
 
+    /**
+     * Returns the capabilities of the given capability set matching the
+     * given filter and obeying mandatory attributes, reusing the result of
+     * earlier queries with the same filter until a capability of the
+     * namespace is indexed or deindexed. Empty results are not kept, since
+     * they are cheap to compute and probes for values nobody provides, e.g.,
+     * dynamic imports, would otherwise grow the cache for good. The returned
+     * set must not be modified.
+     */
+    private Set<Capability> matchCached(
+        CapabilitySet capSet, String namespace, SimpleFilter sf)
+    {
+        Map<Object, Map<String, Set<Capability>>> byValue = m_matches.get(namespace);
+        if (byValue == null)
+        {
+            byValue = new HashMap<Object, Map<String, Set<Capability>>>();
+            m_matches.put(namespace, byValue);
+        }
+        // Group the filters by the value of the namespace attribute they
+        // require, e.g., the package name of an import, so a change to a
+        // capability only discards the matches which might include it.
+        Object value = getRequiredValue(sf, namespace);
+        Map<String, Set<Capability>> byFilter = byValue.get(value);
+        String key = sf.toString();
+        Set<Capability> matches = (byFilter != null) ? byFilter.get(key) : null;
+        if (matches == null)
+        {
+            matches = capSet.match(sf, true);
+            if (!matches.isEmpty())
+            {
+                if (byFilter == null)
+                {
+                    byFilter = new HashMap<String, Set<Capability>>();
+                    byValue.put(value, byFilter);
+                }
+                byFilter.put(key, matches);
+            }
+        }
+        return matches;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object getRequiredValue(SimpleFilter sf, String attr)
+    {
+        if (sf.getOperation() == SimpleFilter.AND)
+        {
+            for (SimpleFilter sub : (List<SimpleFilter>) sf.getValue())
+            {
+                Object value = getRequiredValue(sub, attr);
+                if (value != null)
+                {
+                    return value;
+                }
+            }
+        }
+        else if ((sf.getOperation() == SimpleFilter.EQ)
+            && sf.getName().equals(attr) && (sf.getValue() instanceof String))
+        {
+            return sf.getValue();
+        }
+        return null;
+    }
+
+    private void discardMatches(BundleCapability cap)
+    {
+        Map<Object, Map<String, Set<Capability>>> byValue = m_matches.get(cap.getNamespace());
+        if (byValue != null)
+        {
+            Object value = cap.getAttributes().get(cap.getNamespace());
+            if (value instanceof String)
+            {
+                byValue.remove(value);
+                byValue.remove(null);
+            }
+            else
+            {
+                byValue.clear();
+            }
+        }
+    }
+
     private boolean filteredBySecurity(BundleRequirement req, BundleCapability cap)
     {
         if (System.getSecurityManager() != null)
@@ -427,6 +559,7 @@ class StatefulResolver
         m_isResolving = true;
 
         Map<Resource, List<Wire>> wireMap = null;
+        Map<Resource, List<Wire>> restored = null;
         try
         {
             // Make our own copy of revisions.
@@ -469,20 +602,40 @@ class StatefulResolver
                 }
             }
 
+            // If the wiring of the previous session is available, try to
+            // restore the revisions from it before resolving them; any
+            // optional revisions that cannot be restored are still resolved.
+            restored = restoreFromSnapshot(record, mandatory, optional);
+            if (restored != null)
+            {
+                markResolvedRevisions(restored);
+                mandatory = Collections.<BundleRevision>emptySet();
+                for (Iterator<BundleRevision> it = optional.iterator(); it.hasNext(); )
+                {
+                    if (it.next().getWiring() != null)
+                    {
+                        it.remove();
+                    }
+                }
+            }
+
             // Catch any resolve exception to rethrow later because
             // we may need to call end() on resolver hooks.
             ResolutionException rethrow = null;
             try
             {
                 // Resolve the revision.
-                wireMap = m_resolver.resolve(
-                    new ResolveContextImpl(
-                        this,
-                        getWirings(),
-                        record,
-                        mandatory,
-                        optional,
-                        getFragments()));
+                if ((restored == null) || !optional.isEmpty())
+                {
+                    wireMap = m_resolver.resolve(
+                        new ResolveContextImpl(
+                            this,
+                            getWirings(),
+                            record,
+                            mandatory,
+                            optional,
+                            getFragments()));
+                }
             }
             catch (ResolutionException ex)
             {
@@ -492,8 +645,10 @@ class StatefulResolver
             // Release resolver hooks, if any.
             releaseResolverHooks(record);
 
-            // If the resolve failed, rethrow the exception.
-            if (rethrow != null)
+            // If the resolve failed, rethrow the exception. Restored revisions
+            // are already resolved, and failing to resolve the remaining
+            // optional ones is not an error.
+            if ((rethrow != null) && (restored == null))
             {
                 throw rethrow;
             }
@@ -509,20 +664,76 @@ class StatefulResolver
             m_felix.releaseGlobalLock();
         }
 
+        fireResolvedEvents(restored);
         fireResolvedEvents(wireMap);
     }
 
+    private Map<Resource, List<Wire>> restoreFromSnapshot(
+        ResolverHookRecord record, Set<BundleRevision> mandatory, Set<BundleRevision> optional)
+    {
+        // Resolver hooks and security may decide differently than in the
+        // previous session, so only restore without them.
+        WiringSnapshot snapshot = m_snapshot;
+        if ((snapshot == null)
+            || (mandatory.isEmpty() && optional.isEmpty())
+            || !record.getResolverHookRefs().isEmpty()
+            || (System.getSecurityManager() != null))
+        {
+            return null;
+        }
+
+        Map<Resource, List<Wire>> wireMap =
+            snapshot.restore(m_felix, mandatory, optional, getFragments());
+        if (wireMap != null)
+        {
+            for (Resource resource : wireMap.keySet())
+            {
+                BundleRevision br = (BundleRevision) resource;
+                if (Util.isSingleton(br) && !isSelectedSingleton(br))
+                {
+                    wireMap = null;
+                    break;
+                }
+            }
+        }
+        if ((wireMap == null) || wireMap.isEmpty())
+        {
+            return null;
+        }
+
+        m_logger.log(Logger.LOG_DEBUG,
+            "Restored wiring of " + wireMap.size() + " revisions from snapshot.");
+        return wireMap;
+    }
+
     BundleRevision resolve(BundleRevision revision, String pkgName)
         throws ResolutionException, BundleException
     {
         BundleRevision provider = null;
 
+        // Packages which failed to be dynamically imported are not retried
+        // until the indexed capabilities change, since libraries probing for
+        // optional classes may otherwise trigger the same failing resolve
+        // over and over. Take the generation before resolving, so changes
+        // in the meantime invalidate a failure recorded below. Resolver
+        // hooks and permissions may hide providers regardless of the
+        // indexed capabilities, so failures are only remembered without them.
+        long generation = m_indexGeneration;
+        BundleWiringImpl wiring = (BundleWiringImpl) revision.getWiring();
+        boolean rememberMisses = (System.getSecurityManager() == null)
+            && m_felix.getHookRegistry().getHooks(ResolverHookFactory.class).isEmpty();
+        if (rememberMisses && (wiring != null)
+            && wiring.isDynamicImportMiss(pkgName, generation))
+        {
+            return null;
+        }
+
         // We cannot dynamically import if the revision is not already resolved
         // or if it is not allowed, so check that first. Note: We check if the
         // dynamic import is allowed without holding any locks, but this is
         // okay since the resolver will double check later after we have
         // acquired the global lock below.
-        if ((revision.getWiring() != null) && isAllowedDynamicImport(revision, pkgName))
+        if ((wiring != null) && isAllowedDynamicImport(revision, pkgName))
         {
             // Acquire global lock.
             boolean locked = m_felix.acquireGlobalLock();
@@ -547,10 +758,12 @@ class StatefulResolver
                 // Double check to make sure that someone hasn't beaten us to
                 // dynamically importing the package, which can happen if two
                 // threads are racing to do so. If we have an existing wire,
-                // then just return it instead.
+                // then just return it instead. Likewise, if the other thread
+                // failed to import the package, then don't try again.
                 provider = ((BundleWiringImpl) revision.getWiring())
                     .getImportedPackageSource(pkgName);
-                if (provider == null)
+                if ((provider == null) && (!rememberMisses
+                    || !wiring.isDynamicImportMiss(pkgName, m_indexGeneration)))
                 {
                     // Prepare resolver hooks, if any.
                     ResolverHookRecord record =
@@ -633,6 +846,10 @@ class StatefulResolver
                     // If the resolve failed, rethrow the exception.
                     if (rethrow != null)
                     {
+                        if (rememberMisses)
+                        {
+                            wiring.addDynamicImportMiss(pkgName, generation);
+                        }
                         throw rethrow;
                     }
 
@@ -691,6 +908,11 @@ class StatefulResolver
             fireResolvedEvents(wireMap);
         }
 
+        if (rememberMisses && (wiring != null) && (provider == null))
+        {
+            wiring.addDynamicImportMiss(pkgName, generation);
+        }
+
         return provider;
     }
 
@@ -1393,10 +1615,12 @@ class StatefulResolver
                         capSet = new CapabilitySet(null, true);
                         m_capSets.put(cap.getNamespace(), capSet);
                     }
+                    discardMatches(cap);
                     capSet.addCapability(cap);
                 }
             }
         }
+        m_indexGeneration++;
     }
 
     private synchronized void deindexCapabilities(BundleRevision br)
@@ -1412,10 +1636,12 @@ class StatefulResolver
                 CapabilitySet capSet = m_capSets.get(cap.getNamespace());
                 if (capSet != null)
                 {
+                    discardMatches(cap);
                     capSet.removeCapability(cap);
                 }
             }
         }
+        m_indexGeneration++;
     }
 
     private synchronized boolean isSelectedSingleton(BundleRevision br)
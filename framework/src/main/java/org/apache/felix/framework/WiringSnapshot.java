@@ -0,0 +1,620 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.felix.framework.util.FelixConstants;
+import org.apache.felix.framework.util.SecureAction;
+import org.apache.felix.framework.util.Util;
+import org.apache.felix.framework.wiring.BundleWireImpl;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+import org.osgi.framework.wiring.BundleCapability;
+import org.osgi.framework.wiring.BundleRequirement;
+import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.framework.wiring.BundleWire;
+import org.osgi.framework.wiring.BundleWiring;
+import org.osgi.resource.Resource;
+import org.osgi.resource.Wire;
+
+/**
+ * <p>
+ * This class holds the wiring state of the framework as it was when the
+ * framework was last stopped. Wires are stored in a compact binary form
+ * that refers to requirements and capabilities by their position in the
+ * declaring revision, and every revision is keyed by its identifier and
+ * the last modification time of its bundle archive.
+ * </p>
+ * <p>
+ * On restart the stored wires of unchanged revisions can be turned into a
+ * wire map directly, without running the resolver. Any mismatch between
+ * the stored and the installed revisions, including a change of the system
+ * bundle capabilities, makes the snapshot unusable for the affected
+ * revisions, in which case they are resolved normally. Revisions are
+ * only restored if the resolved revisions they depend on are still wired
+ * as in the snapshot, and the framework only uses the snapshot until the
+ * initial start level is reached or bundles are installed, updated or
+ * refreshed.
+ * </p>
+**/
+class WiringSnapshot
+{
+    private static final int MAGIC = 0x46575331;
+
+    private final Map<Long, Entry> m_entries;
+    private final Map<Long, List<Long>> m_fragmentsByHost;
+    private final Set<BundleRevision> m_unchanged = new HashSet<BundleRevision>();
+    private int m_restored = 0;
+
+    private WiringSnapshot(Map<Long, Entry> entries)
+    {
+        m_entries = entries;
+        m_fragmentsByHost = new HashMap<Long, List<Long>>();
+        for (Entry entry : entries.values())
+        {
+            if (entry.m_fragment)
+            {
+                for (int i = 0; i < entry.m_providers.length; i++)
+                {
+                    List<Long> fragments = m_fragmentsByHost.get(entry.m_providers[i]);
+                    if (fragments == null)
+                    {
+                        fragments = new ArrayList<Long>();
+                        m_fragmentsByHost.put(entry.m_providers[i], fragments);
+                    }
+                    fragments.add(entry.m_bundleId);
+                }
+            }
+        }
+    }
+
+    /**
+     * Loads the snapshot stored in the specified file. The snapshot is only
+     * returned if it was taken with the same system bundle capabilities.
+     *
+     * @param logger the logger for problems reading the snapshot.
+     * @param file the file containing the snapshot.
+     * @param systemRevision the current system bundle revision.
+     * @return the snapshot or <tt>null</tt> if there is no usable snapshot.
+    **/
+    static WiringSnapshot load(Logger logger, File file, BundleRevision systemRevision)
+    {
+        SecureAction secureAction = Felix.m_secureAction;
+        if (!secureAction.fileExists(file))
+        {
+            return null;
+        }
+
+        DataInputStream in = null;
+        try
+        {
+            in = new DataInputStream(new BufferedInputStream(
+                secureAction.getFileInputStream(file)));
+            if ((in.readInt() != MAGIC)
+                || (in.readInt() != fingerprint(systemRevision)))
+            {
+                logger.log(Logger.LOG_DEBUG,
+                    "Ignoring wiring snapshot taken with different system capabilities.");
+                return null;
+            }
+
+            int count = in.readInt();
+            Map<Long, Entry> entries = new HashMap<Long, Entry>(count * 2);
+            for (int i = 0; i < count; i++)
+            {
+                Entry entry = new Entry(
+                    in.readLong(), in.readUTF(), in.readLong(), in.readBoolean(), in.readInt());
+                for (int j = 0; j < entry.m_providers.length; j++)
+                {
+                    entry.m_reqRevisions[j] = in.readLong();
+                    entry.m_reqIndices[j] = in.readInt();
+                    entry.m_providers[j] = in.readLong();
+                    entry.m_capRevisions[j] = in.readLong();
+                    entry.m_capIndices[j] = in.readInt();
+                }
+                entries.put(entry.m_bundleId, entry);
+            }
+            return new WiringSnapshot(entries);
+        }
+        catch (Exception ex)
+        {
+            logger.log(Logger.LOG_WARNING, "Unable to read wiring snapshot " + file, ex);
+            return null;
+        }
+        finally
+        {
+            if (in != null)
+            {
+                try
+                {
+                    in.close();
+                }
+                catch (IOException ex)
+                {
+                    // Not much we can do.
+                }
+            }
+        }
+    }
+
+    /**
+     * Stores the current wiring of the specified bundles to the specified
+     * file. Revisions whose wiring refers to revisions other than the
+     * current revisions of installed bundles are not stored, nor are
+     * dynamically added wires.
+     *
+     * @param logger the logger for problems writing the snapshot.
+     * @param file the file to which the snapshot is written.
+     * @param systemRevision the current system bundle revision.
+     * @param bundles the installed bundles.
+    **/
+    static void save(Logger logger, File file, BundleRevision systemRevision, Bundle[] bundles)
+    {
+        List<Entry> entries = new ArrayList<Entry>(bundles.length);
+        for (Bundle bundle : bundles)
+        {
+            if (bundle.getBundleId() == 0)
+            {
+                continue;
+            }
+            Entry entry = createEntry((BundleImpl) bundle);
+            if (entry != null)
+            {
+                entries.add(entry);
+            }
+        }
+
+        SecureAction secureAction = Felix.m_secureAction;
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try
+        {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                secureAction.getFileOutputStream(tmp)));
+            try
+            {
+                out.writeInt(MAGIC);
+                out.writeInt(fingerprint(systemRevision));
+                out.writeInt(entries.size());
+                for (Entry entry : entries)
+                {
+                    out.writeLong(entry.m_bundleId);
+                    out.writeUTF(entry.m_revisionId);
+                    out.writeLong(entry.m_lastModified);
+                    out.writeBoolean(entry.m_fragment);
+                    out.writeInt(entry.m_providers.length);
+                    for (int j = 0; j < entry.m_providers.length; j++)
+                    {
+                        out.writeLong(entry.m_reqRevisions[j]);
+                        out.writeInt(entry.m_reqIndices[j]);
+                        out.writeLong(entry.m_providers[j]);
+                        out.writeLong(entry.m_capRevisions[j]);
+                        out.writeInt(entry.m_capIndices[j]);
+                    }
+                }
+            }
+            finally
+            {
+                out.close();
+            }
+            secureAction.deleteFile(file);
+            if (!secureAction.renameFile(tmp, file))
+            {
+                throw new IOException("Unable to rename " + tmp + " to " + file);
+            }
+        }
+        catch (Exception ex)
+        {
+            secureAction.deleteFile(tmp);
+            logger.log(Logger.LOG_WARNING, "Unable to write wiring snapshot " + file, ex);
+        }
+    }
+
+    /**
+     * Creates a wire map for the specified revisions and all unresolved
+     * revisions they depend on from the snapshot. Optional revisions that
+     * cannot be restored are left out of the wire map.
+     *
+     * @param felix the framework to look up current revisions.
+     * @param mandatory the revisions that must be restored.
+     * @param optional the revisions that should be restored.
+     * @param fragments the fragments known to the resolver.
+     * @return the wire map or <tt>null</tt> if a mandatory revision cannot be
+     *         restored or the fragments have changed.
+    **/
+    synchronized Map<Resource, List<Wire>> restore(
+        Felix felix, Set<BundleRevision> mandatory, Set<BundleRevision> optional,
+        Set<BundleRevision> fragments)
+    {
+        // An unknown unresolved fragment could attach to a restored host,
+        // which the snapshot cannot reflect.
+        for (BundleRevision fragment : fragments)
+        {
+            if ((fragment.getWiring() == null)
+                && (lookup(felix, fragment.getBundle().getBundleId()) != fragment))
+            {
+                return null;
+            }
+        }
+
+        Map<Resource, List<Wire>> wireMap = new HashMap<Resource, List<Wire>>();
+        for (BundleRevision revision : mandatory)
+        {
+            if (!restore(felix, revision, wireMap))
+            {
+                return null;
+            }
+        }
+        for (BundleRevision revision : optional)
+        {
+            restore(felix, revision, wireMap);
+        }
+        m_restored += wireMap.size();
+        return wireMap;
+    }
+
+    /**
+     * Returns the number of revisions restored from this snapshot so far.
+     *
+     * @return the number of restored revisions.
+    **/
+    synchronized int getRestoredCount()
+    {
+        return m_restored;
+    }
+
+    private boolean restore(
+        Felix felix, BundleRevision root, Map<Resource, List<Wire>> wireMap)
+    {
+        if ((root.getWiring() != null) || wireMap.containsKey(root))
+        {
+            return true;
+        }
+
+        // Restore the dependencies of the root into a separate map, so that
+        // a failure does not leave a partial closure behind.
+        Map<Resource, List<Wire>> closure = new HashMap<Resource, List<Wire>>();
+        List<BundleRevision> todo = new ArrayList<BundleRevision>();
+        todo.add(root);
+        while (!todo.isEmpty())
+        {
+            BundleRevision revision = todo.remove(todo.size() - 1);
+            if (wireMap.containsKey(revision) || closure.containsKey(revision))
+            {
+                continue;
+            }
+
+            long bundleId = revision.getBundle().getBundleId();
+            Entry entry = m_entries.get(bundleId);
+            if ((lookup(felix, bundleId) != revision)
+                || ((BundleImpl) revision.getBundle()).isExtension())
+            {
+                return false;
+            }
+
+            boolean fragment = Util.isFragment(revision);
+            List<Wire> wires = new ArrayList<Wire>(entry.m_providers.length);
+            for (int i = 0; i < entry.m_providers.length; i++)
+            {
+                BundleRevision reqRevision = lookup(felix, entry.m_reqRevisions[i]);
+                BundleRevision provider = lookup(felix, entry.m_providers[i]);
+                BundleRevision capRevision = lookup(felix, entry.m_capRevisions[i]);
+                if ((reqRevision == null) || (provider == null) || (capRevision == null))
+                {
+                    return false;
+                }
+                List<BundleRequirement> reqs = reqRevision.getDeclaredRequirements(null);
+                List<BundleCapability> caps = capRevision.getDeclaredCapabilities(null);
+                if ((entry.m_reqIndices[i] >= reqs.size())
+                    || (entry.m_capIndices[i] >= caps.size()))
+                {
+                    return false;
+                }
+                // Fragments cannot attach to hosts that are already resolved.
+                if (fragment && (provider.getWiring() != null))
+                {
+                    return false;
+                }
+
+                wires.add(new BundleWireImpl(
+                    revision,
+                    reqs.get(entry.m_reqIndices[i]),
+                    provider,
+                    caps.get(entry.m_capIndices[i])));
+
+                if (!addIfUnresolved(felix, todo, reqRevision)
+                    || !addIfUnresolved(felix, todo, provider)
+                    || !addIfUnresolved(felix, todo, capRevision))
+                {
+                    return false;
+                }
+            }
+
+            // Hosts must be resolved together with their fragments.
+            List<Long> attached = m_fragmentsByHost.get(bundleId);
+            for (int i = 0; !fragment && (attached != null) && (i < attached.size()); i++)
+            {
+                BundleRevision attachedFragment = lookup(felix, attached.get(i));
+                if ((attachedFragment == null) || (attachedFragment.getWiring() != null))
+                {
+                    return false;
+                }
+                todo.add(attachedFragment);
+            }
+
+            closure.put(revision, wires);
+        }
+
+        wireMap.putAll(closure);
+        return true;
+    }
+
+    /**
+     * Adds the specified revision to the revisions to restore if it is
+     * unresolved. Restored revisions may only be wired to resolved revisions
+     * that still have the wiring of the snapshot, since the uses constraints
+     * of the restored wires are only known to be consistent with it.
+     *
+     * @return <tt>false</tt> if the revision is resolved differently.
+    **/
+    private boolean addIfUnresolved(
+        Felix felix, List<BundleRevision> todo, BundleRevision revision)
+    {
+        if (revision.getWiring() == null)
+        {
+            todo.add(revision);
+            return true;
+        }
+        return hasSnapshotWiring(felix, revision);
+    }
+
+    /**
+     * Checks whether the specified resolved revision and all resolved
+     * revisions it depends on are wired as in the snapshot. The wiring of a
+     * resolved revision only changes when it is refreshed, so revisions
+     * found to be unchanged are remembered.
+    **/
+    private boolean hasSnapshotWiring(Felix felix, BundleRevision root)
+    {
+        Set<BundleRevision> visited = new HashSet<BundleRevision>();
+        List<BundleRevision> todo = new ArrayList<BundleRevision>();
+        todo.add(root);
+        while (!todo.isEmpty())
+        {
+            BundleRevision revision = todo.remove(todo.size() - 1);
+            long bundleId = revision.getBundle().getBundleId();
+            if ((bundleId == 0) || m_unchanged.contains(revision) || !visited.add(revision))
+            {
+                continue;
+            }
+
+            Entry entry = m_entries.get(bundleId);
+            Entry current = (lookup(felix, bundleId) == revision)
+                ? createEntry((BundleImpl) revision.getBundle()) : null;
+            if ((current == null) || !entry.hasSameWires(current))
+            {
+                return false;
+            }
+            for (int i = 0; i < current.m_providers.length; i++)
+            {
+                BundleRevision provider = lookup(felix, current.m_providers[i]);
+                if (provider == null)
+                {
+                    return false;
+                }
+                todo.add(provider);
+            }
+        }
+        m_unchanged.addAll(visited);
+        return true;
+    }
+
+    /**
+     * Returns the current revision of the specified bundle, if it is the
+     * revision for which the snapshot holds an entry.
+    **/
+    private BundleRevision lookup(Felix felix, long bundleId)
+    {
+        Bundle bundle = felix.getBundle(bundleId);
+        if ((bundle == null) || (bundle.getState() == Bundle.UNINSTALLED))
+        {
+            return null;
+        }
+        BundleRevision revision = bundle.adapt(BundleRevision.class);
+        if (bundleId == 0)
+        {
+            // The system bundle is covered by the fingerprint.
+            return revision;
+        }
+        Entry entry = m_entries.get(bundleId);
+        if ((entry == null) || !entry.matches((BundleImpl) bundle, revision))
+        {
+            return null;
+        }
+        return revision;
+    }
+
+    private static Entry createEntry(BundleImpl bundle)
+    {
+        BundleRevision revision = bundle.adapt(BundleRevision.class);
+        BundleWiring wiring = (revision != null) ? revision.getWiring() : null;
+        List<BundleWire> wires = (wiring != null) ? wiring.getRequiredWires(null) : null;
+        if (wires == null)
+        {
+            return null;
+        }
+
+        List<BundleWire> staticWires = new ArrayList<BundleWire>(wires.size());
+        for (BundleWire wire : wires)
+        {
+            if (!FelixConstants.RESOLUTION_DYNAMIC.equals(
+                wire.getRequirement().getDirectives().get(Constants.RESOLUTION_DIRECTIVE)))
+            {
+                staticWires.add(wire);
+            }
+        }
+
+        try
+        {
+            Entry entry = new Entry(
+                bundle.getBundleId(),
+                ((BundleRevisionImpl) revision).getId(),
+                bundle.getArchive().getLastModified(),
+                Util.isFragment(revision),
+                staticWires.size());
+            for (int i = 0; i < staticWires.size(); i++)
+            {
+                BundleWire wire = staticWires.get(i);
+                BundleRevision reqRevision = wire.getRequirement().getRevision();
+                BundleRevision capRevision = wire.getCapability().getRevision();
+                entry.m_reqRevisions[i] = getCurrentBundleId(reqRevision);
+                entry.m_reqIndices[i] = indexOf(
+                    reqRevision.getDeclaredRequirements(null), wire.getRequirement());
+                entry.m_providers[i] = getCurrentBundleId(wire.getProvider());
+                entry.m_capRevisions[i] = getCurrentBundleId(capRevision);
+                entry.m_capIndices[i] = indexOf(
+                    capRevision.getDeclaredCapabilities(null), wire.getCapability());
+                if ((entry.m_reqRevisions[i] < 0) || (entry.m_reqIndices[i] < 0)
+                    || (entry.m_providers[i] < 0)
+                    || (entry.m_capRevisions[i] < 0) || (entry.m_capIndices[i] < 0))
+                {
+                    return null;
+                }
+            }
+            return entry;
+        }
+        catch (Exception ex)
+        {
+            return null;
+        }
+    }
+
+    private static long getCurrentBundleId(BundleRevision revision)
+    {
+        Bundle bundle = revision.getBundle();
+        if ((bundle.getState() == Bundle.UNINSTALLED)
+            || (bundle.adapt(BundleRevision.class) != revision))
+        {
+            return -1;
+        }
+        return bundle.getBundleId();
+    }
+
+    private static int indexOf(List<?> list, Object o)
+    {
+        for (int i = 0; i < list.size(); i++)
+        {
+            if (list.get(i) == o)
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int fingerprint(BundleRevision systemRevision)
+    {
+        int hash = 1;
+        for (BundleCapability cap : systemRevision.getDeclaredCapabilities(null))
+        {
+            hash = 31 * hash + cap.getNamespace().hashCode();
+            hash = 31 * hash + hash(cap.getAttributes());
+            hash = 31 * hash + hash(cap.getDirectives());
+        }
+        return hash;
+    }
+
+    private static int hash(Map<String, ?> map)
+    {
+        // Array values do not have a value based hash code and the framework
+        // UUID changes with every launch.
+        int hash = 0;
+        for (Map.Entry<String, ?> entry : map.entrySet())
+        {
+            if (!entry.getKey().equals(Constants.FRAMEWORK_UUID))
+            {
+                hash += entry.getKey().hashCode()
+                    ^ Arrays.deepHashCode(new Object[] { entry.getValue() });
+            }
+        }
+        return hash;
+    }
+
+    private static class Entry
+    {
+        private final long m_bundleId;
+        private final String m_revisionId;
+        private final long m_lastModified;
+        private final boolean m_fragment;
+        private final long[] m_reqRevisions;
+        private final int[] m_reqIndices;
+        private final long[] m_providers;
+        private final long[] m_capRevisions;
+        private final int[] m_capIndices;
+
+        Entry(long bundleId, String revisionId, long lastModified, boolean fragment, int size)
+        {
+            m_bundleId = bundleId;
+            m_revisionId = revisionId;
+            m_lastModified = lastModified;
+            m_fragment = fragment;
+            m_reqRevisions = new long[size];
+            m_reqIndices = new int[size];
+            m_providers = new long[size];
+            m_capRevisions = new long[size];
+            m_capIndices = new int[size];
+        }
+
+        boolean hasSameWires(Entry entry)
+        {
+            return (m_fragment == entry.m_fragment)
+                && Arrays.equals(m_reqRevisions, entry.m_reqRevisions)
+                && Arrays.equals(m_reqIndices, entry.m_reqIndices)
+                && Arrays.equals(m_providers, entry.m_providers)
+                && Arrays.equals(m_capRevisions, entry.m_capRevisions)
+                && Arrays.equals(m_capIndices, entry.m_capIndices);
+        }
+
+        boolean matches(BundleImpl bundle, BundleRevision revision)
+        {
+            try
+            {
+                return (revision instanceof BundleRevisionImpl)
+                    && m_revisionId.equals(((BundleRevisionImpl) revision).getId())
+                    && (m_lastModified == bundle.getArchive().getLastModified());
+            }
+            catch (Exception ex)
+            {
+                return false;
+            }
+        }
+    }
+}
@@ -126,6 +126,18 @@ public abstract class BundleArchiveRevision
     **/
     public abstract Map<String, Object> getManifestHeader() throws Exception;
 
+    /**
+     * <p>
+     * Returns the JAR file of this revision, if it has one.
+     * </p>
+     * @return the JAR file of this revision or <tt>null</tt> if the revision
+     *         is not backed by a JAR file.
+    **/
+    public File getBundleFile()
+    {
+        return null;
+    }
+
     public abstract Content getContent() throws Exception;
 
     /**
@@ -75,6 +75,24 @@ import java.util.Map;
  *       string provides control over the size of the internal buffer of the
  *       disk cache for performance reasons.
  *   </li>
+ *   <li><tt>felix.cache.contentindex</tt> - Enables an index of the entries
+ *       on each bundle revision's class path, which avoids probing JAR files
+ *       for classes and resources they do not contain. The index is stored
+ *       with the revision and reused on restart. The default value is
+ *       <tt>false</tt>.
+ *   </li>
+ *   <li><tt>felix.cache.mapped</tt> - Enables memory mapping of bundle JAR
+ *       files, which serves class and resource loading without keeping the
+ *       JAR files open, so <tt>felix.cache.filelimit</tt> does not cause them
+ *       to be reopened. Mapped files may not be deletable on some platforms
+ *       until they are garbage collected. The default value is <tt>false</tt>.
+ *   </li>
+ *   <li><tt>felix.cache.manifestcache</tt> - Enables caching the manifest
+ *       headers of bundle JAR files and the capabilities and requirements
+ *       parsed from them in the revision directory, which avoids reading and
+ *       parsing the manifest on restart while the JAR file is unchanged. The
+ *       default value is <tt>false</tt>.
+ *   </li>
  * <p>
  * For specific information on how to configure the Felix framework, refer
  * to the Felix framework usage documentation.
@@ -87,6 +105,9 @@ public class BundleCache
     public static final String CACHE_ROOTDIR_PROP = "felix.cache.rootdir";
     public static final String CACHE_LOCKING_PROP = "felix.cache.locking";
     public static final String CACHE_FILELIMIT_PROP = "felix.cache.filelimit";
+    public static final String CACHE_CONTENTINDEX_PROP = "felix.cache.contentindex";
+    public static final String CACHE_MAPPED_PROP = "felix.cache.mapped";
+    public static final String CACHE_MANIFESTCACHE_PROP = "felix.cache.manifestcache";
     private static final ThreadLocal m_defaultBuffer = new ThreadLocal();
     private static volatile int DEFAULT_BUFFER = 1024 * 64;
 
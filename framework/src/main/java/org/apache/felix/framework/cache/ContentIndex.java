@@ -0,0 +1,346 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.List;
+
+import org.apache.felix.framework.util.MultiReleaseContent;
+
+/**
+ * <p>
+ * This class implements a compact index of the entry names of the contents
+ * on a bundle revision's class path. For each indexed content it keeps an
+ * open addressing table of entry name hash codes, which allows to answer
+ * in constant time that a content does not contain an entry without
+ * touching the underlying JAR file. A positive answer may be a false
+ * positive and must be confirmed by the content itself.
+ * </p>
+ * <p>
+ * Only contents backed by JAR files are indexed, since directories may
+ * change while the framework is running. The index can be stored in the
+ * revision's root directory and is reloaded on restart as long as the
+ * indexed JAR files are unchanged.
+ * </p>
+**/
+public class ContentIndex
+{
+    private static final int MAGIC = 0x46434932;
+
+    private final List<Content> m_contentPath;
+    private final String[] m_paths;
+    private final long[] m_lengths;
+    private final long[] m_lastModifieds;
+    private final int[] m_releases;
+    private final int[][] m_tables;
+
+    private ContentIndex(List<Content> contentPath)
+    {
+        int size = contentPath.size();
+        m_contentPath = contentPath;
+        m_paths = new String[size];
+        m_lengths = new long[size];
+        m_lastModifieds = new long[size];
+        m_releases = new int[size];
+        m_tables = new int[size][];
+    }
+
+    /**
+     * <p>
+     * Creates an index for the specified content path by enumerating the
+     * entries of its JAR file contents.
+     * </p>
+     * @param contentPath the content path to index.
+     * @return the index of the content path.
+    **/
+    public static ContentIndex create(List<Content> contentPath)
+    {
+        ContentIndex index = new ContentIndex(contentPath);
+        for (int i = 0; i < contentPath.size(); i++)
+        {
+            File file = getIndexableFile(contentPath.get(i));
+            if ((file != null) && index.setFile(i, contentPath.get(i), file))
+            {
+                index.m_tables[i] = createTable(contentPath.get(i).getEntries());
+            }
+        }
+        return index;
+    }
+
+    /**
+     * <p>
+     * Loads a previously saved index for the specified content path. The
+     * saved index is only used if it was created for the same JAR files,
+     * none of them has been modified since and multi-release JAR files
+     * resolve their versioned entries for the same Java version.
+     * </p>
+     * @param file the file containing the saved index.
+     * @param contentPath the content path to which the index applies.
+     * @return the loaded index or <tt>null</tt> if there is no valid index.
+    **/
+    public static ContentIndex load(File file, List<Content> contentPath)
+    {
+        if (!BundleCache.getSecureAction().fileExists(file))
+        {
+            return null;
+        }
+
+        DataInputStream in = null;
+        try
+        {
+            in = new DataInputStream(new BufferedInputStream(
+                BundleCache.getSecureAction().getFileInputStream(file)));
+            if ((in.readInt() != MAGIC) || (in.readInt() != contentPath.size()))
+            {
+                return null;
+            }
+
+            ContentIndex index = new ContentIndex(contentPath);
+            for (int i = 0; i < contentPath.size(); i++)
+            {
+                File contentFile = getIndexableFile(contentPath.get(i));
+                boolean indexed = in.readBoolean();
+                if (indexed != (contentFile != null))
+                {
+                    return null;
+                }
+                if (indexed)
+                {
+                    if (!index.setFile(i, contentPath.get(i), contentFile)
+                        || !index.m_paths[i].equals(in.readUTF())
+                        || (index.m_lengths[i] != in.readLong())
+                        || (index.m_lastModifieds[i] != in.readLong())
+                        || (index.m_releases[i] != in.readInt()))
+                    {
+                        return null;
+                    }
+                    int[] table = new int[in.readInt()];
+                    for (int j = 0; j < table.length; j++)
+                    {
+                        table[j] = in.readInt();
+                    }
+                    index.m_tables[i] = table;
+                }
+            }
+            return index;
+        }
+        catch (IOException ex)
+        {
+            // Treat a truncated or corrupt index as missing.
+            return null;
+        }
+        finally
+        {
+            if (in != null)
+            {
+                try
+                {
+                    in.close();
+                }
+                catch (IOException ex)
+                {
+                    // Not much we can do.
+                }
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Saves the index to the specified file. The index is written to a
+     * temporary file first, so that a crash never leaves a partially
+     * written index behind.
+     * </p>
+     * @param file the file to which the index is saved.
+     * @throws IOException if any error occurs.
+    **/
+    public void save(File file) throws IOException
+    {
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+            BundleCache.getSecureAction().getFileOutputStream(tmp)));
+        try
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(m_tables.length);
+            for (int i = 0; i < m_tables.length; i++)
+            {
+                out.writeBoolean(m_tables[i] != null);
+                if (m_tables[i] != null)
+                {
+                    out.writeUTF(m_paths[i]);
+                    out.writeLong(m_lengths[i]);
+                    out.writeLong(m_lastModifieds[i]);
+                    out.writeInt(m_releases[i]);
+                    out.writeInt(m_tables[i].length);
+                    for (int hash : m_tables[i])
+                    {
+                        out.writeInt(hash);
+                    }
+                }
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+        BundleCache.getSecureAction().deleteFile(file);
+        if (!BundleCache.getSecureAction().renameFile(tmp, file))
+        {
+            BundleCache.getSecureAction().deleteFile(tmp);
+            throw new IOException("Unable to rename " + tmp + " to " + file);
+        }
+    }
+
+    /**
+     * <p>
+     * Returns whether this index was created for the specified content path
+     * instance.
+     * </p>
+     * @param contentPath the content path to check.
+     * @return <tt>true</tt> if the index applies to the content path.
+    **/
+    public boolean isFor(List<Content> contentPath)
+    {
+        return m_contentPath == contentPath;
+    }
+
+    /**
+     * <p>
+     * Determines whether the content at the specified position of the
+     * content path might contain the named entry. Leading slashes are not
+     * stripped and names starting with one are never excluded.
+     * </p>
+     * @param idx the position of the content in the content path.
+     * @param name the name of the entry.
+     * @return <tt>false</tt> if the content definitely does not contain
+     *         the entry, <tt>true</tt> otherwise.
+    **/
+    public boolean mightContain(int idx, String name)
+    {
+        int[] table = m_tables[idx];
+        if ((table == null) || name.startsWith("/"))
+        {
+            return true;
+        }
+        int hash = hash(name);
+        int mask = table.length - 1;
+        for (int i = spread(hash) & mask; table[i] != 0; i = (i + 1) & mask)
+        {
+            if (table[i] == hash)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean setFile(int idx, Content content, File file)
+    {
+        try
+        {
+            m_paths[idx] = file.getAbsolutePath();
+            m_lengths[idx] = file.length();
+            m_lastModifieds[idx] = file.lastModified();
+            // The entries of a multi-release JAR file depend on the Java
+            // version its versioned entries are resolved for.
+            m_releases[idx] = (content instanceof MultiReleaseContent)
+                ? ((MultiReleaseContent) content).getJavaVersion() : 0;
+            return true;
+        }
+        catch (SecurityException ex)
+        {
+            return false;
+        }
+    }
+
+    private static File getIndexableFile(Content content)
+    {
+        if (content instanceof MultiReleaseContent)
+        {
+            content = ((MultiReleaseContent) content).getContent();
+        }
+        return (content instanceof JarContent) ? ((JarContent) content).getFile() : null;
+    }
+
+    private static int[] createTable(Enumeration<String> entries)
+    {
+        if (entries == null)
+        {
+            return new int[2];
+        }
+
+        // Contents also find directory entries by their name without the
+        // trailing slash, so add both forms.
+        int[] hashes = new int[64];
+        int count = 0;
+        while (entries.hasMoreElements())
+        {
+            String name = entries.nextElement();
+            if (count + 2 > hashes.length)
+            {
+                int[] tmp = new int[hashes.length * 2];
+                System.arraycopy(hashes, 0, tmp, 0, count);
+                hashes = tmp;
+            }
+            hashes[count++] = hash(name);
+            if (name.endsWith("/"))
+            {
+                hashes[count++] = hash(name.substring(0, name.length() - 1));
+            }
+        }
+
+        int capacity = 2;
+        while (capacity < count * 2)
+        {
+            capacity <<= 1;
+        }
+        int[] table = new int[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < count; i++)
+        {
+            int hash = hashes[i];
+            int slot = spread(hash) & mask;
+            while ((table[slot] != 0) && (table[slot] != hash))
+            {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = hash;
+        }
+        return table;
+    }
+
+    private static int hash(String name)
+    {
+        // Zero marks empty slots.
+        int hash = name.hashCode();
+        return (hash == 0) ? 1 : hash;
+    }
+
+    private static int spread(int hash)
+    {
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -201,8 +201,7 @@ public class JarContent implements Content
         // just return it immediately.
         if (entryName.equals(FelixConstants.CLASS_PATH_DOT))
         {
-            return new JarContent(m_logger, m_configMap, m_zipFactory, m_revisionLock,
-                m_rootDir, m_file, m_zipFile);
+            return createContent(m_rootDir, m_file, m_zipFile);
         }
 
         // Remove any leading slash.
@@ -261,9 +260,7 @@ public class JarContent implements Content
                         }
                     }
                 }
-                return new JarContent(
-                    m_logger, m_configMap, m_zipFactory, m_revisionLock,
-                    extractJar.getParentFile(), extractJar, null);
+                return createContent(extractJar.getParentFile(), extractJar, null);
             }
             catch (Exception ex)
             {
@@ -388,6 +385,24 @@ public class JarContent implements Content
         return result;
     }
 
+    /**
+     * <p>
+     * Creates the content for this JAR file itself or for a JAR file
+     * embedded in it; subclasses override it to create contents of their
+     * own type.
+     * </p>
+     * @param rootDir the directory for extracted entries of the content.
+     * @param file the JAR file of the content.
+     * @param zipFile the opened JAR file to share or <tt>null</tt> to open
+     *        the file.
+     * @return the created content.
+    **/
+    protected Content createContent(File rootDir, File file, WeakZipFile zipFile)
+    {
+        return new JarContent(m_logger, m_configMap, m_zipFactory, m_revisionLock,
+            rootDir, file, zipFile);
+    }
+
     public String toString()
     {
         return "JAR " + m_file.getPath();
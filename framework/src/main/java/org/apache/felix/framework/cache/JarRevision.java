@@ -19,6 +19,7 @@
 package org.apache.felix.framework.cache;
 
 import org.apache.felix.framework.Logger;
+import org.apache.felix.framework.util.MappedZipFile;
 import org.apache.felix.framework.util.StringMap;
 import org.apache.felix.framework.util.Util;
 import org.apache.felix.framework.util.WeakZipFileFactory;
@@ -51,6 +52,7 @@ class JarRevision extends BundleArchiveRevision
     private final WeakZipFileFactory m_zipFactory;
     private final File m_bundleFile;
     private final WeakZipFile m_zipFile;
+    private final MappedZipFile m_mappedFile;
 
     public JarRevision(
         Logger logger, Map configMap, WeakZipFileFactory zipFactory,
@@ -93,6 +95,25 @@ class JarRevision extends BundleArchiveRevision
             if (zipFile != null) zipFile.close();
             throw ex;
         }
+
+        // Map the bundle JAR file, if enabled.
+        MappedZipFile mappedFile = null;
+        Object mapped = configMap.get(BundleCache.CACHE_MAPPED_PROP);
+        if ((mapped != null) && Boolean.valueOf(mapped.toString().trim()).booleanValue())
+        {
+            try
+            {
+                mappedFile = MappedZipFile.open(m_bundleFile);
+            }
+            catch (Exception ex)
+            {
+                getLogger().log(
+                    Logger.LOG_WARNING,
+                    getClass().getName() + ": Unable to map " + m_bundleFile
+                        + ", falling back to regular JAR file access.", ex);
+            }
+        }
+        m_mappedFile = mappedFile;
     }
 
     public Map<String, Object> getManifestHeader() throws Exception
@@ -105,8 +126,18 @@ class JarRevision extends BundleArchiveRevision
         return manifest;
     }
 
+    public File getBundleFile()
+    {
+        return m_bundleFile;
+    }
+
     public Content getContent() throws Exception
     {
+        if (m_mappedFile != null)
+        {
+            return new MappedJarContent(getLogger(), getConfig(), m_zipFactory,
+                this, getRevisionRootDir(), m_bundleFile, m_zipFile, m_mappedFile);
+        }
         return new JarContent(getLogger(), getConfig(), m_zipFactory,
             this, getRevisionRootDir(), m_bundleFile, m_zipFile);
     }
@@ -0,0 +1,241 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.felix.framework.Logger;
+import org.apache.felix.framework.util.StringMap;
+import org.apache.felix.framework.util.manifestparser.ManifestParser;
+import org.osgi.framework.wiring.BundleRevision;
+
+/**
+ * <p>
+ * This class implements a cache of the manifest headers of a bundle JAR
+ * file together with the capabilities and requirements parsed from them.
+ * It is stored in the revision's root directory and is only used as long
+ * as the JAR file has the same size and last modification time, and the
+ * framework runs on the same Java version, since the latter selects the
+ * headers of multi-release JAR files.
+ * </p>
+**/
+public class ManifestCache
+{
+    private static final int MAGIC = 0x464d4331;
+
+    private final File m_file;
+    private final File m_bundleFile;
+    private final String m_javaVersion;
+    private boolean m_loaded = false;
+    private Map<String, Object> m_headers;
+    private byte[] m_parsed;
+
+    /**
+     * <p>
+     * Creates a manifest cache for the specified JAR file.
+     * </p>
+     * @param file the file containing the cached manifest.
+     * @param bundleFile the JAR file the manifest is read from.
+     * @param javaVersion the current Java specification version.
+    **/
+    public ManifestCache(File file, File bundleFile, String javaVersion)
+    {
+        m_file = file;
+        m_bundleFile = bundleFile;
+        m_javaVersion = javaVersion;
+    }
+
+    /**
+     * <p>
+     * Returns the cached manifest headers. The returned map is case
+     * insensitive.
+     * </p>
+     * @return the cached manifest headers or <tt>null</tt> if there is no
+     *         valid cached manifest.
+    **/
+    public synchronized Map<String, Object> getHeaders()
+    {
+        if (!m_loaded)
+        {
+            m_loaded = true;
+            load();
+        }
+        return m_headers;
+    }
+
+    /**
+     * <p>
+     * Creates a parser holding the cached capabilities and requirements.
+     * </p>
+     * @param logger the logger of the framework.
+     * @param configMap the configuration of the framework.
+     * @param owner the revision owning the capabilities and requirements.
+     * @return the parser or <tt>null</tt> if there is no valid cached
+     *         manifest.
+    **/
+    public synchronized ManifestParser createParser(
+        Logger logger, Map<String, Object> configMap, BundleRevision owner)
+    {
+        if (getHeaders() == null)
+        {
+            return null;
+        }
+        try
+        {
+            return ManifestParser.read(
+                new DataInputStream(new ByteArrayInputStream(m_parsed)),
+                logger, configMap, owner, m_headers);
+        }
+        catch (Exception ex)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * <p>
+     * Saves the manifest headers and the metadata parsed from them. Nothing
+     * is saved if the headers or the parsed metadata cannot be stored.
+     * </p>
+     * @param headers the manifest headers.
+     * @param parser the parser of the manifest headers.
+     * @throws IOException if any error occurs.
+    **/
+    public void save(Map<String, Object> headers, ManifestParser parser) throws IOException
+    {
+        ByteArrayOutputStream parsed = new ByteArrayOutputStream();
+        if (!parser.write(new DataOutputStream(parsed)))
+        {
+            return;
+        }
+        for (Object value : headers.values())
+        {
+            if (!(value instanceof String))
+            {
+                return;
+            }
+        }
+
+        File tmp = new File(m_file.getParentFile(), m_file.getName() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+            BundleCache.getSecureAction().getFileOutputStream(tmp)));
+        try
+        {
+            out.writeInt(MAGIC);
+            out.writeUTF(m_bundleFile.getAbsolutePath());
+            out.writeLong(m_bundleFile.length());
+            out.writeLong(m_bundleFile.lastModified());
+            out.writeUTF(m_javaVersion);
+            out.writeInt(headers.size());
+            for (Entry<String, Object> entry : headers.entrySet())
+            {
+                writeString(out, entry.getKey());
+                writeString(out, (String) entry.getValue());
+            }
+            out.writeInt(parsed.size());
+            parsed.writeTo(out);
+        }
+        finally
+        {
+            out.close();
+        }
+        BundleCache.getSecureAction().deleteFile(m_file);
+        if (!BundleCache.getSecureAction().renameFile(tmp, m_file))
+        {
+            BundleCache.getSecureAction().deleteFile(tmp);
+            throw new IOException("Unable to rename " + tmp + " to " + m_file);
+        }
+    }
+
+    private void load()
+    {
+        if (!BundleCache.getSecureAction().fileExists(m_file))
+        {
+            return;
+        }
+
+        DataInputStream in = null;
+        try
+        {
+            in = new DataInputStream(new BufferedInputStream(
+                BundleCache.getSecureAction().getFileInputStream(m_file)));
+            if ((in.readInt() != MAGIC)
+                || !m_bundleFile.getAbsolutePath().equals(in.readUTF())
+                || (m_bundleFile.length() != in.readLong())
+                || (m_bundleFile.lastModified() != in.readLong())
+                || !m_javaVersion.equals(in.readUTF()))
+            {
+                return;
+            }
+
+            int count = in.readInt();
+            Map<String, Object> headers = new StringMap();
+            for (int i = 0; i < count; i++)
+            {
+                headers.put(readString(in), readString(in));
+            }
+            byte[] parsed = new byte[in.readInt()];
+            in.readFully(parsed);
+            m_headers = headers;
+            m_parsed = parsed;
+        }
+        catch (Exception ex)
+        {
+            // Treat a truncated or corrupt cache as missing.
+        }
+        finally
+        {
+            if (in != null)
+            {
+                try
+                {
+                    in.close();
+                }
+                catch (IOException ex)
+                {
+                    // Not much we can do.
+                }
+            }
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException
+    {
+        // Header values may exceed the length limit of writeUTF().
+        byte[] bytes = s.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException
+    {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+}
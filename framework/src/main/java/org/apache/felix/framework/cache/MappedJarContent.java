@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Enumeration;
+import java.util.Map;
+
+import org.apache.felix.framework.Logger;
+import org.apache.felix.framework.util.MappedZipFile;
+import org.apache.felix.framework.util.WeakZipFileFactory;
+import org.apache.felix.framework.util.WeakZipFileFactory.WeakZipFile;
+
+/**
+ * <p>
+ * This class implements a JAR file content that serves its entries from a
+ * memory mapped copy of the JAR file. Looking up and reading entries never
+ * opens or reopens the JAR file, so it does not contend on the global lock
+ * of the weak zip file factory. Entries that cannot be read from the mapping,
+ * as well as embedded directories and native libraries, are still handled
+ * by the regular JAR file content.
+ * </p>
+**/
+class MappedJarContent extends JarContent
+{
+    private final Logger m_logger;
+    private final Map<?, ?> m_configMap;
+    private final WeakZipFileFactory m_zipFactory;
+    private final Object m_revisionLock;
+    private final MappedZipFile m_mappedFile;
+
+    public MappedJarContent(Logger logger, Map<?, ?> configMap, WeakZipFileFactory zipFactory,
+        Object revisionLock, File rootDir, File file, WeakZipFile zipFile,
+        MappedZipFile mappedFile)
+    {
+        super(logger, configMap, zipFactory, revisionLock, rootDir, file, zipFile);
+        m_logger = logger;
+        m_configMap = configMap;
+        m_zipFactory = zipFactory;
+        m_revisionLock = revisionLock;
+        m_mappedFile = mappedFile;
+    }
+
+    public boolean hasEntry(String name) throws IllegalStateException
+    {
+        try
+        {
+            return m_mappedFile.getEntry(name) != -1;
+        }
+        catch (Exception ex)
+        {
+            return false;
+        }
+    }
+
+    public Enumeration<String> getEntries()
+    {
+        Enumeration<String> e = m_mappedFile.names();
+
+        // Spec says to return null if there are no entries.
+        return (e.hasMoreElements()) ? e : null;
+    }
+
+    public byte[] getEntryAsBytes(String name) throws IllegalStateException
+    {
+        int entry = m_mappedFile.getEntry(name);
+        if (entry == -1)
+        {
+            return null;
+        }
+        else if (!m_mappedFile.isSupported(entry))
+        {
+            return super.getEntryAsBytes(name);
+        }
+
+        try
+        {
+            return m_mappedFile.getBytes(entry);
+        }
+        catch (Exception ex)
+        {
+            m_logger.log(
+                Logger.LOG_ERROR,
+                "MappedJarContent: Unable to read bytes for file " + name + " in ZIP file "
+                    + m_mappedFile.getFile().getAbsolutePath(), ex);
+            return null;
+        }
+    }
+
+    public InputStream getEntryAsStream(String name)
+        throws IllegalStateException, IOException
+    {
+        int entry = m_mappedFile.getEntry(name);
+        if (entry == -1)
+        {
+            return null;
+        }
+        else if (!m_mappedFile.isSupported(entry))
+        {
+            return super.getEntryAsStream(name);
+        }
+
+        try
+        {
+            return m_mappedFile.getInputStream(entry);
+        }
+        catch (Exception ex)
+        {
+            return null;
+        }
+    }
+
+    protected Content createContent(File rootDir, File file, WeakZipFile zipFile)
+    {
+        if (file.equals(m_mappedFile.getFile()))
+        {
+            return new MappedJarContent(m_logger, m_configMap, m_zipFactory,
+                m_revisionLock, rootDir, file, zipFile, m_mappedFile);
+        }
+
+        // Embedded JAR files get their own mapping.
+        try
+        {
+            return new MappedJarContent(m_logger, m_configMap, m_zipFactory,
+                m_revisionLock, rootDir, file, zipFile, MappedZipFile.open(file));
+        }
+        catch (IOException ex)
+        {
+            m_logger.log(
+                Logger.LOG_DEBUG,
+                "MappedJarContent: Unable to map embedded JAR file " + file, ex);
+            return super.createContent(rootDir, file, zipFile);
+        }
+    }
+}
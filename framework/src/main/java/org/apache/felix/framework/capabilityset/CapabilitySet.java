@@ -49,6 +49,18 @@ public class CapabilitySet
     private final Set<Capability> m_capSet = Collections.newSetFromMap(new ConcurrentHashMap<Capability, Boolean>());
     private final static SecureAction m_secureAction = new SecureAction();
 
+    // Index key of the capabilities with attribute values that are not
+    // strings. A filter value has to be coerced to the type of such a value
+    // to compare it, so these capabilities are matched by comparison.
+    private final static Object NON_STRING_VALUES = new Object()
+    {
+        @Override
+        public String toString()
+        {
+            return "<non-string values>";
+        }
+    };
+
     public void dump()
     {
         for (Entry<String, Map<Object, Set<BundleCapability>>> entry : m_indices.entrySet())
@@ -129,7 +141,7 @@ public class CapabilitySet
         ConcurrentMap<Object, Set<BundleCapability>> index, BundleCapability cap, Object capValue)
     {
         Set<BundleCapability> caps = Collections.newSetFromMap(new ConcurrentHashMap<BundleCapability, Boolean>());
-        Set<BundleCapability> prevval = index.putIfAbsent(capValue, caps);
+        Set<BundleCapability> prevval = index.putIfAbsent(getIndexKey(capValue), caps);
         if (prevval != null)
             caps = prevval;
         caps.add(cap);
@@ -168,16 +180,91 @@ public class CapabilitySet
         }
     }
 
+    /**
+     * Updates the indices of a capability whose attributes have changed.
+     * Index entries for old attribute values that are no longer present are
+     * removed and the current attribute values are (re)indexed. Capabilities
+     * that are not part of this set are ignored.
+     * @param cap the capability whose attributes changed.
+     * @param oldAttrs the attributes of the capability before the change.
+    **/
+    public void updateCapability(final BundleCapability cap, final Map<String, Object> oldAttrs)
+    {
+        if (!m_capSet.contains(cap))
+        {
+            return;
+        }
+
+        for (Entry<String, Map<Object, Set<BundleCapability>>> entry : m_indices.entrySet())
+        {
+            Object oldValue = (oldAttrs == null) ? null : oldAttrs.get(entry.getKey());
+            Object newValue = cap.getAttributes().get(entry.getKey());
+            if ((oldValue == null) && (newValue == null))
+            {
+                continue;
+            }
+
+            List<Object> oldKeys = getIndexKeys(oldValue);
+            List<Object> newKeys = getIndexKeys(newValue);
+            if (oldKeys.equals(newKeys))
+            {
+                continue;
+            }
+
+            ConcurrentMap<Object, Set<BundleCapability>> index =
+                (ConcurrentMap<Object, Set<BundleCapability>>) entry.getValue();
+            for (Object o : newKeys)
+            {
+                indexCapability(index, cap, o);
+            }
+            for (Object o : oldKeys)
+            {
+                if (!newKeys.contains(o))
+                {
+                    deindexCapability(index, cap, o);
+                }
+            }
+        }
+    }
+
+    private static List<Object> getIndexKeys(Object value)
+    {
+        if (value == null)
+        {
+            return Collections.emptyList();
+        }
+        if (value.getClass().isArray())
+        {
+            value = convertArrayToList(value);
+        }
+        if (value instanceof Collection)
+        {
+            List<Object> keys = new ArrayList<Object>(((Collection<?>) value).size());
+            for (Object o : (Collection<?>) value)
+            {
+                keys.add(getIndexKey(o));
+            }
+            return keys;
+        }
+        return Collections.singletonList(getIndexKey(value));
+    }
+
+    private static Object getIndexKey(Object value)
+    {
+        return (value instanceof String) ? value : NON_STRING_VALUES;
+    }
+
     private void deindexCapability(
         Map<Object, Set<BundleCapability>> index, BundleCapability cap, Object value)
     {
-        Set<BundleCapability> caps = index.get(value);
+        Object key = getIndexKey(value);
+        Set<BundleCapability> caps = index.get(key);
         if (caps != null)
         {
             caps.remove(cap);
             if (caps.isEmpty())
             {
-                index.remove(value);
+                index.remove(key);
             }
         }
     }
@@ -204,7 +291,10 @@ public class CapabilitySet
             // For AND we calculate the intersection of each subfilter.
             // We can short-circuit the AND operation if there are no
             // remaining capabilities.
-            final List<SimpleFilter> sfs = (List<SimpleFilter>) sf.getValue();
+            // Subfilters that can be answered from an index are evaluated
+            // first, most selective first, so that the remaining subfilters
+            // only need to be evaluated against the narrowed candidates.
+            final List<SimpleFilter> sfs = orderBySelectivity((List<SimpleFilter>) sf.getValue());
             for (int i = 0; (caps.size() > 0) && (i < sfs.size()); i++)
             {
                 matches = match(caps, sfs.get(i));
@@ -240,10 +330,42 @@ public class CapabilitySet
                 Set<BundleCapability> existingCaps = index.get(sf.getValue());
                 if (existingCaps != null)
                 {
-                    matches.addAll(existingCaps);
-                    if (caps != m_capSet)
+                    if (caps == m_capSet)
+                    {
+                        matches.addAll(existingCaps);
+                    }
+                    else if (caps.size() < existingCaps.size())
                     {
-                        matches.retainAll(caps);
+                        // Intersect by probing the larger set.
+                        for (Capability cap : caps)
+                        {
+                            if (existingCaps.contains(cap))
+                            {
+                                matches.add(cap);
+                            }
+                        }
+                    }
+                    else
+                    {
+                        for (BundleCapability cap : existingCaps)
+                        {
+                            if (caps.contains(cap))
+                            {
+                                matches.add(cap);
+                            }
+                        }
+                    }
+                }
+                Set<BundleCapability> nonStringCaps = index.get(NON_STRING_VALUES);
+                if (nonStringCaps != null)
+                {
+                    for (BundleCapability cap : nonStringCaps)
+                    {
+                        if (((caps == m_capSet) || caps.contains(cap))
+                            && compare(cap.getAttributes().get(sf.getName()), sf))
+                        {
+                            matches.add(cap);
+                        }
                     }
                 }
             }
@@ -255,7 +377,7 @@ public class CapabilitySet
                     Object lhs = cap.getAttributes().get(sf.getName());
                     if (lhs != null)
                     {
-                        if (compare(lhs, sf.getValue(), sf.getOperation()))
+                        if (compare(lhs, sf))
                         {
                             matches.add(cap);
                         }
@@ -267,6 +389,64 @@ public class CapabilitySet
         return matches;
     }
 
+    /**
+     * Orders the subfilters of an AND filter so that equality subfilters on
+     * indexed attributes come first, ordered by the size of their index
+     * bucket. A subfilter whose index bucket is empty is moved to the front,
+     * since it short-circuits the whole AND. The relative order of all
+     * other subfilters is preserved.
+    **/
+    private List<SimpleFilter> orderBySelectivity(final List<SimpleFilter> sfs)
+    {
+        if (sfs.size() < 2)
+        {
+            return sfs;
+        }
+
+        List<SimpleFilter> indexed = null;
+        List<Integer> sizes = null;
+        List<SimpleFilter> others = null;
+        for (int i = 0; i < sfs.size(); i++)
+        {
+            SimpleFilter sub = sfs.get(i);
+            Map<Object, Set<BundleCapability>> index = (sub.getOperation() == SimpleFilter.EQ)
+                ? m_indices.get(sub.getName())
+                : null;
+            if (index != null)
+            {
+                if (indexed == null)
+                {
+                    indexed = new ArrayList<SimpleFilter>(sfs.size());
+                    sizes = new ArrayList<Integer>(sfs.size());
+                    others = new ArrayList<SimpleFilter>(sfs.subList(0, i));
+                }
+                Set<BundleCapability> bucket = index.get(sub.getValue());
+                Set<BundleCapability> nonStringBucket = index.get(NON_STRING_VALUES);
+                int size = ((bucket == null) ? 0 : bucket.size())
+                    + ((nonStringBucket == null) ? 0 : nonStringBucket.size());
+                // Insertion sort; AND filters have few subfilters.
+                int pos = 0;
+                while ((pos < sizes.size()) && (sizes.get(pos) <= size))
+                {
+                    pos++;
+                }
+                indexed.add(pos, sub);
+                sizes.add(pos, size);
+            }
+            else if (others != null)
+            {
+                others.add(sub);
+            }
+        }
+
+        if (indexed == null)
+        {
+            return sfs;
+        }
+        indexed.addAll(others);
+        return indexed;
+    }
+
     public static boolean matches(Capability cap, SimpleFilter sf)
     {
         return matchesInternal(cap, sf) && matchMandatory(cap, sf);
@@ -319,7 +499,7 @@ public class CapabilitySet
             Object lhs = cap.getAttributes().get(sf.getName());
             if (lhs != null)
             {
-                matched = compare(lhs, sf.getValue(), sf.getOperation());
+                matched = compare(lhs, sf);
             }
         }
 
@@ -379,13 +559,16 @@ public class CapabilitySet
     private static final Class<?>[] STRING_CLASS = new Class[] { String.class };
     private static final String VALUE_OF_METHOD_NAME = "valueOf";
 
-    private static boolean compare(Object lhs, Object rhsUnknown, int op)
+    private static boolean compare(Object lhs, SimpleFilter sf)
     {
         if (lhs == null)
         {
             return false;
         }
 
+        final int op = sf.getOperation();
+        final Object rhsUnknown = sf.getValue();
+
         // If this is a PRESENT operation, then just return true immediately
         // since we wouldn't be here if the attribute wasn't present.
         if (op == SimpleFilter.PRESENT)
@@ -397,15 +580,7 @@ public class CapabilitySet
         //Version is comparable so we need to check this first
         if(lhs instanceof Version && op == SimpleFilter.EQ)
         {
-            Object rhs = null;
-            try
-            {
-                rhs = coerceType(lhs, (String) rhsUnknown);
-            }
-            catch (Exception ex)
-            {
-                //Do nothing will check later if rhs is null
-            }
+            Object rhs = coerceType(lhs, sf);
 
             if(rhs != null && rhs instanceof VersionRange)
             {
@@ -430,11 +605,8 @@ public class CapabilitySet
             }
             else
             {
-                try
-                {
-                    rhs = coerceType(lhs, (String) rhsUnknown);
-                }
-                catch (Exception ex)
+                rhs = coerceType(lhs, sf);
+                if (rhs == null)
                 {
                     return false;
                 }
@@ -470,7 +642,7 @@ public class CapabilitySet
                         return false;
                     }
                 case SimpleFilter.APPROX :
-                    return compareApproximate(lhs, rhs);
+                    return compareApproximate(lhs, rhs, sf);
                 case SimpleFilter.SUBSTRING :
                     return SimpleFilter.compareSubstring((List<String>) rhs, (String) lhs);
                 default:
@@ -481,12 +653,8 @@ public class CapabilitySet
         // Booleans do not implement comparable, so special case them.
         else if (lhs instanceof Boolean)
         {
-            Object rhs;
-            try
-            {
-                rhs = coerceType(lhs, (String) rhsUnknown);
-            }
-            catch (Exception ex)
+            Object rhs = coerceType(lhs, sf);
+            if (rhs == null)
             {
                 return false;
             }
@@ -518,7 +686,7 @@ public class CapabilitySet
         {
             for (Iterator iter = ((Collection) lhs).iterator(); iter.hasNext(); )
             {
-                if (compare(iter.next(), rhsUnknown, op))
+                if (compare(iter.next(), sf))
                 {
                     return true;
                 }
@@ -535,22 +703,15 @@ public class CapabilitySet
 
         // Since we cannot identify the LHS type, then we can only perform
         // equality comparison.
-        try
-        {
-            return lhs.equals(coerceType(lhs, (String) rhsUnknown));
-        }
-        catch (Exception ex)
-        {
-            return false;
-        }
+        Object rhs = coerceType(lhs, sf);
+        return (rhs != null) && lhs.equals(rhs);
     }
 
-    private static boolean compareApproximate(Object lhs, Object rhs)
+    private static boolean compareApproximate(Object lhs, Object rhs, SimpleFilter sf)
     {
         if (rhs instanceof String)
         {
-            return removeWhitespace((String) lhs)
-                .equalsIgnoreCase(removeWhitespace((String) rhs));
+            return equalsIgnoreCaseAndWhitespace((String) lhs, sf.getApproxValue());
         }
         else if (rhs instanceof Character)
         {
@@ -560,7 +721,43 @@ public class CapabilitySet
         return lhs.equals(rhs);
     }
 
-    private static String removeWhitespace(String s)
+    /**
+     * Compares a string, ignoring case and whitespace, with a string that
+     * already has its whitespace removed. Equivalent to removing the whitespace
+     * from the first string and calling equalsIgnoreCase(), but allocation free.
+    **/
+    private static boolean equalsIgnoreCaseAndWhitespace(String s, String stripped)
+    {
+        int j = 0;
+        for (int i = 0; i < s.length(); i++)
+        {
+            char c = s.charAt(i);
+            if (Character.isWhitespace(c))
+            {
+                continue;
+            }
+            if ((j == stripped.length()) || !charEqualsIgnoreCase(c, stripped.charAt(j)))
+            {
+                return false;
+            }
+            j++;
+        }
+        return j == stripped.length();
+    }
+
+    private static boolean charEqualsIgnoreCase(char c1, char c2)
+    {
+        // Same rules as String.equalsIgnoreCase().
+        if (c1 == c2)
+        {
+            return true;
+        }
+        char u1 = Character.toUpperCase(c1);
+        char u2 = Character.toUpperCase(c2);
+        return (u1 == u2) || (Character.toLowerCase(u1) == Character.toLowerCase(u2));
+    }
+
+    static String removeWhitespace(String s)
     {
         StringBuilder sb = new StringBuilder(s.length());
         for (int i = 0; i < s.length(); i++)
@@ -573,6 +770,71 @@ public class CapabilitySet
         return sb.toString();
     }
 
+    /**
+     * Coerces the value of the specified filter to the type of the specified
+     * attribute value. Coercions to immutable JRE and framework types are
+     * cached on the filter, so that repeated evaluation of the same filter
+     * neither allocates nor reflectively constructs the operand again.
+     * @return the coerced value or {@code null} if it cannot be coerced.
+    **/
+    private static Object coerceType(Object lhs, SimpleFilter sf)
+    {
+        // Substring filters have a list of pieces as value, which cannot be
+        // coerced to any type.
+        if (!(sf.getValue() instanceof String))
+        {
+            return null;
+        }
+        final String rhsString = (String) sf.getValue();
+        final Class<?> lhsClass = lhs.getClass();
+        if (lhsClass == String.class)
+        {
+            return rhsString;
+        }
+
+        final boolean cacheable = isCacheable(lhsClass);
+        if (cacheable)
+        {
+            final Object cached = sf.getCoercedValue(lhsClass);
+            if (cached != null)
+            {
+                return (cached == COERCION_FAILED) ? null : cached;
+            }
+        }
+
+        Object rhs;
+        try
+        {
+            rhs = coerceType(lhs, rhsString);
+        }
+        catch (Exception ex)
+        {
+            rhs = null;
+        }
+
+        if (cacheable)
+        {
+            sf.setCoercedValue(lhsClass, (rhs == null) ? COERCION_FAILED : rhs);
+        }
+        return rhs;
+    }
+
+    private static final Object COERCION_FAILED = new Object();
+
+    private static boolean isCacheable(Class<?> clazz)
+    {
+        // Only cache coercions to types known to be immutable.
+        return (clazz == Version.class)
+            || (clazz == Long.class)
+            || (clazz == Integer.class)
+            || (clazz == Short.class)
+            || (clazz == Byte.class)
+            || (clazz == Double.class)
+            || (clazz == Float.class)
+            || (clazz == Boolean.class)
+            || (clazz == Character.class);
+    }
+
     private static Object coerceType(Object lhs, String rhsString) throws Exception
     {
         // If the LHS expects a string, then we can just return
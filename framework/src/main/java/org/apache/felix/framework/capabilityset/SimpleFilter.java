@@ -42,6 +42,11 @@ public class SimpleFilter
     private final String m_name;
     private final Object m_value;
     private final int m_op;
+    // Caches the value coerced to the attribute types it has been compared
+    // with, as alternating type/value pairs; replaced on write.
+    private volatile Object[] m_coerced;
+    // Caches the value without whitespace for approximate matching.
+    private volatile String m_approxValue;
 
     public SimpleFilter(String attr, Object value, int op)
     {
@@ -65,6 +70,52 @@ public class SimpleFilter
         return m_op;
     }
 
+    Object getCoercedValue(Class<?> type)
+    {
+        final Object[] coerced = m_coerced;
+        if (coerced != null)
+        {
+            for (int i = 0; i < coerced.length; i += 2)
+            {
+                if (coerced[i] == type)
+                {
+                    return coerced[i + 1];
+                }
+            }
+        }
+        return null;
+    }
+
+    void setCoercedValue(Class<?> type, Object value)
+    {
+        // Racing writers may lose an entry, which only costs a recomputation.
+        final Object[] coerced = m_coerced;
+        final Object[] updated;
+        if (coerced == null)
+        {
+            updated = new Object[] { type, value };
+        }
+        else
+        {
+            updated = new Object[coerced.length + 2];
+            System.arraycopy(coerced, 0, updated, 0, coerced.length);
+            updated[coerced.length] = type;
+            updated[coerced.length + 1] = value;
+        }
+        m_coerced = updated;
+    }
+
+    String getApproxValue()
+    {
+        String approx = m_approxValue;
+        if (approx == null)
+        {
+            approx = CapabilitySet.removeWhitespace((String) m_value);
+            m_approxValue = approx;
+        }
+        return approx;
+    }
+
     public String toString()
     {
         String s = null;
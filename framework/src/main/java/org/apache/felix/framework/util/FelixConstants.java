@@ -55,7 +55,16 @@ public interface FelixConstants extends org.osgi.framework.Constants
     String NATIVE_PROC_NAME_ALIAS_PREFIX = "felix.native.processor.alias";
     String USE_CACHEDURLS_PROPS = "felix.bundlecodesource.usecachedurls";
     String RESOLVER_PARALLELISM = "felix.resolver.parallelism";
+    String RESOLVER_SNAPSHOT = "felix.resolver.snapshot";
+    String RESOLVER_BACKJUMPING = "felix.resolver.backjumping";
+    String RESOLVER_MAX_PERMUTATIONS = "felix.resolver.permutations.max";
+    String RESOLVER_SPECULATION = "felix.resolver.speculation";
     String USE_PROPERTY_SUBSTITUTION_IN_SYSTEMPACKAGES = "felix.systempackages.substitution";
+    String SERVICE_INDEX_PROPS = "felix.service.index.props";
+    String SERVICE_USAGE_STRIPED = "felix.service.usage.striped";
+    String EVENT_DISPATCHER_THREADS = "felix.eventdispatcher.threads";
+    String EVENT_DISPATCHER_PERBUNDLE = "felix.eventdispatcher.perbundle";
+    String STARTLEVEL_PARALLEL_THREADS = "felix.startlevel.parallel.threads";
 
     // Missing OSGi constant for resolution directive.
     String RESOLUTION_DYNAMIC = "dynamic";
@@ -18,10 +18,18 @@
  */
 package org.apache.felix.framework.util;
 
+import java.util.Collections;
 import java.util.EventListener;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.felix.framework.capabilityset.SimpleFilter;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
 import org.osgi.framework.Filter;
+import org.osgi.framework.UnfilteredServiceListener;
 import org.osgi.framework.hooks.service.ListenerHook;
 
 
@@ -34,6 +42,9 @@ public class ListenerInfo implements ListenerHook.ListenerInfo
     private final Filter m_filter;
     private final Object m_acc;
     private final boolean m_removed;
+    // Lazily computed object classes required by the filter.
+    private volatile Set<String> m_objectClasses;
+    private volatile boolean m_objectClassesComputed;
 
     public ListenerInfo(
         Bundle bundle, BundleContext context, Class listenerClass, EventListener listener,
@@ -106,6 +117,78 @@ public class ListenerInfo implements ListenerHook.ListenerInfo
         return m_removed;
     }
 
+    /**
+     * Returns the object classes of which a service must have at least one
+     * for the filter of this listener to match it. This is used to route
+     * service events only to the listeners that can possibly match them.
+     * @return the set of object classes or {@code null} if the filter does
+     *         not restrict the object class of matching services.
+    **/
+    public Set<String> getObjectClasses()
+    {
+        if (!m_objectClassesComputed)
+        {
+            Set<String> objectClasses = null;
+            if ((m_filter != null) && !(m_listener instanceof UnfilteredServiceListener))
+            {
+                try
+                {
+                    objectClasses = getObjectClasses(SimpleFilter.parse(m_filter.toString()));
+                }
+                catch (Exception ex)
+                {
+                    // Cannot be routed, so the listener sees all events.
+                }
+            }
+            m_objectClasses = (objectClasses == null)
+                ? null : Collections.unmodifiableSet(objectClasses);
+            m_objectClassesComputed = true;
+        }
+        return m_objectClasses;
+    }
+
+    private static Set<String> getObjectClasses(SimpleFilter sf)
+    {
+        switch (sf.getOperation())
+        {
+            case SimpleFilter.EQ:
+                if (Constants.OBJECTCLASS.equalsIgnoreCase(sf.getName()))
+                {
+                    Set<String> result = new HashSet<String>();
+                    result.add((String) sf.getValue());
+                    return result;
+                }
+                return null;
+            case SimpleFilter.AND:
+                // Any restricting subfilter restricts the whole filter.
+                for (Object sub : (List<?>) sf.getValue())
+                {
+                    Set<String> result = getObjectClasses((SimpleFilter) sub);
+                    if (result != null)
+                    {
+                        return result;
+                    }
+                }
+                return null;
+            case SimpleFilter.OR:
+                // Every subfilter has to restrict the object class for the
+                // whole filter to restrict it, to the union of their classes.
+                Set<String> result = new HashSet<String>();
+                for (Object sub : (List<?>) sf.getValue())
+                {
+                    Set<String> subResult = getObjectClasses((SimpleFilter) sub);
+                    if (subResult == null)
+                    {
+                        return null;
+                    }
+                    result.addAll(subResult);
+                }
+                return result;
+            default:
+                return null;
+        }
+    }
+
     @Override
     public boolean equals(Object obj)
     {
@@ -0,0 +1,498 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * This class provides read access to a zip file that is memory mapped once
+ * when it is opened. The file handle is released right after mapping, so
+ * mapped zip files do not count against open file limits and never need to
+ * be reopened. The central directory stays in the mapping and is only
+ * indexed by a compact hash table of name hash codes and entry offsets.
+ * Only plain zip files with stored or deflated entries are supported; other
+ * entries are reported as unsupported, so callers can fall back to
+ * <tt>ZipFile</tt> for them.
+ */
+public class MappedZipFile
+{
+    private static final int LOCSIG = 0x04034b50;
+    private static final int CENSIG = 0x02014b50;
+    private static final int ENDSIG = 0x06054b50;
+    private static final int LOCHDR = 30;
+    private static final int CENHDR = 46;
+    private static final int ENDHDR = 22;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    private final File m_file;
+    private final ByteBuffer m_buffer;
+    private final int m_cenOffset;
+    private final int m_count;
+    // Open addressing table of central directory entry offsets keyed by the
+    // hash code of the entry name; an offset of -1 marks an empty slot.
+    private final int[] m_hashes;
+    private final int[] m_offsets;
+    private volatile List<String> m_names;
+
+    private MappedZipFile(File file, ByteBuffer buffer) throws IOException
+    {
+        m_file = file;
+        m_buffer = buffer;
+
+        int end = findEndOfCentralDirectory();
+        int count = buffer.getShort(end + 10) & 0xffff;
+        long cenSize = buffer.getInt(end + 12) & 0xffffffffL;
+        long cenOffset = buffer.getInt(end + 16) & 0xffffffffL;
+        if ((count == 0xffff) || (cenSize == 0xffffffffL) || (cenOffset == 0xffffffffL))
+        {
+            throw new IOException("ZIP64 files are not supported: " + file);
+        }
+        if (cenOffset + cenSize > end)
+        {
+            throw new IOException("Invalid central directory: " + file);
+        }
+
+        int capacity = 2;
+        while (capacity < count * 2)
+        {
+            capacity <<= 1;
+        }
+        m_hashes = new int[capacity];
+        m_offsets = new int[capacity];
+        Arrays.fill(m_offsets, -1);
+
+        int mask = capacity - 1;
+        int pos = (int) cenOffset;
+        int entries = 0;
+        while ((pos + CENHDR <= end) && (buffer.getInt(pos) == CENSIG))
+        {
+            int nameLen = buffer.getShort(pos + 28) & 0xffff;
+            int extraLen = buffer.getShort(pos + 30) & 0xffff;
+            int commentLen = buffer.getShort(pos + 32) & 0xffff;
+            int hash = hash(pos + CENHDR, nameLen);
+            int slot = hash & mask;
+            while (m_offsets[slot] != -1)
+            {
+                slot = (slot + 1) & mask;
+            }
+            m_hashes[slot] = hash;
+            m_offsets[slot] = pos;
+            entries++;
+            pos += CENHDR + nameLen + extraLen + commentLen;
+            if (entries > count)
+            {
+                throw new IOException("Invalid central directory: " + file);
+            }
+        }
+        m_cenOffset = (int) cenOffset;
+        m_count = entries;
+    }
+
+    /**
+     * Opens and maps the specified zip file.
+     * @param file the zip file to map.
+     * @return the mapped zip file.
+     * @throws IOException if the file cannot be mapped or is not a
+     *         supported zip file.
+     */
+    public static MappedZipFile open(File file) throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try
+        {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+            {
+                throw new IOException("File is too large to be mapped: " + file);
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            return new MappedZipFile(file, buffer);
+        }
+        finally
+        {
+            // The mapping stays valid after the file is closed.
+            raf.close();
+        }
+    }
+
+    /**
+     * Returns the mapped file.
+     * @return the mapped file.
+     */
+    public File getFile()
+    {
+        return m_file;
+    }
+
+    /**
+     * Returns the handle of the named entry, also accepting the name of a
+     * directory entry without its trailing slash like <tt>ZipFile</tt> does.
+     * @param name the entry name.
+     * @return the entry handle or -1 if there is no such entry.
+     */
+    public int getEntry(String name)
+    {
+        byte[] bytes = utf8(name);
+        int entry = find(bytes, false);
+        return (entry != -1) ? entry : find(bytes, true);
+    }
+
+    /**
+     * Determines whether the specified entry is a directory.
+     * @param entry the entry handle.
+     * @return <tt>true</tt> if the entry is a directory.
+     */
+    public boolean isDirectory(int entry)
+    {
+        int nameLen = m_buffer.getShort(entry + 28) & 0xffff;
+        return (nameLen > 0) && (m_buffer.get(entry + CENHDR + nameLen - 1) == '/');
+    }
+
+    /**
+     * Determines whether the data of the specified entry can be read from
+     * the mapping, i.e., whether it is neither encrypted nor compressed with
+     * a method other than deflate.
+     * @param entry the entry handle.
+     * @return <tt>true</tt> if the entry data can be read.
+     */
+    public boolean isSupported(int entry)
+    {
+        int flags = m_buffer.getShort(entry + 8) & 0xffff;
+        int method = getMethod(entry);
+        return ((flags & 1) == 0) && ((method == STORED) || (method == DEFLATED));
+    }
+
+    /**
+     * Returns the names of all entries in central directory order.
+     * @return the entry names.
+     */
+    public Enumeration<String> names()
+    {
+        List<String> names = m_names;
+        if (names == null)
+        {
+            names = new ArrayList<String>(m_count);
+            int pos = m_cenOffset;
+            for (int i = 0; i < m_count; i++)
+            {
+                int nameLen = m_buffer.getShort(pos + 28) & 0xffff;
+                int extraLen = m_buffer.getShort(pos + 30) & 0xffff;
+                int commentLen = m_buffer.getShort(pos + 32) & 0xffff;
+                names.add(decode(pos + CENHDR, nameLen));
+                pos += CENHDR + nameLen + extraLen + commentLen;
+            }
+            m_names = names = Collections.unmodifiableList(names);
+        }
+        return Collections.enumeration(names);
+    }
+
+    /**
+     * Returns the uncompressed data of the specified entry.
+     * @param entry the entry handle of a supported entry.
+     * @return the entry data.
+     * @throws IOException if the data is corrupt.
+     */
+    public byte[] getBytes(int entry) throws IOException
+    {
+        int size = m_buffer.getInt(entry + 24);
+        if (size < 0)
+        {
+            throw new IOException("Entry is too large: " + m_file);
+        }
+        ByteBuffer data = getData(entry);
+        byte[] bytes = new byte[size];
+        if (getMethod(entry) == STORED)
+        {
+            data.get(bytes);
+            return bytes;
+        }
+
+        byte[] compressed = new byte[data.remaining() + 1];
+        data.get(compressed, 0, compressed.length - 1);
+        Inflater inflater = new Inflater(true);
+        try
+        {
+            // The extra zero byte is needed by the inflater in nowrap mode.
+            inflater.setInput(compressed);
+            int off = 0;
+            while ((off < size) && !inflater.finished())
+            {
+                int n = inflater.inflate(bytes, off, size - off);
+                if ((n == 0) && (inflater.needsInput() || inflater.needsDictionary()))
+                {
+                    throw new IOException("Unexpected end of entry data: " + m_file);
+                }
+                off += n;
+            }
+            if (off != size)
+            {
+                throw new IOException("Invalid entry size: " + m_file);
+            }
+            return bytes;
+        }
+        catch (DataFormatException ex)
+        {
+            IOException ioe = new IOException("Invalid entry data: " + m_file);
+            ioe.initCause(ex);
+            throw ioe;
+        }
+        finally
+        {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Returns an input stream for the data of the specified entry. Stored
+     * entries are read directly from the mapping without copying.
+     * @param entry the entry handle of a supported entry.
+     * @return an input stream for the entry data.
+     * @throws IOException if the entry header is corrupt.
+     */
+    public InputStream getInputStream(int entry) throws IOException
+    {
+        ByteBuffer data = getData(entry);
+        if (getMethod(entry) == STORED)
+        {
+            return new ByteBufferInputStream(data, false);
+        }
+        final Inflater inflater = new Inflater(true);
+        int size = m_buffer.getInt(entry + 24);
+        return new InflaterInputStream(new ByteBufferInputStream(data, true), inflater,
+            Math.max(512, Math.min(8192, (size < 0) ? 8192 : size)))
+        {
+            private boolean m_closed = false;
+
+            @Override
+            public void close() throws IOException
+            {
+                if (!m_closed)
+                {
+                    m_closed = true;
+                    inflater.end();
+                    super.close();
+                }
+            }
+        };
+    }
+
+    private int getMethod(int entry)
+    {
+        return m_buffer.getShort(entry + 10) & 0xffff;
+    }
+
+    private ByteBuffer getData(int entry) throws IOException
+    {
+        long compressedSize = m_buffer.getInt(entry + 20) & 0xffffffffL;
+        long loc = m_buffer.getInt(entry + 42) & 0xffffffffL;
+        if ((loc + LOCHDR > m_buffer.limit()) || (m_buffer.getInt((int) loc) != LOCSIG))
+        {
+            throw new IOException("Invalid local header: " + m_file);
+        }
+        long start = loc + LOCHDR
+            + (m_buffer.getShort((int) loc + 26) & 0xffff)
+            + (m_buffer.getShort((int) loc + 28) & 0xffff);
+        if (start + compressedSize > m_buffer.limit())
+        {
+            throw new IOException("Invalid entry size: " + m_file);
+        }
+        ByteBuffer data = m_buffer.duplicate();
+        data.limit((int) (start + compressedSize));
+        data.position((int) start);
+        return data;
+    }
+
+    private int find(byte[] name, boolean asDirectory)
+    {
+        int len = asDirectory ? name.length + 1 : name.length;
+        int hash = 0;
+        for (int i = 0; i < name.length; i++)
+        {
+            hash = 31 * hash + name[i];
+        }
+        if (asDirectory)
+        {
+            hash = 31 * hash + '/';
+        }
+        hash = spread(hash);
+
+        int mask = m_offsets.length - 1;
+        for (int slot = hash & mask; m_offsets[slot] != -1; slot = (slot + 1) & mask)
+        {
+            int pos = m_offsets[slot];
+            if ((m_hashes[slot] == hash) && ((m_buffer.getShort(pos + 28) & 0xffff) == len))
+            {
+                int off = pos + CENHDR;
+                boolean match = true;
+                for (int i = 0; match && (i < name.length); i++)
+                {
+                    match = m_buffer.get(off + i) == name[i];
+                }
+                if (match && (!asDirectory || (m_buffer.get(off + name.length) == '/')))
+                {
+                    return pos;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private int hash(int off, int len)
+    {
+        int hash = 0;
+        for (int i = 0; i < len; i++)
+        {
+            hash = 31 * hash + m_buffer.get(off + i);
+        }
+        return spread(hash);
+    }
+
+    private static int spread(int hash)
+    {
+        return hash ^ (hash >>> 16);
+    }
+
+    private String decode(int off, int len)
+    {
+        byte[] bytes = new byte[len];
+        ByteBuffer tmp = m_buffer.duplicate();
+        tmp.position(off);
+        tmp.get(bytes);
+        try
+        {
+            return new String(bytes, "UTF-8");
+        }
+        catch (IOException ex)
+        {
+            // UTF-8 is always supported.
+            throw new IllegalStateException(ex.getMessage());
+        }
+    }
+
+    private static byte[] utf8(String name)
+    {
+        try
+        {
+            return name.getBytes("UTF-8");
+        }
+        catch (IOException ex)
+        {
+            // UTF-8 is always supported.
+            throw new IllegalStateException(ex.getMessage());
+        }
+    }
+
+    private int findEndOfCentralDirectory() throws IOException
+    {
+        int limit = m_buffer.limit();
+        int min = Math.max(0, limit - ENDHDR - 0xffff);
+        for (int pos = limit - ENDHDR; pos >= min; pos--)
+        {
+            if (m_buffer.getInt(pos) == ENDSIG)
+            {
+                return pos;
+            }
+        }
+        throw new IOException("Not a ZIP file: " + m_file);
+    }
+
+    /**
+     * Reads from a slice of the mapping. Streams of deflated data provide an
+     * extra zero byte at the end, which the inflater needs in nowrap mode.
+     */
+    private static class ByteBufferInputStream extends InputStream
+    {
+        private final ByteBuffer m_data;
+        private boolean m_dummy;
+
+        ByteBufferInputStream(ByteBuffer data, boolean dummy)
+        {
+            m_data = data;
+            m_dummy = dummy;
+        }
+
+        @Override
+        public int read()
+        {
+            if (m_data.hasRemaining())
+            {
+                return m_data.get() & 0xff;
+            }
+            if (m_dummy)
+            {
+                m_dummy = false;
+                return 0;
+            }
+            return -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len)
+        {
+            if (len == 0)
+            {
+                return 0;
+            }
+            if (!m_data.hasRemaining())
+            {
+                if (m_dummy)
+                {
+                    m_dummy = false;
+                    b[off] = 0;
+                    return 1;
+                }
+                return -1;
+            }
+            len = Math.min(len, m_data.remaining());
+            m_data.get(b, off, len);
+            return len;
+        }
+
+        @Override
+        public long skip(long n)
+        {
+            int skipped = (int) Math.max(0, Math.min(n, m_data.remaining()));
+            m_data.position(m_data.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available()
+        {
+            return m_data.remaining();
+        }
+    }
+}
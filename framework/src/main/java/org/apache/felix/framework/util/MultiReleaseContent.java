@@ -92,6 +92,24 @@ public class MultiReleaseContent implements Content
         return content;
     }
 
+    /**
+     * Returns the wrapped content.
+     * @return the wrapped content.
+     */
+    public Content getContent()
+    {
+        return m_content;
+    }
+
+    /**
+     * Returns the Java version used to select versioned entries.
+     * @return the Java version used to select versioned entries.
+     */
+    public int getJavaVersion()
+    {
+        return m_javaVersion;
+    }
+
     @Override
     public void close()
     {
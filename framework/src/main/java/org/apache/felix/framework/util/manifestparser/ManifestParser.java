@@ -36,6 +36,9 @@ import org.osgi.framework.wiring.BundleCapability;
 import org.osgi.framework.wiring.BundleRequirement;
 import org.osgi.framework.wiring.BundleRevision;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -295,6 +298,280 @@ public class ManifestParser
         parseActivationPolicy(headerMap);
     }
 
+    private ManifestParser(Logger logger, Map<String, Object> configMap, Map<String, Object> headerMap)
+    {
+        m_logger = logger;
+        m_configMap = configMap;
+        m_headerMap = headerMap;
+        m_libraryClauses = new ArrayList<NativeLibraryClause>();
+    }
+
+    /**
+     * Writes the parsed metadata of this parser, so that it can be read back
+     * with {@link #read(DataInput, Logger, Map, BundleRevision, Map)} for the
+     * same manifest headers instead of parsing them again. Native library
+     * clauses depend on the framework configuration and are not written.
+     *
+     * @param out the output to write to.
+     * @return <tt>false</tt> if the metadata cannot be written, in which case
+     *         anything written to the output must be discarded.
+     * @throws IOException if any error occurs.
+    **/
+    public boolean write(DataOutput out) throws IOException
+    {
+        if (!m_libraryClauses.isEmpty() || m_libraryHeadersOptional)
+        {
+            return false;
+        }
+
+        out.writeInt(m_activationPolicy);
+        writeString(out, m_activationIncludeDir);
+        writeString(out, m_activationExcludeDir);
+        out.writeBoolean(m_isExtension);
+        writeString(out, m_bundleSymbolicName);
+        writeString(out, (m_bundleVersion != null) ? m_bundleVersion.toString() : null);
+
+        out.writeInt(m_capabilities.size());
+        for (BundleCapability cap : m_capabilities)
+        {
+            if ((cap.getClass() != BundleCapabilityImpl.class)
+                || !writeClause(out, cap.getNamespace(), cap.getDirectives(), cap.getAttributes()))
+            {
+                return false;
+            }
+        }
+        out.writeInt(m_requirements.size());
+        for (BundleRequirement req : m_requirements)
+        {
+            if ((req.getClass() != BundleRequirementImpl.class)
+                || !writeClause(out, req.getNamespace(), req.getDirectives(), req.getAttributes()))
+            {
+                return false;
+            }
+            writeString(out, ((BundleRequirementImpl) req).getFilter().toString());
+        }
+        return true;
+    }
+
+    /**
+     * Creates a parser from metadata previously written by
+     * {@link #write(DataOutput)} for the specified manifest headers.
+     *
+     * @param in the input to read from.
+     * @param logger the logger of the framework.
+     * @param configMap the configuration of the framework.
+     * @param owner the revision owning the parsed capabilities and requirements.
+     * @param headerMap the manifest headers the metadata was written for.
+     * @return the parser.
+     * @throws IOException if any error occurs.
+    **/
+    public static ManifestParser read(
+        DataInput in, Logger logger, Map<String, Object> configMap,
+        BundleRevision owner, Map<String, Object> headerMap)
+        throws IOException
+    {
+        ManifestParser mp = new ManifestParser(logger, configMap, headerMap);
+        mp.m_activationPolicy = in.readInt();
+        mp.m_activationIncludeDir = readString(in);
+        mp.m_activationExcludeDir = readString(in);
+        mp.m_isExtension = in.readBoolean();
+        mp.m_bundleSymbolicName = readString(in);
+        String version = readString(in);
+        mp.m_bundleVersion = (version != null) ? Version.parseVersion(version) : null;
+
+        int count = in.readInt();
+        List<BundleCapability> caps = new ArrayList<BundleCapability>(count);
+        for (int i = 0; i < count; i++)
+        {
+            String namespace = readString(in);
+            caps.add(new BundleCapabilityImpl(
+                owner, namespace, readDirectives(in), readAttributes(in)));
+        }
+        count = in.readInt();
+        List<BundleRequirement> reqs = new ArrayList<BundleRequirement>(count);
+        for (int i = 0; i < count; i++)
+        {
+            String namespace = readString(in);
+            Map<String, String> dirs = readDirectives(in);
+            Map<String, Object> attrs = readAttributes(in);
+            reqs.add(new BundleRequirementImpl(
+                owner, namespace, dirs, attrs, SimpleFilter.parse(readString(in))));
+        }
+        mp.m_capabilities = caps;
+        mp.m_requirements = reqs;
+        return mp;
+    }
+
+    private static final int VALUE_STRING = 0;
+    private static final int VALUE_VERSION = 1;
+    private static final int VALUE_LONG = 2;
+    private static final int VALUE_DOUBLE = 3;
+    private static final int VALUE_VERSIONRANGE = 4;
+    private static final int VALUE_LIST = 5;
+    private static final int VALUE_STRINGARRAY = 6;
+
+    private static boolean writeClause(
+        DataOutput out, String namespace, Map<String, String> dirs, Map<String, Object> attrs)
+        throws IOException
+    {
+        writeString(out, namespace);
+        out.writeInt(dirs.size());
+        for (Entry<String, String> entry : dirs.entrySet())
+        {
+            writeString(out, entry.getKey());
+            writeString(out, entry.getValue());
+        }
+        out.writeInt(attrs.size());
+        for (Entry<String, Object> entry : attrs.entrySet())
+        {
+            writeString(out, entry.getKey());
+            if (!writeValue(out, entry.getValue()))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean writeValue(DataOutput out, Object value) throws IOException
+    {
+        if (value instanceof String)
+        {
+            out.writeByte(VALUE_STRING);
+            writeString(out, (String) value);
+        }
+        else if (value instanceof Version)
+        {
+            out.writeByte(VALUE_VERSION);
+            writeString(out, value.toString());
+        }
+        else if (value instanceof Long)
+        {
+            out.writeByte(VALUE_LONG);
+            out.writeLong((Long) value);
+        }
+        else if (value instanceof Double)
+        {
+            out.writeByte(VALUE_DOUBLE);
+            out.writeDouble((Double) value);
+        }
+        else if (value instanceof VersionRange)
+        {
+            out.writeByte(VALUE_VERSIONRANGE);
+            writeString(out, value.toString());
+        }
+        else if (value instanceof List)
+        {
+            out.writeByte(VALUE_LIST);
+            out.writeInt(((List) value).size());
+            for (Object element : (List) value)
+            {
+                if (!writeValue(out, element))
+                {
+                    return false;
+                }
+            }
+        }
+        else if (value instanceof String[])
+        {
+            out.writeByte(VALUE_STRINGARRAY);
+            out.writeInt(((String[]) value).length);
+            for (String element : (String[]) value)
+            {
+                writeString(out, element);
+            }
+        }
+        else
+        {
+            return false;
+        }
+        return true;
+    }
+
+    private static Map<String, String> readDirectives(DataInput in) throws IOException
+    {
+        int count = in.readInt();
+        Map<String, String> dirs = new LinkedHashMap<String, String>(count * 2);
+        for (int i = 0; i < count; i++)
+        {
+            dirs.put(readString(in), readString(in));
+        }
+        return dirs;
+    }
+
+    private static Map<String, Object> readAttributes(DataInput in) throws IOException
+    {
+        int count = in.readInt();
+        Map<String, Object> attrs = new LinkedHashMap<String, Object>(count * 2);
+        for (int i = 0; i < count; i++)
+        {
+            attrs.put(readString(in), readValue(in));
+        }
+        return attrs;
+    }
+
+    private static Object readValue(DataInput in) throws IOException
+    {
+        int type = in.readByte();
+        switch (type)
+        {
+            case VALUE_STRING:
+                return readString(in);
+            case VALUE_VERSION:
+                return Version.parseVersion(readString(in));
+            case VALUE_LONG:
+                return in.readLong();
+            case VALUE_DOUBLE:
+                return in.readDouble();
+            case VALUE_VERSIONRANGE:
+                return new VersionRange(readString(in));
+            case VALUE_LIST:
+                int size = in.readInt();
+                List<Object> list = new ArrayList<Object>(size);
+                for (int i = 0; i < size; i++)
+                {
+                    list.add(readValue(in));
+                }
+                return list;
+            case VALUE_STRINGARRAY:
+                String[] array = new String[in.readInt()];
+                for (int i = 0; i < array.length; i++)
+                {
+                    array[i] = readString(in);
+                }
+                return array;
+            default:
+                throw new IOException("Unknown attribute value type " + type);
+        }
+    }
+
+    private static void writeString(DataOutput out, String s) throws IOException
+    {
+        // Header values may exceed the length limit of writeUTF().
+        if (s == null)
+        {
+            out.writeInt(-1);
+        }
+        else
+        {
+            byte[] bytes = s.getBytes("UTF-8");
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(DataInput in) throws IOException
+    {
+        int length = in.readInt();
+        if (length < 0)
+        {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
     private static List<ParsedHeaderClause> normalizeImportClauses(
         Logger logger, List<ParsedHeaderClause> clauses, String mv)
         throws BundleException
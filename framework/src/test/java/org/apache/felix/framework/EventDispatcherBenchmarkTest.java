@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.easymock.EasyMock;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceReference;
+
+/**
+ * Measures service event delivery throughput of the event dispatcher with
+ * many service listeners. Ignored by default and meant to be run manually.
+ */
+public class EventDispatcherBenchmarkTest
+{
+    private static final int LISTENERS = 5000;
+    private static final int CLASSES = 500;
+    private static final int EVENTS = 20000;
+
+    @Test
+    @Ignore
+    public void testServiceEventThroughput() throws Exception
+    {
+        Logger logger = new Logger();
+        EventDispatcher ed = new EventDispatcher(logger, new ServiceRegistry(logger, null));
+        Felix felix = new Felix(new HashMap());
+
+        final AtomicLong delivered = new AtomicLong();
+        for (int i = 0; i < LISTENERS; i++)
+        {
+            Bundle b = getMockBundle();
+            ServiceListener l = new ServiceListener()
+            {
+                public void serviceChanged(ServiceEvent event)
+                {
+                    delivered.incrementAndGet();
+                }
+            };
+            // Most listeners pin the object class, like trackers do; every
+            // tenth listener uses a filter that cannot be routed.
+            String filter = (i % 10 == 0)
+                ? "(service.pid=pid" + i + ")"
+                : "(objectClass=org.example.Service" + (i % CLASSES) + ")";
+            ed.addListener(b.getBundleContext(), ServiceListener.class, l, new FilterImpl(filter));
+        }
+
+        ServiceEvent[] events = new ServiceEvent[CLASSES];
+        for (int i = 0; i < CLASSES; i++)
+        {
+            ServiceReference sr = EasyMock.createNiceMock(ServiceReference.class);
+            EasyMock.expect(sr.getProperty(Constants.OBJECTCLASS)).andReturn(
+                new String[] { "org.example.Service" + i }).anyTimes();
+            EasyMock.expect(sr.getPropertyKeys()).andReturn(
+                new String[] { Constants.OBJECTCLASS }).anyTimes();
+            EasyMock.expect(sr.isAssignableTo(EasyMock.<Bundle>anyObject(), EasyMock.<String>anyObject()))
+                .andReturn(Boolean.TRUE).anyTimes();
+            EasyMock.replay(new Object[] { sr });
+            events[i] = new ServiceEvent(ServiceEvent.REGISTERED, sr);
+        }
+
+        for (int run = 0; run < 5; run++)
+        {
+            delivered.set(0);
+            long t0 = System.nanoTime();
+            for (int i = 0; i < EVENTS; i++)
+            {
+                ed.fireServiceEvent(events[i % CLASSES], null, felix);
+            }
+            long t1 = System.nanoTime();
+            System.out.println(String.format("%9.0f", EVENTS / ((t1 - t0) * 1E-9))
+                + " events/s on one thread, " + delivered.get() + " deliveries");
+        }
+    }
+
+    private Bundle getMockBundle()
+    {
+        BundleContext bc = EasyMock.createNiceMock(BundleContext.class);
+        Bundle b = EasyMock.createNiceMock(Bundle.class);
+        EasyMock.expect(b.getBundleContext()).andReturn(bc).anyTimes();
+        EasyMock.expect(b.getState()).andReturn(Integer.valueOf(Bundle.ACTIVE)).anyTimes();
+        EasyMock.expect(bc.getBundle()).andReturn(b).anyTimes();
+        EasyMock.replay(new Object[] { bc, b });
+        return b;
+    }
+}
@@ -18,13 +18,23 @@
  */
 package org.apache.felix.framework;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
 
 import junit.framework.TestCase;
 
+import org.apache.felix.framework.util.FelixConstants;
 import org.easymock.EasyMock;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.BundleListener;
 import org.osgi.framework.Constants;
 import org.osgi.framework.ServiceEvent;
 import org.osgi.framework.ServiceListener;
@@ -137,10 +147,260 @@ public class EventDispatcherTest extends TestCase
         assertTrue(calledHooks.contains(eh2));
     }
 
+    public void testFireServiceEventRoutedByObjectClass() throws Exception
+    {
+        final Bundle b1 = getMockBundle();
+        final Bundle b2 = getMockBundle();
+
+        Logger logger = new Logger();
+        ServiceRegistry registry = new ServiceRegistry(logger, null);
+        EventDispatcher ed = new EventDispatcher(logger, registry);
+
+        final List fired = Collections.synchronizedList(new ArrayList());
+        ServiceListener slString = new RecordingServiceListener(fired);
+        ed.addListener(b1.getBundleContext(), ServiceListener.class, slString,
+            new FilterImpl("(objectClass=java.lang.String)"));
+        ServiceListener slInteger = new RecordingServiceListener(fired);
+        ed.addListener(b1.getBundleContext(), ServiceListener.class, slInteger,
+            new FilterImpl("(&(objectClass=java.lang.Integer)(foo=bar))"));
+        ServiceListener slOr = new RecordingServiceListener(fired);
+        ed.addListener(b2.getBundleContext(), ServiceListener.class, slOr,
+            new FilterImpl("(|(objectClass=java.lang.String)(objectClass=java.lang.Long))"));
+        ServiceListener slAll = new RecordingServiceListener(fired);
+        ed.addListener(b2.getBundleContext(), ServiceListener.class, slAll, null);
+        ServiceListener slOther = new RecordingServiceListener(fired);
+        ed.addListener(b2.getBundleContext(), ServiceListener.class, slOther,
+            new FilterImpl("(foo=bar)"));
+
+        ServiceReference sr = EasyMock.createNiceMock(ServiceReference.class);
+        EasyMock.expect(sr.getProperty(Constants.OBJECTCLASS)).andReturn(new String[]
+            {
+                "java.lang.String", "java.lang.Long"
+            }).anyTimes();
+        EasyMock.expect(sr.getPropertyKeys()).andReturn(new String[]
+            {
+                Constants.OBJECTCLASS
+            }).anyTimes();
+        EasyMock.expect(sr.isAssignableTo(EasyMock.<Bundle>anyObject(), EasyMock.<String>anyObject()))
+            .andReturn(Boolean.TRUE).anyTimes();
+        EasyMock.replay(new Object[]
+            {
+                sr
+            });
+
+        ed.fireServiceEvent(new ServiceEvent(ServiceEvent.REGISTERED, sr), null, new Felix(new HashMap()));
+
+        assertEquals(3, fired.size());
+        assertTrue(fired.contains(slString));
+        assertTrue(fired.contains(slOr));
+        assertTrue(fired.contains(slAll));
+
+        // Updating the filter must update the routing.
+        fired.clear();
+        ed.addListener(b1.getBundleContext(), ServiceListener.class, slInteger,
+            new FilterImpl("(objectClass=java.lang.Long)"));
+        ed.fireServiceEvent(new ServiceEvent(ServiceEvent.REGISTERED, sr), null, new Felix(new HashMap()));
+        assertEquals(4, fired.size());
+        assertTrue(fired.contains(slInteger));
+    }
+
+    public void testFireBundleEventOnExecutorPerBundle() throws Exception
+    {
+        Logger logger = new Logger();
+        final EventDispatcher ed = new EventDispatcher(
+            logger, new ServiceRegistry(logger, null), 2, true);
+        ed.startDispatching();
+        Felix felix = new Felix(new HashMap());
+
+        // A slow listener must not delay the listener of another bundle.
+        final CountDownLatch release = new CountDownLatch(1);
+        final List slowFired = Collections.synchronizedList(new ArrayList());
+        BundleListener slow = new BundleListener()
+        {
+            public void bundleChanged(BundleEvent event)
+            {
+                try
+                {
+                    release.await();
+                }
+                catch (InterruptedException ex)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                slowFired.add(event);
+            }
+        };
+        final List fastFired = Collections.synchronizedList(new ArrayList());
+        final CountDownLatch fastDone = new CountDownLatch(10);
+        BundleListener fast = new BundleListener()
+        {
+            public void bundleChanged(BundleEvent event)
+            {
+                fastFired.add(event);
+                fastDone.countDown();
+            }
+        };
+        Bundle b1 = getMockBundle();
+        Bundle b2 = getMockBundle();
+        ed.addListener(b1.getBundleContext(), BundleListener.class, slow, null);
+        ed.addListener(b2.getBundleContext(), BundleListener.class, fast, null);
+
+        List events = new ArrayList();
+        for (int i = 0; i < 10; i++)
+        {
+            BundleEvent event = new BundleEvent(BundleEvent.INSTALLED, b1);
+            events.add(event);
+            ed.fireBundleEvent(event, felix);
+        }
+
+        assertTrue(fastDone.await(10, TimeUnit.SECONDS));
+        assertEquals(events, fastFired);
+        assertTrue(slowFired.isEmpty());
+        assertTrue(ed.getAsyncQueueDepth() > 0);
+
+        release.countDown();
+        ed.stopDispatching();
+        assertEquals(events, slowFired);
+        assertEquals(0, ed.getAsyncQueueDepth());
+        assertEquals(10, ed.getListenerStatistics().get(b1.getBundleContext()).get(slow).getCount());
+        assertEquals(10, ed.getListenerStatistics().get(b2.getBundleContext()).get(fast).getCount());
+
+        // Events fired after dispatching stopped are dropped.
+        ed.fireBundleEvent(new BundleEvent(BundleEvent.INSTALLED, b1), felix);
+        assertEquals(10, fastFired.size());
+
+        ed.removeListener(b2.getBundleContext(), BundleListener.class, fast);
+        assertNull(ed.getListenerStatistics().get(b2.getBundleContext()).get(fast));
+    }
+
+    public void testListenerStatisticsThroughFramework() throws Exception
+    {
+        Map params = new HashMap();
+        params.put(Constants.FRAMEWORK_SYSTEMPACKAGES,
+            "org.osgi.framework; version=1.4.0");
+        File cacheDir = File.createTempFile("felix-cache", ".dir");
+        cacheDir.delete();
+        cacheDir.mkdirs();
+        params.put(Constants.FRAMEWORK_STORAGE, cacheDir.getPath());
+        params.put(FelixConstants.EVENT_DISPATCHER_THREADS, "2");
+
+        Felix f = new Felix(params);
+        f.init();
+        f.start();
+        try
+        {
+            Bundle a = f.getBundleContext().installBundle(
+                createBundle("a", cacheDir).toURI().toString());
+            a.start();
+
+            // The same listener object added through two bundle contexts.
+            final CountDownLatch fired = new CountDownLatch(4);
+            BundleListener listener = new BundleListener()
+            {
+                public void bundleChanged(BundleEvent event)
+                {
+                    if (event.getType() == BundleEvent.INSTALLED)
+                    {
+                        fired.countDown();
+                    }
+                }
+            };
+            f.getBundleContext().addBundleListener(listener);
+            a.getBundleContext().addBundleListener(listener);
+
+            f.getBundleContext().installBundle(createBundle("b", cacheDir).toURI().toString());
+            f.getBundleContext().installBundle(createBundle("c", cacheDir).toURI().toString());
+            assertTrue(fired.await(10, TimeUnit.SECONDS));
+
+            // Statistics are recorded once the callback returns.
+            Map<BundleContext, Map<EventListener, EventDispatcher.ListenerStatistics>> stats;
+            long deadline = System.currentTimeMillis() + 10000;
+            do
+            {
+                Thread.sleep(10);
+                stats = f.getEventListenerStatistics();
+            }
+            while ((getCount(stats, f.getBundleContext(), listener) < 2
+                || getCount(stats, a.getBundleContext(), listener) < 2)
+                && (System.currentTimeMillis() < deadline));
+            assertEquals(2, getCount(stats, f.getBundleContext(), listener));
+            assertEquals(2, getCount(stats, a.getBundleContext(), listener));
+            assertEquals(0, f.getEventQueueDepth());
+
+            // Removing the listener of one context keeps the other's statistics.
+            BundleContext aContext = a.getBundleContext();
+            aContext.removeBundleListener(listener);
+            stats = f.getEventListenerStatistics();
+            assertNull(stats.get(aContext).get(listener));
+            assertNotNull(stats.get(f.getBundleContext()).get(listener));
+
+            a.stop();
+            assertNull(f.getEventListenerStatistics().get(aContext));
+        }
+        finally
+        {
+            f.stop();
+            f.waitForStop(10000);
+            deleteDir(cacheDir);
+        }
+    }
+
+    private static long getCount(
+        Map<BundleContext, Map<EventListener, EventDispatcher.ListenerStatistics>> stats,
+        BundleContext context, EventListener listener)
+    {
+        Map<EventListener, EventDispatcher.ListenerStatistics> contextStats = stats.get(context);
+        EventDispatcher.ListenerStatistics listenerStats =
+            (contextStats == null) ? null : contextStats.get(listener);
+        return (listenerStats == null) ? 0 : listenerStats.getCount();
+    }
+
+    private static File createBundle(String name, File tempDir) throws IOException
+    {
+        File f = File.createTempFile("felix-bundle", ".jar", tempDir);
+
+        Manifest mf = new Manifest();
+        mf.getMainAttributes().putValue("Manifest-Version", "1.0");
+        mf.getMainAttributes().putValue(Constants.BUNDLE_MANIFESTVERSION, "2");
+        mf.getMainAttributes().putValue(Constants.BUNDLE_SYMBOLICNAME, name);
+        new JarOutputStream(new FileOutputStream(f), mf).close();
+        return f;
+    }
+
+    private static void deleteDir(File root) throws IOException
+    {
+        if (root.isDirectory())
+        {
+            for (File file : root.listFiles())
+            {
+                deleteDir(file);
+            }
+        }
+        assertTrue(root.delete());
+    }
+
+    private static class RecordingServiceListener implements ServiceListener
+    {
+        private final List m_fired;
+
+        RecordingServiceListener(List fired)
+        {
+            m_fired = fired;
+        }
+
+        public void serviceChanged(ServiceEvent event)
+        {
+            m_fired.add(this);
+        }
+    }
+
     private Bundle getMockBundle()
     {
         BundleContext bc = EasyMock.createNiceMock(BundleContext.class);
         Bundle b = EasyMock.createNiceMock(Bundle.class);
+        // Asynchronous events are delivered on other threads.
+        EasyMock.makeThreadSafe(bc, true);
+        EasyMock.makeThreadSafe(b, true);
         EasyMock.expect(b.getBundleContext()).andReturn(bc).anyTimes();
         b.getState();
         EasyMock.expectLastCall().andReturn(Integer.valueOf(Bundle.ACTIVE)).anyTimes();
@@ -0,0 +1,207 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.framework.util.FelixConstants;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleActivator;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.FrameworkEvent;
+import org.osgi.framework.FrameworkListener;
+import org.osgi.framework.startlevel.BundleStartLevel;
+import org.osgi.framework.startlevel.FrameworkStartLevel;
+
+public class ParallelStartLevelTest extends TestCase
+{
+    private static final int DELAY = 500;
+
+    public void testParallelStartLevel() throws Exception
+    {
+        Map params = new HashMap();
+        params.put(Constants.FRAMEWORK_SYSTEMPACKAGES,
+            "org.osgi.framework; version=1.4.0");
+        File cacheDir = File.createTempFile("felix-cache", ".dir");
+        cacheDir.delete();
+        cacheDir.mkdirs();
+        params.put(Constants.FRAMEWORK_STORAGE, cacheDir.getPath());
+        params.put(FelixConstants.STARTLEVEL_PARALLEL_THREADS, "4");
+
+        Felix f = new Felix(params);
+        f.init();
+        f.start();
+
+        try
+        {
+            List<Bundle> level2 = new ArrayList<Bundle>();
+            for (int i = 0; i < 4; i++)
+            {
+                level2.add(install(f, cacheDir, "slow" + i, 2, "Test-Delay: " + DELAY + "\n"));
+            }
+            Bundle fail1 = install(f, cacheDir, "fail1", 2, "Test-Fail: true\n");
+            Bundle fail2 = install(f, cacheDir, "fail2", 2, "Test-Fail: true\n");
+            // Checks that all bundles of the lower level were started first.
+            Bundle level3 = install(f, cacheDir, "check", 3, "Test-Check-Level: 2\n");
+
+            final List<FrameworkEvent> errors =
+                Collections.synchronizedList(new ArrayList<FrameworkEvent>());
+            f.getBundleContext().addFrameworkListener(new FrameworkListener()
+            {
+                public void frameworkEvent(FrameworkEvent event)
+                {
+                    if (event.getType() == FrameworkEvent.ERROR)
+                    {
+                        errors.add(event);
+                    }
+                }
+            });
+
+            final CountDownLatch changed = new CountDownLatch(1);
+            long t0 = System.currentTimeMillis();
+            f.adapt(FrameworkStartLevel.class).setStartLevel(3, new FrameworkListener()
+            {
+                public void frameworkEvent(FrameworkEvent event)
+                {
+                    changed.countDown();
+                }
+            });
+            assertTrue(changed.await(30, TimeUnit.SECONDS));
+            long t1 = System.currentTimeMillis();
+
+            // Sequentially this would take four times the delay.
+            assertTrue("Took " + (t1 - t0) + " ms", (t1 - t0) < 3 * DELAY);
+            for (Bundle b : level2)
+            {
+                assertEquals(Bundle.ACTIVE, b.getState());
+                assertTrue(f.getStartLevelActivationTimes().get(b.getBundleId())
+                    >= TimeUnit.MILLISECONDS.toNanos(DELAY));
+            }
+            assertEquals(Bundle.ACTIVE, level3.getState());
+            assertEquals(Bundle.RESOLVED, fail1.getState());
+
+            // Errors are reported in bundle id order once the level is done.
+            Thread.sleep(DELAY);
+            assertEquals(2, errors.size());
+            assertEquals(fail1, errors.get(0).getBundle());
+            assertEquals(fail2, errors.get(1).getBundle());
+        }
+        finally
+        {
+            f.stop();
+            f.waitForStop(10000);
+            deleteDir(cacheDir);
+        }
+    }
+
+    private static Bundle install(Felix f, File dir, String name, int level, String headers)
+        throws Exception
+    {
+        String mf = "Bundle-SymbolicName: " + name + "\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + "Import-Package: org.osgi.framework\n"
+            + headers;
+        Bundle b = f.getBundleContext().installBundle(createBundle(mf, dir).toURI().toString());
+        b.adapt(BundleStartLevel.class).setStartLevel(level);
+        b.start();
+        return b;
+    }
+
+    private static File createBundle(String manifest, File tempDir) throws IOException
+    {
+        File f = File.createTempFile("felix-bundle", ".jar", tempDir);
+
+        Manifest mf = new Manifest(new ByteArrayInputStream(manifest.getBytes("utf-8")));
+        mf.getMainAttributes().putValue("Manifest-Version", "1.0");
+        mf.getMainAttributes().putValue(Constants.BUNDLE_ACTIVATOR, TestBundleActivator.class.getName());
+        JarOutputStream os = new JarOutputStream(new FileOutputStream(f), mf);
+
+        String path = TestBundleActivator.class.getName().replace('.', '/') + ".class";
+        os.putNextEntry(new ZipEntry(path));
+
+        InputStream is = TestBundleActivator.class.getClassLoader().getResourceAsStream(path);
+        byte[] b = new byte[is.available()];
+        is.read(b);
+        is.close();
+        os.write(b);
+
+        os.close();
+        return f;
+    }
+
+    private static void deleteDir(File root) throws IOException
+    {
+        if (root.isDirectory())
+        {
+            for (File file : root.listFiles())
+            {
+                deleteDir(file);
+            }
+        }
+        assertTrue(root.delete());
+    }
+
+    public static class TestBundleActivator implements BundleActivator
+    {
+        public void start(BundleContext context) throws Exception
+        {
+            String delay = context.getBundle().getHeaders().get("Test-Delay");
+            if (delay != null)
+            {
+                Thread.sleep(Long.parseLong(delay));
+            }
+            if (context.getBundle().getHeaders().get("Test-Fail") != null)
+            {
+                throw new Exception("Failing as requested.");
+            }
+            String level = context.getBundle().getHeaders().get("Test-Check-Level");
+            if (level != null)
+            {
+                for (Bundle b : context.getBundles())
+                {
+                    if ((b.getHeaders().get("Test-Delay") != null) && (b.getState() != Bundle.ACTIVE))
+                    {
+                        throw new Exception("Bundle " + b + " of level " + level + " is not active.");
+                    }
+                }
+            }
+        }
+
+        public void stop(BundleContext context) throws Exception
+        {
+        }
+    }
+}
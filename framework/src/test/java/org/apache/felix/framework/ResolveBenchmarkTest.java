@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+import org.osgi.framework.wiring.FrameworkWiring;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the time of resolving a large set of bundles, both when
+ * resolving batches of newly installed bundles one after the other and
+ * when resolving all of them at once. Ignored by default and meant to be
+ * run manually.
+ */
+public class ResolveBenchmarkTest
+{
+    private static final int BUNDLES = 1000;
+    private static final int BATCH = 50;
+    private static final int IMPORTS = 10;
+    private static final int VERSIONS = 3;
+
+    @Test
+    @Ignore
+    public void testResolveSpeed() throws Exception
+    {
+        File cacheDir = File.createTempFile("felix-cache", ".dir");
+        cacheDir.delete();
+        cacheDir.mkdirs();
+        try
+        {
+            List<File> jars = new ArrayList<File>();
+            for (int i = 0; i < BUNDLES; i++)
+            {
+                // Every package is exported in several versions, and imported
+                // with version ranges, so that the providers have to be
+                // filtered and sorted.
+                StringBuilder exports = new StringBuilder();
+                for (int v = 1; v <= VERSIONS; v++)
+                {
+                    exports.append((v > 1) ? "," : "")
+                        .append("org.example.p").append(i).append("; version=").append(v).append(".").append(i % 10);
+                }
+                StringBuilder imports = new StringBuilder("org.example.p" + i);
+                for (int j = 1; (j <= IMPORTS) && (j <= i); j++)
+                {
+                    imports.append(",org.example.p").append((i * 31 + j) % i)
+                        .append("; version=\"[").append(1 + j % VERSIONS).append(",").append(VERSIONS + 1).append(")\"");
+                }
+                jars.add(createBundle(cacheDir,
+                    "Bundle-SymbolicName: b" + i + "\n"
+                    + "Export-Package: " + exports + "\n"
+                    + "Import-Package: " + imports + "\n"));
+            }
+
+            for (int run = 0; run < 5; run++)
+            {
+                System.out.println("batches:  " + resolve(cacheDir, jars, BATCH) + " ms");
+                System.out.println("all:      " + resolve(cacheDir, jars, BUNDLES) + " ms");
+            }
+        }
+        finally
+        {
+            deleteDir(cacheDir);
+        }
+    }
+
+    private long resolve(File cacheDir, List<File> jars, int batch) throws Exception
+    {
+        File storage = new File(cacheDir, "storage");
+        Map params = new HashMap();
+        params.put(Constants.FRAMEWORK_SYSTEMPACKAGES,
+            "org.osgi.framework; version=1.4.0");
+        params.put(Constants.FRAMEWORK_STORAGE, storage.getPath());
+        params.put(Constants.FRAMEWORK_STORAGE_CLEAN, Constants.FRAMEWORK_STORAGE_CLEAN_ONFIRSTINIT);
+        Felix f = new Felix(params);
+        f.init();
+        f.start();
+        try
+        {
+            long time = 0;
+            for (int i = 0; i < jars.size(); i += batch)
+            {
+                for (int j = i; (j < i + batch) && (j < jars.size()); j++)
+                {
+                    f.getBundleContext().installBundle(jars.get(j).toURI().toString());
+                }
+                long t0 = System.nanoTime();
+                assertTrue(f.adapt(FrameworkWiring.class).resolveBundles(null));
+                time += System.nanoTime() - t0;
+            }
+            for (Bundle b : f.getBundleContext().getBundles())
+            {
+                assertTrue((b.getState() & Bundle.INSTALLED) == 0);
+            }
+            return time / 1000000;
+        }
+        finally
+        {
+            f.stop();
+            f.waitForStop(0);
+        }
+    }
+
+    private static File createBundle(File dir, String headers) throws Exception
+    {
+        File f = File.createTempFile("felix-bundle", ".jar", dir);
+        Manifest mf = new Manifest(new ByteArrayInputStream(
+            ("Bundle-ManifestVersion: 2\n" + headers).getBytes("utf-8")));
+        mf.getMainAttributes().putValue("Manifest-Version", "1.0");
+        new JarOutputStream(new FileOutputStream(f), mf).close();
+        return f;
+    }
+
+    private static void deleteDir(File root)
+    {
+        if (root.isDirectory())
+        {
+            for (File file : root.listFiles())
+            {
+                deleteDir(file);
+            }
+        }
+        root.delete();
+    }
+}
@@ -19,18 +19,23 @@
 package org.apache.felix.framework;
 
 import junit.framework.TestCase;
+import org.apache.felix.framework.wiring.BundleRequirementImpl;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.Constants;
 import org.osgi.framework.launch.Framework;
+import org.osgi.framework.wiring.BundleCapability;
+import org.osgi.framework.wiring.BundleRequirement;
 import org.osgi.framework.wiring.BundleRevision;
 import org.osgi.framework.wiring.BundleWire;
 import org.osgi.framework.wiring.BundleWiring;
 import org.osgi.framework.wiring.FrameworkWiring;
+import org.osgi.service.resolver.ResolutionException;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.lang.reflect.Field;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -275,6 +280,204 @@ public class ResolveTest extends TestCase
         assertEquals(requiredWires.get(1).getProvider().getBundle(), ho);
     }
 
+    public void testResolveDynamicAfterFailedDynamicImport() throws Exception
+    {
+        String dynm = "Bundle-SymbolicName: cap.dyn\n"
+            + "Bundle-Version: 1.0.0\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + "DynamicImport-Package: org.foo.*\n";
+        File dynFile = createBundle(dynm);
+
+        String expm = "Bundle-SymbolicName: cap.exp\n"
+            + "Bundle-Version: 1.0.0\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + "Export-Package: org.foo.qux\n";
+        File expFile = createBundle(expm);
+
+        Bundle dyn = felix.getBundleContext().installBundle(dynFile.toURI().toASCIIString());
+        felix.adapt(FrameworkWiring.class).resolveBundles(Collections.singletonList(dyn));
+        assertEquals(Bundle.RESOLVED, dyn.getState());
+
+        // Nothing exports the package yet, so the dynamic import fails,
+        // also when retried.
+        for (int i = 0; i < 2; i++)
+        {
+            try
+            {
+                dyn.loadClass("org.foo.qux.Qux");
+                fail();
+            }
+            catch (ClassNotFoundException ex)
+            {
+                // Expected
+            }
+            assertTrue(dyn.adapt(BundleWiring.class).getRequiredWires(BundleRevision.PACKAGE_NAMESPACE).isEmpty());
+        }
+
+        // Once a bundle exports the package, the dynamic import is tried again.
+        Bundle exp = felix.getBundleContext().installBundle(expFile.toURI().toASCIIString());
+        try
+        {
+            dyn.loadClass("org.foo.qux.Qux");
+            fail();
+        }
+        catch (ClassNotFoundException ex)
+        {
+            // Expected, since the exporter doesn't contain the class
+        }
+        assertEquals(Bundle.RESOLVED, exp.getState());
+        List<BundleWire> requiredWires = dyn.adapt(BundleWiring.class).getRequiredWires(BundleRevision.PACKAGE_NAMESPACE);
+        assertEquals(1, requiredWires.size());
+        assertEquals(exp, requiredWires.get(0).getProvider().getBundle());
+    }
+
+    public void testDynamicImportMissUntilCapabilitiesChange() throws Exception
+    {
+        String dynm = "Bundle-SymbolicName: cap.dyn\n"
+            + "Bundle-Version: 1.0.0\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + "DynamicImport-Package: org.foo.*\n";
+        File dynFile = createBundle(dynm);
+
+        String expm = "Bundle-SymbolicName: cap.exp\n"
+            + "Bundle-Version: 1.0.0\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + "Export-Package: org.foo.qux\n"
+            + "Require-Bundle: cap.lib\n";
+        File expFile = createBundle(expm);
+
+        String libm = "Bundle-SymbolicName: cap.lib\n"
+            + "Bundle-Version: 1.0.0\n"
+            + "Bundle-ManifestVersion: 2\n";
+        File libFile = createBundle(libm);
+
+        StatefulResolver resolver = ((Felix) felix).getResolver();
+        Bundle dyn = felix.getBundleContext().installBundle(dynFile.toURI().toASCIIString());
+        felix.adapt(FrameworkWiring.class).resolveBundles(Collections.singletonList(dyn));
+        assertEquals(Bundle.RESOLVED, dyn.getState());
+        BundleRevision revision = dyn.adapt(BundleRevision.class);
+
+        // The exporter cannot be resolved without the bundle it requires,
+        // so the resolver fails the dynamic import.
+        Bundle exp = felix.getBundleContext().installBundle(expFile.toURI().toASCIIString());
+        try
+        {
+            resolver.resolve(revision, "org.foo.qux");
+            fail();
+        }
+        catch (ResolutionException ex)
+        {
+            // Expected
+        }
+
+        // Nothing changed, so the failure is remembered and the resolver
+        // is not asked again.
+        assertNull(resolver.resolve(revision, "org.foo.qux"));
+        assertNull(resolver.resolve(revision, "org.foo.qux"));
+
+        // Installing the required bundle enables the exporter, although it
+        // exports nothing itself.
+        Bundle lib = felix.getBundleContext().installBundle(libFile.toURI().toASCIIString());
+        assertEquals(exp.adapt(BundleRevision.class), resolver.resolve(revision, "org.foo.qux"));
+        assertEquals(Bundle.RESOLVED, exp.getState());
+        assertEquals(Bundle.RESOLVED, lib.getState());
+        List<BundleWire> requiredWires = dyn.adapt(BundleWiring.class).getRequiredWires(BundleRevision.PACKAGE_NAMESPACE);
+        assertEquals(1, requiredWires.size());
+        assertEquals(exp, requiredWires.get(0).getProvider().getBundle());
+    }
+
+    public void testFindProvidersAfterInstallAndUninstall() throws Exception
+    {
+        String impm = "Bundle-SymbolicName: cap.imp\n"
+            + "Bundle-Version: 1.0.0\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + "Import-Package: org.foo;version=\"[1,2)\"\n";
+        File impFile = createBundle(impm);
+
+        String expm = "Bundle-SymbolicName: cap.exp\n"
+            + "Bundle-Version: 1.0.0\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + "Export-Package: org.foo;version=1.1\n";
+        File expFile = createBundle(expm);
+
+        String otherm = "Bundle-SymbolicName: cap.other\n"
+            + "Bundle-Version: 1.0.0\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + "Export-Package: org.bar,org.foo;version=2.0\n";
+        File otherFile = createBundle(otherm);
+
+        StatefulResolver resolver = ((Felix) felix).getResolver();
+        Bundle imp = felix.getBundleContext().installBundle(impFile.toURI().toASCIIString());
+        BundleRequirement req = imp.adapt(BundleRevision.class)
+            .getDeclaredRequirements(BundleRevision.PACKAGE_NAMESPACE).get(0);
+
+        // Ask twice, so the second lookup comes from the cached matches.
+        assertTrue(resolver.findProviders(req, true).isEmpty());
+        assertTrue(resolver.findProviders(req, true).isEmpty());
+
+        // Installing an exporter makes the cached empty result stale.
+        Bundle exp = felix.getBundleContext().installBundle(expFile.toURI().toASCIIString());
+        List<BundleCapability> providers = resolver.findProviders(req, true);
+        assertEquals(1, providers.size());
+        assertEquals(exp, providers.get(0).getRevision().getBundle());
+
+        // An exporter of the package outside of the version range does not
+        // match, an exporter of another package is not affected.
+        felix.getBundleContext().installBundle(otherFile.toURI().toASCIIString());
+        providers = resolver.findProviders(req, true);
+        assertEquals(1, providers.size());
+        assertEquals(exp, providers.get(0).getRevision().getBundle());
+
+        // Uninstalling the exporter makes the result empty again.
+        exp.uninstall();
+        assertTrue(resolver.findProviders(req, true).isEmpty());
+        assertTrue(resolver.findProviders(req, true).isEmpty());
+
+        // And installing it again brings it back.
+        exp = felix.getBundleContext().installBundle(expFile.toURI().toASCIIString());
+        providers = resolver.findProviders(req, true);
+        assertEquals(1, providers.size());
+        assertEquals(exp, providers.get(0).getRevision().getBundle());
+    }
+
+    public void testFindProvidersDoesNotCacheMissingPackages() throws Exception
+    {
+        String expm = "Bundle-SymbolicName: cap.exp\n"
+            + "Bundle-Version: 1.0.0\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + "Export-Package: org.foo\n";
+        File expFile = createBundle(expm);
+
+        StatefulResolver resolver = ((Felix) felix).getResolver();
+        Bundle exp = felix.getBundleContext().installBundle(expFile.toURI().toASCIIString());
+        BundleRevision revision = exp.adapt(BundleRevision.class);
+
+        // Probing for packages nobody exports leaves nothing behind.
+        for (int i = 0; i < 100; i++)
+        {
+            BundleRequirement req = new BundleRequirementImpl(revision, BundleRevision.PACKAGE_NAMESPACE,
+                Collections.<String, String>emptyMap(),
+                Collections.<String, Object>singletonMap(BundleRevision.PACKAGE_NAMESPACE, "org.missing" + i));
+            assertTrue(resolver.findProviders(req, true).isEmpty());
+        }
+        assertNull(getCachedMatches(resolver).get("org.missing0"));
+
+        // A package which is exported is still cached.
+        BundleRequirement req = new BundleRequirementImpl(revision, BundleRevision.PACKAGE_NAMESPACE,
+            Collections.<String, String>emptyMap(),
+            Collections.<String, Object>singletonMap(BundleRevision.PACKAGE_NAMESPACE, "org.foo"));
+        assertEquals(1, resolver.findProviders(req, true).size());
+        assertEquals(Collections.singleton("org.foo"), getCachedMatches(resolver).keySet());
+    }
+
+    private static Map<?, ?> getCachedMatches(StatefulResolver resolver) throws Exception
+    {
+        Field field = StatefulResolver.class.getDeclaredField("m_matches");
+        field.setAccessible(true);
+        Map<?, ?> matches = (Map<?, ?>) ((Map<?, ?>) field.get(resolver)).get(BundleRevision.PACKAGE_NAMESPACE);
+        return (matches != null) ? matches : Collections.emptyMap();
+    }
+
     private File createBundle(String manifest) throws IOException
     {
         File f = File.createTempFile("felix-bundle", ".jar", tempDir);
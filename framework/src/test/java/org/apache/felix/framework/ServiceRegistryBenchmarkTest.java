@@ -0,0 +1,156 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.util.Arrays;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.felix.framework.capabilityset.SimpleFilter;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceReference;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Micro benchmarks for the service registry. They are ignored by default
+ * and meant to be run manually.
+ */
+public class ServiceRegistryBenchmarkTest
+{
+    private static final int ITERATIONS = 10000;
+
+    @Test
+    @Ignore
+    public void testServiceLookupSpeed() throws Exception
+    {
+        for (int count : new int[] { 10000, 100000 })
+        {
+            runServiceLookup(count, null);
+            runServiceLookup(count, Arrays.asList(Constants.SERVICE_PID, "component.name"));
+        }
+    }
+
+    @Test
+    @Ignore
+    public void testGetServiceContention() throws Exception
+    {
+        for (int threads : new int[] { 1, 8, 64, 256 })
+        {
+            runGetService(threads, false);
+            runGetService(threads, true);
+        }
+    }
+
+    private void runGetService(final int threads, final boolean striped) throws Exception
+    {
+        final ServiceRegistry sr = new ServiceRegistry(null, null, null, striped);
+        final Bundle regBundle = Mockito.mock(Bundle.class);
+        final Bundle client = Mockito.mock(Bundle.class);
+        final ServiceReference<?>[] refs = new ServiceReference<?>[16];
+        for (int i = 0; i < refs.length; i++)
+        {
+            refs[i] = sr.registerService(
+                regBundle, new String[] { Runnable.class.getName() }, new Object(), null).getReference();
+        }
+
+        final int perThread = 2000000 / threads;
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++)
+        {
+            final int offset = t;
+            new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        start.await();
+                        for (int i = 0; i < perThread; i++)
+                        {
+                            // All threads hammer the same hot service most of the time.
+                            ServiceReference<?> ref = refs[((i & 7) == 0) ? (offset + i) % refs.length : 0];
+                            sr.getService(client, ref, false);
+                            sr.ungetService(client, ref, null);
+                        }
+                    }
+                    catch (InterruptedException ex)
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                    finally
+                    {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        long t0 = System.nanoTime();
+        start.countDown();
+        done.await();
+        long t1 = System.nanoTime();
+
+        System.out.println("get/unget with " + threads + " threads, striped=" + striped + ": "
+            + String.format("%9.0f", perThread * threads / ((t1 - t0) * 1E-9)) + " ops/s");
+    }
+
+    private void runServiceLookup(int count, List<String> indexProps) throws Exception
+    {
+        ServiceRegistry sr = new ServiceRegistry(null, null, indexProps);
+        Bundle b = Mockito.mock(Bundle.class);
+        for (int i = 0; i < count; i++)
+        {
+            Hashtable<String, Object> props = new Hashtable<String, Object>();
+            props.put(Constants.SERVICE_PID, "pid" + i);
+            props.put("component.name", "comp" + (i % 100));
+            sr.registerService(b, new String[] { Runnable.class.getName() }, new Object(), props);
+        }
+
+        SimpleFilter[] filters = new SimpleFilter[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++)
+        {
+            filters[i] = SimpleFilter.parse(
+                "(&(component.name=comp" + (i % 100) + ")(service.pid=pid" + (i % count) + "))");
+        }
+
+        // Warm up.
+        for (int i = 0; i < ITERATIONS; i++)
+        {
+            sr.getServiceReferences(Runnable.class.getName(), filters[i]);
+        }
+
+        long t0 = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++)
+        {
+            assertEquals(1, sr.getServiceReferences(Runnable.class.getName(), filters[i]).size());
+        }
+        long t1 = System.nanoTime();
+
+        System.out.println("Lookup in " + count + " registrations, indices " + indexProps + ": "
+            + String.format("%9.2f", (t1 - t0) / 1000.0 / ITERATIONS) + " us/lookup");
+    }
+}
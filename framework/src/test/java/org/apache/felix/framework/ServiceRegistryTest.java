@@ -37,6 +37,7 @@ import junit.framework.TestCase;
 import org.apache.felix.framework.ServiceRegistrationImpl.ServiceReferenceImpl;
 import org.apache.felix.framework.ServiceRegistry.ServiceHolder;
 import org.apache.felix.framework.ServiceRegistry.UsageCount;
+import org.apache.felix.framework.capabilityset.SimpleFilter;
 import org.easymock.MockControl;
 import org.mockito.AdditionalAnswers;
 import org.mockito.InOrder;
@@ -45,6 +46,7 @@ import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
 import org.osgi.framework.ServiceEvent;
 import org.osgi.framework.ServiceException;
 import org.osgi.framework.ServiceFactory;
@@ -53,6 +55,7 @@ import org.osgi.framework.ServiceRegistration;
 import org.osgi.framework.hooks.service.EventHook;
 import org.osgi.framework.hooks.service.FindHook;
 import org.osgi.framework.hooks.service.ListenerHook;
+import org.osgi.resource.Capability;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.nullValue;
@@ -1274,6 +1277,138 @@ public class ServiceRegistryTest extends TestCase
         assertThat(sr.getServicesInUse(clientBundle), nullValue());
     }
 
+    public void testGetServiceReferencesSecondaryIndex() throws Exception
+    {
+        ServiceRegistry sr = new ServiceRegistry(null, null,
+            Arrays.asList(Constants.SERVICE_PID, "component.name"));
+        Bundle b = Mockito.mock(Bundle.class);
+
+        List<ServiceRegistration> regs = new ArrayList<ServiceRegistration>();
+        for (int i = 0; i < 10; i++)
+        {
+            Hashtable<String, Object> props = new Hashtable<String, Object>();
+            props.put(Constants.SERVICE_PID, "pid" + i);
+            props.put("component.name", "comp" + (i % 2));
+            regs.add(sr.registerService(b, new String [] {String.class.getName()}, "svc" + i, props));
+        }
+        sr.registerService(b, new String [] {Integer.class.getName()}, 42, null);
+
+        assertEquals(1, sr.getServiceReferences(String.class.getName(),
+            SimpleFilter.parse("(service.pid=pid3)")).size());
+        assertEquals(5, sr.getServiceReferences(String.class.getName(),
+            SimpleFilter.parse("(component.name=comp1)")).size());
+        assertEquals(1, sr.getServiceReferences(null,
+            SimpleFilter.parse("(&(component.name=comp1)(service.pid=pid3)(objectClass=java.lang.String))")).size());
+        assertEquals(0, sr.getServiceReferences(null,
+            SimpleFilter.parse("(&(component.name=comp0)(service.pid=pid3))")).size());
+        assertEquals(0, sr.getServiceReferences(Integer.class.getName(),
+            SimpleFilter.parse("(service.pid=pid3)")).size());
+        assertEquals(4, sr.getServiceReferences(String.class.getName(),
+            SimpleFilter.parse("(&(component.name=comp1)(!(service.pid=pid3)))")).size());
+
+        // Modified properties must be reflected in the index.
+        Hashtable<String, Object> props = new Hashtable<String, Object>();
+        props.put(Constants.SERVICE_PID, "other");
+        props.put("component.name", "comp1");
+        regs.get(3).setProperties(props);
+        assertEquals(0, sr.getServiceReferences(String.class.getName(),
+            SimpleFilter.parse("(service.pid=pid3)")).size());
+        Collection<Capability> found = sr.getServiceReferences(String.class.getName(),
+            SimpleFilter.parse("(service.pid=other)"));
+        assertEquals(1, found.size());
+        assertSame(regs.get(3).getReference(), found.iterator().next());
+
+        regs.get(3).unregister();
+        assertEquals(0, sr.getServiceReferences(String.class.getName(),
+            SimpleFilter.parse("(service.pid=other)")).size());
+        assertEquals(4, sr.getServiceReferences(null,
+            SimpleFilter.parse("(component.name=comp1)")).size());
+    }
+
+    public void testStripedUsageCounts() throws Exception
+    {
+        ServiceRegistry sr = new ServiceRegistry(null, null, null, true);
+        Bundle regBundle = Mockito.mock(Bundle.class);
+        Bundle clientBundle = Mockito.mock(Bundle.class);
+        Bundle otherBundle = Mockito.mock(Bundle.class);
+
+        ServiceReference<String> refA = registerService(sr, regBundle, "a");
+        ServiceReference<String> refB = registerService(sr, regBundle, "b");
+
+        assertSame("a", sr.getService(clientBundle, refA, false));
+        assertSame("a", sr.getService(clientBundle, refA, false));
+        assertSame("b", sr.getService(clientBundle, refB, false));
+        assertSame("a", sr.getService(otherBundle, refA, false));
+        assertEquals(2, sr.getServicesInUse(clientBundle).length);
+        assertEquals(2, sr.getUsingBundles(refA).length);
+        assertSame(sr.obtainUsageCount(clientBundle, refA, null, null),
+            sr.obtainUsageCount(clientBundle, refA, null, false));
+
+        assertTrue(sr.ungetService(clientBundle, refA, null));
+        assertTrue(sr.ungetService(clientBundle, refA, null));
+        assertFalse(sr.ungetService(clientBundle, refA, null));
+        assertThat(sr.getServicesInUse(clientBundle), is(new ServiceReference<?>[] {refB}));
+        assertThat(sr.getUsingBundles(refA), is(new Bundle[] {otherBundle}));
+
+        sr.ungetServices(clientBundle);
+        assertThat(sr.getServicesInUse(clientBundle), nullValue());
+
+        sr.unregisterService(regBundle, ((ServiceReferenceImpl) refA).getRegistration());
+        assertThat(sr.getUsingBundles(refA), nullValue());
+        assertThat(sr.getServicesInUse(otherBundle), nullValue());
+    }
+
+    public void testGetServiceReferencesSecondaryIndexNonString() throws Exception
+    {
+        ServiceRegistry sr = new ServiceRegistry(null, null,
+            Arrays.asList("component.id", Constants.SERVICE_RANKING, Constants.SERVICE_ID));
+        Bundle b = Mockito.mock(Bundle.class);
+
+        List<ServiceRegistration> regs = new ArrayList<ServiceRegistration>();
+        for (int i = 0; i < 10; i++)
+        {
+            Hashtable<String, Object> props = new Hashtable<String, Object>();
+            props.put("component.id", Long.valueOf(i));
+            props.put(Constants.SERVICE_RANKING, Integer.valueOf(i % 3));
+            regs.add(sr.registerService(b, new String [] {String.class.getName()}, "svc" + i, props));
+        }
+        Hashtable<String, Object> props = new Hashtable<String, Object>();
+        props.put("component.id", "5");
+        sr.registerService(b, new String [] {String.class.getName()}, "string", props);
+
+        assertEquals(2, sr.getServiceReferences(String.class.getName(),
+            SimpleFilter.parse("(component.id=5)")).size());
+        assertEquals(4, sr.getServiceReferences(null,
+            SimpleFilter.parse("(service.ranking=0)")).size());
+        assertEquals(1, sr.getServiceReferences(null,
+            SimpleFilter.parse("(&(component.id=4)(service.ranking=1))")).size());
+        assertEquals(0, sr.getServiceReferences(null,
+            SimpleFilter.parse("(&(component.id=4)(service.ranking=2))")).size());
+        Object id = regs.get(7).getReference().getProperty(Constants.SERVICE_ID);
+        Collection<Capability> found = sr.getServiceReferences(null,
+            SimpleFilter.parse("(service.id=" + id + ")"));
+        assertEquals(1, found.size());
+        assertSame(regs.get(7).getReference(), found.iterator().next());
+
+        // Values changing type must be reflected in the index.
+        props = new Hashtable<String, Object>();
+        props.put("component.id", "3");
+        regs.get(3).setProperties(props);
+        assertEquals(1, sr.getServiceReferences(String.class.getName(),
+            SimpleFilter.parse("(component.id=3)")).size());
+        props = new Hashtable<String, Object>();
+        props.put("component.id", Long.valueOf(5));
+        regs.get(3).setProperties(props);
+        assertEquals(0, sr.getServiceReferences(String.class.getName(),
+            SimpleFilter.parse("(component.id=3)")).size());
+        assertEquals(3, sr.getServiceReferences(String.class.getName(),
+            SimpleFilter.parse("(component.id=5)")).size());
+
+        regs.get(5).unregister();
+        assertEquals(2, sr.getServiceReferences(String.class.getName(),
+            SimpleFilter.parse("(component.id=5)")).size());
+    }
+
     private ServiceReference<String> registerService(ServiceRegistry sr, Bundle regBundle, String svcObj) {
         ServiceRegistration reg = sr.registerService(
                 regBundle, new String [] {String.class.getName()}, svcObj, null);
@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import org.apache.felix.framework.util.FelixConstants;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.osgi.framework.Constants;
+import org.osgi.framework.wiring.FrameworkWiring;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares framework restart times with and without a wiring snapshot.
+ * Ignored by default and meant to be run manually.
+ */
+public class WiringSnapshotBenchmarkTest
+{
+    private static final int BUNDLES = 700;
+    private static final int IMPORTS = 10;
+
+    @Test
+    @Ignore
+    public void testRestartSpeed() throws Exception
+    {
+        File cacheDir = File.createTempFile("felix-cache", ".dir");
+        cacheDir.delete();
+        cacheDir.mkdirs();
+        try
+        {
+            Felix f = createFramework(cacheDir, false);
+            f.start();
+            for (int i = 0; i < BUNDLES; i++)
+            {
+                StringBuilder imports = new StringBuilder("org.example.p" + i);
+                for (int j = 1; (j <= IMPORTS) && (j <= i); j++)
+                {
+                    imports.append(",org.example.p").append((i * 31 + j) % i);
+                }
+                f.getBundleContext().installBundle(createBundle(cacheDir,
+                    "Bundle-SymbolicName: b" + i + "\n"
+                    + "Export-Package: org.example.p" + i + "; version=1.0\n"
+                    + "Import-Package: " + imports + "\n").toURI().toString());
+            }
+            f.stop();
+            f.waitForStop(0);
+
+            for (int run = 0; run < 5; run++)
+            {
+                System.out.println("cold:     " + restart(cacheDir, false) + " ms");
+                // The first restart with snapshots enabled writes the snapshot.
+                restart(cacheDir, true);
+                System.out.println("snapshot: " + restart(cacheDir, true) + " ms");
+            }
+        }
+        finally
+        {
+            deleteDir(cacheDir);
+        }
+    }
+
+    private long restart(File cacheDir, boolean snapshot) throws Exception
+    {
+        long t0 = System.nanoTime();
+        Felix f = createFramework(cacheDir, snapshot);
+        f.start();
+        assertTrue(f.adapt(FrameworkWiring.class).resolveBundles(null));
+        long t1 = System.nanoTime();
+        f.stop();
+        f.waitForStop(0);
+        return (t1 - t0) / 1000000;
+    }
+
+    private static Felix createFramework(File cacheDir, boolean snapshot) throws Exception
+    {
+        Map params = new HashMap();
+        params.put(Constants.FRAMEWORK_SYSTEMPACKAGES,
+            "org.osgi.framework; version=1.4.0");
+        params.put(Constants.FRAMEWORK_STORAGE, cacheDir.getPath());
+        params.put(FelixConstants.RESOLVER_SNAPSHOT, Boolean.toString(snapshot));
+        Felix f = new Felix(params);
+        f.init();
+        return f;
+    }
+
+    private static File createBundle(File dir, String headers) throws Exception
+    {
+        File f = File.createTempFile("felix-bundle", ".jar", dir);
+        Manifest mf = new Manifest(new ByteArrayInputStream(
+            ("Bundle-ManifestVersion: 2\n" + headers).getBytes("utf-8")));
+        mf.getMainAttributes().putValue("Manifest-Version", "1.0");
+        new JarOutputStream(new FileOutputStream(f), mf).close();
+        return f;
+    }
+
+    private static void deleteDir(File root)
+    {
+        if (root.isDirectory())
+        {
+            for (File file : root.listFiles())
+            {
+                deleteDir(file);
+            }
+        }
+        root.delete();
+    }
+}
@@ -0,0 +1,367 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.framework.util.FelixConstants;
+import org.apache.felix.framework.util.Util;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+import org.osgi.framework.FrameworkEvent;
+import org.osgi.framework.FrameworkListener;
+import org.osgi.framework.wiring.BundleWire;
+import org.osgi.framework.wiring.BundleWiring;
+import org.osgi.framework.wiring.FrameworkWiring;
+
+public class WiringSnapshotTest extends TestCase
+{
+    private File m_cacheDir;
+
+    protected void setUp() throws Exception
+    {
+        m_cacheDir = File.createTempFile("felix-cache", ".dir");
+        m_cacheDir.delete();
+        m_cacheDir.mkdirs();
+    }
+
+    protected void tearDown() throws Exception
+    {
+        deleteDir(m_cacheDir);
+    }
+
+    public void testRestoreWiring() throws Exception
+    {
+        Felix f = createFramework();
+        f.start();
+        List<Bundle> bundles = installBundles(f);
+        assertTrue(f.adapt(FrameworkWiring.class).resolveBundles(null));
+        List<String> wires = getWires(f);
+        stop(f);
+
+        f = createFramework();
+        try
+        {
+            WiringSnapshot snapshot = f.getResolver().getWiringSnapshot();
+            assertTrue(f.adapt(FrameworkWiring.class).resolveBundles(null));
+            assertEquals(bundles.size(), snapshot.getRestoredCount());
+            assertEquals(wires, getWires(f));
+            assertEquals(1, Util.getFragments(
+                f.getBundle(bundles.get(0).getBundleId()).adapt(BundleWiring.class)).size());
+
+            // Only used while the framework is starting.
+            f.start();
+            assertNull(f.getResolver().getWiringSnapshot());
+        }
+        finally
+        {
+            stop(f);
+        }
+    }
+
+    public void testRestoreWhileStarting() throws Exception
+    {
+        Felix f = createFramework();
+        f.start();
+        List<Bundle> bundles = installBundles(f);
+        bundles.get(0).start();
+        bundles.get(2).start();
+        List<String> wires = getWires(f);
+        stop(f);
+
+        f = createFramework();
+        try
+        {
+            WiringSnapshot snapshot = f.getResolver().getWiringSnapshot();
+            f.start();
+            assertEquals(Bundle.ACTIVE, f.getBundle(bundles.get(2).getBundleId()).getState());
+            assertEquals(3, snapshot.getRestoredCount());
+            assertNull(f.getResolver().getWiringSnapshot());
+
+            // The remaining bundle is resolved normally.
+            assertTrue(f.adapt(FrameworkWiring.class).resolveBundles(null));
+            assertEquals(3, snapshot.getRestoredCount());
+            assertEquals(wires, getWires(f).subList(0, wires.size()));
+        }
+        finally
+        {
+            stop(f);
+        }
+    }
+
+    public void testRestoreAfterUpdate() throws Exception
+    {
+        Felix f = createFramework();
+        f.start();
+        List<Bundle> bundles = installBundles(f);
+        assertTrue(f.adapt(FrameworkWiring.class).resolveBundles(null));
+        List<String> wires = getWires(f);
+        stop(f);
+
+        f = createFramework();
+        try
+        {
+            // Updating the exporter changes its archive, so the snapshot is
+            // no longer used.
+            f.getBundle(bundles.get(0).getBundleId()).update(new FileInputStream(createBundle(
+                "Bundle-SymbolicName: exporter\n"
+                + "Export-Package: org.example.p; version=1.0\n")));
+            assertNull(f.getResolver().getWiringSnapshot());
+            assertTrue(f.adapt(FrameworkWiring.class).resolveBundles(null));
+            assertEquals(wires, getWires(f));
+        }
+        finally
+        {
+            stop(f);
+        }
+    }
+
+    public void testRefreshAfterInstall() throws Exception
+    {
+        Felix f = createFramework();
+        f.start();
+        Bundle exporter = install(f, "Bundle-SymbolicName: exporter\n"
+            + "Export-Package: org.example.p; version=1.0\n");
+        Bundle importer = install(f, "Bundle-SymbolicName: importer\n"
+            + "Import-Package: org.example.p\n");
+        importer.start();
+        stop(f);
+
+        f = createFramework();
+        f.start();
+        try
+        {
+            importer = f.getBundle(importer.getBundleId());
+            assertEquals(Arrays.asList("importer -> exporter osgi.wiring.package org.example.p"),
+                getWires(f));
+
+            // Once refreshed, the importer is wired to the newer exporter.
+            install(f, "Bundle-SymbolicName: exporter2\n"
+                + "Export-Package: org.example.p; version=2.0\n");
+            final CountDownLatch refreshed = new CountDownLatch(1);
+            f.adapt(FrameworkWiring.class).refreshBundles(
+                Collections.singleton(f.getBundle(exporter.getBundleId())),
+                new FrameworkListener()
+                {
+                    public void frameworkEvent(FrameworkEvent event)
+                    {
+                        refreshed.countDown();
+                    }
+                });
+            assertTrue(refreshed.await(10, TimeUnit.SECONDS));
+            assertEquals(Bundle.ACTIVE, importer.getState());
+            assertEquals(Arrays.asList("importer -> exporter2 osgi.wiring.package org.example.p"),
+                getWires(f));
+        }
+        finally
+        {
+            stop(f);
+        }
+    }
+
+    public void testInstallPreventsRestore() throws Exception
+    {
+        Felix f = createFramework();
+        f.start();
+        install(f, "Bundle-SymbolicName: exporter\n"
+            + "Export-Package: org.example.p; version=1.0\n");
+        install(f, "Bundle-SymbolicName: importer\n"
+            + "Import-Package: org.example.p\n");
+        assertTrue(f.adapt(FrameworkWiring.class).resolveBundles(null));
+        stop(f);
+
+        f = createFramework();
+        try
+        {
+            install(f, "Bundle-SymbolicName: exporter2\n"
+                + "Export-Package: org.example.p; version=2.0\n");
+            assertNull(f.getResolver().getWiringSnapshot());
+            assertTrue(f.adapt(FrameworkWiring.class).resolveBundles(null));
+            assertEquals(Arrays.asList("importer -> exporter2 osgi.wiring.package org.example.p"),
+                getWires(f));
+        }
+        finally
+        {
+            stop(f);
+        }
+    }
+
+    public void testChangedProviderPreventsRestore() throws Exception
+    {
+        Felix f = createFramework();
+        f.start();
+        Bundle q1 = install(f, "Bundle-SymbolicName: q1\n"
+            + "Export-Package: org.example.q\n");
+        install(f, "Bundle-SymbolicName: q2\n"
+            + "Export-Package: org.example.q\n");
+        Bundle exporter = install(f, "Bundle-SymbolicName: exporter\n"
+            + "Import-Package: org.example.q\n"
+            + "Export-Package: org.example.p; uses:=org.example.q\n");
+        Bundle importer = install(f, "Bundle-SymbolicName: importer\n"
+            + "Import-Package: org.example.p\n");
+        assertTrue(f.adapt(FrameworkWiring.class).resolveBundles(null));
+        assertTrue(getWires(f).contains("exporter -> q1 osgi.wiring.package org.example.q"));
+        stop(f);
+
+        f = createFramework();
+        try
+        {
+            WiringSnapshot snapshot = f.getResolver().getWiringSnapshot();
+            f.getBundle(q1.getBundleId()).uninstall();
+            assertTrue(f.adapt(FrameworkWiring.class).resolveBundles(
+                Collections.singleton(f.getBundle(exporter.getBundleId()))));
+            assertTrue(getWires(f).contains("exporter -> q2 osgi.wiring.package org.example.q"));
+            int restored = snapshot.getRestoredCount();
+
+            // The exporter is no longer wired as in the snapshot.
+            assertTrue(f.adapt(FrameworkWiring.class).resolveBundles(
+                Collections.singleton(f.getBundle(importer.getBundleId()))));
+            assertEquals(restored, snapshot.getRestoredCount());
+            assertTrue(getWires(f).contains("importer -> exporter osgi.wiring.package org.example.p"));
+        }
+        finally
+        {
+            stop(f);
+        }
+    }
+
+    public void testNewFragmentPreventsRestore() throws Exception
+    {
+        Felix f = createFramework();
+        f.start();
+        installBundles(f);
+        assertTrue(f.adapt(FrameworkWiring.class).resolveBundles(null));
+        // Cannot attach to the resolved host, so it is not in the snapshot.
+        install(f, "Bundle-SymbolicName: fragment2\n"
+            + "Fragment-Host: exporter\n");
+        stop(f);
+
+        f = createFramework();
+        try
+        {
+            WiringSnapshot snapshot = f.getResolver().getWiringSnapshot();
+            assertTrue(f.adapt(FrameworkWiring.class).resolveBundles(null));
+            assertEquals(0, snapshot.getRestoredCount());
+        }
+        finally
+        {
+            stop(f);
+        }
+    }
+
+    private Felix createFramework() throws Exception
+    {
+        Map params = new HashMap();
+        params.put(Constants.FRAMEWORK_SYSTEMPACKAGES,
+            "org.osgi.framework; version=1.4.0");
+        params.put(Constants.FRAMEWORK_STORAGE, m_cacheDir.getPath());
+        params.put(FelixConstants.RESOLVER_SNAPSHOT, "true");
+        Felix f = new Felix(params);
+        f.init();
+        return f;
+    }
+
+    private List<Bundle> installBundles(Felix f) throws Exception
+    {
+        List<Bundle> bundles = new ArrayList<Bundle>();
+        bundles.add(install(f, "Bundle-SymbolicName: exporter\n"
+            + "Export-Package: org.example.p; version=1.0\n"));
+        bundles.add(install(f, "Bundle-SymbolicName: fragment\n"
+            + "Fragment-Host: exporter\n"
+            + "Export-Package: org.example.q\n"));
+        bundles.add(install(f, "Bundle-SymbolicName: importer\n"
+            + "Import-Package: org.osgi.framework, org.example.p, org.example.q\n"
+            + "DynamicImport-Package: *\n"));
+        bundles.add(install(f, "Bundle-SymbolicName: requirer\n"
+            + "Require-Bundle: exporter\n"));
+        return bundles;
+    }
+
+    private Bundle install(Felix f, String headers) throws Exception
+    {
+        return f.getBundleContext().installBundle(createBundle(headers).toURI().toString());
+    }
+
+    private static List<String> getWires(Felix f)
+    {
+        List<String> result = new ArrayList<String>();
+        for (Bundle b : f.getBundleContext().getBundles())
+        {
+            BundleWiring wiring = b.adapt(BundleWiring.class);
+            if ((b.getBundleId() != 0) && (wiring != null))
+            {
+                for (BundleWire wire : wiring.getRequiredWires(null))
+                {
+                    result.add(b.getSymbolicName() + " -> "
+                        + wire.getProvider().getSymbolicName() + " "
+                        + wire.getCapability().getNamespace() + " "
+                        + wire.getCapability().getAttributes().get(wire.getCapability().getNamespace()));
+                }
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    private static void stop(Felix f) throws Exception
+    {
+        f.stop();
+        f.waitForStop(10000);
+    }
+
+    private File createBundle(String headers) throws IOException
+    {
+        File f = File.createTempFile("felix-bundle", ".jar", m_cacheDir);
+
+        Manifest mf = new Manifest(new ByteArrayInputStream(
+            ("Bundle-ManifestVersion: 2\n" + headers).getBytes("utf-8")));
+        mf.getMainAttributes().putValue("Manifest-Version", "1.0");
+        JarOutputStream os = new JarOutputStream(new FileOutputStream(f), mf);
+        os.close();
+        return f;
+    }
+
+    private static void deleteDir(File root) throws IOException
+    {
+        if (root.isDirectory())
+        {
+            for (File file : root.listFiles())
+            {
+                deleteDir(file);
+            }
+        }
+        assertTrue(root.delete());
+    }
+}
@@ -20,6 +20,8 @@ package org.apache.felix.framework.cache;
 
 import junit.framework.TestCase;
 import org.apache.felix.framework.Logger;
+import org.apache.felix.framework.util.MultiReleaseContent;
+import org.apache.felix.framework.util.manifestparser.ManifestParser;
 import org.osgi.framework.Constants;
 
 import java.io.File;
@@ -28,9 +30,11 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
@@ -170,6 +174,122 @@ public class BundleCacheTest extends TestCase
         testBundle("bla", jarFile);
     }
 
+    public void testMappedJar() throws Exception
+    {
+        cache.release();
+        Map<String, String> params = new HashMap<String, String>();
+        params.put(Constants.FRAMEWORK_STORAGE, cacheDir.getPath());
+        params.put(BundleCache.CACHE_MAPPED_PROP, "true");
+        cache = new BundleCache(new Logger(){
+            @Override
+            protected void doLog(int level, String msg, Throwable throwable) {
+            }
+        }, params);
+
+        testBundle(jarFile.toURI().toURL().toString(), null);
+
+        BundleArchive archive = cache.create(2, 1, jarFile.toURI().toURL().toString(), null);
+        Content content = archive.getCurrentRevision().getContent();
+        assertTrue(content instanceof MappedJarContent);
+        assertTrue(content.getEntryAsContent("inner/i+?äö \\§$%nner.jar") instanceof MappedJarContent);
+        assertEquals("file1", new String(content.getEntryAsBytes("inner/file1"), "UTF-8"));
+        assertNull(content.getEntryAsBytes("inner/missing"));
+        assertTrue(content.hasEntry("inner"));
+    }
+
+    public void testContentIndex() throws Exception
+    {
+        BundleArchive archive = cache.create(1, 1, jarFile.toURI().toURL().toString(), null);
+        BundleArchiveRevision revision = archive.getCurrentRevision();
+        List<Content> contentPath = new ArrayList<Content>();
+        contentPath.add(revision.getContent());
+        contentPath.add(revision.getContent().getEntryAsContent("inner"));
+
+        ContentIndex index = ContentIndex.create(contentPath);
+        assertTrue(index.isFor(contentPath));
+        for (String name : Arrays.asList("META-INF/MANIFEST.MF", "file1", "inner", "inner/", "inner/file1"))
+        {
+            assertTrue(name, index.mightContain(0, name));
+        }
+        assertFalse(index.mightContain(0, "org/example/Missing.class"));
+        // Directory contents are not indexed.
+        assertTrue(index.mightContain(1, "org/example/Missing.class"));
+
+        File indexFile = new File(revision.getRevisionRootDir(), "content.index");
+        index.save(indexFile);
+        ContentIndex loaded = ContentIndex.load(indexFile, contentPath);
+        assertNotNull(loaded);
+        assertTrue(loaded.mightContain(0, "inner/file1"));
+        assertFalse(loaded.mightContain(0, "org/example/Missing.class"));
+
+        // An index for a different content path is not used.
+        assertNull(ContentIndex.load(indexFile, contentPath.subList(0, 1)));
+        List<Content> swapped = new ArrayList<Content>();
+        swapped.add(contentPath.get(1));
+        swapped.add(contentPath.get(0));
+        assertNull(ContentIndex.load(indexFile, swapped));
+    }
+
+    public void testContentIndexMultiRelease() throws Exception
+    {
+        File mrDir = new File(filesDir, "mr");
+        createFile(mrDir, "META-INF/MANIFEST.MF",
+            "Manifest-Version: 1.0\nMulti-Release: true\n\n".getBytes("UTF-8"));
+        createFile(mrDir, "META-INF/versions/11/mr/Versioned.class", new byte[0]);
+        File mrJar = new File(filesDir, "mr.jar");
+        createJar(mrDir, mrJar);
+
+        BundleArchive archive = cache.create(2, 1, mrJar.toURI().toURL().toString(), null);
+        BundleArchiveRevision revision = archive.getCurrentRevision();
+        List<Content> java11 = Arrays.asList(
+            MultiReleaseContent.wrap("11", revision.getContent()));
+        List<Content> java9 = Arrays.asList(
+            MultiReleaseContent.wrap("9", revision.getContent()));
+        List<Content> java8 = Arrays.asList(
+            MultiReleaseContent.wrap("1.8", revision.getContent()));
+
+        ContentIndex index = ContentIndex.create(java11);
+        assertTrue(index.mightContain(0, "mr/Versioned.class"));
+        assertFalse(ContentIndex.create(java9).mightContain(0, "mr/Versioned.class"));
+
+        File indexFile = new File(revision.getRevisionRootDir(), "content.index");
+        index.save(indexFile);
+        assertNotNull(ContentIndex.load(indexFile, java11));
+        // The versioned entries resolve differently for another Java version.
+        assertNull(ContentIndex.load(indexFile, java9));
+        assertNull(ContentIndex.load(indexFile, java8));
+    }
+
+    public void testManifestCache() throws Exception
+    {
+        BundleArchive archive = cache.create(1, 1, jarFile.toURI().toURL().toString(), null);
+        BundleArchiveRevision revision = archive.getCurrentRevision();
+        File bundleFile = revision.getBundleFile();
+        assertNotNull(bundleFile);
+
+        File cacheFile = new File(revision.getRevisionRootDir(), "manifest.cache");
+        ManifestCache manifestCache = new ManifestCache(cacheFile, bundleFile, "1.8");
+        assertNull(manifestCache.getHeaders());
+
+        Map<String, Object> headers = revision.getManifestHeader();
+        headers.put(Constants.EXPORT_PACKAGE, "foo;version=1.0");
+        ManifestParser mp = new ManifestParser(null, null, null, headers);
+        manifestCache.save(headers, mp);
+
+        manifestCache = new ManifestCache(cacheFile, bundleFile, "1.8");
+        assertEquals(headers, manifestCache.getHeaders());
+        assertEquals("bar", manifestCache.getHeaders().get("FOO"));
+        ManifestParser cached = manifestCache.createParser(null, null, null);
+        assertEquals(mp.getCapabilities().size(), cached.getCapabilities().size());
+        assertEquals(mp.getRequirements().size(), cached.getRequirements().size());
+
+        // The cache is not used on a different Java version or for a
+        // modified JAR file.
+        assertNull(new ManifestCache(cacheFile, bundleFile, "11").getHeaders());
+        assertTrue(bundleFile.setLastModified(bundleFile.lastModified() - 10000));
+        assertNull(new ManifestCache(cacheFile, bundleFile, "1.8").getHeaders());
+    }
+
     private void testBundle(String location, File file) throws Exception
     {
         BundleArchive archive = cache.create(1, 1, location, file != null ? new FileInputStream(file) : null);
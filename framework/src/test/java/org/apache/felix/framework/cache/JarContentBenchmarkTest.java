@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.cache;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.HashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.felix.framework.Logger;
+import org.apache.felix.framework.util.MappedZipFile;
+import org.apache.felix.framework.util.WeakZipFileFactory;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Compares class loading style access of the regular JAR file content with
+ * the memory mapped one, for many bundles and a file limit below the number
+ * of bundles. Ignored by default and meant to be run manually.
+ */
+public class JarContentBenchmarkTest
+{
+    private static final int BUNDLES = 600;
+    private static final int CLASSES = 200;
+    private static final int FILE_LIMIT = 100;
+
+    @Test
+    @Ignore
+    public void testClassLoadingSpeed() throws Exception
+    {
+        File dir = File.createTempFile("felix-bench", ".dir");
+        dir.delete();
+        dir.mkdirs();
+        try
+        {
+            File[] jars = new File[BUNDLES];
+            for (int i = 0; i < BUNDLES; i++)
+            {
+                jars[i] = createJar(new File(dir, "bundle" + i + ".jar"));
+            }
+
+            for (int run = 0; run < 3; run++)
+            {
+                runClassLoading(jars, false);
+                runClassLoading(jars, true);
+            }
+        }
+        finally
+        {
+            BundleCache.deleteDirectoryTree(dir);
+        }
+    }
+
+    private void runClassLoading(File[] jars, boolean mapped) throws Exception
+    {
+        Logger logger = new Logger();
+        WeakZipFileFactory factory = new WeakZipFileFactory(FILE_LIMIT);
+        Content[] contents = new Content[jars.length];
+
+        // Cold: open each bundle and load its classes once, interleaved
+        // across bundles like a starting framework does.
+        long t0 = System.nanoTime();
+        for (int i = 0; i < jars.length; i++)
+        {
+            contents[i] = mapped
+                ? new MappedJarContent(logger, new HashMap<String, Object>(), factory, this,
+                    jars[i].getParentFile(), jars[i], null, MappedZipFile.open(jars[i]))
+                : new JarContent(logger, new HashMap<String, Object>(), factory, this,
+                    jars[i].getParentFile(), jars[i], null);
+        }
+        loadAll(contents);
+        long t1 = System.nanoTime();
+
+        // Warm: load all classes again.
+        loadAll(contents);
+        long t2 = System.nanoTime();
+
+        for (Content content : contents)
+        {
+            content.close();
+        }
+
+        System.out.println((mapped ? "Mapped" : "Weak  ") + " JAR content, cold: "
+            + String.format("%7.1f", (t1 - t0) / 1E6) + " ms, warm: "
+            + String.format("%7.1f", (t2 - t1) / 1E6) + " ms");
+    }
+
+    private void loadAll(Content[] contents)
+    {
+        for (int c = 0; c < CLASSES; c++)
+        {
+            String name = "org/example/Class" + c + ".class";
+            for (Content content : contents)
+            {
+                // Miss first, like a search along the class path.
+                content.hasEntry("org/example/Missing" + c + ".class");
+                assertNotNull(content.getEntryAsBytes(name));
+            }
+        }
+    }
+
+    private File createJar(File file) throws Exception
+    {
+        byte[] bytes = new byte[2048];
+        for (int i = 0; i < bytes.length; i++)
+        {
+            bytes[i] = (byte) (i % 37);
+        }
+        ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(file));
+        try
+        {
+            for (int c = 0; c < CLASSES; c++)
+            {
+                zos.putNextEntry(new ZipEntry("org/example/Class" + c + ".class"));
+                zos.write(bytes);
+                zos.closeEntry();
+            }
+        }
+        finally
+        {
+            zos.close();
+        }
+        return file;
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.capabilityset;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.felix.framework.wiring.BundleCapabilityImpl;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.osgi.framework.Version;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares matching a freshly parsed filter, which has to coerce its
+ * operands on every evaluation, with matching a reused filter, which
+ * evaluates against its cached operands. Ignored by default and meant
+ * to be run manually.
+ */
+public class SimpleFilterBenchmarkTest
+{
+    private static final int ITERATIONS = 100000;
+    private static final String FILTER =
+        "(&(version>=1.0)(!(version>=2.0))(ranking>=5)(name=foo))";
+
+    @Test
+    @Ignore
+    public void testMatchingSpeed()
+    {
+        Map<String, Object> attrs = new HashMap<String, Object>();
+        attrs.put("version", new Version(1, 2, 3));
+        attrs.put("ranking", Long.valueOf(10));
+        attrs.put("name", "foo");
+        BundleCapabilityImpl cap = new BundleCapabilityImpl(
+            null, "test", Collections.<String, String>emptyMap(), attrs);
+
+        SimpleFilter[] fresh = new SimpleFilter[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++)
+        {
+            fresh[i] = SimpleFilter.parse(FILTER);
+        }
+        SimpleFilter reused = SimpleFilter.parse(FILTER);
+
+        for (int run = 0; run < 5; run++)
+        {
+            long t0 = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++)
+            {
+                assertTrue(CapabilitySet.matches(cap, fresh[i]));
+            }
+            long t1 = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++)
+            {
+                assertTrue(CapabilitySet.matches(cap, reused));
+            }
+            long t2 = System.nanoTime();
+
+            System.out.println("Uncached: " + String.format("%7.1f", (t1 - t0) / (double) ITERATIONS)
+                + " ns/match, cached: " + String.format("%7.1f", (t2 - t1) / (double) ITERATIONS)
+                + " ns/match");
+
+            // Only the first run sees uncached filters.
+            for (int i = 0; i < ITERATIONS; i++)
+            {
+                fresh[i] = SimpleFilter.parse(FILTER);
+            }
+        }
+    }
+}
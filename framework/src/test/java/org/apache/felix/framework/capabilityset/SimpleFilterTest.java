@@ -19,7 +19,14 @@
 package org.apache.felix.framework.capabilityset;
 
 import junit.framework.TestCase;
+
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+
+import org.apache.felix.framework.wiring.BundleCapabilityImpl;
+import org.osgi.framework.Version;
 
 public class SimpleFilterTest extends TestCase
 {
@@ -83,4 +90,66 @@ public class SimpleFilterTest extends TestCase
         pieces = SimpleFilter.parseSubstring("aaa**aaa");
         assertTrue("Should match!", SimpleFilter.compareSubstring(pieces, "aaaaaa"));
     }
+
+    public void testRepeatedMatching()
+    {
+        Map<String, Object> attrs = new HashMap<String, Object>();
+        attrs.put("version", new Version(1, 2, 3));
+        attrs.put("ranking", Long.valueOf(10));
+        attrs.put("name", "Hello World");
+        attrs.put("flag", Boolean.TRUE);
+        BundleCapabilityImpl cap = new BundleCapabilityImpl(
+            null, "test", Collections.<String, String>emptyMap(), attrs);
+
+        SimpleFilter[] matching = new SimpleFilter[] {
+            SimpleFilter.parse("(version=1.2.3)"),
+            SimpleFilter.parse("(version>=1.2)"),
+            SimpleFilter.parse("(version=[1.0,2.0\\))"),
+            SimpleFilter.parse("(ranking<= 10 )"),
+            SimpleFilter.parse("(name~=helloworld)"),
+            SimpleFilter.parse("(flag=true)"),
+            SimpleFilter.parse("(&(version>=1.0)(!(version>=2.0))(ranking>=5))")
+        };
+        SimpleFilter[] notMatching = new SimpleFilter[] {
+            SimpleFilter.parse("(version=1.2.4)"),
+            SimpleFilter.parse("(version=[2.0,3.0\\))"),
+            SimpleFilter.parse("(version=foo)"),
+            SimpleFilter.parse("(ranking=bar)"),
+            SimpleFilter.parse("(ranking>=11)"),
+            SimpleFilter.parse("(name~=hello)"),
+            SimpleFilter.parse("(flag=false)")
+        };
+
+        // Evaluate repeatedly, since coerced values are cached on the filter.
+        for (int i = 0; i < 3; i++)
+        {
+            for (SimpleFilter sf : matching)
+            {
+                assertTrue("Should match " + sf, CapabilitySet.matches(cap, sf));
+            }
+            for (SimpleFilter sf : notMatching)
+            {
+                assertFalse("Should not match " + sf, CapabilitySet.matches(cap, sf));
+            }
+        }
+    }
+
+    public void testSubstringOnUncoercibleTypes()
+    {
+        Map<String, Object> attrs = new HashMap<String, Object>();
+        attrs.put("flag", Boolean.TRUE);
+        attrs.put("object", new Object());
+        BundleCapabilityImpl cap = new BundleCapabilityImpl(
+            null, "test", Collections.<String, String>emptyMap(), attrs);
+
+        // Substring filters never match values that cannot be compared as strings.
+        assertFalse(CapabilitySet.matches(cap, SimpleFilter.parse("(flag=t*)")));
+        assertFalse(CapabilitySet.matches(cap, SimpleFilter.parse("(object=java*)")));
+        assertTrue(CapabilitySet.matches(cap, SimpleFilter.parse("(!(flag=t*))")));
+
+        CapabilitySet capSet = new CapabilitySet(Collections.singletonList("flag"), true);
+        capSet.addCapability(cap);
+        assertTrue(capSet.match(SimpleFilter.parse("(flag=t*)"), false).isEmpty());
+        assertEquals(1, capSet.match(SimpleFilter.parse("(flag=true)"), false).size());
+    }
 }
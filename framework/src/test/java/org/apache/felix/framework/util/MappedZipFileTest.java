@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+import junit.framework.TestCase;
+
+public class MappedZipFileTest extends TestCase
+{
+    private File m_zip;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        m_zip = File.createTempFile("felix.test", ".zip");
+        m_zip.deleteOnExit();
+
+        ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(m_zip));
+        zos.putNextEntry(new ZipEntry("dir/"));
+        zos.closeEntry();
+        zos.putNextEntry(new ZipEntry("dir/deflated.txt"));
+        zos.write(createContent(100000));
+        zos.closeEntry();
+
+        byte[] stored = createContent(1000);
+        ZipEntry ze = new ZipEntry("dir/stored.txt");
+        ze.setMethod(ZipEntry.STORED);
+        ze.setSize(stored.length);
+        CRC32 crc = new CRC32();
+        crc.update(stored);
+        ze.setCrc(crc.getValue());
+        zos.putNextEntry(ze);
+        zos.write(stored);
+        zos.closeEntry();
+
+        zos.putNextEntry(new ZipEntry("empty.txt"));
+        zos.closeEntry();
+        zos.putNextEntry(new ZipEntry("äöü.txt"));
+        zos.write("umlauts".getBytes("UTF-8"));
+        zos.closeEntry();
+        zos.close();
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        m_zip.delete();
+    }
+
+    public void testEntriesMatchZipFile() throws Exception
+    {
+        MappedZipFile mapped = MappedZipFile.open(m_zip);
+        ZipFile zipFile = new ZipFile(m_zip);
+        try
+        {
+            List<String> names = new ArrayList<String>();
+            for (ZipEntry ze : Collections.list(zipFile.entries()))
+            {
+                names.add(ze.getName());
+            }
+            assertEquals(names, Collections.list(mapped.names()));
+
+            for (String name : names)
+            {
+                int entry = mapped.getEntry(name);
+                assertTrue(name, entry != -1);
+                assertTrue(name, mapped.isSupported(entry));
+                assertEquals(name, zipFile.getEntry(name).isDirectory(), mapped.isDirectory(entry));
+
+                byte[] expected = readFully(zipFile.getInputStream(zipFile.getEntry(name)));
+                assertTrue(name, Arrays.equals(expected, mapped.getBytes(entry)));
+                assertTrue(name, Arrays.equals(expected, readFully(mapped.getInputStream(entry))));
+            }
+
+            // Directories are also found without the trailing slash.
+            assertEquals(mapped.getEntry("dir/"), mapped.getEntry("dir"));
+            assertEquals(-1, mapped.getEntry("missing"));
+            assertEquals(-1, mapped.getEntry("dir/stored"));
+        }
+        finally
+        {
+            zipFile.close();
+        }
+    }
+
+    public void testNotAZipFile() throws Exception
+    {
+        File file = File.createTempFile("felix.test", ".txt");
+        try
+        {
+            FileOutputStream out = new FileOutputStream(file);
+            out.write(createContent(100));
+            out.close();
+            MappedZipFile.open(file);
+            fail("Expected an IOException.");
+        }
+        catch (java.io.IOException ex)
+        {
+            // Expected.
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    private static byte[] createContent(int size)
+    {
+        byte[] content = new byte[size];
+        for (int i = 0; i < content.length; i++)
+        {
+            content[i] = (byte) ((i % 65) + 65);
+        }
+        return content;
+    }
+
+    private static byte[] readFully(InputStream in) throws Exception
+    {
+        try
+        {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1000];
+            for (int n = in.read(buffer); n != -1; n = in.read(buffer))
+            {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+}
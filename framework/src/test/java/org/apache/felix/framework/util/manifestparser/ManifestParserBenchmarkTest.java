@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.util.manifestparser;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.felix.framework.cache.BundleCache;
+import org.apache.felix.framework.util.StringMap;
+import org.junit.Ignore;
+import org.junit.Test;
+
+/**
+ * Compares parsing the manifests of the bundles of the main distribution
+ * with reading their cached parsed form. The bundle directory is taken from
+ * the <tt>felix.benchmark.bundles</tt> system property and defaults to the
+ * directory the main distribution build copies its bundles to. Ignored by
+ * default and meant to be run manually.
+ */
+public class ManifestParserBenchmarkTest
+{
+    private static final int ITERATIONS = 2000;
+
+    @Test
+    @Ignore
+    public void testManifestParsingSpeed() throws Exception
+    {
+        File dir = new File(System.getProperty(
+            "felix.benchmark.bundles", "../main.distribution/bundle"));
+        List<Map<String, Object>> manifests = new ArrayList<Map<String, Object>>();
+        List<byte[]> parsed = new ArrayList<byte[]>();
+        File[] files = dir.listFiles();
+        for (int i = 0; (files != null) && (i < files.length); i++)
+        {
+            if (!files[i].getName().endsWith(".jar"))
+            {
+                continue;
+            }
+            ZipFile zip = new ZipFile(files[i]);
+            try
+            {
+                ZipEntry entry = zip.getEntry("META-INF/MANIFEST.MF");
+                Map<String, Object> headers = BundleCache.getMainAttributes(
+                    new StringMap(), zip.getInputStream(entry), entry.getSize());
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                if (new ManifestParser(null, null, null, headers).write(new DataOutputStream(bytes)))
+                {
+                    manifests.add(headers);
+                    parsed.add(bytes.toByteArray());
+                }
+            }
+            finally
+            {
+                zip.close();
+            }
+        }
+        if (manifests.isEmpty())
+        {
+            System.out.println("No bundles found in " + dir.getAbsolutePath());
+            return;
+        }
+
+        for (int run = 0; run < 5; run++)
+        {
+            long t0 = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++)
+            {
+                for (Map<String, Object> headers : manifests)
+                {
+                    new ManifestParser(null, null, null, headers);
+                }
+            }
+            long t1 = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++)
+            {
+                for (int j = 0; j < manifests.size(); j++)
+                {
+                    ManifestParser.read(
+                        new DataInputStream(new ByteArrayInputStream(parsed.get(j))),
+                        null, null, null, manifests.get(j));
+                }
+            }
+            long t2 = System.nanoTime();
+            long count = (long) ITERATIONS * manifests.size();
+            System.out.println(manifests.size() + " manifests: parse "
+                + String.format("%7.1f", (t1 - t0) / 1000.0 / count) + " us, cached "
+                + String.format("%7.1f", (t2 - t1) / 1000.0 / count) + " us per manifest");
+        }
+    }
+}
@@ -177,6 +177,65 @@ public class ManifestParserTest extends TestCase
         
     }
 
+    public void testWriteAndRead() throws Exception
+    {
+        Map<String, Object> headers = new HashMap<String, Object>();
+        headers.put(Constants.BUNDLE_MANIFESTVERSION, "2");
+        headers.put(Constants.BUNDLE_SYMBOLICNAME, "foo.bar; singleton:=true");
+        headers.put(Constants.BUNDLE_VERSION, "1.2.3.qualifier");
+        headers.put(Constants.BUNDLE_ACTIVATIONPOLICY, "lazy; include:=\"foo.bar\"");
+        headers.put(Constants.IMPORT_PACKAGE,
+            "org.osgi.framework;version=\"[1.4,2)\", foo.baz;resolution:=optional;x=\"a*b\"");
+        headers.put(Constants.DYNAMICIMPORT_PACKAGE, "foo.dyn.*");
+        headers.put(Constants.EXPORT_PACKAGE, "foo.bar;version=1.0;uses:=\"foo.baz\"");
+        headers.put(Constants.REQUIRE_BUNDLE, "foo.req;bundle-version=\"[1,2)\"");
+        headers.put(Constants.PROVIDE_CAPABILITY,
+            "foo.cap;foo.cap=x;l:Long=1;d:Double=\"1.5\";v:Version=2;lv:List<Version>=\"1,2\"");
+        headers.put(Constants.REQUIRE_CAPABILITY,
+            "foo.cap;filter:=\"(&(foo.cap=x)(l>=1))\"");
+        BundleRevision owner = mock(BundleRevision.class);
+        ManifestParser mp = new ManifestParser(null, null, owner, headers);
+
+        java.io.ByteArrayOutputStream bytes = new java.io.ByteArrayOutputStream();
+        assertTrue(mp.write(new java.io.DataOutputStream(bytes)));
+        ManifestParser read = ManifestParser.read(
+            new java.io.DataInputStream(new java.io.ByteArrayInputStream(bytes.toByteArray())),
+            null, null, owner, headers);
+
+        assertEquals(mp.getSymbolicName(), read.getSymbolicName());
+        assertEquals(mp.getBundleVersion(), read.getBundleVersion());
+        assertEquals(mp.getManifestVersion(), read.getManifestVersion());
+        assertEquals(mp.getActivationPolicy(), read.getActivationPolicy());
+        assertEquals(mp.getActivationIncludeDirective(), read.getActivationIncludeDirective());
+        assertEquals(mp.isExtension(), read.isExtension());
+        assertEquals(mp.getCapabilities().size(), read.getCapabilities().size());
+        for (int i = 0; i < mp.getCapabilities().size(); i++)
+        {
+            BundleCapability expected = mp.getCapabilities().get(i);
+            BundleCapability actual = read.getCapabilities().get(i);
+            assertSame(owner, actual.getRevision());
+            assertEquals(expected.getNamespace(), actual.getNamespace());
+            assertEquals(expected.getDirectives(), actual.getDirectives());
+            assertEquals(expected.getAttributes().keySet(), actual.getAttributes().keySet());
+            for (String key : expected.getAttributes().keySet())
+            {
+                assertTrue(key, Arrays.deepEquals(
+                    new Object[] { expected.getAttributes().get(key) },
+                    new Object[] { actual.getAttributes().get(key) }));
+            }
+        }
+        assertEquals(mp.getRequirements().size(), read.getRequirements().size());
+        for (int i = 0; i < mp.getRequirements().size(); i++)
+        {
+            BundleRequirement expected = mp.getRequirements().get(i);
+            BundleRequirement actual = read.getRequirements().get(i);
+            assertEquals(expected.getNamespace(), actual.getNamespace());
+            assertEquals(expected.getDirectives(), actual.getDirectives());
+            assertEquals(expected.getAttributes(), actual.getAttributes());
+            assertEquals(expected.toString(), actual.toString());
+        }
+    }
+
     private BundleCapability findCapability(Collection<BundleCapability> capabilities, String namespace)
     {
         for (BundleCapability capability : capabilities)
@@ -27,6 +27,8 @@ import java.util.concurrent.atomic.AtomicReference;
 import org.apache.felix.resolver.reason.ReasonException;
 import org.apache.felix.resolver.util.ArrayMap;
 import org.apache.felix.resolver.util.CandidateSelector;
+import org.apache.felix.resolver.util.IdMap;
+import org.apache.felix.resolver.util.IdSet;
 import org.apache.felix.resolver.util.OpenHashMap;
 import org.osgi.framework.namespace.*;
 import org.osgi.resource.*;
@@ -45,12 +47,47 @@ public class ResolverImpl implements Resolver
 
     private final Executor m_executor;
 
+    private final boolean m_backjumping;
+
+    private final int m_maxPermutations;
+
+    private final int m_speculation;
+
+    // Package spaces of resolved resources computed by previous resolves.
+    // A resolved resource's package space only depends on its wiring, so
+    // an entry stays valid until the resource is refreshed and gets a new
+    // wiring, or until its wiring gains dynamic import wires.
+    private final ConcurrentMap<Resource, ResolvedPackages> m_resolvedPackages =
+        new ConcurrentHashMap<Resource, ResolvedPackages>();
+
     enum PermutationType {
         USES,
         IMPORT,
         SUBSTITUTE
     }
 
+    enum Phase
+    {
+        POPULATE("populate"),
+        SUBSTITUTES("substitutes"),
+        PACKAGE_SPACES("package spaces"),
+        CONSISTENCY("consistency"),
+        WIRING("wiring");
+
+        private final String m_name;
+
+        Phase(String name)
+        {
+            m_name = name;
+        }
+
+        @Override
+        public String toString()
+        {
+            return m_name;
+        }
+    }
+
     // Note this class is not thread safe.
     // Only use in the context of a single thread.
     static class ResolveSession implements Runnable
@@ -85,16 +122,36 @@ public class ResolverImpl implements Resolver
         private Candidates m_multipleCardCandidates = null;
         // The delta is used to detect that we have already processed this particular permutation
         private final Set<Object> m_processedDeltas = new HashSet<Object>();
+        // Whether permutations repeating the choices of a known conflict are skipped.
+        private final boolean m_backjumping;
+        // Maximum number of retained permutations, or zero if unlimited.
+        private final int m_maxPermutations;
+        // Number of permutations discarded because of the cap.
+        private int m_droppedPermutations = 0;
+        // Requirement choices which are known to cause uses constraint violations.
+        private final List<Conflict> m_conflicts = new ArrayList<Conflict>();
+        // First known conflict which could not be permutated any further.
+        private Conflict m_unfixableConflict;
         private final Executor m_executor;
         private final Set<Requirement> m_mutated = new HashSet<Requirement>();
         private final Set<Requirement> m_sub_mutated = new HashSet<Requirement>();
         private final ConcurrentMap<String, List<String>> m_usesCache = new ConcurrentHashMap<String, List<String>>();
+        // Ids of the capabilities in package sources, released when the
+        // session ends.
+        private final IdMap<Capability> m_capabilityIds = new IdMap<Capability>();
         private ResolutionError m_currentError;
+        // Time spent in each phase of the resolve, in nanoseconds. Prepared
+        // permutations add the time it took to prepare them, so with
+        // speculation the phases may add up to more than the resolve took.
+        private final long[] m_phaseTimes = new long[Phase.values().length];
+        private int m_checkedPermutations = 0;
+        private int m_preparedPermutations = 0;
+        private int m_usedPreparedPermutations = 0;
         volatile private CancellationException m_isCancelled = null;
 
-        static ResolveSession createSession(ResolveContext resolveContext, Executor executor, Resource dynamicHost, Requirement dynamicReq, List<Capability> dynamicCandidates)
+        static ResolveSession createSession(ResolveContext resolveContext, Executor executor, Resource dynamicHost, Requirement dynamicReq, List<Capability> dynamicCandidates, boolean backjumping, int maxPermutations)
         {
-            ResolveSession session = new ResolveSession(resolveContext, executor, dynamicHost, dynamicReq, dynamicCandidates);
+            ResolveSession session = new ResolveSession(resolveContext, executor, dynamicHost, dynamicReq, dynamicCandidates, backjumping, maxPermutations);
             // call onCancel first
             session.getContext().onCancel(session);
             // now gather the mandatory and optional resources
@@ -102,10 +159,12 @@ public class ResolverImpl implements Resolver
             return session;
         }
 
-        private ResolveSession(ResolveContext resolveContext, Executor executor, Resource dynamicHost, Requirement dynamicReq, List<Capability> dynamicCandidates)
+        private ResolveSession(ResolveContext resolveContext, Executor executor, Resource dynamicHost, Requirement dynamicReq, List<Capability> dynamicCandidates, boolean backjumping, int maxPermutations)
         {
             m_resolveContext = resolveContext;
             m_executor = executor;
+            m_backjumping = backjumping;
+            m_maxPermutations = maxPermutations;
             m_dynamicHost = dynamicHost;
             m_dynamicReq = dynamicReq;
             m_dynamicCandidates = dynamicCandidates;
@@ -139,6 +198,10 @@ public class ResolverImpl implements Resolver
             return m_usesCache;
         }
 
+        IdMap<Capability> getCapabilityIds() {
+            return m_capabilityIds;
+        }
+
         void permutateIfNeeded(PermutationType type, Requirement req, Candidates permutation) {
             List<Capability> candidates = permutation.getCandidates(req);
             if ((candidates != null) && (candidates.size() > 1))
@@ -156,6 +219,17 @@ public class ResolverImpl implements Resolver
             }
         }
 
+        void addSubstitutePermutations(Map<Requirement, Candidates> permutations) {
+            // Same as permutateIfNeeded() for permutations created in advance.
+            for (Map.Entry<Requirement, Candidates> entry : permutations.entrySet())
+            {
+                if (m_sub_mutated.add(entry.getKey()))
+                {
+                    addPermutation(PermutationType.SUBSTITUTE, entry.getValue());
+                }
+            }
+        }
+
         private void clearMutateIndexes() {
             m_usesIndex = 0;
             m_importIndex = 0;
@@ -192,9 +266,125 @@ public class ResolverImpl implements Resolver
                     // just a safeguard, this really should never happen
                     typeToAddTo.add(permutation);
                 }
+                if ((m_maxPermutations > 0) && (getPermutationCount() > m_maxPermutations))
+                {
+                    dropLastPermutation();
+                }
+            }
+        }
+
+        private void dropLastPermutation() {
+            // Drop the permutation that would be tried last, which is the
+            // tail of the last non-empty list since the lists are tried in
+            // the order uses, import and substitute.
+            m_droppedPermutations++;
+            if (!m_substPermutations.isEmpty())
+            {
+                m_substPermutations.remove(m_substPermutations.size() - 1);
+                m_substituteIndex = Math.min(m_substituteIndex, m_substPermutations.size());
+            }
+            else if (!m_importPermutations.isEmpty())
+            {
+                m_importPermutations.remove(m_importPermutations.size() - 1);
+                m_importIndex = Math.min(m_importIndex, m_importPermutations.size());
+            }
+            else
+            {
+                m_usesPermutations.remove(m_usesPermutations.size() - 1);
+                m_usesIndex = Math.min(m_usesIndex, m_usesPermutations.size());
             }
         }
 
+        void addConflict(Candidates permutation, Resource resource, UseConstraintError error, boolean checkedHost) {
+            if (!m_backjumping || !checkedHost)
+            {
+                return;
+            }
+            // Remember the candidates chosen for the blamed requirements;
+            // any permutation choosing the same candidates has the same
+            // conflict. This only holds for the hosts checked in every
+            // permutation, a resource depended upon is only checked if it
+            // is still depended upon. Requirements with multiple cardinality
+            // are resolved by removing candidates rather than by choosing
+            // another one, so conflicts involving them are not recorded.
+            List<Requirement> reqs = error.getConflictRequirements();
+            if (reqs == null)
+            {
+                return;
+            }
+            List<Capability> caps = new ArrayList<Capability>(reqs.size());
+            for (Requirement req : reqs)
+            {
+                Capability cap = permutation.getFirstCandidate(req);
+                if ((cap == null) || Util.isMultiple(req))
+                {
+                    return;
+                }
+                caps.add(cap);
+            }
+            if (!reqs.isEmpty())
+            {
+                m_conflicts.add(new Conflict(reqs, caps, resource, error));
+            }
+        }
+
+        private Conflict findConflict(Candidates permutation) {
+            for (Conflict conflict : m_conflicts)
+            {
+                if (conflict.matches(permutation))
+                {
+                    return conflict;
+                }
+            }
+            return null;
+        }
+
+        private void jumpBack(Candidates permutation, Conflict conflict) {
+            // Instead of checking a permutation which is known to fail,
+            // directly permutate the choices causing the failure, the same
+            // way a uses constraint violation is permutated: going from the
+            // direct requirement to the root and from the root to the direct
+            // requirement.
+            clearMutateIndexes();
+            Requirement last = null;
+            for (int i = conflict.m_reqs.size() - 1; i >= 0; i--)
+            {
+                if (permutation.canRemoveCandidate(conflict.m_reqs.get(i)))
+                {
+                    last = conflict.m_reqs.get(i);
+                    addPermutation(PermutationType.USES, permutation.permutate(last));
+                    break;
+                }
+            }
+            if (last == null)
+            {
+                // The permutation and all permutations derived from it
+                // fail for the blamed resource.
+                if (m_unfixableConflict == null)
+                {
+                    m_unfixableConflict = conflict;
+                }
+                return;
+            }
+            for (Requirement req : conflict.m_reqs)
+            {
+                if (permutation.canRemoveCandidate(req))
+                {
+                    if (req != last)
+                    {
+                        addPermutation(PermutationType.USES, permutation.permutate(req));
+                    }
+                    break;
+                }
+            }
+        }
+
+        Map<Resource, ResolutionError> getUnfixableConflict() {
+            return (m_unfixableConflict == null)
+                ? null
+                : Collections.singletonMap(m_unfixableConflict.m_resource, m_unfixableConflict.m_error);
+        }
+
         Candidates getNextPermutation() {
             Candidates next = null;
             do {
@@ -214,7 +404,7 @@ public class ResolverImpl implements Resolver
                     return null;
                 }
             }
-            while(!m_processedDeltas.add(next.getDelta()));
+            while(!m_processedDeltas.add(next.getDelta()) || isKnownConflict(next));
             // Null out each time a new permutation is attempted.
             // We only use this to store a valid permutation which is a
             // delta of the current permutation.
@@ -225,12 +415,52 @@ public class ResolverImpl implements Resolver
             return next;
         }
 
+        List<Candidates> getPendingPermutations(int max) {
+            // The permutations in the order getNextPermutation() would
+            // currently return them.
+            List<Candidates> pending = new ArrayList<Candidates>(max);
+            addPendingPermutations(m_usesPermutations, pending, max);
+            addPendingPermutations(m_importPermutations, pending, max);
+            addPendingPermutations(m_substPermutations, pending, max);
+            return pending;
+        }
+
+        private void addPendingPermutations(List<Candidates> permutations, List<Candidates> pending, int max) {
+            for (Candidates permutation : permutations)
+            {
+                if (pending.size() == max)
+                {
+                    return;
+                }
+                if (!m_processedDeltas.contains(permutation.getDelta()))
+                {
+                    pending.add(permutation);
+                }
+            }
+        }
+
+        private boolean isKnownConflict(Candidates permutation) {
+            if (m_backjumping)
+            {
+                Conflict conflict = findConflict(permutation);
+                if (conflict != null)
+                {
+                    jumpBack(permutation, conflict);
+                    return true;
+                }
+            }
+            return false;
+        }
+
         void clearPermutations() {
             m_usesPermutations.clear();
             m_importPermutations.clear();
             m_substPermutations.clear();
             m_multipleCardCandidates = null;
             m_processedDeltas.clear();
+            m_droppedPermutations = 0;
+            m_conflicts.clear();
+            m_unfixableConflict = null;
             m_currentError = null;
         }
 
@@ -260,6 +490,10 @@ public class ResolverImpl implements Resolver
             return (candidates != null) && !candidates.isEmpty();
         }
 
+        int getDroppedPermutationCount() {
+            return m_droppedPermutations;
+        }
+
         long getPermutationCount() {
             return m_usesPermutations.size() + m_importPermutations.size() + m_substPermutations.size(); 
         }
@@ -268,6 +502,42 @@ public class ResolverImpl implements Resolver
             return m_executor;
         }
 
+        void addPhaseTime(Phase phase, long start) {
+            addPhaseTime(phase, start, System.nanoTime());
+        }
+
+        void addPhaseTime(Phase phase, long start, long end) {
+            m_phaseTimes[phase.ordinal()] += end - start;
+        }
+
+        void permutationChecked() {
+            m_checkedPermutations++;
+        }
+
+        void permutationPrepared() {
+            m_preparedPermutations++;
+        }
+
+        void preparedPermutationUsed() {
+            m_usedPreparedPermutations++;
+        }
+
+        String getPhaseTimes() {
+            StringBuilder sb = new StringBuilder();
+            for (Phase phase : Phase.values())
+            {
+                sb.append(phase).append(' ')
+                    .append(m_phaseTimes[phase.ordinal()] / 1000000).append(" ms, ");
+            }
+            sb.append(m_checkedPermutations).append(" permutations checked");
+            if (m_preparedPermutations > 0)
+            {
+                sb.append(", ").append(m_usedPreparedPermutations).append(" of ")
+                    .append(m_preparedPermutations).append(" prepared ahead used");
+            }
+            return sb.toString();
+        }
+
         ResolutionError getCurrentError() {
             return m_currentError;
         }
@@ -354,17 +624,98 @@ public class ResolverImpl implements Resolver
     }
 
     public ResolverImpl(Logger logger, int parallelism)
+    {
+        this(logger, parallelism, false, 0);
+    }
+
+    public ResolverImpl(Logger logger, Executor executor)
+    {
+        this(logger, executor, false, 0);
+    }
+
+    /**
+     * Creates a resolver which optionally uses conflict-directed backjumping:
+     * the requirement choices blamed for a uses constraint violation are
+     * recorded and pending candidate permutations which keep all of these
+     * choices are skipped, since they would fail the same way. The number of
+     * retained candidate permutations can be limited to bound memory use, at
+     * the cost of possibly not finding a solution.
+     *
+     * @param logger the logger.
+     * @param parallelism the number of threads used to compute package spaces.
+     * @param backjumping whether to skip permutations repeating known conflicts.
+     * @param maxPermutations the maximum number of retained permutations,
+     *        or zero for no limit.
+     */
+    public ResolverImpl(Logger logger, int parallelism, boolean backjumping, int maxPermutations)
+    {
+        this(logger, parallelism, backjumping, maxPermutations, 0);
+    }
+
+    /**
+     * Creates a resolver which optionally checks the substitutes and computes
+     * the package spaces of pending candidate permutations ahead of time, on
+     * the threads not busy with the permutation being checked. Permutations
+     * are still checked for consistency one by one in the order they would
+     * be checked otherwise, so the first consistent permutation is chosen
+     * the same way.
+     *
+     * @param logger the logger.
+     * @param parallelism the number of threads used to compute package spaces.
+     * @param backjumping whether to skip permutations repeating known conflicts.
+     * @param maxPermutations the maximum number of retained permutations,
+     *        or zero for no limit.
+     * @param speculation the number of pending permutations prepared ahead of
+     *        time, or zero to only prepare the permutation being checked.
+     * @see #ResolverImpl(Logger, int, boolean, int)
+     */
+    public ResolverImpl(Logger logger, int parallelism, boolean backjumping, int maxPermutations, int speculation)
     {
         this.m_logger = logger;
         this.m_parallelism = parallelism;
         this.m_executor = null;
+        this.m_backjumping = backjumping;
+        this.m_maxPermutations = maxPermutations;
+        this.m_speculation = (parallelism > 1) ? speculation : 0;
     }
 
-    public ResolverImpl(Logger logger, Executor executor)
+    /**
+     * Creates a resolver using the given executor to compute package spaces.
+     *
+     * @param logger the logger.
+     * @param executor the executor.
+     * @param backjumping whether to skip permutations repeating known conflicts.
+     * @param maxPermutations the maximum number of retained permutations,
+     *        or zero for no limit.
+     * @see #ResolverImpl(Logger, int, boolean, int)
+     */
+    public ResolverImpl(Logger logger, Executor executor, boolean backjumping, int maxPermutations)
+    {
+        this(logger, executor, backjumping, maxPermutations, 0);
+    }
+
+    /**
+     * Creates a resolver using the given executor to compute package spaces
+     * and to prepare pending candidate permutations ahead of time. The
+     * executor is also used for dynamic imports.
+     *
+     * @param logger the logger.
+     * @param executor the executor.
+     * @param backjumping whether to skip permutations repeating known conflicts.
+     * @param maxPermutations the maximum number of retained permutations,
+     *        or zero for no limit.
+     * @param speculation the number of pending permutations prepared ahead of
+     *        time, or zero to only prepare the permutation being checked.
+     * @see #ResolverImpl(Logger, int, boolean, int, int)
+     */
+    public ResolverImpl(Logger logger, Executor executor, boolean backjumping, int maxPermutations, int speculation)
     {
         this.m_logger = logger;
         this.m_parallelism = -1;
         this.m_executor = executor;
+        this.m_backjumping = backjumping;
+        this.m_maxPermutations = maxPermutations;
+        this.m_speculation = speculation;
     }
 
     public Map<Resource, List<Wire>> resolve(ResolveContext rc) throws ResolutionException
@@ -416,11 +767,23 @@ public class ResolverImpl implements Resolver
 
     public Map<Resource, List<Wire>> resolve(ResolveContext rc, Executor executor) throws ResolutionException
     {
-        ResolveSession session = ResolveSession.createSession(rc, executor, null, null, null);
-        return doResolve(session);
+        ResolveSession session = ResolveSession.createSession(rc, executor, null, null, null, m_backjumping, m_maxPermutations);
+        try
+        {
+            return doResolve(session);
+        }
+        finally
+        {
+            session.getCapabilityIds().close();
+        }
     }
 
     private Map<Resource, List<Wire>> doResolve(ResolveSession session) throws ResolutionException {
+        if (!session.isDynamic())
+        {
+            pruneResolvedPackages(session.getContext());
+        }
+        long start = System.nanoTime();
         Map<Resource, List<Wire>> wireMap = new HashMap<Resource, List<Wire>>();
         boolean retry;
         do
@@ -428,7 +791,9 @@ public class ResolverImpl implements Resolver
             retry = false;
             try
             {
+                long t = System.nanoTime();
                 getInitialCandidates(session);
+                session.addPhaseTime(Phase.POPULATE, t);
                 if (session.getCurrentError() != null) {
                     throw session.getCurrentError().toException();
                 }
@@ -466,6 +831,7 @@ public class ResolverImpl implements Resolver
                 // resolve, so populate the wire map.
                 else
                 {
+                    t = System.nanoTime();
                     if (session.getMultipleCardCandidates() != null)
                     {
                         // Candidates for multiple cardinality requirements were
@@ -491,16 +857,29 @@ public class ResolverImpl implements Resolver
                             }
                         }
                     }
+                    session.addPhaseTime(Phase.WIRING, t);
                 }
             }
             finally
             {
+                if (session.getDroppedPermutationCount() > 0)
+                {
+                    m_logger.log(Logger.LOG_WARNING, "Discarded "
+                        + session.getDroppedPermutationCount()
+                        + " candidate permutations exceeding the limit of "
+                        + m_maxPermutations + " permutations");
+                }
                 // Always clear the state.
                 session.clearPermutations();
             }
         }
         while (retry);
 
+        if (m_logger.isDebugEnabled())
+        {
+            m_logger.debug("Resolve took " + (System.nanoTime() - start) / 1000000
+                + " ms: " + session.getPhaseTimes());
+        }
         return wireMap;
     }
 
@@ -558,60 +937,95 @@ public class ResolverImpl implements Resolver
     private Candidates findValidCandidates(ResolveSession session, Map<Resource, ResolutionError> faultyResources) {
         Candidates allCandidates = null;
         boolean foundFaultyResources = false;
-        do
+        Speculations speculations = new Speculations(session);
+        try
         {
-            allCandidates = session.getNextPermutation();
-            if (allCandidates == null)
+            do
             {
-                break;
-            }
+                allCandidates = session.getNextPermutation();
+                if (allCandidates == null)
+                {
+                    break;
+                }
+
+                PackageSpaces packageSpaces = speculations.prepare(allCandidates);
+                // A permutation prepared ahead of time was prepared on a copy.
+                allCandidates = packageSpaces.m_candidates;
 
 //allCandidates.dump();
 
-            Map<Resource, ResolutionError> currentFaultyResources = new HashMap<Resource, ResolutionError>();
+                Map<Resource, ResolutionError> currentFaultyResources = new HashMap<Resource, ResolutionError>();
 
-            session.setCurrentError(
-                    checkConsistency(
-                            session,
-                            allCandidates,
-                            currentFaultyResources
-                    )
-            );
+                session.setCurrentError(
+                        checkConsistency(
+                                session,
+                                packageSpaces,
+                                currentFaultyResources,
+                                speculations
+                        )
+                );
 
-            if (!currentFaultyResources.isEmpty())
-            {
-                if (!foundFaultyResources)
-                {
-                    foundFaultyResources = true;
-                    faultyResources.putAll(currentFaultyResources);
-                }
-                else if (faultyResources.size() > currentFaultyResources.size())
+                if (!currentFaultyResources.isEmpty())
                 {
-                    // save the optimal faultyResources which has less
-                    faultyResources.clear();
-                    faultyResources.putAll(currentFaultyResources);
+                    if (!foundFaultyResources)
+                    {
+                        foundFaultyResources = true;
+                        faultyResources.putAll(currentFaultyResources);
+                    }
+                    else if (faultyResources.size() > currentFaultyResources.size())
+                    {
+                        // save the optimal faultyResources which has less
+                        faultyResources.clear();
+                        faultyResources.putAll(currentFaultyResources);
+                    }
                 }
             }
+            while (!session.isCancelled() && session.getCurrentError() != null);
+        }
+        finally
+        {
+            // Prepared permutations must not outlive the attempt, since the
+            // session changes before the next one.
+            speculations.cancel();
+        }
+
+        // With backjumping, permutations keeping the choices of a conflict
+        // that cannot be permutated any further are never checked; the
+        // resource of that conflict fails in all of them, so it is the one
+        // to remove before trying again.
+        Map<Resource, ResolutionError> unfixable = session.getUnfixableConflict();
+        if ((unfixable != null) && (session.getCurrentError() != null)
+            && (faultyResources.size() > unfixable.size()))
+        {
+            faultyResources.clear();
+            faultyResources.putAll(unfixable);
         }
-        while (!session.isCancelled() && session.getCurrentError() != null);
 
         return allCandidates;
     }
 
     private ResolutionError checkConsistency(
         ResolveSession session,
-        Candidates allCandidates,
-        Map<Resource, ResolutionError> currentFaultyResources)
+        PackageSpaces packageSpaces,
+        Map<Resource, ResolutionError> currentFaultyResources,
+        Speculations speculations)
     {
-        ResolutionError rethrow = allCandidates.checkSubstitutes();
+        session.permutationChecked();
+        session.addPhaseTime(Phase.SUBSTITUTES, packageSpaces.m_substitutesStart, packageSpaces.m_packageSpacesStart);
+        session.addPhaseTime(Phase.PACKAGE_SPACES, packageSpaces.m_packageSpacesStart, packageSpaces.m_end);
+        if (packageSpaces.m_substitutions != null)
+        {
+            session.addSubstitutePermutations(packageSpaces.m_substitutions);
+        }
+        ResolutionError rethrow = packageSpaces.m_error;
         if (rethrow != null)
         {
             return rethrow;
         }
-        Map<Resource, Resource> allhosts = allCandidates.getRootHosts();
-        // Calculate package spaces
-        Map<Resource, Packages> resourcePkgMap =
-            calculatePackageSpaces(session, allCandidates, allhosts.values());
+        Candidates allCandidates = packageSpaces.m_candidates;
+        Map<Resource, Resource> allhosts = packageSpaces.m_hosts;
+        Map<Resource, Packages> resourcePkgMap = packageSpaces.m_packages;
+        long t = System.nanoTime();
         ResolutionError error = null;
         // Check package consistency
         Map<Resource, Object> resultCache =
@@ -640,8 +1054,18 @@ public class ResolverImpl implements Resolver
                 }
                 currentFaultyResources.put(faultyResource, rethrow);
                 error = rethrow;
+                if (rethrow instanceof UseConstraintError)
+                {
+                    UseConstraintError useError = (UseConstraintError) rethrow;
+                    session.addConflict(allCandidates, faultyResource, useError,
+                        allhosts.containsValue(useError.getResource()));
+                }
+                // The permutations just added are the next to be checked,
+                // start preparing them while the remaining hosts are checked.
+                speculations.update();
             }
         }
+        session.addPhaseTime(Phase.CONSISTENCY, t);
         return error;
     }
 
@@ -667,8 +1091,19 @@ public class ResolverImpl implements Resolver
                         "Matching candidate does not provide a package name.");
                 }
             }
-            ResolveSession session = ResolveSession.createSession(context,  new DumbExecutor(), host, dynamicRequirement, matches);
-            return doResolve(session);
+            // Dynamic imports are small resolves, so only a given executor
+            // is used; a thread pool is not worth creating for them.
+            ResolveSession session = ResolveSession.createSession(context,
+                (m_executor != null) ? m_executor : new DumbExecutor(),
+                host, dynamicRequirement, matches, m_backjumping, m_maxPermutations);
+            try
+            {
+                return doResolve(session);
+            }
+            finally
+            {
+                session.getCapabilityIds().close();
+            }
         }
 
         throw new Candidates.MissingRequirementError(dynamicRequirement).toException();
@@ -1112,7 +1547,7 @@ public class ResolverImpl implements Resolver
                     }
                     newBlames.add(new Blame(blame.m_cap, newBlameReqs));
                 }
-                addUsedBlames(usedPkgBlames, newBlames, matchingCap, resourcePkgMap);
+                addUsedBlames(session, usedPkgBlames, newBlames, matchingCap, resourcePkgMap);
                 for (Blame newBlame : newBlames)
                 {
                     mergeUses(session, current, currentPkgs, newBlame.m_cap, newBlame.m_reqs, matchingCap,
@@ -1131,6 +1566,7 @@ public class ResolverImpl implements Resolver
 
         // Parallel compute wire candidates
         final Map<Resource, List<WireCandidate>> allWireCandidates = new ConcurrentHashMap<Resource, List<WireCandidate>>();
+        final Map<Resource, Packages> resolvedPackages = new ConcurrentHashMap<Resource, Packages>();
         {
             final ConcurrentMap<Resource, Runnable> tasks = new ConcurrentHashMap<Resource, Runnable>(allCandidates.getNbResources());
             class Computer implements Runnable
@@ -1142,18 +1578,34 @@ public class ResolverImpl implements Resolver
                 }
                 public void run()
                 {
+                    ResolvedPackages resolved = getResolvedPackages(session, resource);
+                    if (resolved != null)
+                    {
+                        // The package space of a resolved resource is reused,
+                        // but the resources it is wired to are still needed
+                        // when merging its uses constraints.
+                        resolvedPackages.put(resource, resolved.m_packages);
+                        for (Resource u : resolved.m_providers)
+                        {
+                            visit(u);
+                        }
+                        return;
+                    }
                     List<WireCandidate> wireCandidates = getWireCandidates(session, allCandidates, resource);
                     allWireCandidates.put(resource, wireCandidates);
                     for (WireCandidate w : wireCandidates)
                     {
-                        Resource u = w.capability.getResource();
-                        if (!tasks.containsKey(u))
+                        visit(w.capability.getResource());
+                    }
+                }
+                private void visit(Resource u)
+                {
+                    if (!tasks.containsKey(u))
+                    {
+                        Computer c = new Computer(u);
+                        if (tasks.putIfAbsent(u, c) == null)
                         {
-                            Computer c = new Computer(u);
-                            if (tasks.putIfAbsent(u, c) == null)
-                            {
-                                executor.execute(c);
-                            }
+                            executor.execute(c);
                         }
                     }
                 }
@@ -1167,6 +1619,7 @@ public class ResolverImpl implements Resolver
 
         // Parallel get all exported packages
         final OpenHashMap<Resource, Packages> allPackages = new OpenHashMap<Resource, Packages>(allCandidates.getNbResources());
+        allPackages.putAll(resolvedPackages);
         for (final Resource resource : allWireCandidates.keySet())
         {
             final Packages packages = new Packages(resource);
@@ -1203,7 +1656,7 @@ public class ResolverImpl implements Resolver
         {
             final Resource resource = entry.getKey();
             final Packages packages = entry.getValue();
-            if (!packages.m_requiredPkgs.isEmpty())
+            if (!packages.m_requiredPkgs.isEmpty() && !resolvedPackages.containsKey(resource))
             {
                 getPackageSourcesInternal(session, allPackages, resource, packages);
             }
@@ -1214,7 +1667,7 @@ public class ResolverImpl implements Resolver
         {
             final Resource resource = entry.getKey();
             final Packages packages = entry.getValue();
-            if (packages.m_sources.isEmpty())
+            if (packages.m_sources.isEmpty() && !resolvedPackages.containsKey(resource))
             {
                 executor.execute(new Runnable()
                 {
@@ -1240,9 +1693,62 @@ public class ResolverImpl implements Resolver
         }
         executor.await();
 
+        // Remember the package spaces of resolved resources for later resolves.
+        for (Map.Entry<Resource, List<WireCandidate>> entry : allWireCandidates.entrySet())
+        {
+            Resource resource = entry.getKey();
+            Wiring wiring = session.getContext().getWirings().get(resource);
+            if ((wiring != null) && !resource.equals(session.getDynamicHost()))
+            {
+                Set<Resource> providers = new HashSet<Resource>();
+                for (WireCandidate w : entry.getValue())
+                {
+                    providers.add(w.capability.getResource());
+                }
+                m_resolvedPackages.put(resource, new ResolvedPackages(
+                    wiring, entry.getValue().size(), allPackages.get(resource), providers));
+            }
+        }
+
         return allPackages;
     }
 
+    private ResolvedPackages getResolvedPackages(ResolveSession session, Resource resource)
+    {
+        // The package space of a dynamically importing resource changes.
+        if (resource.equals(session.getDynamicHost()))
+        {
+            return null;
+        }
+        ResolvedPackages resolved = m_resolvedPackages.get(resource);
+        if (resolved != null)
+        {
+            Wiring wiring = session.getContext().getWirings().get(resource);
+            if ((wiring == resolved.m_wiring)
+                && (wiring.getRequiredResourceWires(null).size() == resolved.m_wireCount))
+            {
+                return resolved;
+            }
+        }
+        return null;
+    }
+
+    private void pruneResolvedPackages(ResolveContext rc)
+    {
+        // Drop the package spaces of resources that were refreshed or
+        // uninstalled since the previous resolve.
+        Map<Resource, Wiring> wirings = rc.getWirings();
+        for (Iterator<Entry<Resource, ResolvedPackages>> it =
+            m_resolvedPackages.entrySet().iterator(); it.hasNext();)
+        {
+            Entry<Resource, ResolvedPackages> entry = it.next();
+            if (wirings.get(entry.getKey()) != entry.getValue().m_wiring)
+            {
+                it.remove();
+            }
+        }
+    }
+
     private static List<String> parseUses(String s) {
         int nb = 1;
         int l = s.length();
@@ -1280,7 +1786,7 @@ public class ResolverImpl implements Resolver
     }
 
     private void addUsedBlames(
-        ArrayMap<Set<Capability>, UsedBlames> usedBlames, Collection<Blame> blames, Capability matchingCap, Map<Resource, Packages> resourcePkgMap)
+        ResolveSession session, ArrayMap<Set<Capability>, UsedBlames> usedBlames, Collection<Blame> blames, Capability matchingCap, Map<Resource, Packages> resourcePkgMap)
     {
         Set<Capability> usedCaps;
         if (blames.size() == 1)
@@ -1289,7 +1795,7 @@ public class ResolverImpl implements Resolver
         }
         else
         {
-            usedCaps = new HashSet<Capability>();
+            usedCaps = new IdSet<Capability>(session.getCapabilityIds(), blames.size());
             for (Blame blame : blames)
             {
                 usedCaps.addAll(getPackageSources(blame.m_cap, resourcePkgMap));
@@ -1454,7 +1960,7 @@ public class ResolverImpl implements Resolver
 
             for (UsedBlames usedBlames : pkgBlames.values())
             {
-                if (!isCompatible(requirementBlames, usedBlames.m_caps, resourcePkgMap))
+                if (!isCompatible(session, requirementBlames, usedBlames.m_caps, resourcePkgMap))
                 {
                     mutated = (mutated != null)
                             ? mutated
@@ -1723,7 +2229,7 @@ public class ResolverImpl implements Resolver
     }
 
     private static boolean isCompatible(
-        List<Blame> currentBlames, Set<Capability> candSources,
+        ResolveSession session, List<Blame> currentBlames, Set<Capability> candSources,
         Map<Resource, Packages> resourcePkgMap)
     {
         int size = currentBlames.size();
@@ -1734,7 +2240,7 @@ public class ResolverImpl implements Resolver
         case 1:
             return isCompatible(currentBlames.get(0), candSources, resourcePkgMap);
         default:
-            Set<Capability> currentSources = new HashSet<Capability>(currentBlames.size());
+            Set<Capability> currentSources = new IdSet<Capability>(session.getCapabilityIds(), currentBlames.size());
             for (Blame currentBlame : currentBlames)
             {
                 Set<Capability> blameSources = getPackageSources(currentBlame.m_cap, resourcePkgMap);
@@ -1770,7 +2276,7 @@ public class ResolverImpl implements Resolver
     }
 
     private static void getPackageSourcesInternal(
-        ResolveSession session, Map<Resource, Packages> resourcePkgMap,
+        final ResolveSession session, Map<Resource, Packages> resourcePkgMap,
         Resource resource, Packages packages)
     {
         Wiring wiring = session.getContext().getWirings().get(resource);
@@ -1780,7 +2286,7 @@ public class ResolverImpl implements Resolver
         @SuppressWarnings("serial")
         OpenHashMap<String, Set<Capability>> pkgs = new OpenHashMap<String, Set<Capability>>(caps.size()) {
             public Set<Capability> compute(String pkgName) {
-                return new HashSet<Capability>();
+                return new IdSet<Capability>(session.getCapabilityIds());
             }
         };
         Map<Capability, Set<Capability>> sources = packages.m_sources;
@@ -1807,7 +2313,9 @@ public class ResolverImpl implements Resolver
                 String uses = sourceCap.getDirectives().get(Namespace.CAPABILITY_USES_DIRECTIVE);
                 if ((uses != null) && uses.length() > 0)
                 {
-                    sources.put(sourceCap, Collections.singleton(sourceCap));
+                    Set<Capability> self = new IdSet<Capability>(session.getCapabilityIds(), 1);
+                    self.add(sourceCap);
+                    sources.put(sourceCap, self);
                 }
                 else
                 {
@@ -2113,6 +2621,52 @@ public class ResolverImpl implements Resolver
         }
     }
 
+    private static final class Conflict
+    {
+        public final List<Requirement> m_reqs;
+        public final List<Capability> m_caps;
+        public final Resource m_resource;
+        public final ResolutionError m_error;
+
+        public Conflict(List<Requirement> reqs, List<Capability> caps,
+            Resource resource, ResolutionError error)
+        {
+            m_reqs = reqs;
+            m_caps = caps;
+            m_resource = resource;
+            m_error = error;
+        }
+
+        public boolean matches(Candidates permutation)
+        {
+            for (int i = 0; i < m_reqs.size(); i++)
+            {
+                if (!m_caps.get(i).equals(permutation.getFirstCandidate(m_reqs.get(i))))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final class ResolvedPackages
+    {
+        public final Wiring m_wiring;
+        public final int m_wireCount;
+        public final Packages m_packages;
+        public final Collection<Resource> m_providers;
+
+        public ResolvedPackages(
+            Wiring wiring, int wireCount, Packages packages, Collection<Resource> providers)
+        {
+            m_wiring = wiring;
+            m_wireCount = wireCount;
+            m_packages = packages;
+            m_providers = providers;
+        }
+    }
+
     public static class Packages
     {
         public final OpenHashMap<String, Blame> m_exportedPkgs;
@@ -2286,6 +2840,95 @@ public class ResolverImpl implements Resolver
             this.m_blame2 = blame2;
         }
 
+        Resource getResource() {
+            return m_resource;
+        }
+
+        /**
+         * Returns the requirements whose chosen candidates cause this
+         * violation, including the imports deciding whether the packages
+         * along the blame chains are substituted. Returns <code>null</code>
+         * if a resource involved requires bundles, since the sources of its
+         * packages then also depend on the candidates of those requirements.
+         */
+        List<Requirement> getConflictRequirements() {
+            if (requiresBundles(m_resource))
+            {
+                return null;
+            }
+            Set<Requirement> reqs = new LinkedHashSet<Requirement>();
+            if (!addConflictRequirements(reqs, m_blame1))
+            {
+                return null;
+            }
+            if (m_blame2 != null)
+            {
+                if (!addConflictRequirements(reqs, m_blame2))
+                {
+                    return null;
+                }
+            }
+            else
+            {
+                // The resource itself exports the package, unless one
+                // of its imports substitutes it.
+                addSubstitutionRequirements(reqs, m_resource, m_pkgName);
+            }
+            return new ArrayList<Requirement>(reqs);
+        }
+
+        private boolean addConflictRequirements(Set<Requirement> reqs, Blame blame) {
+            if (blame.m_reqs != null)
+            {
+                for (Requirement req : blame.m_reqs)
+                {
+                    reqs.add(req);
+                    Capability cap = m_allCandidates.getFirstCandidate(req);
+                    if ((cap == null) || !addPackageRequirements(reqs, cap))
+                    {
+                        return false;
+                    }
+                }
+            }
+            return addPackageRequirements(reqs, blame.m_cap);
+        }
+
+        private boolean addPackageRequirements(Set<Requirement> reqs, Capability cap) {
+            Resource resource = cap.getResource();
+            if (requiresBundles(resource))
+            {
+                return false;
+            }
+            Object pkgName = cap.getAttributes().get(PackageNamespace.PACKAGE_NAMESPACE);
+            if (pkgName != null)
+            {
+                addSubstitutionRequirements(reqs, resource, pkgName);
+            }
+            return true;
+        }
+
+        private static boolean requiresBundles(Resource resource) {
+            return !resource.getRequirements(BundleNamespace.BUNDLE_NAMESPACE).isEmpty();
+        }
+
+        private void addSubstitutionRequirements(Set<Requirement> reqs, Resource resource, Object pkgName) {
+            for (Requirement req : resource.getRequirements(PackageNamespace.PACKAGE_NAMESPACE))
+            {
+                List<Capability> cands = m_allCandidates.getCandidates(req);
+                if (cands != null)
+                {
+                    for (Capability cand : cands)
+                    {
+                        if (pkgName.equals(cand.getAttributes().get(PackageNamespace.PACKAGE_NAMESPACE)))
+                        {
+                            reqs.add(req);
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+
         public String getMessage() {
             if (m_blame2 == null)
             {
@@ -2468,10 +3111,164 @@ public class ResolverImpl implements Resolver
         }
     }
 
+    // The substitutes and package spaces of a candidate permutation, which
+    // do not depend on the permutations checked before, so they can be
+    // computed ahead of time. Substitute permutations are then created in
+    // advance and only added to the session once the permutation is checked.
+    private class PackageSpaces implements Callable<PackageSpaces>
+    {
+        private final ResolveSession m_session;
+        private final Candidates m_candidates;
+        private final Map<Requirement, Candidates> m_substitutions;
+        private ResolutionError m_error;
+        private Map<Resource, Resource> m_hosts;
+        private Map<Resource, Packages> m_packages;
+        private long m_substitutesStart;
+        private long m_packageSpacesStart;
+        private long m_end;
+
+        PackageSpaces(ResolveSession session, Candidates candidates, boolean speculative)
+        {
+            m_session = session;
+            m_candidates = candidates;
+            m_substitutions = speculative ? new LinkedHashMap<Requirement, Candidates>() : null;
+        }
+
+        public PackageSpaces call()
+        {
+            m_substitutesStart = System.nanoTime();
+            m_error = m_candidates.checkSubstitutes(m_substitutions);
+            m_packageSpacesStart = System.nanoTime();
+            if (m_error == null)
+            {
+                m_hosts = m_candidates.getRootHosts();
+                m_packages = calculatePackageSpaces(m_session, m_candidates, m_hosts.values());
+            }
+            m_end = System.nanoTime();
+            return this;
+        }
+    }
+
+    // Prepares pending permutations ahead of time on the executor, while
+    // the current permutation is checked for consistency. Only the first
+    // pending permutations are prepared; a permutation pushed back by new
+    // ones is prepared again once it comes up.
+    private class Speculations
+    {
+        private final ResolveSession m_session;
+        private final Map<Candidates, FutureTask<PackageSpaces>> m_tasks =
+            new IdentityHashMap<Candidates, FutureTask<PackageSpaces>>();
+        private final List<FutureTask<PackageSpaces>> m_abandoned =
+            new ArrayList<FutureTask<PackageSpaces>>();
+
+        Speculations(ResolveSession session)
+        {
+            m_session = session;
+        }
+
+        void update()
+        {
+            if (m_speculation <= 0)
+            {
+                return;
+            }
+            List<Candidates> pending = m_session.getPendingPermutations(m_speculation);
+            for (Iterator<Map.Entry<Candidates, FutureTask<PackageSpaces>>> it = m_tasks.entrySet().iterator(); it.hasNext();)
+            {
+                Map.Entry<Candidates, FutureTask<PackageSpaces>> entry = it.next();
+                if (!pending.contains(entry.getKey()))
+                {
+                    FutureTask<PackageSpaces> task = entry.getValue();
+                    it.remove();
+                    abandon(task);
+                }
+            }
+            for (Candidates permutation : pending)
+            {
+                if (!m_tasks.containsKey(permutation))
+                {
+                    // Prepare a copy, the permutation in the session may
+                    // still be permutated before it is checked.
+                    FutureTask<PackageSpaces> task = new FutureTask<PackageSpaces>(
+                        new PackageSpaces(m_session, permutation.copy(), true));
+                    try
+                    {
+                        m_session.getExecutor().execute(task);
+                    }
+                    catch (RejectedExecutionException e)
+                    {
+                        return;
+                    }
+                    m_tasks.put(permutation, task);
+                    m_session.permutationPrepared();
+                }
+            }
+        }
+
+        PackageSpaces prepare(Candidates permutation)
+        {
+            FutureTask<PackageSpaces> task = m_tasks.remove(permutation);
+            if (task == null)
+            {
+                return new PackageSpaces(m_session, permutation, false).call();
+            }
+            m_session.preparedPermutationUsed();
+            // Prepare the permutation in this thread if no thread has
+            // started preparing it yet.
+            task.run();
+            try
+            {
+                return task.get();
+            }
+            catch (InterruptedException e)
+            {
+                throw new IllegalStateException(e);
+            }
+            catch (ExecutionException e)
+            {
+                if (e.getCause() instanceof Error)
+                {
+                    throw (Error) e.getCause();
+                }
+                throw new RuntimeException(e.getCause());
+            }
+        }
+
+        void cancel()
+        {
+            for (FutureTask<PackageSpaces> task : m_tasks.values())
+            {
+                abandon(task);
+            }
+            m_tasks.clear();
+            for (FutureTask<PackageSpaces> task : m_abandoned)
+            {
+                try
+                {
+                    task.get();
+                }
+                catch (Exception e)
+                {
+                    // Not needed anymore.
+                }
+            }
+            m_abandoned.clear();
+        }
+
+        private void abandon(FutureTask<PackageSpaces> task)
+        {
+            // Tasks already running are waited for before the attempt ends.
+            if (!task.cancel(false))
+            {
+                m_abandoned.add(task);
+            }
+        }
+    }
+
     private static class EnhancedExecutor
     {
         private final Executor executor;
-        private final Queue<Future<Void>> awaiting = new ConcurrentLinkedQueue<Future<Void>>();
+        private final Queue<FutureTask<Void>> awaiting = new ConcurrentLinkedQueue<FutureTask<Void>>();
         private final AtomicReference<Throwable> throwable = new AtomicReference<Throwable>();
 
         public EnhancedExecutor(Executor executor)
@@ -2512,11 +3309,16 @@ public class ResolverImpl implements Resolver
 
         public void await()
         {
-            Future<Void> awaitTask;
+            FutureTask<Void> awaitTask;
             while (throwable.get() == null && (awaitTask = awaiting.poll()) != null)
             {
                 if (!awaitTask.isDone() && !awaitTask.isCancelled())
                 {
+                    // Run tasks no thread has picked up yet in the awaiting
+                    // thread; this lets tasks run by the executor await tasks
+                    // of their own without exhausting its threads. The task
+                    // does nothing if it is already running or done.
+                    awaitTask.run();
                     try
                     {
                         awaitTask.get();
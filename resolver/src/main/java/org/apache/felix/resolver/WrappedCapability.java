@@ -27,6 +27,9 @@ public class WrappedCapability implements HostedCapability
 {
     private final Resource m_host;
     private final Capability m_cap;
+    // Wrappers are used as keys by the resolver's maps and sets, so the
+    // hash code is computed once.
+    private final int m_hashCode;
     private final Map<String, Object> m_augmentedAttrs;
 
     public WrappedCapability(Resource host, Capability cap)
@@ -46,11 +49,19 @@ public class WrappedCapability implements HostedCapability
         } else {
             m_augmentedAttrs = m_cap.getAttributes();
         }
+        int hash = 7;
+        hash = 37 * hash + (m_host != null ? m_host.hashCode() : 0);
+        hash = 37 * hash + (m_cap != null ? m_cap.hashCode() : 0);
+        m_hashCode = hash;
     }
 
     @Override
     public boolean equals(Object obj)
     {
+        if (obj == this)
+        {
+            return true;
+        }
         if (obj == null)
         {
             return false;
@@ -60,6 +71,10 @@ public class WrappedCapability implements HostedCapability
             return false;
         }
         final WrappedCapability other = (WrappedCapability) obj;
+        if (m_hashCode != other.m_hashCode)
+        {
+            return false;
+        }
         if (m_host != other.m_host && (m_host == null || !m_host.equals(other.m_host)))
         {
             return false;
@@ -74,10 +89,7 @@ public class WrappedCapability implements HostedCapability
     @Override
     public int hashCode()
     {
-        int hash = 7;
-        hash = 37 * hash + (m_host != null ? m_host.hashCode() : 0);
-        hash = 37 * hash + (m_cap != null ? m_cap.hashCode() : 0);
-        return hash;
+        return m_hashCode;
     }
 
     public Capability getDeclaredCapability()
@@ -0,0 +1,335 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.resolver.util;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.osgi.resource.Requirement;
+
+/**
+ * A map from requirements to their candidate selectors which shares its
+ * structure with its copies. The entries are kept in a hash array mapped
+ * trie and a copy only copies the root reference, so creating a permutation
+ * costs nothing up front. The nodes and selectors reached by a modification
+ * are copied the first time a map modifies them after a copy, so the cost of
+ * a permutation is proportional to the requirements it changes.
+ *
+ * Selectors obtained with {@link #get(Object)} may be shared with other
+ * copies and must not be modified; use {@link #getForUpdate(Object)} to
+ * obtain a selector owned by this map.
+ */
+public class CandidateMap {
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+    private static final Object[] EMPTY = new Object[0];
+
+    private static final Comparator<Leaf> INSERTION_ORDER = new Comparator<Leaf>() {
+        public int compare(Leaf l1, Leaf l2) {
+            return l1.seq < l2.seq ? -1 : (l1.seq == l2.seq ? 0 : 1);
+        }
+    };
+
+    // Nodes and leaves carrying this token may be modified in place.
+    private Object owner;
+    private Node root;
+    private int size;
+    private int nextSeq;
+
+    public CandidateMap() {
+        owner = new Object();
+    }
+
+    private CandidateMap(CandidateMap map) {
+        owner = new Object();
+        root = map.root;
+        size = map.size;
+        nextSeq = map.nextSeq;
+    }
+
+    /**
+     * Returns a copy of this map. Both maps stop modifying the nodes they
+     * currently share.
+     */
+    public CandidateMap copy() {
+        owner = new Object();
+        return new CandidateMap(this);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public CandidateSelector get(Object key) {
+        Leaf leaf = find(key);
+        return leaf != null ? leaf.value : null;
+    }
+
+    /**
+     * Returns the selector of the given requirement, copying it first if it
+     * is shared with another copy of this map, so it can be modified.
+     */
+    public CandidateSelector getForUpdate(Object key) {
+        Leaf leaf = find(key);
+        if (leaf == null) {
+            return null;
+        }
+        if (leaf.owner != owner) {
+            leaf = new Leaf(owner, leaf.hash, leaf.key, leaf.value.copy(), leaf.seq);
+            root = put(root, 0, leaf);
+        }
+        return leaf.value;
+    }
+
+    public CandidateSelector put(Requirement key, CandidateSelector value) {
+        Leaf old = find(key);
+        int seq = old != null ? old.seq : nextSeq++;
+        root = put(root != null ? root : new Node(owner, 0, EMPTY), 0, new Leaf(owner, hash(key), key, value, seq));
+        if (old == null) {
+            size++;
+            return null;
+        }
+        return old.value;
+    }
+
+    public CandidateSelector remove(Object key) {
+        Leaf old = find(key);
+        if (old == null) {
+            return null;
+        }
+        root = remove(root, 0, old);
+        size--;
+        return old.value;
+    }
+
+    /**
+     * Returns the entries of this map in insertion order. The entries must
+     * not be retained once the map is modified.
+     */
+    public Iterable<Map.Entry<Requirement, CandidateSelector>> fast() {
+        final Leaf[] leaves = new Leaf[size];
+        if (root != null) {
+            collect(root, leaves, 0);
+        }
+        Arrays.sort(leaves, INSERTION_ORDER);
+        return new Iterable<Map.Entry<Requirement, CandidateSelector>>() {
+            public Iterator<Map.Entry<Requirement, CandidateSelector>> iterator() {
+                return new Iterator<Map.Entry<Requirement, CandidateSelector>>() {
+                    private int index;
+
+                    public boolean hasNext() {
+                        return index < leaves.length;
+                    }
+
+                    public Map.Entry<Requirement, CandidateSelector> next() {
+                        return leaves[index++];
+                    }
+
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+
+    private static int hash(Object key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static int index(int hash, int shift) {
+        return (hash >>> shift) & MASK;
+    }
+
+    private Leaf find(Object key) {
+        int hash = hash(key);
+        Node node = root;
+        int shift = 0;
+        while (node != null) {
+            if (shift >= Integer.SIZE) {
+                for (Object slot : node.slots) {
+                    if (((Leaf) slot).key.equals(key)) {
+                        return (Leaf) slot;
+                    }
+                }
+                return null;
+            }
+            int bit = 1 << index(hash, shift);
+            if ((node.bitmap & bit) == 0) {
+                return null;
+            }
+            Object child = node.slots[Integer.bitCount(node.bitmap & (bit - 1))];
+            if (child instanceof Leaf) {
+                Leaf leaf = (Leaf) child;
+                return leaf.hash == hash && leaf.key.equals(key) ? leaf : null;
+            }
+            node = (Node) child;
+            shift += BITS;
+        }
+        return null;
+    }
+
+    private Node editable(Node node) {
+        return node.owner == owner ? node : new Node(owner, node.bitmap, node.slots.clone());
+    }
+
+    private Node put(Node node, int shift, Leaf leaf) {
+        Node n = editable(node);
+        if (shift >= Integer.SIZE) {
+            // All hash bits are used up, so keys are compared one by one.
+            for (int i = 0; i < n.slots.length; i++) {
+                if (((Leaf) n.slots[i]).key.equals(leaf.key)) {
+                    n.slots[i] = leaf;
+                    return n;
+                }
+            }
+            n.slots = insert(n.slots, n.slots.length, leaf);
+            return n;
+        }
+        int bit = 1 << index(leaf.hash, shift);
+        int idx = Integer.bitCount(n.bitmap & (bit - 1));
+        if ((n.bitmap & bit) == 0) {
+            n.slots = insert(n.slots, idx, leaf);
+            n.bitmap |= bit;
+        } else if (n.slots[idx] instanceof Node) {
+            n.slots[idx] = put((Node) n.slots[idx], shift + BITS, leaf);
+        } else {
+            Leaf existing = (Leaf) n.slots[idx];
+            if (existing.hash == leaf.hash && existing.key.equals(leaf.key)) {
+                n.slots[idx] = leaf;
+            } else {
+                n.slots[idx] = split(existing, leaf, shift + BITS);
+            }
+        }
+        return n;
+    }
+
+    private Node split(Leaf l1, Leaf l2, int shift) {
+        if (shift >= Integer.SIZE) {
+            return new Node(owner, 0, new Object[] { l1, l2 });
+        }
+        int i1 = index(l1.hash, shift);
+        int i2 = index(l2.hash, shift);
+        if (i1 == i2) {
+            return new Node(owner, 1 << i1, new Object[] { split(l1, l2, shift + BITS) });
+        }
+        return new Node(owner, (1 << i1) | (1 << i2), i1 < i2 ? new Object[] { l1, l2 } : new Object[] { l2, l1 });
+    }
+
+    private Node remove(Node node, int shift, Leaf leaf) {
+        Node n = editable(node);
+        int idx;
+        if (shift >= Integer.SIZE) {
+            idx = Arrays.asList(n.slots).indexOf(leaf);
+        } else {
+            int bit = 1 << index(leaf.hash, shift);
+            idx = Integer.bitCount(n.bitmap & (bit - 1));
+            if (n.slots[idx] instanceof Node) {
+                Node child = remove((Node) n.slots[idx], shift + BITS, leaf);
+                if (child != null) {
+                    // Pull a single remaining leaf up into this node.
+                    n.slots[idx] = child.slots.length == 1 && child.slots[0] instanceof Leaf ? child.slots[0] : child;
+                    return n;
+                }
+            }
+            n.bitmap &= ~bit;
+        }
+        n.slots = delete(n.slots, idx);
+        return n.slots.length > 0 ? n : null;
+    }
+
+    private static int collect(Node node, Leaf[] leaves, int count) {
+        for (Object slot : node.slots) {
+            if (slot instanceof Leaf) {
+                leaves[count++] = (Leaf) slot;
+            } else {
+                count = collect((Node) slot, leaves, count);
+            }
+        }
+        return count;
+    }
+
+    private static Object[] insert(Object[] slots, int idx, Object slot) {
+        Object[] n = new Object[slots.length + 1];
+        System.arraycopy(slots, 0, n, 0, idx);
+        n[idx] = slot;
+        System.arraycopy(slots, idx, n, idx + 1, slots.length - idx);
+        return n;
+    }
+
+    private static Object[] delete(Object[] slots, int idx) {
+        Object[] n = new Object[slots.length - 1];
+        System.arraycopy(slots, 0, n, 0, idx);
+        System.arraycopy(slots, idx + 1, n, idx, n.length - idx);
+        return n;
+    }
+
+    private static final class Node {
+        final Object owner;
+        int bitmap;
+        Object[] slots;
+
+        Node(Object owner, int bitmap, Object[] slots) {
+            this.owner = owner;
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+    }
+
+    private static final class Leaf implements Map.Entry<Requirement, CandidateSelector> {
+        final Object owner;
+        final int hash;
+        final Requirement key;
+        final CandidateSelector value;
+        final int seq;
+
+        Leaf(Object owner, int hash, Requirement key, CandidateSelector value, int seq) {
+            this.owner = owner;
+            this.hash = hash;
+            this.key = key;
+            this.value = value;
+            this.seq = seq;
+        }
+
+        public Requirement getKey() {
+            return key;
+        }
+
+        public CandidateSelector getValue() {
+            return value;
+        }
+
+        public CandidateSelector setValue(CandidateSelector value) {
+            throw new UnsupportedOperationException();
+        }
+
+        public String toString() {
+            return key + "=" + value;
+        }
+    }
+
+}
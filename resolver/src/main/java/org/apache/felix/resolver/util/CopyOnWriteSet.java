@@ -19,7 +19,6 @@
 package org.apache.felix.resolver.util;
 
 import java.lang.reflect.Array;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.Set;
@@ -66,7 +65,7 @@ public class CopyOnWriteSet<E> implements Set<E>, Cloneable {
             data = new Object[] {e};
         } else {
             for (Object o : d) {
-                if (o == null ? e == null : o.equals(e)) {
+                if (o == e || (o != null && o.equals(e))) {
                     return false;
                 }
             }
@@ -140,7 +139,14 @@ public class CopyOnWriteSet<E> implements Set<E>, Cloneable {
 
     @Override
     public int hashCode() {
-        return Arrays.hashCode(data);
+        // Independent of the order of the elements, like equals.
+        int h = 0;
+        for (Object o : data) {
+            if (o != null) {
+                h += o.hashCode();
+            }
+        }
+        return h;
     }
 
     /**
@@ -185,7 +191,7 @@ public class CopyOnWriteSet<E> implements Set<E>, Cloneable {
             }
         } else {
             for (int i = len; i-- > 0;) {
-                if (o.equals(d[i]))
+                if (o == d[i] || o.equals(d[i]))
                     return i;
             }
         }
@@ -0,0 +1,68 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.resolver.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Assigns dense int ids to the objects seen during a resolve session, so
+ * that sets of them can be compared as sorted id arrays, see {@link IdSet}.
+ * Equal objects get the same id. Ids may be assigned concurrently; once the
+ * map is closed, the ids are released and no more ids are assigned.
+ */
+public class IdMap<T> {
+
+    private final ConcurrentMap<T, Integer> ids = new ConcurrentHashMap<T, Integer>();
+    private final AtomicInteger next = new AtomicInteger();
+    private volatile boolean closed;
+
+    public int getId(T t) {
+        Integer id = ids.get(t);
+        if (id == null) {
+            if (closed) {
+                throw new IllegalStateException("Ids have been released");
+            }
+            Integer newId = next.getAndIncrement();
+            id = ids.putIfAbsent(t, newId);
+            if (id == null) {
+                id = newId;
+            }
+        }
+        return id;
+    }
+
+    /**
+     * Returns the id of the given object, or -1 if it has none.
+     */
+    public int lookup(Object o) {
+        Integer id = ids.get(o);
+        return (id != null) ? id : -1;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public void close() {
+        closed = true;
+        ids.clear();
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.resolver.util;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A small set keeping the ids of its elements from an {@link IdMap} in a
+ * sorted int array, so that sets sharing the id map are compared, merged
+ * and checked for inclusion without hashing their elements. Ids are dense
+ * over all the objects of a resolve, so a bit set per set would mostly
+ * hold zeros; the sets found in package spaces only hold a few elements.
+ * Elements are iterated in the order of their ids and cannot be removed.
+ * Once the id map is closed, the set can still be read.
+ */
+public class IdSet<E> extends AbstractSet<E> {
+
+    private static final int SCAN_SIZE = 8;
+
+    private final IdMap<E> map;
+    // Ids in ascending order, and the elements with these ids.
+    private int[] ids;
+    private Object[] elements;
+    private int size;
+
+    public IdSet(IdMap<E> map) {
+        this(map, 1);
+    }
+
+    public IdSet(IdMap<E> map, int capacity) {
+        this.map = map;
+        this.ids = new int[capacity];
+        this.elements = new Object[capacity];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean add(E e) {
+        return add(e, map.getId(e));
+    }
+
+    private boolean add(Object e, int id) {
+        int idx = Arrays.binarySearch(ids, 0, size, id);
+        if (idx >= 0) {
+            return false;
+        }
+        idx = -idx - 1;
+        if (size == ids.length) {
+            int capacity = Math.max(4, size * 2);
+            ids = Arrays.copyOf(ids, capacity);
+            elements = Arrays.copyOf(elements, capacity);
+        }
+        System.arraycopy(ids, idx, ids, idx + 1, size - idx);
+        System.arraycopy(elements, idx, elements, idx + 1, size - idx);
+        ids[idx] = id;
+        elements[idx] = e;
+        size++;
+        return true;
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends E> c) {
+        if (!isShared(c)) {
+            return super.addAll(c);
+        }
+        IdSet<?> other = (IdSet<?>) c;
+        boolean modified = false;
+        for (int i = 0; i < other.size; i++) {
+            modified |= add(other.elements[i], other.ids[i]);
+        }
+        return modified;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        // Scanning a few elements is cheaper than looking up the id.
+        if (size <= SCAN_SIZE || map.isClosed()) {
+            for (int i = 0; i < size; i++) {
+                if (elements[i] == o || elements[i].equals(o)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        int id = map.lookup(o);
+        return (id >= 0) && (Arrays.binarySearch(ids, 0, size, id) >= 0);
+    }
+
+    @Override
+    public boolean containsAll(Collection<?> c) {
+        if (!isShared(c)) {
+            return super.containsAll(c);
+        }
+        IdSet<?> other = (IdSet<?>) c;
+        if (other.size > size) {
+            return false;
+        }
+        // Both arrays are sorted, so walk them once.
+        int i = 0;
+        for (int j = 0; j < other.size; j++) {
+            int id = other.ids[j];
+            while (i < size && ids[i] < id) {
+                i++;
+            }
+            if (i == size || ids[i] != id) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (!(o instanceof IdSet) || !isShared((IdSet<?>) o)) {
+            return super.equals(o);
+        }
+        IdSet<?> other = (IdSet<?>) o;
+        if (other.size != size) {
+            return false;
+        }
+        for (int i = 0; i < size; i++) {
+            if (ids[i] != other.ids[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        return super.hashCode();
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return new Iterator<E>() {
+            int idx = 0;
+            public boolean hasNext() {
+                return idx < size;
+            }
+            @SuppressWarnings("unchecked")
+            public E next() {
+                if (idx >= size) {
+                    throw new NoSuchElementException();
+                }
+                return (E) elements[idx++];
+            }
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private boolean isShared(Collection<?> c) {
+        return (c instanceof IdSet) && ((IdSet<?>) c).map == map;
+    }
+}
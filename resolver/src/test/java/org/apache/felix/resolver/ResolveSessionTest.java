@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.resolver;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import org.apache.felix.resolver.ResolverImpl.PermutationType;
+import org.apache.felix.resolver.ResolverImpl.ResolveSession;
+import org.apache.felix.resolver.test.util.ResolveContextImpl;
+import org.junit.Test;
+import org.osgi.resource.Capability;
+import org.osgi.resource.Requirement;
+import org.osgi.resource.Resource;
+import org.osgi.resource.Wiring;
+
+public class ResolveSessionTest
+{
+    @Test
+    public void testPermutationCap() throws Exception
+    {
+        ResolveSession session = createSession(3);
+        Candidates uses1 = new Candidates(session);
+        Candidates uses2 = new Candidates(session);
+        Candidates import1 = new Candidates(session);
+        Candidates import2 = new Candidates(session);
+        Candidates subst = new Candidates(session);
+
+        session.addPermutation(PermutationType.USES, uses1);
+        session.addPermutation(PermutationType.IMPORT, import1);
+        session.addPermutation(PermutationType.SUBSTITUTE, subst);
+        assertEquals(3, session.getPermutationCount());
+        assertEquals(0, session.getDroppedPermutationCount());
+
+        // The substitute permutation would be tried last, so it goes first.
+        session.addPermutation(PermutationType.IMPORT, import2);
+        assertEquals(3, session.getPermutationCount());
+        assertEquals(1, session.getDroppedPermutationCount());
+        assertEquals(Arrays.asList(uses1, import1, import2), session.getPendingPermutations(10));
+
+        // Then the tail of the import permutations.
+        session.addPermutation(PermutationType.USES, uses2);
+        assertEquals(3, session.getPermutationCount());
+        assertEquals(2, session.getDroppedPermutationCount());
+        assertEquals(Arrays.asList(uses1, uses2, import1), session.getPendingPermutations(10));
+
+        session.clearPermutations();
+        assertEquals(0, session.getPermutationCount());
+        assertEquals(0, session.getDroppedPermutationCount());
+    }
+
+    @Test
+    public void testNoPermutationCap() throws Exception
+    {
+        ResolveSession session = createSession(0);
+        for (int i = 0; i < 100; i++)
+        {
+            session.addPermutation(PermutationType.IMPORT, new Candidates(session));
+        }
+        assertEquals(100, session.getPermutationCount());
+        assertEquals(0, session.getDroppedPermutationCount());
+    }
+
+    private static ResolveSession createSession(int maxPermutations)
+    {
+        ResolveContextImpl rc = new ResolveContextImpl(
+            new HashMap<Resource, Wiring>(), new HashMap<Requirement, List<Capability>>(),
+            Collections.<Resource> emptyList(), Collections.<Resource> emptyList());
+        return ResolveSession.createSession(
+            rc, null, null, null, null, false, maxPermutations);
+    }
+}
@@ -20,6 +20,8 @@ package org.apache.felix.resolver.test;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -51,6 +53,7 @@ import org.osgi.resource.Resource;
 import org.osgi.resource.Wire;
 import org.osgi.resource.Wiring;
 import org.osgi.service.resolver.HostedCapability;
+import org.osgi.service.resolver.ResolutionException;
 import org.osgi.service.resolver.ResolveContext;
 
 import static org.junit.Assert.assertEquals;
@@ -75,11 +78,14 @@ public class BigResolutionTest {
             Thread.sleep(100);
             System.gc();
             Thread.sleep(100);
+            long b0 = getAllocatedBytes();
             long t0 = System.nanoTime();
             Map<Resource, List<Wire>> newWires = resolver.resolve(rc);
             long t1 = System.nanoTime();
+            long b1 = getAllocatedBytes();
             double dt = (t1 - t0) * 1E-6;
-            System.out.println("Resolver took " + String.format("%7.2f", dt) + " ms");
+            System.out.println("Resolver took " + String.format("%7.2f", dt) + " ms, allocated "
+                + String.format("%7.2f", (b1 - b0) * 1E-6) + " MB");
             stats.put(dt);
             assertEquals(wires, newWires);
 
@@ -118,6 +124,134 @@ public class BigResolutionTest {
         checkResolutions(wiring1, wiring2);
     }
 
+    @Test
+    public void testBackjumpingResolution() throws Exception {
+        checkBackjumping(buildResolutionContext());
+    }
+
+    @Test
+    @Ignore
+    public void testBackjumpingResolutionSpeed() throws Exception {
+        ResolveContext rc = buildResolutionContext();
+
+        ResolverImpl resolver = new ResolverImpl(new Logger(Logger.LOG_INFO), 1);
+        ResolverImpl backjumping = new ResolverImpl(new Logger(Logger.LOG_INFO), 1, true, 0);
+
+        // Backjumping may settle on another consistent set of wires, but it
+        // must resolve the same resources.
+        assertEquals(resolver.resolve(rc).keySet(), backjumping.resolve(rc).keySet());
+
+        for (int i = 0; i < 5; i++) {
+            long t0 = System.nanoTime();
+            resolver.resolve(rc);
+            long t1 = System.nanoTime();
+            backjumping.resolve(rc);
+            long t2 = System.nanoTime();
+            System.out.println("Resolver took " + String.format("%7.2f", (t1 - t0) * 1E-6)
+                + " ms, with backjumping " + String.format("%7.2f", (t2 - t1) * 1E-6) + " ms");
+        }
+    }
+
+    @Test
+    @Ignore
+    public void testSpeculativeResolutionSpeed() throws Exception {
+        ResolveContext rc = buildResolutionContext();
+
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        ResolverImpl resolver = new ResolverImpl(new Logger(Logger.LOG_DEBUG), parallelism);
+        ResolverImpl speculative = new ResolverImpl(new Logger(Logger.LOG_DEBUG), parallelism, false, 0, parallelism - 1);
+
+        // Permutations prepared ahead of time are still checked in order.
+        assertEquals(resolver.resolve(rc), speculative.resolve(rc));
+
+        for (int i = 0; i < 5; i++) {
+            long t0 = System.nanoTime();
+            resolver.resolve(rc);
+            long t1 = System.nanoTime();
+            speculative.resolve(rc);
+            long t2 = System.nanoTime();
+            System.out.println("Resolver took " + String.format("%7.2f", (t1 - t0) * 1E-6)
+                + " ms, with speculation " + String.format("%7.2f", (t2 - t1) * 1E-6) + " ms");
+        }
+    }
+
+    /**
+     * Checks that backjumping resolves the same resources as the normal
+     * search. It may settle on other wires, so these are checked to be
+     * consistent by resolving again with only the chosen providers.
+     */
+    public static void checkBackjumping(final ResolveContext rc) throws ResolutionException {
+        Map<Resource, List<Wire>> wires = new ResolverImpl(new Logger(Logger.LOG_INFO), 1).resolve(rc);
+        Map<Resource, List<Wire>> backjumped = new ResolverImpl(new Logger(Logger.LOG_INFO), 1, true, 0).resolve(rc);
+        assertEquals(wires.keySet(), backjumped.keySet());
+
+        final Map<Requirement, List<Capability>> chosen = new HashMap<Requirement, List<Capability>>();
+        for (List<Wire> resourceWires : backjumped.values()) {
+            for (Wire wire : resourceWires) {
+                List<Capability> caps = chosen.get(wire.getRequirement());
+                if (caps == null) {
+                    caps = new ArrayList<Capability>();
+                    chosen.put(wire.getRequirement(), caps);
+                }
+                if (!caps.contains(wire.getCapability())) {
+                    caps.add(wire.getCapability());
+                }
+            }
+        }
+        ResolveContext restricted = new ResolveContext() {
+            @Override
+            public Collection<Resource> getMandatoryResources() {
+                return rc.getMandatoryResources();
+            }
+
+            @Override
+            public Collection<Resource> getOptionalResources() {
+                return rc.getOptionalResources();
+            }
+
+            @Override
+            public List<Capability> findProviders(Requirement requirement) {
+                List<Capability> caps = chosen.get(requirement);
+                if (caps != null) {
+                    return new ArrayList<Capability>(caps);
+                }
+                // Not wired, unless substituted by the resource's own export.
+                caps = new ArrayList<Capability>();
+                for (Capability cap : rc.findProviders(requirement)) {
+                    if (cap.getResource().equals(requirement.getResource())) {
+                        caps.add(cap);
+                    }
+                }
+                return caps;
+            }
+
+            @Override
+            public int insertHostedCapability(List<Capability> capabilities, HostedCapability hostedCapability) {
+                return rc.insertHostedCapability(capabilities, hostedCapability);
+            }
+
+            @Override
+            public boolean isEffective(Requirement requirement) {
+                return rc.isEffective(requirement);
+            }
+
+            @Override
+            public Map<Resource, Wiring> getWirings() {
+                return rc.getWirings();
+            }
+        };
+        assertEquals(backjumped, new ResolverImpl(new Logger(Logger.LOG_INFO), 1).resolve(restricted));
+    }
+
+    private static long getAllocatedBytes() {
+        // Only available on VMs providing the com.sun.management extensions.
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
     private ResolveContext buildResolutionContext() throws IOException, BundleException {
         Object resolution;
 
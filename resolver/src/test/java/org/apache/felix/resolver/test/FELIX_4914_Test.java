@@ -47,6 +47,18 @@ public class FELIX_4914_Test extends TestCase {
 
     @Test
     public void testResolution() throws Exception {
+        Resolver resolver = new ResolverImpl(new Logger(Logger.LOG_DEBUG));
+        Map<Resource, List<Wire>> wireMap = resolver.resolve(buildResolveContext());
+
+
+    }
+
+    @Test
+    public void testBackjumpingResolution() throws Exception {
+        BigResolutionTest.checkBackjumping(buildResolveContext());
+    }
+
+    private ResolveContextImpl buildResolveContext() throws Exception {
         BufferedReader reader = new BufferedReader(new InputStreamReader(getClass().getResourceAsStream("/felix-4914.json")));
         Map<String, Object> resolution = (Map<String, Object>) JsonReader.read(reader);
         List<Resource> repository = readRepository(resolution.get("repository"));
@@ -91,11 +103,7 @@ public class FELIX_4914_Test extends TestCase {
             }
         }
 
-        ResolveContextImpl rci = new ResolveContextImpl(Collections.<Resource, Wiring>emptyMap(), candidates, mandatory, Collections.EMPTY_LIST);
-        Resolver resolver = new ResolverImpl(new Logger(Logger.LOG_DEBUG));
-        Map<Resource, List<Wire>> wireMap = resolver.resolve(rci);
-
-
+        return new ResolveContextImpl(Collections.<Resource, Wiring>emptyMap(), candidates, mandatory, Collections.EMPTY_LIST);
     }
 
     private static List<Resource> readRepository(Object repository) throws BundleException {
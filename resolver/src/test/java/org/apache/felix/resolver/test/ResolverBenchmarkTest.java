@@ -0,0 +1,297 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.resolver.test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.felix.resolver.Logger;
+import org.apache.felix.resolver.ResolverImpl;
+import org.apache.felix.resolver.test.util.CandidateComparator;
+import org.apache.felix.utils.repository.BaseRepository;
+import org.apache.felix.utils.repository.JsonRepository;
+import org.apache.felix.utils.repository.XmlRepository;
+import org.apache.felix.utils.resource.ResourceBuilder;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.osgi.framework.BundleException;
+import org.osgi.resource.Capability;
+import org.osgi.resource.Namespace;
+import org.osgi.resource.Requirement;
+import org.osgi.resource.Resource;
+import org.osgi.resource.Wiring;
+import org.osgi.service.resolver.HostedCapability;
+import org.osgi.service.resolver.ResolveContext;
+
+/**
+ * Measures the throughput, the 99th percentile latency and the allocation
+ * of resolves at several parallelism settings, for repository indexes and
+ * for synthetic wide, deep and uses heavy graphs. Repository indexes are
+ * given as a comma separated list of URLs in the
+ * <tt>felix.benchmark.repositories</tt> system property; URLs ending with
+ * <tt>.json</tt> are read as JSON repositories, all others as XML repository
+ * indexes. All resources are resolved as optional resources. Ignored by
+ * default and meant to be run manually.
+ */
+public class ResolverBenchmarkTest {
+
+    private static final int WARMUP = 3;
+    private static final int ITERATIONS = Integer.getInteger("felix.benchmark.iterations", 20);
+    private static final String SYSTEM_PACKAGES = System.getProperty("felix.benchmark.system.packages",
+        "org.osgi.framework;version=1.8,org.osgi.framework.wiring;version=1.2,"
+        + "org.osgi.framework.startlevel;version=1.0,org.osgi.framework.hooks.service;version=1.1,"
+        + "org.osgi.service.packageadmin;version=1.2,org.osgi.service.startlevel;version=1.1,"
+        + "org.osgi.service.url;version=1.0,org.osgi.util.tracker;version=1.5.1,"
+        + "org.osgi.resource;version=1.0,org.osgi.service.resolver;version=1.0");
+
+    @Test
+    @Ignore
+    public void testRepositories() throws Exception {
+        String urls = System.getProperty("felix.benchmark.repositories");
+        if (urls == null) {
+            System.out.println("No repositories given in felix.benchmark.repositories");
+            return;
+        }
+        for (String url : urls.split(",")) {
+            url = url.trim();
+            List<Resource> resources = url.endsWith(".json")
+                ? new JsonRepository(url, 0).getResources()
+                : new XmlRepository(url, 0).getResources();
+            run(url, resources);
+        }
+    }
+
+    @Test
+    @Ignore
+    public void testWideGraph() throws Exception {
+        // Many bundles importing a few of many shared api packages.
+        List<Resource> resources = new ArrayList<Resource>();
+        for (int i = 0; i < 100; i++) {
+            resources.add(buildBundle("api" + i, "wide.api" + i + ";version=1.0", null));
+        }
+        for (int i = 0; i < 1000; i++) {
+            StringBuilder imports = new StringBuilder();
+            for (int j = 0; j < 5; j++) {
+                imports.append(j > 0 ? "," : "").append("wide.api").append((i * 7 + j * 13) % 100);
+            }
+            resources.add(buildBundle("impl" + i, "wide.impl" + i + ";version=1.0", imports.toString()));
+        }
+        run("wide", resources);
+    }
+
+    @Test
+    @Ignore
+    public void testDeepGraph() throws Exception {
+        // A long chain of bundles, each using the package of the previous one.
+        List<Resource> resources = new ArrayList<Resource>();
+        resources.add(buildBundle("deep0", "deep.p0;version=1.0", null));
+        for (int i = 1; i < 300; i++) {
+            resources.add(buildBundle("deep" + i,
+                "deep.p" + i + ";version=1.0;uses:=\"deep.p" + (i - 1) + "\"",
+                "deep.p" + (i - 1) + ";version=\"[1.0,2)\""));
+        }
+        run("deep", resources);
+    }
+
+    @Test
+    @Ignore
+    public void testUsesHeavyGraph() throws Exception {
+        // Several versions of libraries and of apis using them, with
+        // consumers restricting the library versions, so that many
+        // candidates violate uses constraints.
+        int versions = 4;
+        List<Resource> resources = new ArrayList<Resource>();
+        for (int v = 1; v <= versions; v++) {
+            for (int l = 0; l < 5; l++) {
+                resources.add(buildBundle("lib" + l + "-" + v, "uses.lib" + l + ";version=" + v + ".0", null));
+            }
+            for (int a = 0; a < 20; a++) {
+                int l = a % 5;
+                resources.add(buildBundle("api" + a + "-" + v,
+                    "uses.api" + a + ";version=" + v + ".0;uses:=\"uses.lib" + l + "\"",
+                    "uses.lib" + l + ";version=\"[" + v + ".0," + (v + 1) + ")\""));
+            }
+        }
+        for (int c = 0; c < 50; c++) {
+            int l = c % 5;
+            int v = 1 + c % versions;
+            resources.add(buildBundle("consumer" + c, null,
+                "uses.api" + (c % 20) + ",uses.api" + ((c + 5) % 20) + ",uses.api" + ((c + 10) % 20)
+                    + ",uses.lib" + l + ";version=\"[" + v + ".0," + (v + 1) + ")\""));
+        }
+        run("uses", resources);
+    }
+
+    private void run(String name, List<Resource> resources) throws Exception {
+        List<Resource> all = new ArrayList<Resource>();
+        all.add(buildSystemBundle());
+        all.addAll(resources);
+        ResolveContext rc = new RepositoryResolveContext(new BaseRepository(all), resources);
+
+        Set<Integer> parallelisms = new LinkedHashSet<Integer>(
+            Arrays.asList(1, 2, Runtime.getRuntime().availableProcessors()));
+        for (int parallelism : parallelisms) {
+            ExecutorService executor = (parallelism > 1) ? Executors.newFixedThreadPool(parallelism) : null;
+            try {
+                ResolverImpl resolver = new ResolverImpl(new Logger(Logger.LOG_ERROR),
+                    (executor != null) ? executor : new Executor() {
+                        public void execute(Runnable command) {
+                            command.run();
+                        }
+                    });
+                int wired = 0;
+                for (int i = 0; i < WARMUP; i++) {
+                    wired = resolver.resolve(rc).size();
+                }
+                long[] latencies = new long[ITERATIONS];
+                long allocated = 0;
+                for (int i = 0; i < ITERATIONS; i++) {
+                    long b0 = getAllocatedBytes();
+                    long t0 = System.nanoTime();
+                    resolver.resolve(rc);
+                    latencies[i] = System.nanoTime() - t0;
+                    allocated += getAllocatedBytes() - b0;
+                }
+                long total = 0;
+                for (long latency : latencies) {
+                    total += latency;
+                }
+                Arrays.sort(latencies);
+                long p99 = latencies[(int) Math.ceil(latencies.length * 0.99) - 1];
+                System.out.println(name + ": " + resources.size() + " resources, " + wired + " wired, parallelism "
+                    + parallelism + ": " + String.format("%7.2f", ITERATIONS / (total * 1E-9)) + " ops/s, p99 "
+                    + String.format("%7.2f", p99 * 1E-6) + " ms, "
+                    + String.format("%7.2f", allocated * 1E-6 / ITERATIONS) + " MB allocated per resolve");
+            } finally {
+                if (executor != null) {
+                    executor.shutdownNow();
+                }
+            }
+        }
+    }
+
+    private static long getAllocatedBytes() {
+        // Sums the allocation of all live threads, which includes the resolver's
+        // pool threads. Only available on VMs providing the com.sun.management
+        // extensions.
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return 0;
+        }
+        long sum = 0;
+        for (long bytes : ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            sum += Math.max(0, bytes);
+        }
+        return sum;
+    }
+
+    private static Resource buildSystemBundle() throws BundleException {
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put("Bundle-ManifestVersion", "2");
+        headers.put("Bundle-SymbolicName", "system.bundle");
+        headers.put("Export-Package", SYSTEM_PACKAGES);
+        headers.put("Provide-Capability",
+            "osgi.ee;osgi.ee=JavaSE;version:List<Version>=\"1.5,1.6,1.7,1.8\"");
+        return ResourceBuilder.build("system", headers);
+    }
+
+    private static Resource buildBundle(String bsn, String exports, String imports) throws BundleException {
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put("Bundle-ManifestVersion", "2");
+        headers.put("Bundle-SymbolicName", bsn);
+        headers.put("Bundle-Version", "1.0.0");
+        if (exports != null) {
+            headers.put("Export-Package", exports);
+        }
+        if (imports != null) {
+            headers.put("Import-Package", imports);
+        }
+        return ResourceBuilder.build(bsn, headers);
+    }
+
+    private static class RepositoryResolveContext extends ResolveContext {
+
+        private final BaseRepository repository;
+        private final List<Resource> optional;
+        private final Map<Requirement, List<Capability>> providers = new HashMap<Requirement, List<Capability>>();
+
+        RepositoryResolveContext(BaseRepository repository, List<Resource> optional) {
+            this.repository = repository;
+            this.optional = optional;
+            // Look up the providers up front, so only the resolver is measured.
+            for (Resource resource : optional) {
+                for (Requirement requirement : resource.getRequirements(null)) {
+                    lookup(requirement);
+                }
+            }
+        }
+
+        private List<Capability> lookup(Requirement requirement) {
+            List<Capability> caps = providers.get(requirement);
+            if (caps == null) {
+                Collection<Capability> found = repository.findProviders(
+                    Collections.singleton(requirement)).get(requirement);
+                caps = (found != null) ? new ArrayList<Capability>(found) : new ArrayList<Capability>();
+                Collections.sort(caps, new CandidateComparator());
+                providers.put(requirement, caps);
+            }
+            return caps;
+        }
+
+        @Override
+        public Collection<Resource> getOptionalResources() {
+            return optional;
+        }
+
+        @Override
+        public synchronized List<Capability> findProviders(Requirement requirement) {
+            // The resolver may modify the returned list.
+            return new ArrayList<Capability>(lookup(requirement));
+        }
+
+        @Override
+        public int insertHostedCapability(List<Capability> capabilities, HostedCapability hostedCapability) {
+            capabilities.add(hostedCapability);
+            return capabilities.size() - 1;
+        }
+
+        @Override
+        public boolean isEffective(Requirement requirement) {
+            String effective = requirement.getDirectives().get(Namespace.REQUIREMENT_EFFECTIVE_DIRECTIVE);
+            return (effective == null) || Namespace.EFFECTIVE_RESOLVE.equals(effective);
+        }
+
+        @Override
+        public Map<Resource, Wiring> getWirings() {
+            return Collections.emptyMap();
+        }
+    }
+}
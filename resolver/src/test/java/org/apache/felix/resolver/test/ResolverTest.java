@@ -923,6 +923,162 @@ public class ResolverTest
         assertEquals("Wrong number of resolved bundles", 9, result.size());
     }
 
+    @Test
+    public void testBackjumpingConflictingVersions() throws Exception
+    {
+        Map<Requirement, List<Capability>> candMap = new HashMap<Requirement, List<Capability>>();
+        List<Resource> mandatory = populateConflictingVersions(candMap, 3, 5);
+        ResolveContextImpl rci = new ResolveContextImpl(
+            Collections.<Resource, Wiring> emptyMap(), candMap, mandatory, Collections.<Resource> emptyList());
+
+        BigResolutionTest.checkBackjumping(rci);
+
+        Map<Resource, List<Wire>> wireMap = new ResolverImpl(new Logger(Logger.LOG_DEBUG), 1, true, 0).resolve(rci);
+        Resource c = findResource("C", wireMap.keySet());
+        for (Wire wire : wireMap.get(c))
+        {
+            assertEquals(new Version(1, 0, 0), wire.getCapability().getAttributes().get(
+                PackageNamespace.CAPABILITY_VERSION_ATTRIBUTE));
+        }
+    }
+
+    @Test
+    public void testSpeculation() throws Exception
+    {
+        Map<Resource, Wiring> wirings = new HashMap<Resource, Wiring>();
+        Map<Requirement, List<Capability>> candMap = new HashMap<Requirement, List<Capability>>();
+        List<Resource> mandatory = populateSpeculation(wirings, candMap, true);
+        ResolveContextImpl rci = new ResolveContextImpl(wirings, candMap, mandatory, Collections.<Resource> emptyList());
+
+        Map<Resource, List<Wire>> sequential =
+            new ResolverImpl(new Logger(Logger.LOG_DEBUG), 2, false, 0, 0).resolve(rci);
+        final List<String> messages = Collections.synchronizedList(new ArrayList<String>());
+        Logger logger = new Logger(Logger.LOG_DEBUG)
+        {
+            @Override
+            protected void doLog(int level, String msg, Throwable throwable)
+            {
+                messages.add(msg);
+            }
+        };
+        Map<Resource, List<Wire>> speculative =
+            new ResolverImpl(logger, 2, false, 0, 4).resolve(rci);
+
+        assertEquals(getWiring(sequential), getWiring(speculative));
+        Resource a = findResource("A", speculative.keySet());
+        List<String> providers = new ArrayList<String>();
+        for (Wire wire : speculative.get(a))
+        {
+            providers.add(getResourceName(wire.getProvider()));
+        }
+        assertEquals(Arrays.asList("X2", "X2", "X2", "Q"), providers);
+        // Make sure the permutations were actually prepared ahead.
+        boolean prepared = false;
+        for (String msg : messages)
+        {
+            prepared |= msg.contains("prepared ahead used");
+        }
+        assertTrue(messages.toString(), prepared);
+    }
+
+    @Test
+    public void testSpeculationAllPermutationsFail() throws Exception
+    {
+        Map<Resource, Wiring> wirings = new HashMap<Resource, Wiring>();
+        Map<Requirement, List<Capability>> candMap = new HashMap<Requirement, List<Capability>>();
+        List<Resource> mandatory = populateSpeculation(wirings, candMap, false);
+        ResolveContextImpl rci = new ResolveContextImpl(wirings, candMap, mandatory, Collections.<Resource> emptyList());
+
+        for (int speculation : new int[] { 0, 1, 4 })
+        {
+            try
+            {
+                new ResolverImpl(new Logger(Logger.LOG_DEBUG), 2, false, 0, speculation).resolve(rci);
+                fail("Should have thrown a resolution exception with speculation " + speculation);
+            }
+            catch (ResolutionException re)
+            {
+                // good
+            }
+        }
+    }
+
+    @Test
+    public void testIncrementalResolve() throws Exception
+    {
+        ResolverImpl resolver = new ResolverImpl(new Logger(Logger.LOG_DEBUG), 1);
+
+        Map<Resource, Wiring> wirings = new HashMap<Resource, Wiring>();
+        Map<Requirement, List<Capability>> candMap = new HashMap<Requirement, List<Capability>>();
+
+        ResourceImpl a1 = new ResourceImpl("A1");
+        Capability a1_pkgCap = addCap(a1, PackageNamespace.PACKAGE_NAMESPACE, "org.foo.p");
+
+        ResourceImpl a2 = new ResourceImpl("A2");
+        Capability a2_pkgCap = addCap(a2, PackageNamespace.PACKAGE_NAMESPACE, "org.foo.p");
+
+        ResourceImpl b1 = new ResourceImpl("B");
+        Capability b_pkgCap = addCap(b1, PackageNamespace.PACKAGE_NAMESPACE, "org.foo.q", "org.foo.p");
+        Requirement b_pkgReq = addReq(b1, PackageNamespace.PACKAGE_NAMESPACE, "org.foo.p");
+
+        ResourceImpl c1 = new ResourceImpl("C");
+        Requirement c_pkgReq1 = addReq(c1, PackageNamespace.PACKAGE_NAMESPACE, "org.foo.q");
+        Requirement c_pkgReq2 = addReq(c1, PackageNamespace.PACKAGE_NAMESPACE, "org.foo.p");
+
+        candMap.put(c_pkgReq1, Collections.singletonList(b_pkgCap));
+        candMap.put(c_pkgReq2, Arrays.asList(a1_pkgCap, a2_pkgCap));
+
+        populateIncrementalWirings(wirings, a1, a2, b1, new SimpleWire(b_pkgReq, a2_pkgCap));
+
+        ResolveContextImpl rci = new ResolveContextImpl(wirings, candMap, Collections.<Resource> singletonList(c1), Collections.<Resource> emptyList());
+
+        // The second resolve reuses the package spaces of the resolved
+        // resources computed by the first one.
+        for (int i = 0; i < 2; i++)
+        {
+            Map<Resource, List<Wire>> wireMap = resolver.resolve(rci);
+            assertEquals(a2_pkgCap, getWire(wireMap.get(c1), c_pkgReq2).getCapability());
+        }
+
+        // Refreshing B gives it a new wiring, which must not reuse the old
+        // package space of B.
+        populateIncrementalWirings(wirings, a1, a2, b1, new SimpleWire(b_pkgReq, a1_pkgCap));
+        Map<Resource, List<Wire>> wireMap = resolver.resolve(rci);
+        assertEquals(a1_pkgCap, getWire(wireMap.get(c1), c_pkgReq2).getCapability());
+    }
+
+    private static void populateIncrementalWirings(Map<Resource, Wiring> wirings,
+        Resource a1, Resource a2, Resource b1, Wire bWire)
+    {
+        Map<Resource, List<Wire>> wires = new HashMap<Resource, List<Wire>>();
+        wires.put(a1, new ArrayList<Wire>());
+        wires.put(a2, new ArrayList<Wire>());
+        wires.put(b1, new ArrayList<Wire>());
+        wires.get(b1).add(bWire);
+
+        Map<Resource, List<Wire>> invertedWires = new HashMap<Resource, List<Wire>>();
+        invertedWires.put(a1, new ArrayList<Wire>());
+        invertedWires.put(a2, new ArrayList<Wire>());
+        invertedWires.put(b1, new ArrayList<Wire>());
+        invertedWires.get(bWire.getProvider()).add(bWire);
+
+        wirings.put(a1, new SimpleWiring(a1, a1.getCapabilities(null), wires, invertedWires));
+        wirings.put(a2, new SimpleWiring(a2, a2.getCapabilities(null), wires, invertedWires));
+        wirings.put(b1, new SimpleWiring(b1, b1.getCapabilities(null), wires, invertedWires));
+    }
+
+    private static Wire getWire(List<Wire> wires, Requirement req)
+    {
+        for (Wire wire : wires)
+        {
+            if (wire.getRequirement().equals(req))
+            {
+                return wire;
+            }
+        }
+        return null;
+    }
+
     private ResolveContext populateScenario17(boolean realSubstitute,
         boolean felixResolveContext, boolean existingWirings)
     {
@@ -1560,6 +1716,100 @@ public class ResolverTest
         return Collections.<Resource>singletonList(b1);
     }
 
+    private static List<Resource> populateSpeculation(
+        Map<Resource, Wiring> wirings, Map<Requirement, List<Capability>> candMap, boolean consistent)
+    {
+        // A imports p1 to p3 from X1 or X2 and q from Q, which uses p1 to p3.
+        // Q imports p1 to p3 from X2, or from X3 if there is to be no
+        // consistent permutation, so A has to permutate its imports to match.
+        ResourceImpl x1 = new ResourceImpl("X1");
+        ResourceImpl x2 = new ResourceImpl("X2");
+        ResourceImpl x3 = new ResourceImpl("X3");
+        ResourceImpl q = new ResourceImpl("Q");
+        ResourceImpl a = new ResourceImpl("A");
+        PackageCapability qCap = new PackageCapability(q, "q");
+        qCap.addDirective(PackageNamespace.CAPABILITY_USES_DIRECTIVE, "p1,p2,p3");
+        q.addCapability(qCap);
+        for (String pkg : new String[] { "p1", "p2", "p3" })
+        {
+            Capability x1Cap = new PackageCapability(x1, pkg);
+            x1.addCapability(x1Cap);
+            Capability x2Cap = new PackageCapability(x2, pkg);
+            x2.addCapability(x2Cap);
+            Capability x3Cap = new PackageCapability(x3, pkg);
+            x3.addCapability(x3Cap);
+
+            Requirement qReq = new PackageRequirement(q, pkg);
+            q.addRequirement(qReq);
+            candMap.put(qReq, Collections.singletonList(consistent ? x2Cap : x3Cap));
+            Requirement aReq = new PackageRequirement(a, pkg);
+            a.addRequirement(aReq);
+            candMap.put(aReq, Arrays.asList(x1Cap, x2Cap));
+        }
+        Requirement aReq = new PackageRequirement(a, "q");
+        a.addRequirement(aReq);
+        candMap.put(aReq, Collections.<Capability> singletonList(qCap));
+
+        return Collections.<Resource> singletonList(a);
+    }
+
+    private static List<Resource> populateConflictingVersions(
+        Map<Requirement, List<Capability>> candMap, int count, int versions)
+    {
+        // C imports x, y and a1 to aN, all available in many versions. Each
+        // version of ai uses x and y and imports the same version of x, but
+        // another version of y for every ai unless it is version 1, so only
+        // choosing version 1 of every package is consistent.
+        List<Capability> xCaps = new ArrayList<Capability>();
+        List<Capability> yCaps = new ArrayList<Capability>();
+        for (int v = versions; v >= 1; v--)
+        {
+            xCaps.add(addVersionedCap(new ResourceImpl("X" + v), "x", v, null));
+            yCaps.add(addVersionedCap(new ResourceImpl("Y" + v), "y", v, null));
+        }
+        ResourceImpl c = new ResourceImpl("C");
+        for (int i = 1; i <= count; i++)
+        {
+            List<Capability> aCaps = new ArrayList<Capability>();
+            for (int v = versions; v >= 1; v--)
+            {
+                ResourceImpl a = new ResourceImpl("A" + i + "_" + v);
+                aCaps.add(addVersionedCap(a, "a" + i, v, "x,y"));
+                int y = (v == 1) ? 1 : (v + i) % (versions - 1) + 2;
+                candMap.put(addReq(a, PackageNamespace.PACKAGE_NAMESPACE, "x"),
+                    Collections.singletonList(xCaps.get(versions - v)));
+                candMap.put(addReq(a, PackageNamespace.PACKAGE_NAMESPACE, "y"),
+                    Collections.singletonList(yCaps.get(versions - y)));
+            }
+            candMap.put(addReq(c, PackageNamespace.PACKAGE_NAMESPACE, "a" + i), aCaps);
+        }
+        candMap.put(addReq(c, PackageNamespace.PACKAGE_NAMESPACE, "x"), xCaps);
+        candMap.put(addReq(c, PackageNamespace.PACKAGE_NAMESPACE, "y"), yCaps);
+        return Collections.<Resource> singletonList(c);
+    }
+
+    private static Capability addVersionedCap(ResourceImpl res, String pkg, int version, String uses)
+    {
+        Capability cap = addCap(res, PackageNamespace.PACKAGE_NAMESPACE, pkg, uses);
+        ((GenericCapability) cap).addAttribute(PackageNamespace.CAPABILITY_VERSION_ATTRIBUTE, new Version(version, 0, 0));
+        return cap;
+    }
+
+    private static Map<Resource, List<List<Object>>> getWiring(Map<Resource, List<Wire>> wireMap)
+    {
+        Map<Resource, List<List<Object>>> wiring = new HashMap<Resource, List<List<Object>>>();
+        for (Map.Entry<Resource, List<Wire>> entry : wireMap.entrySet())
+        {
+            List<List<Object>> wires = new ArrayList<List<Object>>();
+            for (Wire wire : entry.getValue())
+            {
+                wires.add(Arrays.<Object> asList(wire.getRequirement(), wire.getCapability(), wire.getProvider()));
+            }
+            wiring.put(entry.getKey(), wires);
+        }
+        return wiring;
+    }
+
     private static Capability addCap(ResourceImpl res, String namespace, String value)
     {
         return addCap(res, namespace, value, null);
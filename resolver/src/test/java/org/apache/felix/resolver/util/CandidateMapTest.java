@@ -0,0 +1,310 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.resolver.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+import org.osgi.resource.Capability;
+import org.osgi.resource.Requirement;
+import org.osgi.resource.Resource;
+
+public class CandidateMapTest
+{
+    @Test
+    public void testEqualHashKeys()
+    {
+        // The keys share all hash bits, so they end up in a collision node
+        // below the last level of the trie.
+        Key k1 = new Key("k1", 42);
+        Key k2 = new Key("k2", 42);
+        Key k3 = new Key("k3", 42);
+        CandidateSelector s1 = selector();
+        CandidateSelector s2 = selector();
+        CandidateSelector s3 = selector();
+
+        CandidateMap map = new CandidateMap();
+        assertNull(map.put(k1, s1));
+        assertNull(map.put(k2, s2));
+        assertNull(map.put(k3, s3));
+        assertEquals(3, map.size());
+        assertSame(s1, map.get(k1));
+        assertSame(s2, map.get(k2));
+        assertSame(s3, map.get(k3));
+        assertNull(map.get(new Key("k4", 42)));
+
+        CandidateSelector s2b = selector();
+        assertSame(s2, map.put(k2, s2b));
+        assertEquals(3, map.size());
+        assertSame(s2b, map.get(k2));
+
+        assertSame(s2b, map.remove(k2));
+        assertNull(map.remove(k2));
+        assertEquals(2, map.size());
+        assertSame(s1, map.get(k1));
+        assertNull(map.get(k2));
+        assertSame(s3, map.get(k3));
+        assertEquals(keys(k1, k3), keysOf(map));
+    }
+
+    @Test
+    public void testRemoveToEmptyAndPullUp()
+    {
+        // After spreading the hashes only differ in their top bits, so the
+        // two keys split into a chain of nodes down to the last level.
+        Key deep1 = new Key("deep1", 0x40004000);
+        Key deep2 = new Key("deep2", 0x80008000);
+        Key other = new Key("other", 1);
+        CandidateMap map = new CandidateMap();
+        map.put(deep1, selector());
+        map.put(deep2, selector());
+        map.put(other, selector());
+
+        // Removing one of the deep keys pulls the other one up, it has to
+        // stay reachable and replaceable.
+        assertTrue(map.remove(deep1) != null);
+        assertTrue(map.get(deep2) != null);
+        assertNull(map.get(deep1));
+        CandidateSelector s = selector();
+        assertTrue(map.put(deep2, s) != null);
+        assertSame(s, map.get(deep2));
+        assertEquals(2, map.size());
+
+        // Adding the removed key again splits the pulled up leaf again.
+        map.put(deep1, selector());
+        assertTrue(map.get(deep1) != null);
+        assertSame(s, map.get(deep2));
+
+        // The same for equal hash keys.
+        Key c1 = new Key("c1", 7);
+        Key c2 = new Key("c2", 7);
+        map.put(c1, selector());
+        map.put(c2, selector());
+        assertTrue(map.remove(c1) != null);
+        assertTrue(map.get(c2) != null);
+        map.put(c1, selector());
+        assertTrue(map.get(c1) != null);
+
+        for (Key key : keys(deep1, deep2, other, c1, c2))
+        {
+            assertTrue(map.remove(key) != null);
+        }
+        assertTrue(map.isEmpty());
+        assertEquals(0, map.size());
+        assertFalse(map.fast().iterator().hasNext());
+        assertNull(map.remove(other));
+
+        // An emptied map can be filled again.
+        map.put(other, s);
+        assertEquals(1, map.size());
+        assertSame(s, map.get(other));
+    }
+
+    @Test
+    public void testCopyIsolation()
+    {
+        Key k1 = new Key("k1", 1);
+        Key k2 = new Key("k2", 33);
+        Key k3 = new Key("k3", 1 << 20);
+        CandidateMap map = new CandidateMap();
+        CandidateSelector s1 = selector();
+        CandidateSelector s2 = selector();
+        map.put(k1, s1);
+        map.put(k2, s2);
+
+        // Changes to the copy are not visible in the original.
+        CandidateMap copy = map.copy();
+        CandidateSelector c1 = selector();
+        copy.put(k1, c1);
+        copy.remove(k2);
+        copy.put(k3, selector());
+        assertSame(s1, map.get(k1));
+        assertSame(s2, map.get(k2));
+        assertNull(map.get(k3));
+        assertEquals(2, map.size());
+        assertSame(c1, copy.get(k1));
+        assertNull(copy.get(k2));
+        assertEquals(2, copy.size());
+
+        // Changes to the original are not visible in the copy.
+        CandidateMap copy2 = map.copy();
+        CandidateSelector s1b = selector();
+        map.put(k1, s1b);
+        map.remove(k2);
+        map.put(k3, selector());
+        assertSame(s1, copy2.get(k1));
+        assertSame(s2, copy2.get(k2));
+        assertNull(copy2.get(k3));
+        assertEquals(2, copy2.size());
+        assertSame(s1b, map.get(k1));
+        assertEquals(keys(k1, k2), keysOf(copy2));
+        assertEquals(keys(k1, k3), keysOf(map));
+
+        // Selectors obtained for update are owned by one map only.
+        CandidateMap copy3 = map.copy();
+        CandidateSelector updated = copy3.getForUpdate(k1);
+        assertNotSame(s1b, updated);
+        assertSame(updated, copy3.get(k1));
+        assertSame(updated, copy3.getForUpdate(k1));
+        assertSame(s1b, map.get(k1));
+        assertNull(copy3.getForUpdate(k2));
+    }
+
+    @Test
+    public void testInsertionOrderAgainstLinkedHashMap()
+    {
+        Random random = new Random(4711);
+        // Few distinct hash codes, so that collisions and deep nodes are
+        // common.
+        List<Key> keys = new ArrayList<Key>();
+        for (int i = 0; i < 200; i++)
+        {
+            keys.add(new Key("k" + i, random.nextInt(64) << random.nextInt(27)));
+        }
+
+        List<CandidateMap> maps = new ArrayList<CandidateMap>();
+        List<Map<Key, CandidateSelector>> expected = new ArrayList<Map<Key, CandidateSelector>>();
+        maps.add(new CandidateMap());
+        expected.add(new LinkedHashMap<Key, CandidateSelector>());
+        for (int i = 0; i < 20000; i++)
+        {
+            int m = random.nextInt(maps.size());
+            CandidateMap map = maps.get(m);
+            Map<Key, CandidateSelector> model = expected.get(m);
+            Key key = keys.get(random.nextInt(keys.size()));
+            int op = random.nextInt(10);
+            if (op < 5)
+            {
+                CandidateSelector s = selector();
+                assertSame(model.put(key, s), map.put(key, s));
+            }
+            else if (op < 9)
+            {
+                assertSame(model.remove(key), map.remove(key));
+            }
+            else if (maps.size() < 8)
+            {
+                maps.add(map.copy());
+                expected.add(new LinkedHashMap<Key, CandidateSelector>(model));
+            }
+            assertEquals(model.size(), map.size());
+            assertSame(model.get(key), map.get(key));
+        }
+
+        for (int m = 0; m < maps.size(); m++)
+        {
+            CandidateMap map = maps.get(m);
+            Map<Key, CandidateSelector> model = expected.get(m);
+            assertEquals(new ArrayList<Key>(model.keySet()), keysOf(map));
+            for (Map.Entry<Requirement, CandidateSelector> entry : map.fast())
+            {
+                assertSame(model.get(entry.getKey()), entry.getValue());
+            }
+            for (Key key : keys)
+            {
+                assertSame(model.get(key), map.get(key));
+            }
+        }
+    }
+
+    private static CandidateSelector selector()
+    {
+        return new CandidateSelector(Collections.<Capability> emptyList(), new AtomicBoolean(false));
+    }
+
+    private static List<Key> keys(Key... keys)
+    {
+        List<Key> result = new ArrayList<Key>();
+        Collections.addAll(result, keys);
+        return result;
+    }
+
+    private static List<Requirement> keysOf(CandidateMap map)
+    {
+        List<Requirement> keys = new ArrayList<Requirement>();
+        for (Map.Entry<Requirement, CandidateSelector> entry : map.fast())
+        {
+            keys.add(entry.getKey());
+        }
+        return keys;
+    }
+
+    private static class Key implements Requirement
+    {
+        private final String m_name;
+        private final int m_hash;
+
+        Key(String name, int hash)
+        {
+            m_name = name;
+            m_hash = hash;
+        }
+
+        public String getNamespace()
+        {
+            return "test";
+        }
+
+        public Map<String, String> getDirectives()
+        {
+            return Collections.emptyMap();
+        }
+
+        public Map<String, Object> getAttributes()
+        {
+            return Collections.emptyMap();
+        }
+
+        public Resource getResource()
+        {
+            return null;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            return (o instanceof Key) && ((Key) o).m_name.equals(m_name);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return m_hash;
+        }
+
+        @Override
+        public String toString()
+        {
+            return m_name;
+        }
+    }
+}
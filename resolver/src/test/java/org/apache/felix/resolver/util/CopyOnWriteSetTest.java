@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.resolver.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class CopyOnWriteSetTest
+{
+    @Test
+    public void testEqualsAndHashCodeIgnoreOrder()
+    {
+        CopyOnWriteSet<String> s1 = new CopyOnWriteSet<String>(Arrays.asList("a", "b", "c"));
+        CopyOnWriteSet<String> s2 = new CopyOnWriteSet<String>(Arrays.asList("c", "a", "b"));
+        assertTrue(s1.equals(s2));
+        assertTrue(s2.equals(s1));
+        assertEquals(s1.hashCode(), s2.hashCode());
+        // The same hash code as any other set with these elements.
+        assertEquals(new HashSet<String>(s1).hashCode(), s1.hashCode());
+
+        CopyOnWriteSet<String> s3 = new CopyOnWriteSet<String>(Arrays.asList("a", "b", "d"));
+        assertFalse(s1.equals(s3));
+        CopyOnWriteSet<String> s4 = new CopyOnWriteSet<String>(Arrays.asList("a", "b"));
+        assertFalse(s1.equals(s4));
+        assertFalse(s4.equals(s1));
+
+        // Elements added and removed in another order.
+        CopyOnWriteSet<String> s5 = new CopyOnWriteSet<String>();
+        s5.add("b");
+        s5.add("x");
+        s5.add("c");
+        s5.add("a");
+        s5.remove("x");
+        assertTrue(s1.equals(s5));
+        assertEquals(s1.hashCode(), s5.hashCode());
+
+        assertEquals(0, new CopyOnWriteSet<String>().hashCode());
+        assertTrue(new CopyOnWriteSet<String>().equals(new CopyOnWriteSet<String>()));
+    }
+
+    @Test
+    public void testHashCodeConsistentWithEquals()
+    {
+        Random random = new Random(42);
+        List<CopyOnWriteSet<Integer>> sets = new ArrayList<CopyOnWriteSet<Integer>>();
+        for (int i = 0; i < 200; i++)
+        {
+            List<Integer> elements = new ArrayList<Integer>();
+            int size = random.nextInt(5);
+            for (int j = 0; j < size; j++)
+            {
+                elements.add(random.nextInt(6));
+            }
+            Collections.shuffle(elements, random);
+            sets.add(new CopyOnWriteSet<Integer>(new HashSet<Integer>(elements)));
+            Collections.shuffle(elements, random);
+            CopyOnWriteSet<Integer> set = new CopyOnWriteSet<Integer>();
+            set.addAll(elements);
+            sets.add(set);
+        }
+
+        for (CopyOnWriteSet<Integer> s1 : sets)
+        {
+            for (CopyOnWriteSet<Integer> s2 : sets)
+            {
+                boolean equal = new HashSet<Integer>(s1).equals(new HashSet<Integer>(s2));
+                assertEquals(s1 + " " + s2, equal, s1.equals(s2));
+                if (equal)
+                {
+                    assertEquals(s1 + " " + s2, s1.hashCode(), s2.hashCode());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.resolver.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class IdSetTest
+{
+    @Test
+    public void testSameAsHashSet()
+    {
+        Random random = new Random(42);
+        IdMap<Integer> ids = new IdMap<Integer>();
+        List<IdSet<Integer>> sets = new ArrayList<IdSet<Integer>>();
+        List<Set<Integer>> expected = new ArrayList<Set<Integer>>();
+        for (int i = 0; i < 200; i++)
+        {
+            // Large enough for some sets to look up ids rather than scan.
+            int size = random.nextInt(20);
+            IdSet<Integer> set = new IdSet<Integer>(ids);
+            Set<Integer> hashSet = new HashSet<Integer>();
+            for (int j = 0; j < size; j++)
+            {
+                Integer e = random.nextInt(24);
+                assertEquals(hashSet.add(e), set.add(e));
+            }
+            sets.add(set);
+            expected.add(hashSet);
+        }
+
+        for (int i = 0; i < sets.size(); i++)
+        {
+            IdSet<Integer> s1 = sets.get(i);
+            Set<Integer> h1 = expected.get(i);
+            assertEquals(h1.size(), s1.size());
+            assertEquals(h1, new HashSet<Integer>(s1));
+            assertEquals(h1.hashCode(), s1.hashCode());
+            for (int e = 0; e < 30; e++)
+            {
+                assertEquals(h1.contains(e), s1.contains(e));
+            }
+            for (int j = 0; j < sets.size(); j++)
+            {
+                IdSet<Integer> s2 = sets.get(j);
+                Set<Integer> h2 = expected.get(j);
+                assertEquals(h1.equals(h2), s1.equals(s2));
+                assertEquals(h1.containsAll(h2), s1.containsAll(s2));
+                assertEquals(h1.containsAll(h2), s1.containsAll(h2));
+            }
+        }
+
+        IdSet<Integer> union = new IdSet<Integer>(ids);
+        Set<Integer> hashUnion = new HashSet<Integer>();
+        for (int i = 0; i < 10; i++)
+        {
+            assertEquals(hashUnion.addAll(expected.get(i)), union.addAll(sets.get(i)));
+            assertEquals(hashUnion, union);
+        }
+    }
+
+    @Test
+    public void testIteratesInIdOrder()
+    {
+        IdMap<String> ids = new IdMap<String>();
+        ids.getId("c");
+        ids.getId("a");
+        IdSet<String> set = new IdSet<String>(ids);
+        set.addAll(Arrays.asList("b", "a", "c", "a"));
+        assertEquals(Arrays.asList("c", "a", "b"), new ArrayList<String>(set));
+    }
+
+    @Test
+    public void testClosedIds()
+    {
+        IdMap<Integer> ids = new IdMap<Integer>();
+        IdSet<Integer> set = new IdSet<Integer>(ids);
+        for (int i = 0; i < 20; i += 2)
+        {
+            set.add(i);
+        }
+        ids.close();
+
+        // Still readable, and comparable with sets of another resolve.
+        assertTrue(set.contains(10));
+        assertFalse(set.contains(11));
+        IdMap<Integer> other = new IdMap<Integer>();
+        IdSet<Integer> copy = new IdSet<Integer>(other);
+        copy.addAll(set);
+        assertEquals(set, copy);
+        assertEquals(copy, set);
+        assertTrue(set.containsAll(copy));
+        copy.add(1);
+        assertFalse(set.containsAll(copy));
+        assertTrue(copy.containsAll(set));
+    }
+}
@@ -34,17 +34,26 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.felix.scr.impl.config.ScrConfigurationImpl;
 import org.apache.felix.scr.impl.inject.internal.ClassUtils;
+import org.apache.felix.scr.impl.logger.BundleLogger;
 import org.apache.felix.scr.impl.logger.InternalLogger.Level;
 import org.apache.felix.scr.impl.logger.ScrLogger;
 import org.apache.felix.scr.impl.manager.ComponentHolder;
+import org.apache.felix.scr.impl.manager.ScrConfiguration;
 import org.apache.felix.scr.impl.metadata.ComponentMetadata;
 import org.apache.felix.scr.impl.metadata.MetadataStoreHelper.MetaDataReader;
 import org.apache.felix.scr.impl.metadata.MetadataStoreHelper.MetaDataWriter;
@@ -89,7 +98,7 @@ public class Activator extends AbstractExtender
     private ComponentRegistry m_componentRegistry;
 
     //  thread acting upon configurations
-    private ComponentActorThread m_componentActor;
+    private ComponentActorPool m_componentActor;
 
     private ServiceRegistration<ServiceComponentRuntime> m_runtime_reg;
 
@@ -97,6 +106,10 @@ public class Activator extends AbstractExtender
 
     private ConcurrentMap<Long, List<ComponentMetadata>> m_componentMetadataStore;
 
+    // component metadata of started bundles being loaded concurrently while
+    // the extender starts, null if not loaded concurrently
+    private volatile ConcurrentMap<Long, Future<List<ComponentMetadata>>> m_preloadedMetadata;
+
     public Activator()
     {
         m_configuration = new ScrConfigurationImpl( this );
@@ -189,14 +202,33 @@ public class Activator extends AbstractExtender
             null, m_bundle.getVersion().toString() );
 
         // create and start the component actor
-        m_componentActor = new ComponentActorThread( this.logger );
-        Thread t = new Thread( m_componentActor, "SCR Component Actor" );
-        t.setDaemon( true );
-        t.start();
-
-        super.doStart();
+        m_componentActor = new ComponentActorPool( this.logger, m_configuration.actorThreads() );
+        m_componentActor.start();
+
+        // load the descriptors of the started bundles concurrently, their
+        // components are registered in bundle order as they are extended
+        final ConcurrentMap<Long, Future<List<ComponentMetadata>>> preloaded = new ConcurrentHashMap<>();
+        final ExecutorService descriptorLoader = preloadMetadata( getBundleContext().getBundles(),
+            m_componentMetadataStore, logger, m_configuration, preloaded );
+        if ( descriptorLoader != null )
+        {
+            m_preloadedMetadata = preloaded;
+        }
+        try
+        {
+            super.doStart();
+        }
+        finally
+        {
+            if ( descriptorLoader != null )
+            {
+                m_preloadedMetadata = null;
+                descriptorLoader.shutdownNow();
+            }
+        }
 
         m_componentCommands = new ComponentCommands(m_context, runtime, m_configuration);
+        m_componentCommands.setComponentActor(m_componentActor);
         m_componentCommands.register();
         m_componentCommands.updateProvideScrInfoService(m_configuration.infoAsService());
         m_configuration.setScrCommand(m_componentCommands);
@@ -372,7 +404,7 @@ public class Activator extends AbstractExtender
             m_componentRegistry = null;
         }
 
-        // terminate the actor thread
+        // terminate the actor threads
         if ( m_componentActor != null )
         {
             m_componentActor.terminate();
@@ -547,10 +579,16 @@ public class Activator extends AbstractExtender
             return;
         }
 
+        List<ComponentMetadata> metadata = cached;
+        if ( metadata == null )
+        {
+            metadata = getPreloadedMetadata( m_preloadedMetadata, bundle, logger );
+        }
+
         try
         {
             BundleComponentActivator ga = new BundleComponentActivator( this.logger, m_componentRegistry, m_componentActor,
-                context, m_configuration, cached);
+                context, m_configuration, metadata);
             ga.initialEnable();
             if (cached == null)
             {
@@ -592,6 +630,103 @@ public class Activator extends AbstractExtender
         }
     }
 
+    /**
+     * Starts loading the component descriptors of the started bundles not
+     * found in the metadata cache if the configuration asks for descriptor
+     * threads.
+     *
+     * @param bundles The bundles to load the descriptors of
+     * @param cachedMetadata The metadata cache by bundle id, bundles found
+     *      in the cache are not loaded
+     * @param preloaded Receives the metadata being loaded by bundle id
+     * @return The executor loading the descriptors or <code>null</code> if
+     *      the descriptors are loaded as the bundles are extended
+     */
+    static ExecutorService preloadMetadata(final Bundle[] bundles, final Map<Long, ?> cachedMetadata,
+        final ScrLogger logger, final ScrConfiguration configuration,
+        final ConcurrentMap<Long, Future<List<ComponentMetadata>>> preloaded)
+    {
+        final int threads = configuration.descriptorThreads();
+        if ( threads <= 0 )
+        {
+            return null;
+        }
+
+        final AtomicInteger threadCount = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool( threads, new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread( r, "SCR Descriptor Loader " + threadCount.incrementAndGet() );
+                t.setDaemon( true );
+                return t;
+            }
+        } );
+
+        for ( final Bundle bundle : bundles )
+        {
+            if ( ( bundle.getState() & ( Bundle.ACTIVE | Bundle.STARTING ) ) == 0
+                || cachedMetadata.containsKey( bundle.getBundleId() )
+                || bundle.getHeaders( "" ).get( ComponentConstants.SERVICE_COMPONENT ) == null )
+            {
+                continue;
+            }
+            preloaded.put( bundle.getBundleId(), executor.submit( new Callable<List<ComponentMetadata>>()
+            {
+                @Override
+                public List<ComponentMetadata> call()
+                {
+                    return BundleComponentActivator.loadMetadata( bundle, new BundleLogger( bundle, logger ),
+                        configuration );
+                }
+            } ) );
+        }
+        logger.log(Level.DEBUG, "Loading component descriptors of {0} bundles with {1} threads", null,
+            preloaded.size(), threads );
+
+        return executor;
+    }
+
+    /**
+     * Returns the component metadata of the given bundle loaded by
+     * {@link #preloadMetadata(Bundle[], Map, ScrLogger, ScrConfiguration, ConcurrentMap)},
+     * waiting for it to be loaded if need be. The metadata is removed from
+     * the preloaded metadata, so it is returned only once.
+     *
+     * @param preloaded The metadata being loaded by bundle id, may be
+     *      <code>null</code> if nothing is loaded in advance
+     * @return The component metadata or <code>null</code> if it has not been
+     *      loaded in advance and must be loaded when creating the activator
+     */
+    static List<ComponentMetadata> getPreloadedMetadata(
+        final ConcurrentMap<Long, Future<List<ComponentMetadata>>> preloaded, final Bundle bundle,
+        final ScrLogger logger)
+    {
+        final Future<List<ComponentMetadata>> future = ( preloaded == null ) ? null
+            : preloaded.remove( bundle.getBundleId() );
+        if ( future == null )
+        {
+            return null;
+        }
+
+        try
+        {
+            return future.get();
+        }
+        catch ( final InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch ( final ExecutionException e )
+        {
+            // loaded again when creating the activator, which reports the problem
+            logger.log(Level.DEBUG, "Failed loading component descriptors of {0} in advance", e.getCause(),
+                bundle );
+        }
+        return null;
+    }
+
     /**
      * Unloads components of the given bundle. If no components have been loaded
      * for the bundle, this method has no effect.
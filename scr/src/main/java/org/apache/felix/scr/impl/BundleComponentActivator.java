@@ -79,8 +79,8 @@ public class BundleComponentActivator implements ComponentActivator
     // This is a list of component holders that belong to a particular bundle
     private final List<ComponentHolder<?>> m_holders = new ArrayList<>();
 
-    // thread acting upon configurations
-    private final ComponentActorThread m_componentActor;
+    // threads acting upon configurations
+    private final ComponentActorPool m_componentActor;
 
     // true as long as the dispose method is not called
     private final AtomicBoolean m_active = new AtomicBoolean( true );
@@ -192,7 +192,7 @@ public class BundleComponentActivator implements ComponentActivator
      */
     public BundleComponentActivator(final ScrLogger scrLogger,
             final ComponentRegistry componentRegistry,
-            final ComponentActorThread componentActor,
+            final ComponentActorPool componentActor,
             final BundleContext context,
             final ScrConfiguration configuration,
             final List<ComponentMetadata> cachedComponentMetadata)
@@ -232,53 +232,88 @@ public class BundleComponentActivator implements ComponentActivator
      */
     protected void initialize(List<ComponentMetadata> cachedComponentMetadata)
     {
-        if (cachedComponentMetadata != null)
+        final List<ComponentMetadata> metadatas = cachedComponentMetadata != null
+            ? cachedComponentMetadata : loadMetadata(m_bundle, logger, m_configuration);
+        for (ComponentMetadata metadata : metadatas)
         {
-            for (ComponentMetadata metadata : cachedComponentMetadata)
-            {
-                validateAndRegister(metadata);
-            }
+            validateAndRegister(metadata);
         }
-        else
+    }
+
+    /**
+     * Gets the MetaData location and parses and validates the meta data of
+     * the given bundle. This does not depend on any component activator and
+     * may be called concurrently for different bundles. The time taken is
+     * logged, so that bundles dominating the startup of the components can
+     * be found.
+     *
+     * @return The component metadata in the order declared, including the
+     *      metadata failing validation, which is reported when registering
+     * @throws ComponentException If the bundle has no Service-Component header
+     * @throws IllegalStateException If the bundle has already been uninstalled.
+     */
+    static List<ComponentMetadata> loadMetadata(final Bundle bundle, final BundleLogger logger,
+        final ScrConfiguration configuration)
+    {
+        final long start = System.nanoTime();
+
+        // Get the Metadata-Location value from the manifest
+        String descriptorLocations = bundle.getHeaders("").get("Service-Component");
+        if (descriptorLocations == null)
         {
-            // Get the Metadata-Location value from the manifest
-            String descriptorLocations = m_bundle.getHeaders("").get("Service-Component");
-            if (descriptorLocations == null)
-            {
-                throw new ComponentException(
-                    "Service-Component entry not found in the manifest");
-            }
+            throw new ComponentException(
+                "Service-Component entry not found in the manifest");
+        }
 
-            logger.log(Level.DEBUG,
-                "BundleComponentActivator : Descriptor locations {0}", null,
-                descriptorLocations);
+        logger.log(Level.DEBUG,
+            "BundleComponentActivator : Descriptor locations {0}", null,
+            descriptorLocations);
 
-            // 112.4.1: The value of the the header is a comma separated list of XML entries within the Bundle
-            StringTokenizer st = new StringTokenizer(descriptorLocations, ", ");
+        final List<ComponentMetadata> metadatas = new ArrayList<>();
 
-            while (st.hasMoreTokens())
+        // 112.4.1: The value of the the header is a comma separated list of XML entries within the Bundle
+        StringTokenizer st = new StringTokenizer(descriptorLocations, ", ");
+
+        while (st.hasMoreTokens())
+        {
+            String descriptorLocation = st.nextToken();
+
+            URL[] descriptorURLs = findDescriptors(bundle, descriptorLocation);
+            if (descriptorURLs.length == 0)
             {
-                String descriptorLocation = st.nextToken();
+                // 112.4.1 If an XML document specified by the header cannot be located in the bundle and its attached
+                // fragments, SCR must log an error message with the Log Service, if present, and continue.
+                logger.log(Level.ERROR,
+                    "Component descriptor entry ''{0}'' not found", null,
+                    descriptorLocation);
+                continue;
+            }
 
-                URL[] descriptorURLs = findDescriptors(m_bundle, descriptorLocation);
-                if (descriptorURLs.length == 0)
-                {
-                    // 112.4.1 If an XML document specified by the header cannot be located in the bundle and its attached
-                    // fragments, SCR must log an error message with the Log Service, if present, and continue.
-                    logger.log(Level.ERROR,
-                        "Component descriptor entry ''{0}'' not found", null,
-                        descriptorLocation);
-                    continue;
-                }
 
+            // load from the descriptors
+            for (URL descriptorURL : descriptorURLs)
+            {
+                loadDescriptor(bundle, logger, configuration, descriptorURL, metadatas);
+            }
+        }
 
-                // load from the descriptors
-                for (URL descriptorURL : descriptorURLs)
-                {
-                    loadDescriptor(descriptorURL);
-                }
+        for (ComponentMetadata metadata : metadatas)
+        {
+            try
+            {
+                metadata.validate();
+            }
+            catch (Throwable t)
+            {
+                // validated and logged again when registering the component
             }
         }
+
+        logger.log(Level.DEBUG,
+            "BundleComponentActivator : Loaded {0} component descriptions in {1} ms", null,
+            metadatas.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+        return metadatas;
     }
 
     /**
@@ -377,7 +412,8 @@ public class BundleComponentActivator implements ComponentActivator
         return urls.toArray( new URL[urls.size()] );
     }
 
-    private void loadDescriptor(final URL descriptorURL)
+    private static void loadDescriptor(final Bundle bundle, final BundleLogger logger,
+        final ScrConfiguration configuration, final URL descriptorURL, final List<ComponentMetadata> metadatas)
     {
         // simple path for log messages
         final String descriptorLocation = descriptorURL.getPath();
@@ -387,8 +423,8 @@ public class BundleComponentActivator implements ComponentActivator
         {
             stream = descriptorURL.openStream();
 
-            XmlHandler handler = new XmlHandler( m_bundle, this.logger, getConfiguration().isFactoryEnabled(),
-                getConfiguration().keepInstances() );
+            XmlHandler handler = new XmlHandler( bundle, logger, configuration.isFactoryEnabled(),
+                configuration.keepInstances() );
             final SAXParserFactory factory = SAXParserFactory.newInstance();
             factory.setNamespaceAware(true);
             final SAXParser parser = factory.newSAXParser();
@@ -397,10 +433,7 @@ public class BundleComponentActivator implements ComponentActivator
 
             // 112.4.2 Component descriptors may contain a single, root component element
             // or one or more component elements embedded in a larger document
-            for ( ComponentMetadata metadata : handler.getComponentMetadataList() )
-            {
-                validateAndRegister(metadata);
-            }
+            metadatas.addAll( handler.getComponentMetadataList() );
         }
         catch ( IOException ex )
         {
@@ -673,13 +706,28 @@ public class BundleComponentActivator implements ComponentActivator
      */
     @Override
     public void schedule(Runnable task)
+    {
+        schedule( null, task );
+    }
+
+    /**
+     * Schedules the given <code>task</code> for asynchrounous execution after
+     * the tasks already scheduled with the same <code>key</code> or
+     * synchronously runs the task if the thread is not running. If this
+     * instance is {@link #isActive() not active}, the task is not executed.
+     *
+     * @param key The key ordering the task, usually the component manager
+     * @param task The component task to execute
+     */
+    @Override
+    public void schedule(Object key, Runnable task)
     {
         if ( isActive() )
         {
-            ComponentActorThread cat = m_componentActor;
-            if ( cat != null )
+            ComponentActorPool cap = m_componentActor;
+            if ( cap != null )
             {
-                cat.schedule( task );
+                cap.schedule( key, task );
             }
             else
             {
@@ -706,6 +754,30 @@ public class BundleComponentActivator implements ComponentActivator
         }
     }
 
+    /**
+     * Schedules the given <code>task</code> for asynchrounous execution after
+     * the given <code>delay</code> in milliseconds or synchronously runs the
+     * task if the thread is not running. If this instance is
+     * {@link #isActive() not active}, the task is not executed.
+     *
+     * @param key The key ordering the task, usually the component manager
+     * @param task The component task to execute
+     * @param delay The delay in milliseconds
+     */
+    @Override
+    public void schedule(Object key, Runnable task, long delay)
+    {
+        ComponentActorPool cap = m_componentActor;
+        if ( isActive() && cap != null )
+        {
+            cap.schedule( key, task, delay );
+        }
+        else
+        {
+            schedule( key, task );
+        }
+    }
+
     @Override
     public BundleLogger getLogger() {
         return logger;
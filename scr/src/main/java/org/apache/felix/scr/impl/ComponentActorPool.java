@@ -0,0 +1,356 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl;
+
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.felix.scr.impl.logger.InternalLogger.Level;
+import org.apache.felix.scr.impl.logger.ScrLogger;
+
+
+/**
+ * The <code>ComponentActorPool</code> runs the threads used to act upon
+ * registered components of the service component runtime.
+ * <p>
+ * Tasks are scheduled with a key, usually the component they act upon.
+ * Tasks with the same key are run one after the other in the order they
+ * were scheduled, while tasks with different keys may run concurrently if
+ * the pool has more than one thread. With a single thread all tasks are
+ * run in the order they were scheduled. Tasks scheduled without a key, such
+ * as late binding of references of several components, are run alone in
+ * the order they were scheduled relative to all other tasks.
+ */
+class ComponentActorPool
+{
+
+    // key of tasks scheduled without a key
+    private static final Object NO_KEY = new Object();
+
+    // the queue of tasks to be run
+    private final LinkedList<Task> tasks = new LinkedList<>();
+
+    // the keys of the tasks currently running
+    private final Set<Object> runningKeys = new HashSet<>();
+
+    private final ScrLogger logger;
+
+    private final int threadCount;
+
+    private int runningThreads;
+
+    private boolean terminated;
+
+    // timer for tasks scheduled with a delay, created when first used
+    private Timer timer;
+
+    // statistics, guarded by tasks
+    private long startedTasks;
+
+    private long totalLatency;
+
+    private long maxLatency;
+
+    private int maxQueueLength;
+
+
+    ComponentActorPool( final ScrLogger log, final int threadCount )
+    {
+        logger = log;
+        this.threadCount = Math.max( 1, threadCount );
+    }
+
+
+    // starts the threads of this pool
+    void start()
+    {
+        synchronized ( tasks )
+        {
+            runningThreads = threadCount;
+        }
+        for ( int i = 0; i < threadCount; i++ )
+        {
+            Thread t = new Thread( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    ComponentActorPool.this.run();
+                }
+            }, ( i == 0 ) ? "SCR Component Actor" : "SCR Component Actor " + ( i + 1 ) );
+            t.setDaemon( true );
+            t.start();
+        }
+    }
+
+
+    // waits on tasks coming into the queue whose key is not used by a task
+    // running on another thread. As tasks come in, this method calls their
+    // Runnable.run method, logs any exception happening and keeps on waiting
+    // for the next task. Once the pool is terminated and the queue is empty,
+    // the thread terminates.
+    private void run()
+    {
+        logger.log(Level.DEBUG, "Starting {0}", null, Thread.currentThread().getName());
+
+        for ( ;; )
+        {
+            final Task task;
+            synchronized ( tasks )
+            {
+                Task next;
+                while ( ( next = next() ) == null )
+                {
+                    if ( terminated && tasks.isEmpty() )
+                    {
+                        runningThreads--;
+                        tasks.notifyAll();
+                        logger.log(Level.DEBUG, "Shutting down {0}", null,
+                            Thread.currentThread().getName());
+                        return;
+                    }
+
+                    boolean interrupted = Thread.interrupted();
+                    try
+                    {
+                        tasks.wait();
+                    }
+                    catch ( InterruptedException ie )
+                    {
+                        interrupted = true;
+                        // don't care
+                    }
+                    finally
+                    {
+                        if (interrupted)
+                        { // restore interrupt status
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                }
+
+                task = next;
+                runningKeys.add( task.key );
+                final long latency = System.nanoTime() - task.scheduled;
+                startedTasks++;
+                totalLatency += latency;
+                maxLatency = Math.max( maxLatency, latency );
+            }
+
+            try
+            {
+                // execute the task, log any issues
+                logger.log(Level.DEBUG, "Running task: " + task.runnable, null);
+                task.runnable.run();
+            }
+            catch ( Throwable t )
+            {
+                logger.log(Level.ERROR, "Unexpected problem executing task " + task.runnable,
+                    t);
+            }
+            finally
+            {
+                synchronized ( tasks )
+                {
+                    runningKeys.remove( task.key );
+                    tasks.notifyAll();
+                }
+            }
+        }
+    }
+
+
+    // removes and returns the first task in the queue whose key is not used
+    // by a running task, must be called while holding the tasks lock. Tasks
+    // scheduled without a key are run alone: they wait for all running tasks
+    // to complete and no later task is started before they complete.
+    private Task next()
+    {
+        if ( runningKeys.contains( NO_KEY ) )
+        {
+            return null;
+        }
+        for ( Iterator<Task> it = tasks.iterator(); it.hasNext(); )
+        {
+            Task task = it.next();
+            if ( task.key == NO_KEY )
+            {
+                if ( runningKeys.isEmpty() && task == tasks.getFirst() )
+                {
+                    it.remove();
+                    return task;
+                }
+                return null;
+            }
+            if ( !runningKeys.contains( task.key ) )
+            {
+                it.remove();
+                return task;
+            }
+        }
+        return null;
+    }
+
+
+    // cause the threads of this pool to terminate once all tasks in the
+    // queue have been run and wait for them to terminate
+    void terminate()
+    {
+        synchronized ( tasks )
+        {
+            terminated = true;
+            if ( timer != null )
+            {
+                timer.cancel();
+                timer = null;
+            }
+            tasks.notifyAll();
+            while ( runningThreads > 0 )
+            {
+                boolean interrupted = Thread.interrupted();
+                try
+                {
+                    tasks.wait();
+                }
+                catch ( InterruptedException e )
+                {
+                    interrupted = true;
+                    logger.log(Level.ERROR,
+                        "Interrupted exception waiting for queue to empty", e);
+                }
+                finally
+                {
+                    if (interrupted)
+                    { // restore interrupt status
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        }
+    }
+
+
+    // queue the given runnable to be run as soon as possible
+    void schedule( Runnable task )
+    {
+        schedule( null, task );
+    }
+
+
+    // queue the given runnable to be run as soon as possible after the tasks
+    // already scheduled with the same key
+    void schedule( Object key, Runnable task )
+    {
+        synchronized ( tasks )
+        {
+            if ( terminated && runningThreads == 0 )
+            {
+                logger.log(Level.DEBUG, "Component actor terminated, not running task [{0}]", null,
+                        task);
+                return;
+            }
+
+            // append to the task queue
+            tasks.add( new Task( ( key == null ) ? NO_KEY : key, task ) );
+            maxQueueLength = Math.max( maxQueueLength, tasks.size() );
+
+            logger.log(Level.DEBUG, "Adding task [{0}] as #{1} in the queue", null,
+                    task, tasks.size());
+
+            // notify the waiting threads
+            tasks.notifyAll();
+        }
+    }
+
+
+    // queue the given runnable to be run after the given delay in
+    // milliseconds, after the tasks already scheduled with the same key by then
+    void schedule( final Object key, final Runnable task, final long delay )
+    {
+        synchronized ( tasks )
+        {
+            if ( terminated )
+            {
+                logger.log(Level.DEBUG, "Component actor terminated, not running task [{0}]", null,
+                        task);
+                return;
+            }
+            if ( timer == null )
+            {
+                timer = new Timer( "SCR Component Actor Timer", true );
+            }
+            timer.schedule( new TimerTask()
+            {
+                @Override
+                public void run()
+                {
+                    schedule( key, task );
+                }
+            }, delay );
+        }
+    }
+
+
+    /**
+     * Returns the number of threads, the number of queued and running tasks,
+     * the largest number of queued tasks and the number of tasks started
+     * with their average and maximum latency between being scheduled and
+     * being started.
+     */
+    Map<String, String> getStatistics()
+    {
+        synchronized ( tasks )
+        {
+            final Map<String, String> statistics = new LinkedHashMap<>();
+            statistics.put( "Threads", Integer.toString( threadCount ) );
+            statistics.put( "Queued tasks", Integer.toString( tasks.size() ) );
+            statistics.put( "Running tasks", Integer.toString( runningKeys.size() ) );
+            statistics.put( "Max queued tasks", Integer.toString( maxQueueLength ) );
+            statistics.put( "Started tasks", Long.toString( startedTasks ) );
+            statistics.put( "Average latency ms", Long.toString( ( startedTasks == 0 ) ? 0
+                    : TimeUnit.NANOSECONDS.toMillis( totalLatency / startedTasks ) ) );
+            statistics.put( "Max latency ms", Long.toString( TimeUnit.NANOSECONDS.toMillis( maxLatency ) ) );
+            return statistics;
+        }
+    }
+
+    private static final class Task
+    {
+        final Object key;
+
+        final Runnable runnable;
+
+        final long scheduled = System.nanoTime();
+
+
+        Task( final Object key, final Runnable runnable )
+        {
+            this.key = key;
+            this.runnable = runnable;
+        }
+    }
+}
@@ -39,6 +39,8 @@ import java.util.SortedMap;
 import java.util.TreeMap;
 
 import org.apache.felix.scr.impl.manager.ScrConfiguration;
+import org.apache.felix.scr.info.ExtComponentConfigurationDTO;
+import org.apache.felix.scr.info.LockStatisticsDTO;
 import org.apache.felix.scr.info.ScrInfo;
 import org.apache.felix.service.command.Converter;
 import org.apache.felix.service.command.Descriptor;
@@ -89,6 +91,7 @@ public class ComponentCommands implements ServiceTrackerCustomizer<Object, Servi
 
     private ServiceRegistration<ComponentCommands> commandsReg = null;
     private ServiceRegistration<ScrInfo> scrInfoReg = null;
+    private volatile ComponentActorPool componentActor;
 
     synchronized void register() {
         if (commandsReg != null) {
@@ -100,11 +103,13 @@ public class ComponentCommands implements ServiceTrackerCustomizer<Object, Servi
         svcProps = new Hashtable<>();
         svcProps.put("osgi.command.scope", "scr");
         svcProps.put("osgi.command.function", new String[] {
+                "actor",
                 "config",
                 "disable",
                 "enable",
                 "info",
-                "list"
+                "list",
+                "locks"
         });
         svcProps.put(Constants.SERVICE_DESCRIPTION, "SCR Gogo Shell Support");
         svcProps.put(Constants.SERVICE_VENDOR, "The Apache Software Foundation");
@@ -140,6 +145,10 @@ public class ComponentCommands implements ServiceTrackerCustomizer<Object, Servi
         this.gogoRuntimeTracker = new ServiceTracker<>(context, "org.apache.felix.service.command.CommandProcessor", this);
     }
 
+    void setComponentActor(ComponentActorPool componentActor) {
+        this.componentActor = componentActor;
+    }
+
     @Descriptor("List all components")
     public ComponentDescriptionDTO[] list() {
         ComponentDescriptionDTO[] result = scr.getComponentDescriptionDTOs().toArray(new ComponentDescriptionDTO[0]);
@@ -232,6 +241,10 @@ public class ComponentCommands implements ServiceTrackerCustomizer<Object, Servi
         out.put("Keep instances with no references", scrConfig.keepInstances() ? "Supported" : "Unsupported");
         out.put("Lock timeout ms", Long.toString(scrConfig.lockTimeout()));
         out.put("Stop timeout ms", Long.toString(scrConfig.stopTimeout()));
+        out.put("Lock statistics", Boolean.toString(scrConfig.lockStatistics()));
+        out.put("Bind batch ms", Long.toString(scrConfig.bindBatch()));
+        out.put("Actor threads", Integer.toString(scrConfig.actorThreads()));
+        out.put("Descriptor threads", Integer.toString(scrConfig.descriptorThreads()));
         out.put("Global extender", Boolean.toString(scrConfig.globalExtender()));
         out.put("Info Service registered", scrConfig.infoAsService() ? "Supported" : "Unsupported");
 
@@ -240,6 +253,72 @@ public class ComponentCommands implements ServiceTrackerCustomizer<Object, Servi
         return builder.toString();
     }
 
+    @Descriptor("Show the queue length and task latency of the component actor")
+    public String actor() {
+        ComponentActorPool actor = componentActor;
+        if (actor == null) {
+            return "Component actor not running";
+        }
+        StringBuilder builder = new StringBuilder();
+        printColumnsAligned("SCR Component Actor", actor.getStatistics(), '=', builder);
+        return builder.toString();
+    }
+
+    @Descriptor("Show the wait and hold times of the locks of components, longest waits first")
+    public String locks() {
+        List<LockRow> rows = new ArrayList<>();
+        for (ComponentDescriptionDTO description : scr.getComponentDescriptionDTOs()) {
+            Collection<ComponentConfigurationDTO> configurations = scr.getComponentConfigurationDTOs(description);
+            if (configurations == null) {
+                continue;
+            }
+            for (ComponentConfigurationDTO configuration : configurations) {
+                if (configuration instanceof ExtComponentConfigurationDTO
+                        && ((ExtComponentConfigurationDTO) configuration).locks != null) {
+                    for (LockStatisticsDTO lock : ((ExtComponentConfigurationDTO) configuration).locks) {
+                        rows.add(new LockRow(description.name, configuration.id, lock));
+                    }
+                }
+            }
+        }
+        if (rows.isEmpty()) {
+            return "No lock statistics recorded, set " + ScrConfiguration.PROP_LOCK_STATISTICS + " to true to record them";
+        }
+        Collections.sort(rows);
+
+        StringBuilder builder = new StringBuilder();
+        builder.append("Component [Id] Lock: Acquisitions, Timeouts, Wait ms (total/max), Hold ms (total/max)");
+        for (LockRow row : rows) {
+            builder.append('\n').append(String.format("%s [%d] %s: %d, %d, %.3f/%.3f, %.3f/%.3f",
+                    row.component, row.id, row.lock.name, row.lock.acquisitions, row.lock.timeouts,
+                    toMillis(row.lock.waitTime), toMillis(row.lock.maxWaitTime),
+                    toMillis(row.lock.holdTime), toMillis(row.lock.maxHoldTime)));
+        }
+        return builder.toString();
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / 1000000d;
+    }
+
+    private static final class LockRow implements Comparable<LockRow> {
+        final String component;
+        final long id;
+        final LockStatisticsDTO lock;
+
+        LockRow(String component, long id, LockStatisticsDTO lock) {
+            this.component = component;
+            this.id = id;
+            this.lock = lock;
+        }
+
+        @Override
+        public int compareTo(LockRow o) {
+            // longest total wait first
+            return Long.compare(o.lock.waitTime, lock.waitTime);
+        }
+    }
+
     public Object convert(Class<?> desiredType, Object in) throws Exception {
         return null;
     }
@@ -87,8 +87,16 @@ public class ScrConfigurationImpl implements ScrConfiguration
 
     private long stopTimeout = DEFAULT_STOP_TIMEOUT_MILLISECONDS;
 
+    private boolean lockStatistics;
+
+    private long bindBatch = DEFAULT_BIND_BATCH_MILLISECONDS;
+
     private long serviceChangecountTimeout = DEFAULT_SERVICE_CHANGECOUNT_TIMEOUT_MILLISECONDS;
 
+    private int actorThreads = DEFAULT_ACTOR_THREADS;
+
+    private int descriptorThreads = DEFAULT_DESCRIPTOR_THREADS;
+
     private Boolean globalExtender;
 
     private volatile BundleContext bundleContext;
@@ -175,9 +183,13 @@ public class ScrConfigurationImpl implements ScrConfiguration
                         infoAsService = false;
                         lockTimeout = DEFAULT_LOCK_TIMEOUT_MILLISECONDS;
                         stopTimeout = DEFAULT_STOP_TIMEOUT_MILLISECONDS;
+                        lockStatistics = false;
+                        bindBatch = DEFAULT_BIND_BATCH_MILLISECONDS;
                         serviceChangecountTimeout = DEFAULT_SERVICE_CHANGECOUNT_TIMEOUT_MILLISECONDS;
                         newGlobalExtender = false;
                         cacheMetadata = false;
+                        actorThreads = DEFAULT_ACTOR_THREADS;
+                        descriptorThreads = DEFAULT_DESCRIPTOR_THREADS;
                     }
                     else
                     {
@@ -187,9 +199,13 @@ public class ScrConfigurationImpl implements ScrConfiguration
                         infoAsService = getDefaultInfoAsService();
                         lockTimeout = getDefaultLockTimeout();
                         stopTimeout = getDefaultStopTimeout();
+                        lockStatistics = getDefaultLockStatistics();
+                        bindBatch = getDefaultBindBatch();
                         serviceChangecountTimeout = getServiceChangecountTimeout();
                         newGlobalExtender = getDefaultGlobalExtender();
                         cacheMetadata = getDefaultCacheMetadata();
+                        actorThreads = getDefaultActorThreads();
+                        descriptorThreads = getDefaultDescriptorThreads();
                     }
                 }
                 else
@@ -207,9 +223,16 @@ public class ScrConfigurationImpl implements ScrConfiguration
                 lockTimeout = timeout == null? DEFAULT_LOCK_TIMEOUT_MILLISECONDS: timeout;
                 timeout = ( Long ) config.get( PROP_STOP_TIMEOUT );
                 stopTimeout = timeout == null? DEFAULT_STOP_TIMEOUT_MILLISECONDS: timeout;
+                lockStatistics = VALUE_TRUE.equalsIgnoreCase( String.valueOf( config.get( PROP_LOCK_STATISTICS ) ) );
+                timeout = ( Long ) config.get( PROP_BIND_BATCH );
+                bindBatch = timeout == null? DEFAULT_BIND_BATCH_MILLISECONDS: timeout;
                 newGlobalExtender = VALUE_TRUE.equalsIgnoreCase( String.valueOf( config.get( PROP_GLOBAL_EXTENDER) ) );
                 cacheMetadata = VALUE_TRUE.equalsIgnoreCase(
                     String.valueOf(config.get(PROP_CACHE_METADATA)));
+                Integer threads = ( Integer ) config.get( PROP_ACTOR_THREADS );
+                actorThreads = threads == null? DEFAULT_ACTOR_THREADS: threads;
+                threads = ( Integer ) config.get( PROP_DESCRIPTOR_THREADS );
+                descriptorThreads = threads == null? DEFAULT_DESCRIPTOR_THREADS: threads;
             }
             if ( scrCommand != null )
             {
@@ -267,6 +290,18 @@ public class ScrConfigurationImpl implements ScrConfiguration
         return stopTimeout;
     }
 
+    @Override
+    public boolean lockStatistics()
+    {
+        return lockStatistics;
+    }
+
+    @Override
+    public long bindBatch()
+    {
+        return bindBatch;
+    }
+
     @Override
     public boolean globalExtender()
     {
@@ -279,6 +314,18 @@ public class ScrConfigurationImpl implements ScrConfiguration
         return cacheMetadata;
     }
 
+    @Override
+    public int actorThreads()
+    {
+        return actorThreads;
+    }
+
+    @Override
+    public int descriptorThreads()
+    {
+        return descriptorThreads;
+    }
+
     @Override
     public long serviceChangecountTimeout()
     {
@@ -327,6 +374,21 @@ public class ScrConfigurationImpl implements ScrConfiguration
         return Long.parseLong( val );
     }
 
+    private boolean getDefaultLockStatistics()
+    {
+        return VALUE_TRUE.equalsIgnoreCase( bundleContext.getProperty( PROP_LOCK_STATISTICS ) );
+    }
+
+    private long getDefaultBindBatch()
+    {
+        String val = bundleContext.getProperty( PROP_BIND_BATCH );
+        if ( val == null)
+        {
+            return DEFAULT_BIND_BATCH_MILLISECONDS;
+        }
+        return Long.parseLong( val );
+    }
+
     private long getServiceChangecountTimeout()
     {
         String val = bundleContext.getProperty( PROP_SERVICE_CHANGECOUNT_TIMEOUT );
@@ -337,6 +399,26 @@ public class ScrConfigurationImpl implements ScrConfiguration
         return Long.parseLong( val );
     }
 
+    private int getDefaultActorThreads()
+    {
+        String val = bundleContext.getProperty( PROP_ACTOR_THREADS );
+        if ( val == null)
+        {
+            return DEFAULT_ACTOR_THREADS;
+        }
+        return Integer.parseInt( val );
+    }
+
+    private int getDefaultDescriptorThreads()
+    {
+        String val = bundleContext.getProperty( PROP_DESCRIPTOR_THREADS );
+        if ( val == null)
+        {
+            return DEFAULT_DESCRIPTOR_THREADS;
+        }
+        return Integer.parseInt( val );
+    }
+
     private boolean getDefaultGlobalExtender()
     {
         return VALUE_TRUE.equalsIgnoreCase( bundleContext.getProperty( PROP_GLOBAL_EXTENDER) );
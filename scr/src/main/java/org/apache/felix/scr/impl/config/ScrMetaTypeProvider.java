@@ -117,6 +117,44 @@ class ScrMetaTypeProvider implements MetaTypeProvider
                 new String[] { String.valueOf(this.configuration.stopTimeout())},
                 0, null, null) );
 
+        adList.add( new AttributeDefinitionImpl(
+                ScrConfiguration.PROP_BIND_BATCH,
+                "Bind batch milliseconds",
+                "How long services added to greedy dynamic multiple references of active components are collected "
+                    + "before being bound as one batch. Field references with the replace strategy are injected once "
+                    + "per batch. Default is 0 to bind each service as it is added.",
+                AttributeDefinition.LONG,
+                new String[] { String.valueOf(this.configuration.bindBatch())},
+                0, null, null) );
+
+        adList.add( new AttributeDefinitionImpl(
+                ScrConfiguration.PROP_LOCK_STATISTICS,
+                "Lock statistics",
+                "Whether to record how long the locks of components are waited for and held. The statistics "
+                    + "are shown by the scr:locks command. Applies to components created after changing it.",
+                this.configuration.lockStatistics() ) );
+
+        adList.add( new AttributeDefinitionImpl(
+                ScrConfiguration.PROP_ACTOR_THREADS,
+                "Actor threads",
+                "How many threads enable and disable components asynchronously. Tasks of the same component "
+                    + "are run in order, tasks of different components may run concurrently. Only read when "
+                    + "the Declarative Services implementation is started. Default is 1.",
+                AttributeDefinition.INTEGER,
+                new String[] { String.valueOf(this.configuration.actorThreads())},
+                0, null, null) );
+
+        adList.add( new AttributeDefinitionImpl(
+                ScrConfiguration.PROP_DESCRIPTOR_THREADS,
+                "Descriptor threads",
+                "How many threads parse and validate the component descriptors of the bundles already started "
+                    + "when the Declarative Services implementation is started. The components are still registered "
+                    + "in bundle order. Only read when the Declarative Services implementation is started. "
+                    + "Default is 0 to parse the descriptors of one bundle after the other.",
+                AttributeDefinition.INTEGER,
+                new String[] { String.valueOf(this.configuration.descriptorThreads())},
+                0, null, null) );
+
         adList.add( new AttributeDefinitionImpl(
                 ScrConfiguration.PROP_GLOBAL_EXTENDER,
                 "Global Extender",
@@ -23,14 +23,33 @@ public class BindParameters extends BaseParameter
 
     private final RefPair<?, ?> refPair;
 
+    private final boolean fieldUpdateDeferred;
+
     public BindParameters(ScrComponentContext componentContext, RefPair<?, ?> refPair)
+    {
+        this(componentContext, refPair, false);
+    }
+
+    /**
+     * @param fieldUpdateDeferred whether binding to a multiple field reference
+     *      with the replace strategy only records the bound value. The field is
+     *      set to the collection of all bound values by the next bind which is
+     *      not deferred.
+     */
+    public BindParameters(ScrComponentContext componentContext, RefPair<?, ?> refPair, boolean fieldUpdateDeferred)
     {
         super(componentContext);
         this.refPair = refPair;
+        this.fieldUpdateDeferred = fieldUpdateDeferred;
     }
 
     public RefPair<?, ?> getRefPair()
     {
         return refPair;
     }
+
+    public boolean isFieldUpdateDeferred()
+    {
+        return fieldUpdateDeferred;
+    }
 }
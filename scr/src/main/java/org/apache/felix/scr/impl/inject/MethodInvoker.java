@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl.inject;
+
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+
+/**
+ * Invokes a component method found by reflection. The method is invoked
+ * through a method handle created once when the method is resolved. If no
+ * method handle can be created for the method, for example because the
+ * runtime does not support method handles, the method is invoked by
+ * reflection.
+ */
+public abstract class MethodInvoker
+{
+
+    private static final Object[] NO_ARGS = new Object[0];
+
+
+    /**
+     * Returns an invoker for the given method, which must have been made
+     * accessible if it is not public.
+     */
+    public static MethodInvoker create( final Method method )
+    {
+        try
+        {
+            return new MethodHandleInvoker( method );
+        }
+        catch ( final IllegalAccessException iae )
+        {
+            // not accessible through a lookup, use reflection
+        }
+        catch ( final RuntimeException re )
+        {
+            // method handle cannot be adapted, use reflection
+        }
+        catch ( final LinkageError le )
+        {
+            // no method handle support, use reflection
+        }
+        return new ReflectionInvoker( method );
+    }
+
+
+    /**
+     * Invokes the method on the given instance.
+     *
+     * @param instance The instance to call the method on
+     * @param args The arguments to the method, <code>null</code> for none
+     * @return The return value of the method or <code>null</code> if the
+     *      method is declared <code>void</code>
+     * @throws InvocationTargetException If the method threw an exception or
+     *      the arguments do not fit the method parameters
+     * @throws IllegalAccessException If the method cannot be accessed
+     */
+    public abstract Object invoke( Object instance, Object[] args )
+            throws InvocationTargetException, IllegalAccessException;
+
+
+    private static final class MethodHandleInvoker extends MethodInvoker
+    {
+
+        private static final MethodType INVOKER_TYPE = MethodType.methodType( Object.class, Object.class,
+                Object[].class );
+
+        private final MethodHandle m_handle;
+
+
+        MethodHandleInvoker( final Method method ) throws IllegalAccessException
+        {
+            // (Object, Object[]) -> Object, so that it can be invoked exactly
+            m_handle = MethodHandles.lookup().unreflect( method )
+                    .asSpreader( Object[].class, method.getParameterTypes().length )
+                    .asType( INVOKER_TYPE );
+        }
+
+
+        @Override
+        public Object invoke( final Object instance, final Object[] args ) throws InvocationTargetException
+        {
+            // the argument types must match the invoker type exactly
+            final Object[] arguments = ( args == null ) ? NO_ARGS : args;
+            try
+            {
+                return ( Object ) m_handle.invokeExact( instance, arguments );
+            }
+            catch ( final Throwable t )
+            {
+                throw new InvocationTargetException( t );
+            }
+        }
+    }
+
+
+    private static final class ReflectionInvoker extends MethodInvoker
+    {
+
+        private final Method m_method;
+
+
+        ReflectionInvoker( final Method method )
+        {
+            m_method = method;
+        }
+
+
+        @Override
+        public Object invoke( final Object instance, final Object[] args )
+                throws InvocationTargetException, IllegalAccessException
+        {
+            try
+            {
+                return m_method.invoke( instance, args );
+            }
+            catch ( final IllegalArgumentException iae )
+            {
+                throw new InvocationTargetException( iae );
+            }
+        }
+    }
+}
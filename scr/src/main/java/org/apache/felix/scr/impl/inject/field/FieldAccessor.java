@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl.inject.field;
+
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+
+
+/**
+ * Reads and writes a reference field, through method handles created once
+ * when the field is resolved, or by reflection if no method handles can be
+ * created for the field.
+ */
+abstract class FieldAccessor
+{
+
+    /**
+     * Returns an accessor for the given field, which must have been made
+     * accessible if it is not public.
+     */
+    static FieldAccessor create( final Field field )
+    {
+        try
+        {
+            return new MethodHandleAccessor( field );
+        }
+        catch ( final IllegalAccessException iae )
+        {
+            // not accessible through a lookup (e.g. final), use reflection
+        }
+        catch ( final RuntimeException re )
+        {
+            // method handles cannot be adapted, use reflection
+        }
+        catch ( final LinkageError le )
+        {
+            // no method handle support, use reflection
+        }
+        return new ReflectionAccessor( field );
+    }
+
+
+    abstract Object get( Object instance ) throws InvocationTargetException;
+
+
+    abstract void set( Object instance, Object value ) throws InvocationTargetException;
+
+
+    private static final class MethodHandleAccessor extends FieldAccessor
+    {
+
+        private final MethodHandle m_getter;
+
+        private final MethodHandle m_setter;
+
+
+        MethodHandleAccessor( final Field field ) throws IllegalAccessException
+        {
+            final MethodHandles.Lookup lookup = MethodHandles.lookup();
+            m_getter = lookup.unreflectGetter( field )
+                    .asType( MethodType.methodType( Object.class, Object.class ) );
+            m_setter = lookup.unreflectSetter( field )
+                    .asType( MethodType.methodType( void.class, Object.class, Object.class ) );
+        }
+
+
+        @Override
+        Object get( final Object instance ) throws InvocationTargetException
+        {
+            try
+            {
+                return ( Object ) m_getter.invokeExact( instance );
+            }
+            catch ( final Throwable t )
+            {
+                throw new InvocationTargetException( t );
+            }
+        }
+
+
+        @Override
+        void set( final Object instance, final Object value ) throws InvocationTargetException
+        {
+            try
+            {
+                m_setter.invokeExact( instance, value );
+            }
+            catch ( final Throwable t )
+            {
+                throw new InvocationTargetException( t );
+            }
+        }
+    }
+
+
+    private static final class ReflectionAccessor extends FieldAccessor
+    {
+
+        private final Field m_field;
+
+
+        ReflectionAccessor( final Field field )
+        {
+            m_field = field;
+        }
+
+
+        @Override
+        Object get( final Object instance ) throws InvocationTargetException
+        {
+            try
+            {
+                return m_field.get( instance );
+            }
+            catch ( final IllegalArgumentException iae )
+            {
+                throw new InvocationTargetException( iae );
+            }
+            catch ( final IllegalAccessException iae )
+            {
+                throw new InvocationTargetException( iae );
+            }
+        }
+
+
+        @Override
+        void set( final Object instance, final Object value ) throws InvocationTargetException
+        {
+            try
+            {
+                m_field.set( instance, value );
+            }
+            catch ( final IllegalArgumentException iae )
+            {
+                throw new InvocationTargetException( iae );
+            }
+            catch ( final IllegalAccessException iae )
+            {
+                throw new InvocationTargetException( iae );
+            }
+        }
+    }
+}
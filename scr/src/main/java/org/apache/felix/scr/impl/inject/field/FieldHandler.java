@@ -58,6 +58,9 @@ public class FieldHandler
     /** The field used for the injection. */
     private volatile Field field;
 
+    /** Reads and writes the field. */
+    private volatile FieldAccessor accessor;
+
     /** Value type. */
     private volatile ValueType valueType;
 
@@ -234,7 +237,11 @@ public class FieldHandler
                 bp.getComponentContext().getBoundValues(metadata.getName()).put(refPair, obj);
                 if ( metadata.isReplace() )
                 {
-                    this.setFieldValue(componentInstance, getReplaceCollection(bp));
+                    // a batch of binds sets the field once with its last bind
+                    if ( !bp.isFieldUpdateDeferred() )
+                    {
+                        this.setFieldValue(componentInstance, getReplaceCollection(bp));
+                    }
                 }
                 else
                 {
@@ -299,35 +306,13 @@ public class FieldHandler
     private void setFieldValue(final Object componentInstance, final Object value)
     throws InvocationTargetException
     {
-        try
-        {
-            field.set(componentInstance, value);
-        }
-        catch ( final IllegalArgumentException iae )
-        {
-            throw new InvocationTargetException(iae);
-        }
-        catch ( final IllegalAccessException iae )
-        {
-            throw new InvocationTargetException(iae);
-        }
+        accessor.set(componentInstance, value);
     }
 
     private Object getFieldValue(final Object componentInstance)
     throws InvocationTargetException
     {
-        try
-        {
-            return field.get(componentInstance);
-        }
-        catch ( final IllegalArgumentException iae )
-        {
-            throw new InvocationTargetException(iae);
-        }
-        catch ( final IllegalAccessException iae )
-        {
-            throw new InvocationTargetException(iae);
-        }
+        return accessor.get(componentInstance);
     }
 
 
@@ -444,6 +429,7 @@ public class FieldHandler
         if (result == null)
         {
             field = null;
+            accessor = null;
             valueType = null;
             state = NotFound.INSTANCE;
             // TODO - will component really fail?
@@ -453,6 +439,7 @@ public class FieldHandler
         else
         {
             field = result.field;
+            accessor = FieldAccessor.create(result.field);
             if (!result.usable)
             {
                 valueType = ValueType.ignore;
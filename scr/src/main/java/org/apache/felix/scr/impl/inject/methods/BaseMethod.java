@@ -28,6 +28,7 @@ import java.util.Arrays;
 import java.util.Map;
 
 import org.apache.felix.scr.impl.inject.BaseParameter;
+import org.apache.felix.scr.impl.inject.MethodInvoker;
 import org.apache.felix.scr.impl.inject.MethodResult;
 import org.apache.felix.scr.impl.inject.internal.ClassUtils;
 import org.apache.felix.scr.impl.logger.ComponentLogger;
@@ -49,6 +50,8 @@ public abstract class BaseMethod<P extends BaseParameter, T>
 
     private volatile Method m_method;
 
+    private volatile MethodInvoker m_invoker;
+
     private final boolean m_methodRequired;
 
     private volatile State m_state;
@@ -109,6 +112,7 @@ public abstract class BaseMethod<P extends BaseParameter, T>
 
         if (m_method != null)
         {
+            m_invoker = MethodInvoker.create(m_method);
             setTypes(methodInfo.getTypes());
             m_state = Resolved.INSTANCE;
             logger.log(Level.DEBUG, "Found {0} method: {1}", null,
@@ -241,7 +245,7 @@ public abstract class BaseMethod<P extends BaseParameter, T>
                         getMethodNamePrefix(),
                             getMethodName(), Arrays.asList(getParametersForLogging(params)));
                 }
-                final Object result = m_method.invoke(componentInstance, params);
+                final Object result = m_invoker.invoke(componentInstance, params);
                 logger.log(Level.DEBUG, "invoked {0}: {1}", null,
                         getMethodNamePrefix(), getMethodName() );
                 return new MethodResult((m_method.getReturnType() != Void.TYPE), (Map<String, Object>) result);
@@ -161,6 +161,12 @@ public abstract class AbstractComponentManager<S> implements ComponentManager<S>
 
     protected final ReentrantReadWriteLock m_activationLock = new ReentrantReadWriteLock();
 
+    // lock statistics, null unless enabled by the configuration
+    private final LockStatistics m_stateLockStatistics;
+    private final LockStatistics m_activationReadLockStatistics;
+    private final LockStatistics m_activationWriteLockStatistics;
+    private final LockStatistics m_missingLockStatistics;
+
     private volatile String failureReason;
 
     /**
@@ -195,6 +201,22 @@ public abstract class AbstractComponentManager<S> implements ComponentManager<S>
 
         m_stateLock = new ReentrantLock(true);
 
+        final ScrConfiguration configuration = m_container.getActivator().getConfiguration();
+        if (configuration != null && configuration.lockStatistics())
+        {
+            m_stateLockStatistics = new LockStatistics("state");
+            m_activationReadLockStatistics = new LockStatistics("activation read");
+            m_activationWriteLockStatistics = new LockStatistics("activation write");
+            m_missingLockStatistics = new LockStatistics("missing");
+        }
+        else
+        {
+            m_stateLockStatistics = null;
+            m_activationReadLockStatistics = null;
+            m_activationWriteLockStatistics = null;
+            m_missingLockStatistics = null;
+        }
+
         // dump component details
         if (m_container.getLogger().isLogEnabled(Level.DEBUG))
         {
@@ -232,13 +254,33 @@ public abstract class AbstractComponentManager<S> implements ComponentManager<S>
         return ScrConfiguration.DEFAULT_LOCK_TIMEOUT_MILLISECONDS;
     }
 
-    private void obtainLock(Lock lock)
+    final long getBindBatch()
+    {
+        //for tests....
+        if (m_container.getActivator().getConfiguration() != null)
+        {
+            return m_container.getActivator().getConfiguration().bindBatch();
+        }
+        return ScrConfiguration.DEFAULT_BIND_BATCH_MILLISECONDS;
+    }
+
+    /**
+     * Schedules the task to run on the component actor after the given delay
+     * in milliseconds, after the tasks already scheduled for this component.
+     */
+    void schedule(Runnable task, long delay)
+    {
+        m_container.getActivator().schedule(this, task, delay);
+    }
+
+    private void obtainLock(Lock lock, LockStatistics statistics)
     {
+        final long start = statistics == null ? 0 : System.nanoTime();
         try
         {
             if (!lock.tryLock(getLockTimeout(), TimeUnit.MILLISECONDS))
             {
-                dumpThreads();
+                timedOut(statistics, start);
                 throw new IllegalStateException("Could not obtain lock");
             }
         }
@@ -248,7 +290,7 @@ public abstract class AbstractComponentManager<S> implements ComponentManager<S>
             {
                 if (!lock.tryLock(getLockTimeout(), TimeUnit.MILLISECONDS))
                 {
-                    dumpThreads();
+                    timedOut(statistics, start);
                     throw new IllegalStateException("Could not obtain lock");
                 }
             }
@@ -259,39 +301,90 @@ public abstract class AbstractComponentManager<S> implements ComponentManager<S>
             }
             Thread.currentThread().interrupt();
         }
+        if (statistics != null)
+        {
+            statistics.acquired(start);
+        }
+    }
+
+    private void timedOut(LockStatistics statistics, long start)
+    {
+        if (statistics != null)
+        {
+            statistics.timedOut(start);
+        }
+        dumpThreads();
+    }
+
+    private void releaseLock(Lock lock, LockStatistics statistics)
+    {
+        if (statistics != null)
+        {
+            statistics.released();
+        }
+        lock.unlock();
     }
 
     final void obtainActivationReadLock()
     {
-        obtainLock(m_activationLock.readLock());
+        obtainLock(m_activationLock.readLock(), m_activationReadLockStatistics);
     }
 
     final void releaseActivationReadLock()
     {
-        m_activationLock.readLock().unlock();
+        releaseLock(m_activationLock.readLock(), m_activationReadLockStatistics);
     }
 
     final void obtainActivationWriteLock()
     {
-        obtainLock(m_activationLock.writeLock());
+        obtainLock(m_activationLock.writeLock(), m_activationWriteLockStatistics);
     }
 
     final void releaseActivationWriteeLock()
     {
         if (m_activationLock.getWriteHoldCount() > 0)
         {
-            m_activationLock.writeLock().unlock();
+            releaseLock(m_activationLock.writeLock(), m_activationWriteLockStatistics);
         }
     }
 
     final void obtainStateLock()
     {
-        obtainLock(m_stateLock);
+        obtainLock(m_stateLock, m_stateLockStatistics);
     }
 
     final void releaseStateLock()
     {
-        m_stateLock.unlock();
+        releaseLock(m_stateLock, m_stateLockStatistics);
+    }
+
+    private void obtainMissingLock()
+    {
+        final long start = m_missingLockStatistics == null ? 0 : System.nanoTime();
+        m_missingLock.lock();
+        if (m_missingLockStatistics != null)
+        {
+            m_missingLockStatistics.acquired(start);
+        }
+    }
+
+    /**
+     * Returns snapshots of the statistics of the locks of this component,
+     * <code>null</code> if lock statistics are not enabled. The hold time
+     * of the missing lock includes waiting for missing service events.
+     */
+    @Override
+    public LockStatistics[] getLockStatistics()
+    {
+        if (m_stateLockStatistics == null)
+        {
+            return null;
+        }
+        return new LockStatistics[] {
+            m_stateLockStatistics.snapshot(),
+            m_activationReadLockStatistics.snapshot(),
+            m_activationWriteLockStatistics.snapshot(),
+            m_missingLockStatistics.snapshot() };
     }
 
     final boolean isStateLocked()
@@ -315,7 +408,7 @@ public abstract class AbstractComponentManager<S> implements ComponentManager<S>
     //service event tracking
     void tracked(int trackingCount)
     {
-        m_missingLock.lock();
+        obtainMissingLock();
         try
         {
             if (trackingCount == m_floor + 1)
@@ -339,7 +432,7 @@ public abstract class AbstractComponentManager<S> implements ComponentManager<S>
         }
         finally
         {
-            m_missingLock.unlock();
+            releaseLock(m_missingLock, m_missingLockStatistics);
         }
     }
 
@@ -350,7 +443,7 @@ public abstract class AbstractComponentManager<S> implements ComponentManager<S>
      */
     void waitForTracked(int trackingCount)
     {
-        m_missingLock.lock();
+        obtainMissingLock();
         try
         {
             while (m_ceiling < trackingCount || (!m_missing.isEmpty() && m_missing.iterator().next() < trackingCount))
@@ -386,7 +479,7 @@ public abstract class AbstractComponentManager<S> implements ComponentManager<S>
         }
         finally
         {
-            m_missingLock.unlock();
+            releaseLock(m_missingLock, m_missingLockStatistics);
         }
     }
 
@@ -448,7 +541,7 @@ public abstract class AbstractComponentManager<S> implements ComponentManager<S>
         if (async)
         {
             final Deferred<Void> latch = enableLatch;
-            m_container.getActivator().schedule(new Runnable()
+            m_container.getActivator().schedule(this, new Runnable()
             {
 
                 long count = taskCounter.incrementAndGet();
@@ -540,7 +633,7 @@ public abstract class AbstractComponentManager<S> implements ComponentManager<S>
         if (async)
         {
             final Deferred<Void> latch = enableLatch;
-            m_container.getActivator().schedule(new Runnable()
+            m_container.getActivator().schedule(this, new Runnable()
             {
 
                 long count = taskCounter.incrementAndGet();
@@ -36,6 +36,18 @@ public interface ComponentActivator extends ExtendedServiceListenerContext<Exten
 
     void schedule(Runnable runnable);
 
+    /**
+     * Schedules the runnable after the runnables already scheduled with the
+     * same key, runnables with different keys may run concurrently.
+     */
+    void schedule(Object key, Runnable runnable);
+
+    /**
+     * Schedules the runnable after the given delay in milliseconds, after
+     * the runnables already scheduled with the same key by then.
+     */
+    void schedule(Object key, Runnable runnable, long delay);
+
     long registerComponentId(AbstractComponentManager<?> sAbstractComponentManager);
 
     void unregisterComponentId(AbstractComponentManager<?> sAbstractComponentManager);
@@ -45,4 +45,6 @@ public interface ComponentManager<S> {
 
     ServiceReference<S> getRegisteredServiceReference();
 
+    LockStatistics[] getLockStatistics();
+
 }
\ No newline at end of file
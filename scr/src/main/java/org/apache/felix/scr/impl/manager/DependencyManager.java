@@ -22,11 +22,15 @@ import java.security.Permission;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -79,6 +83,9 @@ public class DependencyManager<S, T> implements ReferenceManager<S, T>
 
     private volatile int m_minCardinality;
 
+    // the batch of binds currently run by the component actor, if any
+    private volatile BindBatch m_bindBatch;
+
     /**
      * Constructor that receives several parameters.
      * @param dependency An object that contains data about the dependency
@@ -141,6 +148,13 @@ public class DependencyManager<S, T> implements ReferenceManager<S, T>
         void setTrackerOpened();
 
         void setPreviousRefMap(Map<ServiceReference<T>, RefPair<S, T>> previousRefMap);
+
+        /**
+         * Removes the services waiting to be bound to the component instance,
+         * which will never be bound to it.
+         * @return the removed services.
+         */
+        Set<RefPair<S, T>> removePendingBinds();
     }
 
     private abstract class AbstractCustomizer implements Customizer<S, T>
@@ -232,6 +246,12 @@ public class DependencyManager<S, T> implements ReferenceManager<S, T>
             m_componentManager.tracked(trackingCount);
         }
 
+        @Override
+        public Set<RefPair<S, T>> removePendingBinds()
+        {
+            return Collections.emptySet();
+        }
+
     }
 
     private class FactoryCustomizer extends AbstractCustomizer
@@ -303,6 +323,17 @@ public class DependencyManager<S, T> implements ReferenceManager<S, T>
         private RefPair<S, T> lastRefPair;
         private int lastRefPairTrackingCount;
 
+        // services added while active, waiting to be bound as one batch
+        private final Map<RefPair<S, T>, Integer> pendingBinds = new LinkedHashMap<>();
+
+        // whether a batch has been scheduled, guarded by pendingBinds
+        private boolean batchScheduled;
+
+        // the service being bound by the batch and the thread binding it,
+        // guarded by pendingBinds
+        private RefPair<S, T> batchRefPair;
+        private Thread batchThread;
+
         @Override
         public RefPair<S, T> addingService(ServiceReference<T> serviceReference)
         {
@@ -324,7 +355,15 @@ public class DependencyManager<S, T> implements ReferenceManager<S, T>
             boolean tracked = false;
             if (getPreviousRefMap().remove(serviceReference) == null)
             {
-                if (isActive())
+                final long bindBatch = getBindBatch();
+                if (isActive() && bindBatch > 0)
+                {
+                    m_componentManager.getLogger().log(Level.DEBUG,
+                        "dm {0} tracking {1} MultipleDynamic already active, batching bind of {2}",
+                        null, getName(), trackingCount, serviceReference );
+                    addPendingBind(refPair, trackingCount, bindBatch);
+                }
+                else if (isActive())
                 {
                     m_componentManager.getLogger().log(Level.DEBUG,
                         "dm {0} tracking {1} MultipleDynamic already active, binding {2}",
@@ -368,7 +407,8 @@ public class DependencyManager<S, T> implements ReferenceManager<S, T>
             m_componentManager.getLogger().log(Level.DEBUG,
                 "dm {0} tracking {1} MultipleDynamic modified {2} (enter)",
                     null, getName(), trackingCount, serviceReference );
-            if (isActive())
+            // a service still waiting to be bound is bound with its current properties
+            if (isActive() && !isPendingBind(refPair))
             {
                 m_componentManager.invokeUpdatedMethod(DependencyManager.this, refPair, trackingCount);
             }
@@ -385,11 +425,14 @@ public class DependencyManager<S, T> implements ReferenceManager<S, T>
             m_componentManager.getLogger().log(Level.DEBUG,
                 "dm {0} tracking {1} MultipleDynamic removed {2} (enter)",
                     null, getName(), trackingCount, serviceReference );
+            // a service still waiting to be bound has never been bound, one
+            // being bound by the batch is bound when this returns
+            final boolean pending = removePendingBind(refPair);
             refPair.markDeleted();
             boolean unbind = cardinalitySatisfied();
             if (unbind)
             {
-                if (isActive())
+                if (isActive() && !pending)
                 {
                     m_componentManager.invokeUnbindMethod(DependencyManager.this, refPair, trackingCount);
                 }
@@ -451,6 +494,10 @@ public class DependencyManager<S, T> implements ReferenceManager<S, T>
         @Override
         public void close()
         {
+            synchronized (pendingBinds)
+            {
+                pendingBinds.clear();
+            }
             AtomicInteger trackingCount = new AtomicInteger();
             for (RefPair<S, T> ref : getRefs(trackingCount))
             {
@@ -459,6 +506,234 @@ public class DependencyManager<S, T> implements ReferenceManager<S, T>
             deactivateTracker();
         }
 
+        /**
+         * Returns how long services added to an active component are
+         * collected before being bound as one batch, <code>0</code> if
+         * they are bound as they are added. Only greedy references of
+         * components with a single instance are bound in batches, as the
+         * services waiting are dropped when the instance is disposed.
+         */
+        private long getBindBatch()
+        {
+            if (m_dependencyMetadata.isReluctant()
+                || m_componentManager.getComponentMetadata().getServiceScope() != Scope.singleton)
+            {
+                return 0;
+            }
+            return m_componentManager.getBindBatch();
+        }
+
+        private void addPendingBind(RefPair<S, T> refPair, int trackingCount, long bindBatch)
+        {
+            final boolean schedule;
+            synchronized (pendingBinds)
+            {
+                pendingBinds.put(refPair, trackingCount);
+                schedule = !batchScheduled;
+                batchScheduled = true;
+            }
+            if (schedule)
+            {
+                m_componentManager.schedule(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        bindPending();
+                    }
+
+                    @Override
+                    public String toString()
+                    {
+                        return "Batch bind: " + m_componentManager.getComponentMetadata().getName() + " reference: "
+                            + getName();
+                    }
+                }, bindBatch);
+            }
+        }
+
+        @Override
+        public Set<RefPair<S, T>> removePendingBinds()
+        {
+            synchronized (pendingBinds)
+            {
+                // the service being bound by the batch is bound once this
+                // returns and is unbound with the others
+                if (batchRefPair != null)
+                {
+                    waitForBatchBind(batchRefPair);
+                }
+                if (pendingBinds.isEmpty())
+                {
+                    return Collections.emptySet();
+                }
+                final Set<RefPair<S, T>> refPairs = Collections.newSetFromMap(
+                    new IdentityHashMap<RefPair<S, T>, Boolean>());
+                refPairs.addAll(pendingBinds.keySet());
+                pendingBinds.clear();
+                return refPairs;
+            }
+        }
+
+        private boolean isPendingBind(RefPair<S, T> refPair)
+        {
+            synchronized (pendingBinds)
+            {
+                waitForBatchBind(refPair);
+                return pendingBinds.containsKey(refPair);
+            }
+        }
+
+        /**
+         * Removes the service from the services waiting to be bound. A service
+         * being bound by the batch is bound once this method returns.
+         *
+         * @return <code>true</code> if the service was waiting to be bound and
+         *      will not be bound by the batch.
+         */
+        private boolean removePendingBind(RefPair<S, T> refPair)
+        {
+            synchronized (pendingBinds)
+            {
+                waitForBatchBind(refPair);
+                return pendingBinds.remove(refPair) != null;
+            }
+        }
+
+        /**
+         * Waits for the batch to finish binding the service. Must be called
+         * holding the pendingBinds lock, which is released while waiting, so
+         * no lock is held while calling the bind method.
+         */
+        private void waitForBatchBind(RefPair<S, T> refPair)
+        {
+            if (batchThread == Thread.currentThread())
+            {
+                // called by a bind method of the batch
+                return;
+            }
+            final long end = System.nanoTime()
+                + TimeUnit.MILLISECONDS.toNanos(m_componentManager.getLockTimeout());
+            boolean interrupted = false;
+            while (batchRefPair == refPair)
+            {
+                final long remaining = TimeUnit.NANOSECONDS.toMillis(end - System.nanoTime());
+                if (remaining <= 0)
+                {
+                    m_componentManager.getLogger().log(Level.ERROR,
+                        "dm {0} timeout waiting for the batch binding {1}", null, getName(), refPair.getRef());
+                    m_componentManager.dumpThreads();
+                    break;
+                }
+                try
+                {
+                    pendingBinds.wait(remaining);
+                }
+                catch (InterruptedException e)
+                {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Binds the services collected since the last batch one after the
+         * other. A field reference with the replace strategy and no bind
+         * method is set once to the collection of all bound services and the
+         * service properties returned by the bind methods are applied once.
+         * Each service is taken from the pending services just before it is
+         * bound, so a service removed before is never bound and a service
+         * removed after is unbound.
+         */
+        private void bindPending()
+        {
+            final List<RefPair<S, T>> refPairs;
+            synchronized (pendingBinds)
+            {
+                batchScheduled = false;
+                if (m_customizer != this || !isActive())
+                {
+                    // bound by the next activation if still tracked
+                    pendingBinds.clear();
+                    return;
+                }
+                refPairs = new ArrayList<>(pendingBinds.keySet());
+            }
+            if (refPairs.isEmpty())
+            {
+                return;
+            }
+            m_componentManager.getLogger().log(Level.DEBUG,
+                "dm {0} MultipleDynamic binding batch of {1} services",
+                    null, getName(), refPairs.size());
+
+            final BindBatch batch = new BindBatch(refPairs, m_dependencyMetadata.getBind() == null
+                && m_dependencyMetadata.getField() != null && m_dependencyMetadata.isReplace());
+            RefPair<S, T> lastBound = null;
+            int lastTrackingCount = 0;
+            m_bindBatch = batch;
+            try
+            {
+                for (RefPair<S, T> refPair : refPairs)
+                {
+                    final Integer trackingCount;
+                    synchronized (pendingBinds)
+                    {
+                        trackingCount = pendingBinds.remove(refPair);
+                        if (trackingCount == null)
+                        {
+                            // removed while pending
+                            continue;
+                        }
+                        batchRefPair = refPair;
+                        batchThread = Thread.currentThread();
+                    }
+                    try
+                    {
+                        m_componentManager.invokeBindMethod(DependencyManager.this, refPair, trackingCount);
+                    }
+                    finally
+                    {
+                        synchronized (pendingBinds)
+                        {
+                            batchRefPair = null;
+                            batchThread = null;
+                            pendingBinds.notifyAll();
+                        }
+                    }
+                    if (refPair.isFailed())
+                    {
+                        m_componentManager.registerMissingDependency(DependencyManager.this, refPair.getRef(),
+                            trackingCount);
+                    }
+                    else
+                    {
+                        lastBound = refPair;
+                        lastTrackingCount = trackingCount;
+                    }
+                }
+            }
+            finally
+            {
+                m_bindBatch = null;
+            }
+
+            // a service unbound after the batch has already set the field
+            if (batch.fieldUpdateDeferred && lastBound != null && !lastBound.isDeleted())
+            {
+                // binding again sets the field to all bound services
+                m_componentManager.invokeBindMethod(DependencyManager.this, lastBound, lastTrackingCount);
+            }
+            if (batch.result != null)
+            {
+                m_componentManager.setServiceProperties(batch.result, batch.resultTrackingCount);
+            }
+        }
+
         @Override
         public Collection<RefPair<S, T>> getRefs(AtomicInteger trackingCount)
         {
@@ -1325,6 +1600,12 @@ public class DependencyManager<S, T> implements ReferenceManager<S, T>
         {
         }
 
+        @Override
+        public Set<RefPair<S, T>> removePendingBinds()
+        {
+            return Collections.emptySet();
+        }
+
         @Override
         public RefPair<S, T> addingService(ServiceReference<T> tServiceReference)
         {
@@ -1771,6 +2052,10 @@ public class DependencyManager<S, T> implements ReferenceManager<S, T>
             edgeInfo.setClose(trackingCount.get());
             latch = edgeInfo.getCloseLatch();
         }
+        // services still waiting to be bound by a batch have never been bound,
+        // services added later are not bound to this instance as they are
+        // after the close
+        final Set<RefPair<S, T>> pending = m_customizer.removePendingBinds();
 
         m_componentManager.getLogger().log(Level.DEBUG,
             "DependencyManager: {0} close component unbinding from {1} at tracking count {2} refpairs: {3}",
@@ -1778,7 +2063,7 @@ public class DependencyManager<S, T> implements ReferenceManager<S, T>
         m_componentManager.waitForTracked(trackingCount.get());
         for (RefPair<S, T> boundRef : refPairs)
         {
-            if (doUnbind && !boundRef.isFailed())
+            if (doUnbind && !boundRef.isFailed() && !pending.contains(boundRef))
             {
                 invokeUnbindMethod(componentContext, boundRef, trackingCount.get(), edgeInfo);
             }
@@ -1912,16 +2197,65 @@ public class DependencyManager<S, T> implements ReferenceManager<S, T>
             return false;
 
         }
+        final BindBatch batch = m_bindBatch;
+        final boolean batched = batch != null && batch.contains(refPair);
         MethodResult result = bindMethod.invoke(componentContext.getImplementationObject(false),
-            new BindParameters(componentContext, refPair), MethodResult.VOID);
+            new BindParameters(componentContext, refPair, batched && batch.fieldUpdateDeferred), MethodResult.VOID);
         if (result == null)
         {
             return false;
         }
-        m_componentManager.setServiceProperties(result, trackingCount);
+        if (batched)
+        {
+            batch.setResult(result, trackingCount);
+        }
+        else
+        {
+            m_componentManager.setServiceProperties(result, trackingCount);
+        }
         return true;
     }
 
+    /**
+     * The services bound as one batch by the component actor.
+     */
+    private final class BindBatch
+    {
+        private final Thread thread = Thread.currentThread();
+
+        private final Set<RefPair<S, T>> refPairs;
+
+        // whether the field is only set after the batch
+        private final boolean fieldUpdateDeferred;
+
+        // the last service properties returned by a bind method
+        private MethodResult result;
+
+        private int resultTrackingCount;
+
+        BindBatch(Collection<RefPair<S, T>> refPairs, boolean fieldUpdateDeferred)
+        {
+            this.refPairs = Collections.newSetFromMap(new IdentityHashMap<RefPair<S, T>, Boolean>());
+            this.refPairs.addAll(refPairs);
+            this.fieldUpdateDeferred = fieldUpdateDeferred;
+        }
+
+        // binds made by other threads are not part of the batch
+        boolean contains(RefPair<S, T> refPair)
+        {
+            return thread == Thread.currentThread() && refPairs.contains(refPair);
+        }
+
+        void setResult(MethodResult result, int trackingCount)
+        {
+            if (result.hasResult())
+            {
+                this.result = result;
+                this.resultTrackingCount = trackingCount;
+            }
+        }
+    }
+
     /**
      * Calls the updated method.
      *
@@ -0,0 +1,184 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl.manager;
+
+
+/**
+ * The <code>LockStatistics</code> records how long threads wait for and
+ * hold one lock of a component manager. Reentrant acquisitions by a thread
+ * already holding the lock are counted, but the lock is held from the
+ * outermost acquisition to the outermost release. All times are in
+ * nanoseconds. The getters are meant to be called on a {@link #snapshot()}.
+ */
+public class LockStatistics
+{
+
+    private final String name;
+
+    // per thread nesting depth and start of the outermost hold
+    private final ThreadLocal<long[]> holds = new ThreadLocal<>();
+
+    private long acquisitions;
+
+    private long timeouts;
+
+    private long waitTime;
+
+    private long maxWaitTime;
+
+    private long holdTime;
+
+    private long maxHoldTime;
+
+
+    LockStatistics( final String name )
+    {
+        this.name = name;
+    }
+
+
+    private LockStatistics( final LockStatistics other )
+    {
+        this.name = other.name;
+        this.acquisitions = other.acquisitions;
+        this.timeouts = other.timeouts;
+        this.waitTime = other.waitTime;
+        this.maxWaitTime = other.maxWaitTime;
+        this.holdTime = other.holdTime;
+        this.maxHoldTime = other.maxHoldTime;
+    }
+
+
+    /**
+     * Records that the current thread obtained the lock after starting to
+     * wait for it at <code>waitStart</code>.
+     */
+    void acquired( final long waitStart )
+    {
+        final long now = System.nanoTime();
+        long[] hold = holds.get();
+        if ( hold == null )
+        {
+            hold = new long[] { 0, now };
+            holds.set( hold );
+        }
+        hold[0]++;
+
+        final long wait = now - waitStart;
+        synchronized ( this )
+        {
+            acquisitions++;
+            waitTime += wait;
+            maxWaitTime = Math.max( maxWaitTime, wait );
+        }
+    }
+
+
+    /**
+     * Records that the current thread gave up waiting for the lock after
+     * starting to wait for it at <code>waitStart</code>.
+     */
+    void timedOut( final long waitStart )
+    {
+        final long wait = System.nanoTime() - waitStart;
+        synchronized ( this )
+        {
+            timeouts++;
+            waitTime += wait;
+            maxWaitTime = Math.max( maxWaitTime, wait );
+        }
+    }
+
+
+    /**
+     * Records that the current thread is about to release the lock.
+     */
+    void released()
+    {
+        final long[] hold = holds.get();
+        if ( hold == null )
+        {
+            // not acquired while recording
+            return;
+        }
+        if ( --hold[0] > 0 )
+        {
+            return;
+        }
+        holds.remove();
+
+        final long time = System.nanoTime() - hold[1];
+        synchronized ( this )
+        {
+            holdTime += time;
+            maxHoldTime = Math.max( maxHoldTime, time );
+        }
+    }
+
+
+    /**
+     * Returns a copy of the statistics recorded so far.
+     */
+    public synchronized LockStatistics snapshot()
+    {
+        return new LockStatistics( this );
+    }
+
+
+    public String getName()
+    {
+        return name;
+    }
+
+
+    public long getAcquisitions()
+    {
+        return acquisitions;
+    }
+
+
+    public long getTimeouts()
+    {
+        return timeouts;
+    }
+
+
+    public long getWaitTime()
+    {
+        return waitTime;
+    }
+
+
+    public long getMaxWaitTime()
+    {
+        return maxWaitTime;
+    }
+
+
+    public long getHoldTime()
+    {
+        return holdTime;
+    }
+
+
+    public long getMaxHoldTime()
+    {
+        return maxHoldTime;
+    }
+}
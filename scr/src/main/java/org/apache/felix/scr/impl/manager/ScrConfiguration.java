@@ -57,12 +57,18 @@ public interface ScrConfiguration
 
     String PROP_STOP_TIMEOUT = "ds.stop.timeout.milliseconds";
 
+    String PROP_LOCK_STATISTICS = "ds.lock.statistics";
+
+    String PROP_BIND_BATCH = "ds.bind.batch.milliseconds";
+
     long DEFAULT_LOCK_TIMEOUT_MILLISECONDS = 5000;
 
     long DEFAULT_SERVICE_CHANGECOUNT_TIMEOUT_MILLISECONDS = 5000;
 
     long DEFAULT_STOP_TIMEOUT_MILLISECONDS = 60000;
 
+    long DEFAULT_BIND_BATCH_MILLISECONDS = 0;
+
     String PROP_LOGLEVEL = "ds.loglevel";
 
     String PROP_GLOBAL_EXTENDER="ds.global.extender";
@@ -71,6 +77,14 @@ public interface ScrConfiguration
 
     String PROP_CACHE_METADATA = "ds.cache.metadata";
 
+    String PROP_ACTOR_THREADS = "ds.actor.threads";
+
+    int DEFAULT_ACTOR_THREADS = 1;
+
+    String PROP_DESCRIPTOR_THREADS = "ds.descriptor.threads";
+
+    int DEFAULT_DESCRIPTOR_THREADS = 0;
+
     /**
      * Returns the current log level.
      * @return
@@ -90,6 +104,19 @@ public interface ScrConfiguration
 
     long stopTimeout();
 
+    /**
+     * Returns whether the wait and hold times of the locks of components
+     * are recorded. This applies to components created after changing it.
+     */
+    boolean lockStatistics();
+
+    /**
+     * Returns how long services added to greedy dynamic multiple references
+     * of active components are collected before being bound as one batch,
+     * <code>0</code> to bind each service as it is added.
+     */
+    long bindBatch();
+
     /**
      * @since 2.1
      */
@@ -102,4 +129,19 @@ public interface ScrConfiguration
 
     boolean cacheMetadata();
 
+    /**
+     * Returns the number of threads enabling and disabling components
+     * asynchronously. This is read when the Declarative Services
+     * implementation is started.
+     */
+    int actorThreads();
+
+    /**
+     * Returns the number of threads loading the component descriptors of
+     * the bundles already started when the Declarative Services
+     * implementation is started, <code>0</code> to load them one bundle
+     * after the other as the bundles are extended.
+     */
+    int descriptorThreads();
+
 }
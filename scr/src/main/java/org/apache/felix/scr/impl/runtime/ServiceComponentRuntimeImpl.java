@@ -30,9 +30,12 @@ import java.util.concurrent.ConcurrentHashMap;
 import org.apache.felix.scr.impl.ComponentRegistry;
 import org.apache.felix.scr.impl.manager.ComponentHolder;
 import org.apache.felix.scr.impl.manager.ComponentManager;
+import org.apache.felix.scr.impl.manager.LockStatistics;
 import org.apache.felix.scr.impl.manager.ReferenceManager;
 import org.apache.felix.scr.impl.metadata.ComponentMetadata;
 import org.apache.felix.scr.impl.metadata.ReferenceMetadata;
+import org.apache.felix.scr.info.ExtComponentConfigurationDTO;
+import org.apache.felix.scr.info.LockStatisticsDTO;
 import org.osgi.dto.DTO;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
@@ -211,7 +214,18 @@ public class ServiceComponentRuntimeImpl implements ServiceComponentRuntime, Ser
 
     private ComponentConfigurationDTO managerToConfiguration(final ComponentManager<?> manager, final ComponentDescriptionDTO description)
     {
-        final ComponentConfigurationDTO dto = new ComponentConfigurationDTO();
+        final LockStatistics[] lockStatistics = manager.getLockStatistics();
+        final ComponentConfigurationDTO dto;
+        if ( lockStatistics != null )
+        {
+            final ExtComponentConfigurationDTO extDto = new ExtComponentConfigurationDTO();
+            extDto.locks = lockStatisticsToDTO(lockStatistics);
+            dto = extDto;
+        }
+        else
+        {
+            dto = new ComponentConfigurationDTO();
+        }
         dto.satisfiedReferences = satisfiedRefManagersToDTO(manager.getReferenceManagers());
         dto.unsatisfiedReferences = unsatisfiedRefManagersToDTO(manager.getReferenceManagers());
         dto.description = description;
@@ -232,6 +246,24 @@ public class ServiceComponentRuntimeImpl implements ServiceComponentRuntime, Ser
         return dto;
     }
 
+    private LockStatisticsDTO[] lockStatisticsToDTO(LockStatistics[] lockStatistics)
+    {
+        LockStatisticsDTO[] dtos = new LockStatisticsDTO[lockStatistics.length];
+        for ( int i = 0; i < lockStatistics.length; i++ )
+        {
+            LockStatisticsDTO dto = new LockStatisticsDTO();
+            dto.name = lockStatistics[i].getName();
+            dto.acquisitions = lockStatistics[i].getAcquisitions();
+            dto.timeouts = lockStatistics[i].getTimeouts();
+            dto.waitTime = lockStatistics[i].getWaitTime();
+            dto.maxWaitTime = lockStatistics[i].getMaxWaitTime();
+            dto.holdTime = lockStatistics[i].getHoldTime();
+            dto.maxHoldTime = lockStatistics[i].getMaxHoldTime();
+            dtos[i] = dto;
+        }
+        return dtos;
+    }
+
     private SatisfiedReferenceDTO[] satisfiedRefManagersToDTO(List<? extends ReferenceManager<?, ?>> referenceManagers)
     {
         List<SatisfiedReferenceDTO> dtos = new ArrayList<>();
@@ -0,0 +1,67 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.info;
+
+import org.osgi.dto.DTO;
+
+/**
+ * Statistics of one lock of a component configuration, recorded if the
+ * <code>ds.lock.statistics</code> configuration property is set. All times
+ * are in nanoseconds.
+ *
+ * @since 1.1
+ */
+public class LockStatisticsDTO extends DTO
+{
+
+    /**
+     * The name of the lock.
+     */
+    public String name;
+
+    /**
+     * The number of times the lock has been obtained.
+     */
+    public long acquisitions;
+
+    /**
+     * The number of times waiting for the lock timed out.
+     */
+    public long timeouts;
+
+    /**
+     * The total time threads waited for the lock.
+     */
+    public long waitTime;
+
+    /**
+     * The longest time a thread waited for the lock.
+     */
+    public long maxWaitTime;
+
+    /**
+     * The total time threads held the lock.
+     */
+    public long holdTime;
+
+    /**
+     * The longest time a thread held the lock.
+     */
+    public long maxHoldTime;
+}
@@ -0,0 +1,223 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl;
+
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.felix.scr.impl.logger.MockBundleLogger;
+import org.apache.felix.scr.impl.logger.MockScrLogger;
+import org.apache.felix.scr.impl.manager.ScrConfiguration;
+import org.apache.felix.scr.impl.metadata.ComponentMetadata;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.osgi.framework.Bundle;
+
+import junit.framework.TestCase;
+
+
+public class ActivatorTest extends TestCase
+{
+
+    private final ConcurrentMap<Long, Future<List<ComponentMetadata>>> preloaded = new ConcurrentHashMap<>();
+
+    private final MockScrLogger logger = new MockScrLogger();
+
+
+    public void test_preloadMetadata_withoutThreads() throws Exception
+    {
+        final Bundle bundle = BundleComponentActivatorTest.createBundle( 1,
+            BundleComponentActivatorTest.createDescriptor( "a" ) );
+
+        final ExecutorService executor = Activator.preloadMetadata( new Bundle[] { bundle },
+            Collections.emptyMap(), logger, createConfiguration( 0 ), preloaded );
+
+        assertNull( executor );
+        assertTrue( preloaded.isEmpty() );
+        assertNull( Activator.getPreloadedMetadata( preloaded, bundle, logger ) );
+        assertNull( Activator.getPreloadedMetadata( null, bundle, logger ) );
+    }
+
+
+    public void test_preloadMetadata_skipped_bundles() throws Exception
+    {
+        final URL descriptor = BundleComponentActivatorTest.createDescriptor( "a" );
+        final Bundle started = BundleComponentActivatorTest.createBundle( 1, descriptor );
+        final Bundle resolved = BundleComponentActivatorTest.createBundle( 2, descriptor );
+        Mockito.when( resolved.getState() ).thenReturn( Bundle.RESOLVED );
+        final Bundle cached = BundleComponentActivatorTest.createBundle( 3, descriptor );
+        final Bundle noComponents = BundleComponentActivatorTest.createBundle( 4, descriptor );
+        Mockito.when( noComponents.getHeaders( "" ) ).thenReturn( new Hashtable<String, String>() );
+        final Map<Long, List<ComponentMetadata>> cache = new HashMap<>();
+        cache.put( 3L, Collections.<ComponentMetadata> emptyList() );
+
+        final ExecutorService executor = Activator.preloadMetadata(
+            new Bundle[] { started, resolved, cached, noComponents }, cache, logger, createConfiguration( 2 ),
+            preloaded );
+        try
+        {
+            assertEquals( Collections.singleton( 1L ), preloaded.keySet() );
+            assertNull( Activator.getPreloadedMetadata( preloaded, resolved, logger ) );
+            assertNull( Activator.getPreloadedMetadata( preloaded, cached, logger ) );
+            assertNull( Activator.getPreloadedMetadata( preloaded, noComponents, logger ) );
+            assertEquals( Collections.singletonList( "a" ),
+                BundleComponentActivatorTest.getNames( Activator.getPreloadedMetadata( preloaded, started, logger ) ) );
+
+            // returned only once, loaded again when the bundle is extended again
+            assertNull( Activator.getPreloadedMetadata( preloaded, started, logger ) );
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+
+    public void test_preloadMetadata_registration_order() throws Exception
+    {
+        final Bundle[] bundles = new Bundle[4];
+        for ( int i = 0; i < bundles.length; i++ )
+        {
+            bundles[i] = BundleComponentActivatorTest.createBundle( i,
+                BundleComponentActivatorTest.createDescriptor( "c" + i, "b" + i ),
+                BundleComponentActivatorTest.createDescriptor( "a" + i ) );
+        }
+
+        // the first bundle is loaded last
+        final List<Long> loadOrder = Collections.synchronizedList( new ArrayList<Long>() );
+        final CountDownLatch othersLoaded = new CountDownLatch( bundles.length - 1 );
+        for ( final Bundle bundle : bundles )
+        {
+            Mockito.when( bundle.findEntries( "OSGI-INF", "d0.xml", false ) ).thenAnswer( new Answer<Enumeration<URL>>()
+            {
+                @Override
+                public Enumeration<URL> answer( final InvocationOnMock invocation ) throws Throwable
+                {
+                    if ( bundle.getBundleId() == 0 )
+                    {
+                        othersLoaded.await( 5, TimeUnit.SECONDS );
+                    }
+                    loadOrder.add( bundle.getBundleId() );
+                    othersLoaded.countDown();
+                    return Collections.enumeration( Collections.singletonList(
+                        BundleComponentActivatorTest.createDescriptor( "c" + bundle.getBundleId(),
+                            "b" + bundle.getBundleId() ) ) );
+                }
+            } );
+        }
+
+        final ExecutorService executor = Activator.preloadMetadata( bundles, Collections.emptyMap(), logger,
+            createConfiguration( bundles.length ), preloaded );
+        try
+        {
+            // the components are handed out in bundle order in declaration order
+            for ( int i = 0; i < bundles.length; i++ )
+            {
+                assertEquals( Arrays.asList( "c" + i, "b" + i, "a" + i ), BundleComponentActivatorTest.getNames(
+                    Activator.getPreloadedMetadata( preloaded, bundles[i], logger ) ) );
+            }
+            assertEquals( Long.valueOf( 0 ), loadOrder.get( loadOrder.size() - 1 ) );
+            assertTrue( preloaded.isEmpty() );
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+
+    public void test_preloadMetadata_failure_falls_back() throws Exception
+    {
+        final URL descriptor = BundleComponentActivatorTest.createDescriptor( "a" );
+        final Bundle bundle = BundleComponentActivatorTest.createBundle( 1, descriptor );
+        Mockito.when( bundle.findEntries( "OSGI-INF", "d0.xml", false ) )
+            .thenThrow( new IllegalStateException( "uninstalled" ) )
+            .thenAnswer( BundleComponentActivatorTest.createEntries( descriptor ) );
+
+        final ExecutorService executor = Activator.preloadMetadata( new Bundle[] { bundle },
+            Collections.emptyMap(), logger, createConfiguration( 1 ), preloaded );
+        try
+        {
+            assertNull( Activator.getPreloadedMetadata( preloaded, bundle, logger ) );
+            assertTrue( preloaded.isEmpty() );
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+
+        // loaded one after the other when creating the activator
+        assertEquals( Collections.singletonList( "a" ), BundleComponentActivatorTest.getNames(
+            BundleComponentActivator.loadMetadata( bundle, new MockBundleLogger(), createConfiguration( 1 ) ) ) );
+    }
+
+
+    public void test_getPreloadedMetadata_interrupted() throws Exception
+    {
+        final URL descriptor = BundleComponentActivatorTest.createDescriptor( "a" );
+        final Bundle bundle = BundleComponentActivatorTest.createBundle( 1, descriptor );
+        final CountDownLatch release = new CountDownLatch( 1 );
+        Mockito.when( bundle.findEntries( "OSGI-INF", "d0.xml", false ) ).thenAnswer( new Answer<Enumeration<URL>>()
+        {
+            @Override
+            public Enumeration<URL> answer( final InvocationOnMock invocation ) throws Throwable
+            {
+                release.await( 5, TimeUnit.SECONDS );
+                return Collections.enumeration( Collections.singletonList( descriptor ) );
+            }
+        } );
+
+        final ExecutorService executor = Activator.preloadMetadata( new Bundle[] { bundle },
+            Collections.emptyMap(), logger, createConfiguration( 1 ), preloaded );
+        try
+        {
+            Thread.currentThread().interrupt();
+            assertNull( Activator.getPreloadedMetadata( preloaded, bundle, logger ) );
+            assertTrue( Thread.interrupted() );
+        }
+        finally
+        {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+
+    private static ScrConfiguration createConfiguration( final int descriptorThreads )
+    {
+        final ScrConfiguration configuration = Mockito.mock( ScrConfiguration.class );
+        Mockito.when( configuration.descriptorThreads() ).thenReturn( descriptorThreads );
+        return configuration;
+    }
+}
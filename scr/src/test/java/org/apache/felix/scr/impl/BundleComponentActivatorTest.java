@@ -18,14 +18,29 @@
  */
 package org.apache.felix.scr.impl;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Dictionary;
 import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.List;
 import java.util.Vector;
 
+import org.apache.felix.scr.impl.logger.MockBundleLogger;
+import org.apache.felix.scr.impl.manager.ScrConfiguration;
+import org.apache.felix.scr.impl.metadata.ComponentMetadata;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.osgi.framework.Bundle;
+import org.osgi.service.component.ComponentException;
 
 import junit.framework.TestCase;
 
@@ -178,4 +193,141 @@ public class BundleComponentActivatorTest extends TestCase
         assertEquals( "Descriptor length", 0, actualUrls.length );
     }
 
-}
\ No newline at end of file
+
+    /**
+     * Test that the metadata is returned in the order declared by the
+     * Service-Component header and the descriptors, which is the order the
+     * components are registered in.
+     */
+    public void test_loadMetadata_declarationOrder() throws IOException
+    {
+        final Bundle bundle = createBundle( 1, createDescriptor( "c", "a" ), createDescriptor( "b" ) );
+
+        final List<ComponentMetadata> metadata = BundleComponentActivator.loadMetadata( bundle,
+            new MockBundleLogger(), Mockito.mock( ScrConfiguration.class ) );
+
+        assertEquals( Arrays.asList( "c", "a", "b" ), getNames( metadata ) );
+    }
+
+    /**
+     * Test that a descriptor not found is reported and the other descriptors
+     * are loaded.
+     */
+    public void test_loadMetadata_missingDescriptor() throws IOException
+    {
+        final Bundle bundle = createBundle( 1, createDescriptor( "a" ) );
+        Mockito.when( bundle.getHeaders( "" ) ).thenReturn( createHeaders( "OSGI-INF/missing.xml, OSGI-INF/d0.xml" ) );
+        final MockBundleLogger logger = new MockBundleLogger();
+
+        final List<ComponentMetadata> metadata = BundleComponentActivator.loadMetadata( bundle, logger,
+            Mockito.mock( ScrConfiguration.class ) );
+
+        assertEquals( Collections.singletonList( "a" ), getNames( metadata ) );
+        assertTrue( logger.messageContains( "OSGI-INF/missing.xml" ) );
+    }
+
+    /**
+     * Test that a bundle without Service-Component header is rejected.
+     */
+    public void test_loadMetadata_withoutHeader() throws IOException
+    {
+        final Bundle bundle = createBundle( 1, createDescriptor( "a" ) );
+        Mockito.when( bundle.getHeaders( "" ) ).thenReturn( new Hashtable<String, String>() );
+
+        try
+        {
+            BundleComponentActivator.loadMetadata( bundle, new MockBundleLogger(),
+                Mockito.mock( ScrConfiguration.class ) );
+            fail( "Expected ComponentException" );
+        }
+        catch ( ComponentException expected )
+        {
+        }
+    }
+
+    /**
+     * Creates a component descriptor declaring components with the given
+     * names.
+     */
+    static URL createDescriptor( final String... names ) throws IOException
+    {
+        final StringBuilder xml = new StringBuilder();
+        xml.append( "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" );
+        xml.append( "<components xmlns:scr=\"http://www.osgi.org/xmlns/scr/v1.1.0\">\n" );
+        for ( String name : names )
+        {
+            xml.append( "<scr:component name=\"" ).append( name ).append( "\">" );
+            xml.append( "<implementation class=\"" ).append( name ).append( "\"/>" );
+            xml.append( "</scr:component>\n" );
+        }
+        xml.append( "</components>\n" );
+
+        final File file = File.createTempFile( "components", ".xml" );
+        file.deleteOnExit();
+        final OutputStream out = new FileOutputStream( file );
+        try
+        {
+            out.write( xml.toString().getBytes( "UTF-8" ) );
+        }
+        finally
+        {
+            out.close();
+        }
+        return file.toURI().toURL();
+    }
+
+    /**
+     * Creates a started bundle whose Service-Component header lists the
+     * given descriptors as <code>OSGI-INF/d0.xml</code>,
+     * <code>OSGI-INF/d1.xml</code> and so on.
+     */
+    static Bundle createBundle( final long id, final URL... descriptors )
+    {
+        final Bundle bundle = Mockito.mock( Bundle.class );
+        Mockito.when( bundle.getBundleId() ).thenReturn( id );
+        Mockito.when( bundle.getState() ).thenReturn( Bundle.ACTIVE );
+        final StringBuilder header = new StringBuilder();
+        for ( int i = 0; i < descriptors.length; i++ )
+        {
+            if ( i > 0 )
+            {
+                header.append( ", " );
+            }
+            header.append( "OSGI-INF/d" ).append( i ).append( ".xml" );
+            Mockito.when( bundle.findEntries( "OSGI-INF", "d" + i + ".xml", false ) ).thenAnswer(
+                createEntries( descriptors[i] ) );
+        }
+        Mockito.when( bundle.getHeaders( "" ) ).thenReturn( createHeaders( header.toString() ) );
+        return bundle;
+    }
+
+    static Answer<Enumeration<URL>> createEntries( final URL descriptor )
+    {
+        return new Answer<Enumeration<URL>>()
+        {
+            @Override
+            public Enumeration<URL> answer( final InvocationOnMock invocation )
+            {
+                return Collections.enumeration( Collections.singletonList( descriptor ) );
+            }
+        };
+    }
+
+    static List<String> getNames( final List<ComponentMetadata> metadata )
+    {
+        final List<String> names = new ArrayList<>();
+        for ( ComponentMetadata md : metadata )
+        {
+            names.add( md.getName() );
+        }
+        return names;
+    }
+
+    private static Dictionary<String, String> createHeaders( final String serviceComponent )
+    {
+        final Dictionary<String, String> headers = new Hashtable<>();
+        headers.put( "Service-Component", serviceComponent );
+        return headers;
+    }
+
+}
@@ -0,0 +1,190 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.felix.scr.impl.logger.MockScrLogger;
+
+import junit.framework.TestCase;
+
+
+public class ComponentActorPoolTest extends TestCase
+{
+
+    public void test_single_thread_runs_in_order() throws Exception
+    {
+        final ComponentActorPool pool = new ComponentActorPool( new MockScrLogger(), 1 );
+        final List<Integer> order = Collections.synchronizedList( new ArrayList<Integer>() );
+        pool.start();
+        for ( int i = 0; i < 100; i++ )
+        {
+            pool.schedule( ( i % 2 == 0 ) ? "a" : "b", new Recorder( order, i ) );
+        }
+        pool.terminate();
+
+        assertEquals( 100, order.size() );
+        for ( int i = 0; i < 100; i++ )
+        {
+            assertEquals( i, order.get( i ).intValue() );
+        }
+        assertEquals( "100", pool.getStatistics().get( "Started tasks" ) );
+    }
+
+
+    public void test_same_key_runs_in_order() throws Exception
+    {
+        final ComponentActorPool pool = new ComponentActorPool( new MockScrLogger(), 4 );
+        final List<Integer> order = Collections.synchronizedList( new ArrayList<Integer>() );
+        pool.start();
+        for ( int i = 0; i < 100; i++ )
+        {
+            pool.schedule( "a", new Recorder( order, i ) );
+        }
+        pool.terminate();
+
+        assertEquals( 100, order.size() );
+        for ( int i = 0; i < 100; i++ )
+        {
+            assertEquals( i, order.get( i ).intValue() );
+        }
+    }
+
+
+    public void test_different_keys_run_concurrently() throws Exception
+    {
+        final ComponentActorPool pool = new ComponentActorPool( new MockScrLogger(), 2 );
+        final CountDownLatch started = new CountDownLatch( 2 );
+        final CountDownLatch done = new CountDownLatch( 2 );
+        pool.start();
+        for ( String key : new String[] { "a", "b" } )
+        {
+            pool.schedule( key, new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    started.countDown();
+                    try
+                    {
+                        // only returns if the other task runs at the same time
+                        if ( started.await( 5, TimeUnit.SECONDS ) )
+                        {
+                            done.countDown();
+                        }
+                    }
+                    catch ( InterruptedException e )
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            } );
+        }
+        pool.terminate();
+
+        assertEquals( 0, done.getCount() );
+    }
+
+
+    public void test_unkeyed_task_runs_alone() throws Exception
+    {
+        final ComponentActorPool pool = new ComponentActorPool( new MockScrLogger(), 4 );
+        final List<Integer> order = Collections.synchronizedList( new ArrayList<Integer>() );
+        pool.start();
+        pool.schedule( "a", new Recorder( order, 0 ) );
+        pool.schedule( "b", new Recorder( order, 1 ) );
+        pool.schedule( new Recorder( order, 2 ) );
+        pool.schedule( "c", new Recorder( order, 3 ) );
+        pool.terminate();
+
+        assertEquals( 4, order.size() );
+        assertEquals( 2, order.get( 2 ).intValue() );
+        assertEquals( 3, order.get( 3 ).intValue() );
+    }
+
+
+    public void test_schedule_after_terminate() throws Exception
+    {
+        final ComponentActorPool pool = new ComponentActorPool( new MockScrLogger(), 2 );
+        final List<Integer> order = Collections.synchronizedList( new ArrayList<Integer>() );
+        pool.start();
+        pool.terminate();
+        pool.schedule( "a", new Recorder( order, 0 ) );
+
+        assertTrue( order.isEmpty() );
+        assertEquals( "0", pool.getStatistics().get( "Queued tasks" ) );
+    }
+
+
+    public void test_delayed_task_runs_after_delay() throws Exception
+    {
+        final ComponentActorPool pool = new ComponentActorPool( new MockScrLogger(), 2 );
+        final CountDownLatch done = new CountDownLatch( 1 );
+        pool.start();
+        final long start = System.nanoTime();
+        pool.schedule( "a", new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                done.countDown();
+            }
+        }, 50 );
+
+        assertTrue( done.await( 5, TimeUnit.SECONDS ) );
+        assertTrue( TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start ) >= 50 );
+        pool.terminate();
+    }
+
+    private static class Recorder implements Runnable
+    {
+
+        private final List<Integer> order;
+
+        private final int value;
+
+
+        Recorder( final List<Integer> order, final int value )
+        {
+            this.order = order;
+            this.value = value;
+        }
+
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                // give other threads a chance to overtake
+                Thread.sleep( value % 3 );
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+            }
+            order.add( value );
+        }
+    }
+}
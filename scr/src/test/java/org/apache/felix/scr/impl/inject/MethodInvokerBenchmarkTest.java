@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl.inject;
+
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+
+/**
+ * Measures the throughput of bind, unbind and activate calls made through
+ * a {@link MethodInvoker} compared to calling <code>Method.invoke</code>.
+ * Ignored by default and meant to be run manually.
+ */
+public class MethodInvokerBenchmarkTest
+{
+
+    private static final int CALLS = 5000000;
+
+
+    @Test
+    @Ignore
+    public void testInvocationSpeed() throws Exception
+    {
+        final Method bind = getMethod( "bind", Object.class );
+        final Method unbind = getMethod( "unbind", Object.class );
+        final Method activate = getMethod( "activate", Map.class );
+        final MethodInvoker bindInvoker = MethodInvoker.create( bind );
+        final MethodInvoker unbindInvoker = MethodInvoker.create( unbind );
+        final MethodInvoker activateInvoker = MethodInvoker.create( activate );
+
+        final Component component = new Component();
+        final Object[] service = new Object[] { "service" };
+        final Object[] props = new Object[] { Collections.emptyMap() };
+        for ( int run = 0; run < 5; run++ )
+        {
+            long t0 = System.nanoTime();
+            for ( int i = 0; i < CALLS; i++ )
+            {
+                bind.invoke( component, service );
+                unbind.invoke( component, service );
+                activate.invoke( component, props );
+            }
+            long t1 = System.nanoTime();
+            for ( int i = 0; i < CALLS; i++ )
+            {
+                bindInvoker.invoke( component, service );
+                unbindInvoker.invoke( component, service );
+                activateInvoker.invoke( component, props );
+            }
+            long t2 = System.nanoTime();
+            System.out.println( "reflection: " + opsPerSecond( t1 - t0 ) + " ops/s, invoker: "
+                + opsPerSecond( t2 - t1 ) + " ops/s (" + component.calls + " calls)" );
+        }
+    }
+
+
+    private static long opsPerSecond( long nanos )
+    {
+        return ( long ) ( 3L * CALLS / ( nanos * 1E-9 ) );
+    }
+
+
+    private static Method getMethod( String name, Class<?>... parameterTypes ) throws Exception
+    {
+        Method method = Component.class.getDeclaredMethod( name, parameterTypes );
+        method.setAccessible( true );
+        return method;
+    }
+
+    static class Component
+    {
+
+        private Object service;
+
+        private long calls;
+
+
+        private void bind( Object service )
+        {
+            this.service = service;
+            calls++;
+        }
+
+
+        private void unbind( Object service )
+        {
+            if ( this.service == service )
+            {
+                this.service = null;
+            }
+            calls++;
+        }
+
+
+        protected void activate( Map<String, Object> props )
+        {
+            calls += props.size() + 1;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl.inject;
+
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+
+public class MethodInvokerTest extends TestCase
+{
+
+    public void test_private_void() throws Exception
+    {
+        Component component = new Component();
+        MethodInvoker invoker = MethodInvoker.create( getMethod( "bind", Object.class ) );
+        assertNull( invoker.invoke( component, new Object[] { "service" } ) );
+        assertEquals( "service", component.service );
+    }
+
+
+    public void test_no_arg() throws Exception
+    {
+        Component component = new Component();
+        MethodInvoker invoker = MethodInvoker.create( getMethod( "activate" ) );
+        assertNull( invoker.invoke( component, null ) );
+        assertTrue( component.activated );
+        component.activated = false;
+        assertNull( invoker.invoke( component, new Object[0] ) );
+        assertTrue( component.activated );
+    }
+
+
+    public void test_return_value() throws Exception
+    {
+        Component component = new Component();
+        MethodInvoker invoker = MethodInvoker.create( getMethod( "modified", Map.class ) );
+        Map<String, Object> props = Collections.<String, Object>singletonMap( "a", "b" );
+        assertSame( props, invoker.invoke( component, new Object[] { props } ) );
+    }
+
+
+    public void test_exception() throws Exception
+    {
+        Component component = new Component();
+        MethodInvoker invoker = MethodInvoker.create( getMethod( "deactivate" ) );
+        try
+        {
+            invoker.invoke( component, null );
+            fail( "Expected InvocationTargetException" );
+        }
+        catch ( InvocationTargetException ite )
+        {
+            assertEquals( "deactivate", ite.getCause().getMessage() );
+        }
+    }
+
+
+    public void test_wrong_argument() throws Exception
+    {
+        Component component = new Component();
+        MethodInvoker invoker = MethodInvoker.create( getMethod( "modified", Map.class ) );
+        try
+        {
+            invoker.invoke( component, new Object[] { "not a map" } );
+            fail( "Expected InvocationTargetException" );
+        }
+        catch ( InvocationTargetException ite )
+        {
+            // expected
+        }
+    }
+
+
+    private static Method getMethod( String name, Class<?>... parameterTypes ) throws Exception
+    {
+        Method method = Component.class.getDeclaredMethod( name, parameterTypes );
+        method.setAccessible( true );
+        return method;
+    }
+
+    static class Component
+    {
+
+        Object service;
+
+        boolean activated;
+
+
+        private void bind( Object service )
+        {
+            this.service = service;
+        }
+
+
+        protected void activate()
+        {
+            activated = true;
+        }
+
+
+        Map<String, Object> modified( Map<String, Object> props )
+        {
+            return props;
+        }
+
+
+        void deactivate()
+        {
+            throw new IllegalStateException( "deactivate" );
+        }
+    }
+}
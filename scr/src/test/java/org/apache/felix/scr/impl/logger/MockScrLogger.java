@@ -44,6 +44,18 @@ public class MockScrLogger extends ScrLogger
                 return 0;
             }
 
+            @Override
+            public long bindBatch()
+            {
+                return 0;
+            }
+
+            @Override
+            public boolean lockStatistics()
+            {
+                return false;
+            }
+
             @Override
             public boolean keepInstances()
             {
@@ -84,6 +96,18 @@ public class MockScrLogger extends ScrLogger
             {
                 return false;
             }
+
+            @Override
+            public int actorThreads()
+            {
+                return 1;
+            }
+
+            @Override
+            public int descriptorThreads()
+            {
+                return 0;
+            }
         }, new MockBundleContext(new MockBundle()));
     }
 }
\ No newline at end of file
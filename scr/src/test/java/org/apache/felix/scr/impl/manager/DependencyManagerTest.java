@@ -0,0 +1,322 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.felix.scr.impl.inject.BindParameters;
+import org.apache.felix.scr.impl.inject.InitReferenceMethod;
+import org.apache.felix.scr.impl.inject.MethodResult;
+import org.apache.felix.scr.impl.inject.RefPair;
+import org.apache.felix.scr.impl.inject.ReferenceMethod;
+import org.apache.felix.scr.impl.inject.ReferenceMethods;
+import org.apache.felix.scr.impl.inject.internal.ComponentMethodsImpl;
+import org.apache.felix.scr.impl.logger.ComponentLogger;
+import org.apache.felix.scr.impl.logger.MockBundleLogger;
+import org.apache.felix.scr.impl.metadata.ComponentMetadata;
+import org.apache.felix.scr.impl.metadata.DSVersion;
+import org.apache.felix.scr.impl.metadata.ReferenceMetadata;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceReference;
+
+public class DependencyManagerTest
+{
+
+    private final List<RefPair<?, ?>> bound = Collections.synchronizedList(new ArrayList<RefPair<?, ?>>());
+    private final List<RefPair<?, ?>> unbound = Collections.synchronizedList(new ArrayList<RefPair<?, ?>>());
+    private final List<RefPair<?, ?>> updated = Collections.synchronizedList(new ArrayList<RefPair<?, ?>>());
+    private final List<Runnable> scheduled = Collections.synchronizedList(new ArrayList<Runnable>());
+
+    // bind methods wait for this latch, if set
+    private volatile CountDownLatch bindLatch;
+    private final CountDownLatch bindEntered = new CountDownLatch(1);
+
+    private int trackingCount;
+
+    private SingleComponentManager<Object> componentManager;
+    private DependencyManager<Object, Object> dependencyManager;
+    private ServiceTracker<Object, RefPair<Object, Object>, ExtendedServiceEvent> tracker;
+
+    @Test
+    public void testRemovedWhilePendingIsNeverBound() throws Exception
+    {
+        ServiceTrackerCustomizer<Object, RefPair<Object, Object>, ExtendedServiceEvent> customizer = createCustomizer();
+        RefPair<Object, Object> p1 = add(customizer);
+        RefPair<Object, Object> p2 = add(customizer);
+        assertTrue(bound.isEmpty());
+        assertEquals(1, scheduled.size());
+
+        // modified while pending, bound with its current properties
+        customizer.modifiedService(p2.getRef(), p2, ++trackingCount, null);
+        customizer.removedService(p1.getRef(), p1, ++trackingCount, null);
+        assertTrue(updated.isEmpty());
+        assertTrue(unbound.isEmpty());
+
+        scheduled.remove(0).run();
+        assertEquals(Arrays.asList(p2), bound);
+        assertTrue(unbound.isEmpty());
+
+        // bound services are unbound
+        customizer.removedService(p2.getRef(), p2, ++trackingCount, null);
+        assertEquals(Arrays.asList(p2), unbound);
+    }
+
+    @Test
+    public void testRemovedDuringBatch() throws Exception
+    {
+        final ServiceTrackerCustomizer<Object, RefPair<Object, Object>, ExtendedServiceEvent> customizer = createCustomizer();
+        final RefPair<Object, Object> p1 = add(customizer);
+        final RefPair<Object, Object> p2 = add(customizer);
+        final RefPair<Object, Object> p3 = add(customizer);
+        assertEquals(1, scheduled.size());
+
+        // the batch binds on the component actor, blocking in the bind method of p1
+        bindLatch = new CountDownLatch(1);
+        Thread batch = new Thread(scheduled.remove(0), "batch");
+        batch.start();
+        assertTrue(bindEntered.await(5, TimeUnit.SECONDS));
+
+        // a pending service is removed without waiting for the bind method
+        customizer.removedService(p2.getRef(), p2, ++trackingCount, null);
+        assertTrue(unbound.isEmpty());
+
+        // the service being bound is unbound after the bind method returns
+        final int removedCount = ++trackingCount;
+        Thread remover = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                customizer.removedService(p1.getRef(), p1, removedCount, null);
+            }
+        }, "remover");
+        remover.start();
+        remover.join(100);
+        assertTrue(remover.isAlive());
+        assertTrue(unbound.isEmpty());
+
+        bindLatch.countDown();
+        remover.join(5000);
+        batch.join(5000);
+
+        assertEquals(Arrays.asList(p1, p3), bound);
+        assertEquals(Arrays.asList(p1), unbound);
+    }
+
+    @Test
+    public void testClosedWhilePendingIsNeverUnbound() throws Exception
+    {
+        createCustomizer();
+        @SuppressWarnings("unchecked")
+        ServiceReference<Object> r1 = Mockito.mock(ServiceReference.class);
+        @SuppressWarnings("unchecked")
+        ServiceReference<Object> r2 = Mockito.mock(ServiceReference.class);
+        Mockito.when(r1.compareTo(r2)).thenReturn(-1);
+        Mockito.when(r2.compareTo(r1)).thenReturn(1);
+
+        // the services are tracked, so they are handed to close
+        track(r1);
+        scheduled.remove(0).run();
+        track(r2);
+        RefPair<Object, Object> p1 = tracker.getService(r1);
+        assertEquals(Arrays.asList(p1), bound);
+        assertEquals(1, scheduled.size());
+
+        // the instance is disposed before the batch runs
+        final List<RefPair<?, ?>> closeUnbound = new ArrayList<>();
+        dependencyManager.initBindingMethods(new ReferenceMethods()
+        {
+            @Override
+            public ReferenceMethod getBind()
+            {
+                return ReferenceMethod.NOPReferenceMethod;
+            }
+
+            @Override
+            public ReferenceMethod getUnbind()
+            {
+                return new ReferenceMethod()
+                {
+                    @Override
+                    public <S, T> MethodResult invoke(Object componentInstance, BindParameters parameters,
+                        MethodResult methodCallFailureResult)
+                    {
+                        closeUnbound.add(parameters.getRefPair());
+                        return MethodResult.VOID;
+                    }
+
+                    @Override
+                    public <S, T> boolean getServiceObject(BindParameters parameters, BundleContext context)
+                    {
+                        return true;
+                    }
+                };
+            }
+
+            @Override
+            public ReferenceMethod getUpdated()
+            {
+                return ReferenceMethod.NOPReferenceMethod;
+            }
+
+            @Override
+            public InitReferenceMethod getInit()
+            {
+                return null;
+            }
+        });
+        ComponentContextImpl<Object> componentContext = new ComponentContextImpl<>(componentManager,
+            Mockito.mock(Bundle.class), null);
+        componentContext.setImplementationObject(new Object());
+        EdgeInfo edgeInfo = componentContext.getEdgeInfo(dependencyManager);
+        edgeInfo.setOpen(0);
+        edgeInfo.getOpenLatch().countDown();
+        dependencyManager.close(componentContext, edgeInfo);
+        assertEquals(Arrays.asList(p1), closeUnbound);
+
+        // the batch does not bind the service either
+        scheduled.remove(0).run();
+        assertEquals(Arrays.asList(p1), bound);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void track(ServiceReference<Object> ref)
+    {
+        ((ExtendedServiceListener<ExtendedServiceEvent>) (Object) tracker.tracked()).serviceChanged(
+            new ExtendedServiceEvent(ServiceEvent.REGISTERED, ref));
+    }
+
+    private RefPair<Object, Object> add(
+        ServiceTrackerCustomizer<Object, RefPair<Object, Object>, ExtendedServiceEvent> customizer)
+    {
+        @SuppressWarnings("unchecked")
+        ServiceReference<Object> ref = Mockito.mock(ServiceReference.class);
+        RefPair<Object, Object> refPair = customizer.addingService(ref);
+        customizer.addedService(ref, refPair, ++trackingCount, 0, null);
+        return refPair;
+    }
+
+    @SuppressWarnings("unchecked")
+    private ServiceTrackerCustomizer<Object, RefPair<Object, Object>, ExtendedServiceEvent> createCustomizer()
+        throws Exception
+    {
+        ReferenceMetadata rm = new ReferenceMetadata();
+        rm.setName("services");
+        rm.setInterface("foo.bar.Service");
+        rm.setCardinality("0..n");
+        rm.setPolicy("dynamic");
+        rm.setPolicyOption("greedy");
+        rm.setBind("bind");
+        rm.setUnbind("unbind");
+        rm.setUpdated("updated");
+
+        ComponentMetadata cm = new ComponentMetadata(DSVersion.DS13);
+        cm.setImplementationClassName("foo.bar.SomeClass");
+        cm.addDependency(rm);
+        cm.validate();
+
+        ScrConfiguration configuration = Mockito.mock(ScrConfiguration.class);
+        Mockito.when(configuration.bindBatch()).thenReturn(10L);
+        Mockito.when(configuration.lockTimeout()).thenReturn(5000L);
+        ComponentActivator activator = Mockito.mock(ComponentActivator.class);
+        Mockito.when(activator.getConfiguration()).thenReturn(configuration);
+        Mockito.when(activator.getBundleContext()).thenReturn(Mockito.mock(BundleContext.class));
+
+        ComponentContainer<Object> cc = Mockito.mock(ComponentContainer.class);
+        Mockito.when(cc.getComponentMetadata()).thenReturn(cm);
+        Mockito.when(cc.getActivator()).thenReturn(activator);
+        Mockito.when(cc.getLogger()).thenReturn(new ComponentLogger(cm, new MockBundleLogger()));
+
+        SingleComponentManager<Object> scm = new SingleComponentManager<Object>(cc, new ComponentMethodsImpl())
+        {
+            @Override
+            <T> void invokeBindMethod(DependencyManager<Object, T> dependencyManager, RefPair<Object, T> refPair,
+                int trackingCount)
+            {
+                bound.add(refPair);
+                CountDownLatch latch = bindLatch;
+                if (latch != null)
+                {
+                    bindEntered.countDown();
+                    try
+                    {
+                        latch.await(5, TimeUnit.SECONDS);
+                    }
+                    catch (InterruptedException e)
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                    bindLatch = null;
+                }
+            }
+
+            @Override
+            <T> boolean invokeUpdatedMethod(DependencyManager<Object, T> dependencyManager,
+                RefPair<Object, T> refPair, int trackingCount)
+            {
+                updated.add(refPair);
+                return false;
+            }
+
+            @Override
+            <T> void invokeUnbindMethod(DependencyManager<Object, T> dependencyManager, RefPair<Object, T> oldRefPair,
+                int trackingCount)
+            {
+                unbound.add(oldRefPair);
+            }
+
+            @Override
+            void schedule(Runnable task, long delay)
+            {
+                scheduled.add(task);
+            }
+        };
+
+        componentManager = scm;
+        DependencyManager<Object, Object> dm = (DependencyManager<Object, Object>) scm.getDependencyManagers().get(0);
+        dependencyManager = dm;
+        Field f = DependencyManager.class.getDeclaredField("m_customizer");
+        f.setAccessible(true);
+        ServiceTrackerCustomizer<Object, RefPair<Object, Object>, ExtendedServiceEvent> customizer =
+            (ServiceTrackerCustomizer<Object, RefPair<Object, Object>, ExtendedServiceEvent>) f.get(dm);
+
+        // an open and active tracker, the services are handed to the customizer by the test
+        tracker = new ServiceTracker<>(
+            Mockito.mock(BundleContext.class), customizer, true, activator, "(objectClass=foo.bar.Service)");
+        tracker.open(new AtomicInteger());
+        Field t = DependencyManager.class.getDeclaredField("m_tracker");
+        t.setAccessible(true);
+        t.set(dm, tracker);
+        return customizer;
+    }
+}
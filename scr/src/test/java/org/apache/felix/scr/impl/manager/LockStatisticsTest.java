@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl.manager;
+
+
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+
+public class LockStatisticsTest extends TestCase
+{
+
+    public void test_wait_and_hold() throws Exception
+    {
+        final LockStatistics statistics = new LockStatistics( "state" );
+        final long start = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos( 5 );
+        statistics.acquired( start );
+        Thread.sleep( 10 );
+        statistics.released();
+
+        final LockStatistics snapshot = statistics.snapshot();
+        assertEquals( "state", snapshot.getName() );
+        assertEquals( 1, snapshot.getAcquisitions() );
+        assertEquals( 0, snapshot.getTimeouts() );
+        assertTrue( snapshot.getWaitTime() >= TimeUnit.MILLISECONDS.toNanos( 5 ) );
+        assertEquals( snapshot.getWaitTime(), snapshot.getMaxWaitTime() );
+        assertTrue( snapshot.getHoldTime() >= TimeUnit.MILLISECONDS.toNanos( 10 ) );
+        assertEquals( snapshot.getHoldTime(), snapshot.getMaxHoldTime() );
+    }
+
+
+    public void test_reentrant_hold_counted_once() throws Exception
+    {
+        final LockStatistics statistics = new LockStatistics( "state" );
+        statistics.acquired( System.nanoTime() );
+        statistics.acquired( System.nanoTime() );
+        statistics.released();
+        final long innerHold = statistics.snapshot().getHoldTime();
+        Thread.sleep( 10 );
+        statistics.released();
+
+        final LockStatistics snapshot = statistics.snapshot();
+        assertEquals( 0, innerHold );
+        assertEquals( 2, snapshot.getAcquisitions() );
+        assertTrue( snapshot.getHoldTime() >= TimeUnit.MILLISECONDS.toNanos( 10 ) );
+    }
+
+
+    public void test_timeout_and_unmatched_release()
+    {
+        final LockStatistics statistics = new LockStatistics( "missing" );
+        statistics.timedOut( System.nanoTime() - TimeUnit.MILLISECONDS.toNanos( 5 ) );
+        statistics.released();
+
+        final LockStatistics snapshot = statistics.snapshot();
+        assertEquals( 0, snapshot.getAcquisitions() );
+        assertEquals( 1, snapshot.getTimeouts() );
+        assertTrue( snapshot.getMaxWaitTime() >= TimeUnit.MILLISECONDS.toNanos( 5 ) );
+        assertEquals( 0, snapshot.getHoldTime() );
+    }
+}
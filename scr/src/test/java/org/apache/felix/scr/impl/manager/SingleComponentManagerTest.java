@@ -93,6 +93,20 @@ public class SingleComponentManagerTest
 
         }
 
+        @Override
+        public void schedule(Object key, Runnable runnable)
+        {
+            // the key only orders tasks on the actor pool, this mock has none
+            schedule(runnable);
+        }
+
+        @Override
+        public void schedule(Object key, Runnable runnable, long delay)
+        {
+            // the tests do not wait, so the delay is ignored
+            schedule(key, runnable);
+        }
+
         @Override
         public long registerComponentId(AbstractComponentManager<?> sAbstractComponentManager)
         {
@@ -28,10 +28,12 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NavigableMap;
 import java.util.Objects;
 import java.util.Set;
 import java.util.TreeMap;
@@ -43,6 +45,9 @@ public class CapabilitySet {
 
     private final Map<String, Map<Object, Set<Capability>>> indices;
     private final Set<Capability> capSet = new HashSet<>();
+    // Capabilities of index entries sorted by the version attributes
+    // range queries were made on, built when first needed.
+    private final Map<Set<Capability>, Map<String, VersionIndex>> versionIndices = new IdentityHashMap<>();
 
     public CapabilitySet(List<String> indexProps) {
         indices = new TreeMap<>();
@@ -105,6 +110,9 @@ public class CapabilitySet {
             index.put(capValue, set);
         }
         set.add(cap);
+        synchronized (versionIndices) {
+            versionIndices.remove(set);
+        }
     }
 
     public void removeCapability(Capability cap) {
@@ -139,6 +147,9 @@ public class CapabilitySet {
             if (caps.isEmpty()) {
                 index.remove(value);
             }
+            synchronized (versionIndices) {
+                versionIndices.remove(caps);
+            }
         }
     }
 
@@ -160,9 +171,21 @@ public class CapabilitySet {
             // For AND we calculate the intersection of each subfilter.
             // We can short-circuit the AND operation if there are no
             // remaining capabilities.
+            // Once an indexed attribute narrowed the capabilities down to an
+            // index entry, version ranges are looked up in the entry sorted
+            // by version instead of comparing each capability.
             List<SimpleFilter> sfs = (List<SimpleFilter>) sf.getValue();
+            Set<Capability> entry = null;
             for (int i = 0; (caps.size() > 0) && (i < sfs.size()); i++) {
-                matches = match(caps, sfs.get(i));
+                SimpleFilter sf1 = sfs.get(i);
+                matches = (entry != null) ? matchVersionRange(entry, caps, sf1) : null;
+                if (matches == null) {
+                    matches = match(caps, sf1);
+                }
+                if ((entry == null) && (sf1.getOperation() == SimpleFilter.EQ)
+                        && indices.containsKey(sf1.getName())) {
+                    entry = indices.get(sf1.getName()).get(sf1.getValue());
+                }
                 caps = matches;
             }
         } else if (sf.getOperation() == SimpleFilter.OR) {
@@ -203,6 +226,80 @@ public class CapabilitySet {
         return matches;
     }
 
+    /**
+     * Matches a version comparison, or its negation, against the given
+     * capabilities, which all belong to the given index entry, using the
+     * entry sorted by the compared attribute.
+     *
+     * @return the matching capabilities, or <code>null</code> if the filter
+     *         can not be answered from a sorted index.
+     */
+    @SuppressWarnings("unchecked")
+    private Set<Capability> matchVersionRange(Set<Capability> entry, Set<Capability> caps, SimpleFilter sf) {
+        boolean negate = false;
+        SimpleFilter cmp = sf;
+        if ((cmp.getOperation() == SimpleFilter.NOT) && (((List<SimpleFilter>) cmp.getValue()).size() == 1)) {
+            cmp = ((List<SimpleFilter>) cmp.getValue()).get(0);
+            negate = true;
+        }
+        int op = cmp.getOperation();
+        if (((op != SimpleFilter.GTE) && (op != SimpleFilter.LTE) && (op != SimpleFilter.EQ))
+                || (negate && (op == SimpleFilter.EQ))
+                || !(cmp.getValue() instanceof String)) {
+            return null;
+        }
+        Version version;
+        try {
+            version = VersionTable.getVersion((String) cmp.getValue(), false);
+        } catch (Exception ex) {
+            return null;
+        }
+        VersionIndex index = getVersionIndex(entry, cmp.getName());
+        if (index.versions.isEmpty()) {
+            return null;
+        }
+
+        NavigableMap<Version, Set<Capability>> range;
+        if (op == SimpleFilter.EQ) {
+            range = index.versions.subMap(version, true, version, true);
+        } else if (op == SimpleFilter.GTE) {
+            range = negate ? index.versions.headMap(version, false) : index.versions.tailMap(version, true);
+        } else {
+            range = negate ? index.versions.tailMap(version, false) : index.versions.headMap(version, true);
+        }
+        Set<Capability> matches = new HashSet<>();
+        for (Set<Capability> set : range.values()) {
+            for (Capability cap : set) {
+                if (caps.contains(cap)) {
+                    matches.add(cap);
+                }
+            }
+        }
+        // Capabilities without a single version value are compared as usual.
+        if (!index.others.isEmpty()) {
+            Set<Capability> others = new HashSet<>(index.others);
+            others.retainAll(caps);
+            matches.addAll(match(others, sf));
+        }
+        return matches;
+    }
+
+    private VersionIndex getVersionIndex(Set<Capability> entry, String attribute) {
+        synchronized (versionIndices) {
+            Map<String, VersionIndex> byAttribute = versionIndices.get(entry);
+            if (byAttribute == null) {
+                byAttribute = new HashMap<>();
+                versionIndices.put(entry, byAttribute);
+            }
+            VersionIndex index = byAttribute.get(attribute);
+            if (index == null) {
+                index = new VersionIndex(entry, attribute);
+                byAttribute.put(attribute, index);
+            }
+            return index;
+        }
+    }
+
     public static boolean matches(Capability capability, Requirement requirement) {
         return Objects.equals(capability.getNamespace(), requirement.getNamespace())
                 && matches(capability, RequirementImpl.getFilter(requirement));
@@ -473,4 +570,30 @@ public class CapabilitySet {
         }
         return list;
     }
+
+    /**
+     * The capabilities of an index entry sorted by the value of a version
+     * attribute. Capabilities for which that attribute is missing or is not
+     * a single version are kept apart.
+     */
+    private static class VersionIndex {
+        final NavigableMap<Version, Set<Capability>> versions = new TreeMap<>();
+        final Set<Capability> others = new HashSet<>();
+
+        VersionIndex(Set<Capability> caps, String attribute) {
+            for (Capability cap : caps) {
+                Object value = cap.getAttributes().get(attribute);
+                if (value instanceof Version) {
+                    Set<Capability> set = versions.get(value);
+                    if (set == null) {
+                        set = new HashSet<>();
+                        versions.put((Version) value, set);
+                    }
+                    set.add(cap);
+                } else {
+                    others.add(cap);
+                }
+            }
+        }
+    }
 }
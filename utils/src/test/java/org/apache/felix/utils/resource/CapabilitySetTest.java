@@ -20,11 +20,17 @@ package org.apache.felix.utils.resource;
 
 import junit.framework.TestCase;
 
+import org.osgi.framework.Version;
 import org.osgi.resource.Capability;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class CapabilitySetTest extends TestCase {
     public void testMatchesRequirement() {
@@ -56,4 +62,59 @@ public class CapabilitySetTest extends TestCase {
         Capability c5 = new CapabilityImpl(null, "foo", null, m);
         assertTrue(CapabilitySet.matches(c5, r));
     }
+
+    public void testMatchVersionRange() {
+        CapabilitySet capSet = new CapabilitySet(Collections.singletonList("osgi.wiring.package"));
+        List<Capability> caps = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            Map<String, Object> attrs = new HashMap<>();
+            attrs.put("osgi.wiring.package", (i % 2 == 0) ? "foo" : "bar");
+            attrs.put("version", new Version(i / 10, i % 10, 0));
+            caps.add(new CapabilityImpl(null, "osgi.wiring.package", null, attrs));
+        }
+        // Capabilities whose version is missing, a string or a list are
+        // compared as usual.
+        caps.add(new CapabilityImpl(null, "osgi.wiring.package", null,
+                Collections.<String, Object>singletonMap("osgi.wiring.package", "foo")));
+        Map<String, Object> attrs = new HashMap<>();
+        attrs.put("osgi.wiring.package", "foo");
+        attrs.put("version", "1.5.0");
+        caps.add(new CapabilityImpl(null, "osgi.wiring.package", null, attrs));
+        attrs = new HashMap<>();
+        attrs.put("osgi.wiring.package", "foo");
+        attrs.put("version", Arrays.asList(new Version(0, 1, 0), new Version(2, 5, 0)));
+        caps.add(new CapabilityImpl(null, "osgi.wiring.package", null, attrs));
+        for (Capability cap : caps) {
+            capSet.addCapability(cap);
+        }
+
+        String[] filters = {
+                "(&(osgi.wiring.package=foo)(version>=1.2)(!(version>=2.0)))",
+                "(&(osgi.wiring.package=foo)(version>=1.2.0)(version<=2.4.0))",
+                "(&(osgi.wiring.package=foo)(!(version<=1.2))(!(version>=2.0)))",
+                "(&(osgi.wiring.package=foo)(version=1.4.0))",
+                "(&(osgi.wiring.package=foo)(!(version=1.4.0)))",
+                "(&(osgi.wiring.package=bar)(version>=0.0.0))",
+                "(&(osgi.wiring.package=foo)(version>=invalid))",
+                "(&(osgi.wiring.package=baz)(version>=1.0))"
+        };
+        for (String filter : filters) {
+            SimpleFilter sf = SimpleFilter.parse(filter);
+            Set<Capability> expected = new HashSet<>();
+            for (Capability cap : caps) {
+                if (CapabilitySet.matches(cap, sf)) {
+                    expected.add(cap);
+                }
+            }
+            assertEquals(filter, expected, capSet.match(sf, true));
+        }
+
+        // The sorted index follows changes to the set.
+        SimpleFilter sf = SimpleFilter.parse("(&(osgi.wiring.package=foo)(version>=2.0))");
+        assertEquals(6, capSet.match(sf, true).size());
+        capSet.removeCapability(caps.get(20));
+        assertEquals(5, capSet.match(sf, true).size());
+        capSet.addCapability(caps.get(20));
+        assertEquals(6, capSet.match(sf, true).size());
+    }
 }